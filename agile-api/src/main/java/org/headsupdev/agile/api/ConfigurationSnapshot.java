@@ -0,0 +1,206 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.headsupdev.agile.api;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * An immutable copy of all the configuration items at one point in time.
+ * Every dotted prefix of the item names is indexed when the snapshot is created, so looking up a value, the items
+ * under a prefix or the structure of a configuration tree never needs to search or parse the names.
+ * A new snapshot with a higher version is published each time the configuration changes.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class ConfigurationSnapshot
+    implements Serializable
+{
+    private final long version;
+    private final Map<String, String> values;
+
+    // keyed by prefix, either "" or ending in '.'
+    private final Map<String, Map<String, String>> items = new HashMap<String, Map<String, String>>();
+    private final Map<String, Set<String>> propertyNames = new HashMap<String, Set<String>>();
+    private final Map<String, Set<String>> subTreeIds = new HashMap<String, Set<String>>();
+
+    public ConfigurationSnapshot( long version, Map<String, String> values )
+    {
+        this.version = version;
+        this.values = Collections.unmodifiableMap( new HashMap<String, String>( values ) );
+
+        for ( Map.Entry<String, String> entry : this.values.entrySet() )
+        {
+            index( entry.getKey(), entry.getValue() );
+        }
+
+        for ( Map.Entry<String, Map<String, String>> entry : items.entrySet() )
+        {
+            entry.setValue( Collections.unmodifiableMap( entry.getValue() ) );
+        }
+        for ( Map.Entry<String, Set<String>> entry : propertyNames.entrySet() )
+        {
+            entry.setValue( Collections.unmodifiableSet( entry.getValue() ) );
+        }
+        for ( Map.Entry<String, Set<String>> entry : subTreeIds.entrySet() )
+        {
+            entry.setValue( Collections.unmodifiableSet( entry.getValue() ) );
+        }
+    }
+
+    private void index( String name, String value )
+    {
+        // split the same way as PropertyTree - a leading '.' is part of the name
+        String prefix = "";
+        while ( true )
+        {
+            getOrCreate( items, prefix, new HashMap<String, String>() ).put( name, value );
+
+            String remainder = name.substring( prefix.length() );
+            int dotPos = remainder.indexOf( '.' );
+            if ( dotPos <= 0 )
+            {
+                getOrCreate( propertyNames, prefix, new HashSet<String>() ).add( remainder );
+                return;
+            }
+
+            String treeId = remainder.substring( 0, dotPos );
+            getOrCreate( subTreeIds, prefix, new HashSet<String>() ).add( treeId );
+            prefix = prefix + treeId + '.';
+        }
+    }
+
+    private static <T> T getOrCreate( Map<String, T> map, String key, T empty )
+    {
+        T ret = map.get( key );
+        if ( ret == null )
+        {
+            ret = empty;
+            map.put( key, ret );
+        }
+
+        return ret;
+    }
+
+    /**
+     * @return the version of this snapshot, later snapshots have higher versions
+     */
+    public long getVersion()
+    {
+        return version;
+    }
+
+    public String getValue( String name )
+    {
+        return values.get( name );
+    }
+
+    public boolean hasValue( String name )
+    {
+        return values.containsKey( name );
+    }
+
+    /**
+     * Get all the items whose names start with the prefix passed.
+     * This is a lookup when the prefix is empty or ends with a '.', any other prefix has to check every item.
+     *
+     * @param prefix the start of the names to return
+     * @return an unmodifiable map of full item names to values
+     */
+    public Map<String, String> getItems( String prefix )
+    {
+        if ( prefix.length() == 0 )
+        {
+            return values;
+        }
+
+        if ( prefix.charAt( prefix.length() - 1 ) == '.' )
+        {
+            Map<String, String> ret = items.get( prefix );
+            if ( ret == null )
+            {
+                return Collections.emptyMap();
+            }
+
+            return ret;
+        }
+
+        Map<String, String> ret = new HashMap<String, String>();
+        for ( Map.Entry<String, String> entry : values.entrySet() )
+        {
+            if ( entry.getKey().startsWith( prefix ) )
+            {
+                ret.put( entry.getKey(), entry.getValue() );
+            }
+        }
+        return Collections.unmodifiableMap( ret );
+    }
+
+    /**
+     * @param prefix the tree to look in, either "" or ending with a '.'
+     * @return the names of the properties directly within the tree
+     */
+    public Set<String> getPropertyNames( String prefix )
+    {
+        Set<String> ret = propertyNames.get( prefix );
+        if ( ret == null )
+        {
+            return Collections.emptySet();
+        }
+
+        return ret;
+    }
+
+    /**
+     * @param prefix the tree to look in, either "" or ending with a '.'
+     * @return the ids of the trees directly within the tree
+     */
+    public Set<String> getSubTreeIds( String prefix )
+    {
+        Set<String> ret = subTreeIds.get( prefix );
+        if ( ret == null )
+        {
+            return Collections.emptySet();
+        }
+
+        return ret;
+    }
+
+    /**
+     * Create the next snapshot, this snapshot is not changed.
+     *
+     * @param changed the items that were added or updated
+     * @param removed the names of items that were removed
+     * @return a new snapshot with the changes applied
+     */
+    public ConfigurationSnapshot update( Map<String, String> changed, Collection<String> removed )
+    {
+        Map<String, String> next = new HashMap<String, String>( values );
+        for ( String name : removed )
+        {
+            next.remove( name );
+        }
+        next.putAll( changed );
+
+        return new ConfigurationSnapshot( version + 1, next );
+    }
+}
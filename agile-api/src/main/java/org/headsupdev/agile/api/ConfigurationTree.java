@@ -0,0 +1,180 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.headsupdev.agile.api;
+
+import java.io.PrintWriter;
+import java.util.*;
+
+/**
+ * A property tree that views part of the stored configuration.
+ * Reads are answered from the latest configuration snapshot and writes go straight to storage, which publishes a
+ * new snapshot, so a tree never holds any configuration itself and is never out of date.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class ConfigurationTree
+    extends PropertyTree
+{
+    private transient Storage storage;
+    private String path;
+
+    /**
+     * Create a view of the tree with the given path
+     *
+     * @param storage the storage to load configuration from, or null to use the current storage instance
+     * @param path the path of this tree, "" for the root or the names of the parent trees each followed by a '.'
+     */
+    public ConfigurationTree( Storage storage, String path )
+    {
+        this.storage = storage;
+        this.path = path;
+
+        int dotPos = path.lastIndexOf( '.', path.length() - 2 );
+        if ( path.length() > 0 )
+        {
+            setPrefix( path.substring( dotPos + 1, path.length() - 1 ) );
+        }
+    }
+
+    protected Storage getStorage()
+    {
+        if ( storage == null )
+        {
+            storage = Manager.getStorageInstance();
+        }
+
+        return storage;
+    }
+
+    protected ConfigurationSnapshot getSnapshot()
+    {
+        return getStorage().getConfigurationSnapshot();
+    }
+
+    public String getPath()
+    {
+        return path;
+    }
+
+    @Override
+    public String getProperty( String name )
+    {
+        return getSnapshot().getValue( path + name );
+    }
+
+    @Override
+    public Set<String> getPropertyNames()
+    {
+        return getSnapshot().getPropertyNames( path );
+    }
+
+    @Override
+    public void setProperty( String name, String value )
+    {
+        getStorage().setConfigurationItem( path + name, value );
+    }
+
+    @Override
+    public String removeProperty( String name )
+    {
+        String ret = getProperty( name );
+        getStorage().removeConfigurationItem( path + name );
+
+        return ret;
+    }
+
+    @Override
+    public Set<String> getSubTreeIds()
+    {
+        return getSnapshot().getSubTreeIds( path );
+    }
+
+    @Override
+    public PropertyTree getSubTree( String prefix )
+    {
+        return new ConfigurationTree( storage, path + prefix + '.' );
+    }
+
+    @Override
+    public void addSubTree( String prefix, PropertyTree tree )
+    {
+        Map<String, String> items = new HashMap<String, String>();
+        addItems( items, path + prefix + '.', tree );
+
+        getStorage().setConfigurationItems( items );
+    }
+
+    private static void addItems( Map<String, String> items, String path, PropertyTree tree )
+    {
+        for ( String name : tree.getPropertyNames() )
+        {
+            items.put( path + name, tree.getProperty( name ) );
+        }
+        for ( String subId : tree.getSubTreeIds() )
+        {
+            addItems( items, path + subId + '.', tree.getSubTree( subId ) );
+        }
+    }
+
+    @Override
+    public PropertyTree removeSubTree( String prefix )
+    {
+        String subPath = path + prefix + '.';
+        Map<String, String> items = getSnapshot().getItems( subPath );
+
+        Map<String, String> removed = new HashMap<String, String>();
+        for ( Map.Entry<String, String> item : items.entrySet() )
+        {
+            removed.put( item.getKey().substring( subPath.length() ), item.getValue() );
+        }
+
+        getStorage().removeConfigurationItems( items.keySet() );
+        return new PropertyTree( removed );
+    }
+
+    @Override
+    public void list( PrintWriter writer, String indent )
+    {
+        ConfigurationSnapshot snapshot = getSnapshot();
+        list( writer, indent, snapshot, path );
+
+        writer.flush();
+    }
+
+    private static void list( PrintWriter writer, String indent, ConfigurationSnapshot snapshot, String path )
+    {
+        for ( String treeId : snapshot.getSubTreeIds( path ) )
+        {
+            writer.print( indent );
+            writer.println( treeId );
+            list( writer, indent + "  ", snapshot, path + treeId + '.' );
+        }
+
+        for ( String name : snapshot.getPropertyNames( path ) )
+        {
+            writer.print( indent );
+            writer.print( name );
+            writer.print( " => " );
+            writer.println( snapshot.getValue( path + name ) );
+        }
+    }
+}
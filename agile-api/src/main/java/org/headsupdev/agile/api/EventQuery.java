@@ -0,0 +1,155 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.api;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Date;
+
+/**
+ * A filter for reading a page of the event timeline. Events are returned newest first, ordered by time and then id,
+ * so the next page is requested by passing the time and id of the last event seen to setBefore. This keeps each
+ * page as cheap as the first no matter how far back the timeline is read.
+ * <p/>
+ * Any criteria left unset are not applied, a null project matches events from all projects.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class EventQuery
+    implements Serializable
+{
+    public static final int DEFAULT_LIMIT = 50;
+
+    private Project project;
+    private boolean tree;
+    private String applicationId;
+    private Collection<String> types;
+    private Date since, before;
+    private long beforeId = Long.MAX_VALUE;
+    private int limit = DEFAULT_LIMIT;
+
+    public EventQuery()
+    {
+    }
+
+    public EventQuery( Project project, boolean tree )
+    {
+        this.project = project;
+        this.tree = tree;
+    }
+
+    public Project getProject()
+    {
+        return project;
+    }
+
+    public boolean isTree()
+    {
+        return tree;
+    }
+
+    /**
+     * Only match events for the specified project, and any child projects if tree is set.
+     */
+    public void setProject( Project project, boolean tree )
+    {
+        this.project = project;
+        this.tree = tree;
+    }
+
+    public String getApplicationId()
+    {
+        return applicationId;
+    }
+
+    public void setApplicationId( String applicationId )
+    {
+        this.applicationId = applicationId;
+    }
+
+    public Collection<String> getTypes()
+    {
+        return types;
+    }
+
+    /**
+     * Only match events of the listed types, as returned by Application.getEventTypes(). An empty collection will
+     * match no events.
+     */
+    public void setTypes( Collection<String> types )
+    {
+        this.types = types;
+    }
+
+    public Date getSince()
+    {
+        return since;
+    }
+
+    /**
+     * Only match events at or after the specified time.
+     */
+    public void setSince( Date since )
+    {
+        this.since = since;
+    }
+
+    public Date getBefore()
+    {
+        return before;
+    }
+
+    public long getBeforeId()
+    {
+        return beforeId;
+    }
+
+    /**
+     * Only match events older than the specified time.
+     */
+    public void setBefore( Date before )
+    {
+        setBefore( before, Long.MAX_VALUE );
+    }
+
+    /**
+     * Only match events that come after the specified position in the timeline - those older than the time given
+     * or at the same time with a lower id.
+     */
+    public void setBefore( Date before, long beforeId )
+    {
+        this.before = before;
+        this.beforeId = beforeId;
+    }
+
+    public int getLimit()
+    {
+        return limit;
+    }
+
+    /**
+     * The maximum number of events to return, 0 for no limit.
+     */
+    public void setLimit( int limit )
+    {
+        this.limit = limit;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.api;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * The basic details of an event, read without loading the event itself. Used where many events need to be
+ * counted or listed but their content and links are not required.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class EventSummary
+    implements Serializable
+{
+    private long id;
+    private Date time;
+    private String type, applicationId, projectId, title, username;
+
+    public EventSummary( long id, Date time, String type, String applicationId, String projectId, String title,
+                         String username )
+    {
+        this.id = id;
+        this.time = time;
+        this.type = type;
+        this.applicationId = applicationId;
+        this.projectId = projectId;
+        this.title = title;
+        this.username = username;
+    }
+
+    public long getId()
+    {
+        return id;
+    }
+
+    public Date getTime()
+    {
+        return time;
+    }
+
+    /**
+     * The type of this event, matching one of the values returned by Application.getEventTypes().
+     */
+    public String getType()
+    {
+        return type;
+    }
+
+    public String getApplicationId()
+    {
+        return applicationId;
+    }
+
+    public String getProjectId()
+    {
+        return projectId;
+    }
+
+    public String getTitle()
+    {
+        return title;
+    }
+
+    public String getUsername()
+    {
+        return username;
+    }
+}
@@ -28,14 +28,15 @@ import java.text.SimpleDateFormat;
 import java.text.ParseException;
 
 /**
- * Configuration for the front pages for HeadsUp Agile
+ * Configuration for the front pages for HeadsUp Agile.
+ * This is a view of the stored configuration, see {@link ConfigurationTree}.
  *
  * @author Andrew Williams
  * @version $Id$
  * @since 1.0
  */
 public class HeadsUpConfiguration
-    extends PropertyTree
+    extends ConfigurationTree
 {
     private static final String KEY_BASE_URL = "baseUrl";
     private static final String KEY_DATA_DIR = "dataDir";
@@ -78,9 +79,9 @@ public class HeadsUpConfiguration
         }
     }
 
-    public HeadsUpConfiguration( Map<String, String> properties )
+    public HeadsUpConfiguration( Storage storage )
     {
-        super( properties );
+        super( storage, "" );
     }
 
     public String getProductName()
@@ -94,19 +95,6 @@ public class HeadsUpConfiguration
         return "http://headsupdev.github.com/agile/";
     }
 
-    public void setProperty( String key, String value )
-    {
-        super.setProperty( key, value );
-        Manager.getStorageInstance().setConfigurationItem( key, value );
-    }
-
-    public String removeProperty( String key )
-    {
-        String ret = super.removeProperty( key );
-        Manager.getStorageInstance().removeConfigurationItem(key);
-        return ret;
-    }
-
     public String getBaseUrl()
     {
         return getProperty( KEY_BASE_URL, "http://localhost:8069/" );
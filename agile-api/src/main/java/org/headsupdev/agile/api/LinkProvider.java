@@ -21,6 +21,8 @@ package org.headsupdev.agile.api;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * A base helper for link providers
@@ -32,6 +34,8 @@ import java.net.URLEncoder;
 public abstract class LinkProvider
     implements Serializable
 {
+    private static volatile long targetVersion = 0;
+
     public abstract String getId();
 
     public abstract String getPageName();
@@ -62,4 +66,40 @@ public abstract class LinkProvider
     {
         return false;
     }
+
+    /**
+     * Check a number of links for the same project at once. The default implementation calls isLinkBroken for each
+     * link, providers that look their targets up in the database should override this to use a single query.
+     *
+     * @param params the link parameters to check
+     * @param project the project the links are relative to
+     * @return the subset of params that do not point at anything
+     */
+    public Set<String> getBrokenLinks( Set<String> params, Project project )
+    {
+        Set<String> broken = new HashSet<String>();
+        for ( String param : params )
+        {
+            if ( isLinkBroken( param, project ) )
+            {
+                broken.add( param );
+            }
+        }
+
+        return broken;
+    }
+
+    /**
+     * A counter that changes whenever something that links can point at is added or removed, used to know when
+     * cached link markup is out of date.
+     */
+    public static long getTargetVersion()
+    {
+        return targetVersion;
+    }
+
+    public static synchronized void targetsChanged()
+    {
+        targetVersion++;
+    }
 }
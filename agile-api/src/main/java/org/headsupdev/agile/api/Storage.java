@@ -18,6 +18,7 @@
 
 package org.headsupdev.agile.api;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Date;
 import java.util.Map;
@@ -40,6 +41,8 @@ public interface Storage
     File getWorkingDirectory( Project project );
     void copyWorkingDirectory( Project project, File dest )
         throws IOException;
+    int syncWorkingDirectory( Project project, File dest )
+        throws IOException;
 
     Project getProject( String id);
     List<Project> getProjects();
@@ -59,6 +62,16 @@ public interface Storage
 
     List<Event> getEventsForUser( User user, Date start, Date stop );
 
+    /**
+     * Load a page of events matching the query, newest first.
+     */
+    List<Event> getEvents( EventQuery query );
+
+    /**
+     * Read the summary of each event matching the query, newest first, without loading the events.
+     */
+    List<EventSummary> getEventSummaries( EventQuery query );
+
     void addEvent( Event event );
 
     HeadsUpConfiguration getGlobalConfiguration();
@@ -69,4 +82,14 @@ public interface Storage
 
     Map<String, String> getConfigurationItems( String prefix );
     void setConfigurationItems( Map<String, String> items );
+    void removeConfigurationItems( Collection<String> names );
+
+    /**
+     * Get the configuration as it was when last committed. Once loaded this is kept up to date as changes are
+     * committed so it never reads from the database.
+     */
+    ConfigurationSnapshot getConfigurationSnapshot();
+
+    void addConfigurationListener( ConfigurationListener listener );
+    void removeConfigurationListener( ConfigurationListener listener );
 }
@@ -38,4 +38,12 @@ public interface ScmService
     List<ChangeSet> getChangesSinceRevision( String fromRevision, Project project );
 
     List<ChangeSet> getChangesBetweenRevisions( String fromRevision, String toRevision, Project project );
+
+    /**
+     * Ask for the project to be checked for new changes as soon as possible, typically because the repository
+     * has notified us of a commit.
+     *
+     * @param project The project that has changed
+     */
+    void requestUpdate( Project project );
 }
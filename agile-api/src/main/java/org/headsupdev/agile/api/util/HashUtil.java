@@ -32,6 +32,8 @@ import java.security.NoSuchAlgorithmException;
  */
 public class HashUtil
 {
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
     public static String getMD5Hex( String in )
     {
         MessageDigest messageDigest;
@@ -50,4 +52,32 @@ public class HashUtil
 
         return "";
     }
+
+    /**
+     * Get the SHA-1 hash of some data as a 40 character hex string, suitable for use as a content address.
+     */
+    public static String getSHA1Hex( byte[] in )
+    {
+        try
+        {
+            MessageDigest messageDigest = java.security.MessageDigest.getInstance( "SHA-1" );
+            messageDigest.update( in );
+
+            byte[] digest = messageDigest.digest();
+
+            // this is called for every repository request so avoid String.format
+            char[] hex = new char[digest.length * 2];
+            for ( int i = 0; i < digest.length; i++ )
+            {
+                hex[i * 2] = HEX_DIGITS[( digest[i] >> 4 ) & 0xf];
+                hex[i * 2 + 1] = HEX_DIGITS[digest[i] & 0xf];
+            }
+            return new String( hex );
+        }
+        catch ( NoSuchAlgorithmException e )
+        {
+            // not going to happen, SHA-1 always present
+            throw new RuntimeException( e );
+        }
+    }
 }
@@ -37,6 +37,23 @@ public class MailUtil
 {
     public static void sendEmail( String to, String from, String subject, String body, String host,
                                   String username, String password, boolean secure )
+    {
+        try
+        {
+            deliverEmail( to, from, subject, body, host, username, password, secure );
+        }
+        catch ( MessagingException e )
+        {
+            Manager.getLogger( MailUtil.class.getName() ).error( "Error sending email", e );
+        }
+    }
+
+    /**
+     * Send an email, passing any delivery problem back to the caller so that it can decide whether to try again.
+     */
+    public static void deliverEmail( String to, String from, String subject, String body, String host,
+                                     String username, String password, boolean secure )
+        throws MessagingException
     {
         Properties mailProps = new Properties();
         mailProps.setProperty( "mail.transport.protocol", "smtp" );
@@ -74,22 +91,14 @@ public class MailUtil
         Session session = Session.getDefaultInstance( mailProps, mailAuth );
         Message message = new MimeMessage( session );
 
-        try {
-
-            message.setFrom( new InternetAddress( from ) );
-            message.setSubject( subject );
+        message.setFrom( new InternetAddress( from ) );
+        message.setSubject( subject );
 
-            // some more headers to reduce spam probability
-            message.setHeader( "To", to );
-
-            message.setContent( body, "text/html" );
-            Transport.send(message, new InternetAddress[]{new InternetAddress(to)});
-        }
-        catch ( MessagingException e )
-        {
-            Manager.getLogger( MailUtil.class.getName() ).error( "Error sending email", e );
-        }
+        // some more headers to reduce spam probability
+        message.setHeader( "To", to );
 
+        message.setContent( body, "text/html" );
+        Transport.send(message, new InternetAddress[]{new InternetAddress(to)});
     }
 }
 
@@ -0,0 +1,149 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.headsupdev.agile.api;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * Tests for the lookups that ConfigurationSnapshot indexes when it is created.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class ConfigurationSnapshotTest
+    extends TestCase
+{
+    private ConfigurationSnapshot snapshot;
+
+    protected void setUp()
+        throws Exception
+    {
+        Map<String, String> values = new HashMap<String, String>();
+        values.put( "test", "value" );
+        values.put( "mynode.test", "leafValue" );
+        values.put( "mynode.test2", "leafValue2" );
+        values.put( "mynode.deep.child", "deepValue" );
+        values.put( "mynodeother.test", "otherValue" );
+        values.put( ".hidden", "hiddenValue" );
+
+        snapshot = new ConfigurationSnapshot( 1, values );
+    }
+
+    public void testGetValue()
+    {
+        assertEquals( 1, snapshot.getVersion() );
+        assertEquals( "value", snapshot.getValue( "test" ) );
+        assertEquals( "deepValue", snapshot.getValue( "mynode.deep.child" ) );
+        assertNull( snapshot.getValue( "missing" ) );
+
+        assertTrue( snapshot.hasValue( "mynode.test" ) );
+        assertFalse( snapshot.hasValue( "mynode" ) );
+    }
+
+    public void testGetItemsForTree()
+    {
+        Map<String, String> items = snapshot.getItems( "mynode." );
+        assertEquals( 3, items.size() );
+        assertEquals( "leafValue", items.get( "mynode.test" ) );
+        assertEquals( "leafValue2", items.get( "mynode.test2" ) );
+        assertEquals( "deepValue", items.get( "mynode.deep.child" ) );
+
+        assertEquals( 1, snapshot.getItems( "mynode.deep." ).size() );
+        assertEquals( 6, snapshot.getItems( "" ).size() );
+        assertTrue( snapshot.getItems( "missing." ).isEmpty() );
+    }
+
+    public void testGetItemsForPartialName()
+    {
+        // not a tree so this matches the sibling tree too
+        Map<String, String> items = snapshot.getItems( "mynode" );
+        assertEquals( 4, items.size() );
+        assertEquals( "otherValue", items.get( "mynodeother.test" ) );
+
+        items = snapshot.getItems( "mynode.te" );
+        assertEquals( 2, items.size() );
+        assertFalse( items.containsKey( "mynode.deep.child" ) );
+    }
+
+    public void testGetPropertyNames()
+    {
+        assertEquals( new HashSet<String>( Arrays.asList( "test", ".hidden" ) ), snapshot.getPropertyNames( "" ) );
+        assertEquals( new HashSet<String>( Arrays.asList( "test", "test2" ) ), snapshot.getPropertyNames( "mynode." ) );
+        assertEquals( Collections.singleton( "child" ), snapshot.getPropertyNames( "mynode.deep." ) );
+        assertTrue( snapshot.getPropertyNames( "missing." ).isEmpty() );
+    }
+
+    public void testGetSubTreeIds()
+    {
+        assertEquals( new HashSet<String>( Arrays.asList( "mynode", "mynodeother" ) ), snapshot.getSubTreeIds( "" ) );
+        assertEquals( Collections.singleton( "deep" ), snapshot.getSubTreeIds( "mynode." ) );
+        assertTrue( snapshot.getSubTreeIds( "mynode.deep." ).isEmpty() );
+    }
+
+    public void testUnmodifiable()
+    {
+        try
+        {
+            snapshot.getItems( "mynode." ).put( "mynode.added", "value" );
+            fail( "Snapshot items should not be modifiable" );
+        }
+        catch ( UnsupportedOperationException e )
+        {
+            // expected
+        }
+
+        try
+        {
+            snapshot.getPropertyNames( "" ).add( "added" );
+            fail( "Snapshot property names should not be modifiable" );
+        }
+        catch ( UnsupportedOperationException e )
+        {
+            // expected
+        }
+    }
+
+    public void testUpdate()
+    {
+        Map<String, String> changed = new HashMap<String, String>();
+        changed.put( "mynode.test", "newValue" );
+        changed.put( "added.child", "addedValue" );
+
+        ConfigurationSnapshot next = snapshot.update( changed, Arrays.asList( "mynode.deep.child" ) );
+        assertEquals( 2, next.getVersion() );
+        assertEquals( "newValue", next.getValue( "mynode.test" ) );
+        assertEquals( "addedValue", next.getItems( "added." ).get( "added.child" ) );
+        assertFalse( next.hasValue( "mynode.deep.child" ) );
+        assertFalse( next.getSubTreeIds( "mynode." ).contains( "deep" ) );
+        assertTrue( next.getSubTreeIds( "" ).contains( "added" ) );
+
+        // the original is not changed
+        assertEquals( "leafValue", snapshot.getValue( "mynode.test" ) );
+        assertEquals( "deepValue", snapshot.getValue( "mynode.deep.child" ) );
+        assertFalse( snapshot.hasValue( "added.child" ) );
+    }
+}
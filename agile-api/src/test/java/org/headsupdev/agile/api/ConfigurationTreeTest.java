@@ -0,0 +1,318 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.headsupdev.agile.api;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests that a ConfigurationTree reads from the latest snapshot and writes through to storage.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class ConfigurationTreeTest
+    extends TestCase
+{
+    private SnapshotStorage storage;
+    private ConfigurationTree root;
+
+    protected void setUp()
+        throws Exception
+    {
+        Map<String, String> values = new HashMap<String, String>();
+        values.put( "test", "value" );
+        values.put( "mynode.test", "leafValue" );
+        values.put( "mynode.deep.child", "deepValue" );
+
+        storage = new SnapshotStorage( values );
+        root = new ConfigurationTree( storage, "" );
+    }
+
+    public void testRead()
+    {
+        assertEquals( "value", root.getProperty( "test" ) );
+        assertEquals( "leafValue", root.getProperty( "mynode.test" ) );
+        assertEquals( Collections.singleton( "test" ), root.getPropertyNames() );
+        assertEquals( Collections.singleton( "mynode" ), root.getSubTreeIds() );
+    }
+
+    public void testSubTreeView()
+    {
+        PropertyTree sub = root.getSubTree( "mynode" );
+        assertEquals( "mynode", sub.getPrefix() );
+        assertEquals( "leafValue", sub.getProperty( "test" ) );
+        assertEquals( Collections.singleton( "test" ), sub.getPropertyNames() );
+        assertEquals( Collections.singleton( "deep" ), sub.getSubTreeIds() );
+
+        PropertyTree deep = sub.getSubTree( "deep" );
+        assertEquals( "deep", deep.getPrefix() );
+        assertEquals( "mynode.deep.", ( (ConfigurationTree) deep ).getPath() );
+        assertEquals( "deepValue", deep.getProperty( "child" ) );
+    }
+
+    public void testMissingSubTree()
+    {
+        PropertyTree missing = root.getSubTree( "missing" ).getSubTree( "tree" );
+        assertNull( missing.getProperty( "child" ) );
+        assertTrue( missing.getPropertyNames().isEmpty() );
+        assertTrue( missing.getSubTreeIds().isEmpty() );
+    }
+
+    public void testSetWritesThrough()
+    {
+        long version = storage.getConfigurationSnapshot().getVersion();
+        root.setProperty( "test", "newValue" );
+
+        assertEquals( "newValue", storage.getConfigurationItem( "test" ) );
+        assertTrue( storage.getConfigurationSnapshot().getVersion() > version );
+        assertEquals( "newValue", root.getProperty( "test" ) );
+    }
+
+    public void testSubTreeSetWritesThrough()
+    {
+        PropertyTree sub = root.getSubTree( "mynode" ).getSubTree( "deep" );
+        sub.setProperty( "child", "newValue" );
+        sub.setProperty( "added", "addedValue" );
+
+        assertEquals( "newValue", storage.getConfigurationItem( "mynode.deep.child" ) );
+        assertEquals( "addedValue", storage.getConfigurationItem( "mynode.deep.added" ) );
+
+        // a view created before the change sees it, as does a new one
+        assertEquals( "newValue", sub.getProperty( "child" ) );
+        assertEquals( "addedValue", root.getProperty( "mynode.deep.added" ) );
+        assertEquals( new HashSet<String>( Arrays.asList( "child", "added" ) ),
+                root.getSubTree( "mynode" ).getSubTree( "deep" ).getPropertyNames() );
+    }
+
+    public void testSetOnMissingSubTree()
+    {
+        PropertyTree missing = root.getSubTree( "missing" );
+        missing.setProperty( "key", "value" );
+
+        assertEquals( "value", storage.getConfigurationItem( "missing.key" ) );
+        assertEquals( "value", missing.getProperty( "key" ) );
+        assertTrue( root.getSubTreeIds().contains( "missing" ) );
+    }
+
+    public void testRemoveProperty()
+    {
+        PropertyTree sub = root.getSubTree( "mynode" );
+        assertEquals( "leafValue", sub.removeProperty( "test" ) );
+
+        assertNull( storage.getConfigurationItem( "mynode.test" ) );
+        assertNull( sub.getProperty( "test" ) );
+        assertEquals( "deepValue", sub.getSubTree( "deep" ).getProperty( "child" ) );
+    }
+
+    public void testAddSubTree()
+    {
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put( "def", "123" );
+        properties.put( "ghi.jkl", "456" );
+
+        root.getSubTree( "mynode" ).addSubTree( "abc", new PropertyTree( properties ) );
+        assertEquals( "123", storage.getConfigurationItem( "mynode.abc.def" ) );
+        assertEquals( "456", storage.getConfigurationItem( "mynode.abc.ghi.jkl" ) );
+        assertEquals( "456", root.getSubTree( "mynode" ).getSubTree( "abc" ).getSubTree( "ghi" ).getProperty( "jkl" ) );
+    }
+
+    public void testRemoveSubTree()
+    {
+        PropertyTree removed = root.removeSubTree( "mynode" );
+        assertEquals( "leafValue", removed.getProperty( "test" ) );
+        assertEquals( "deepValue", removed.getSubTree( "deep" ).getProperty( "child" ) );
+
+        assertNull( storage.getConfigurationItem( "mynode.test" ) );
+        assertNull( storage.getConfigurationItem( "mynode.deep.child" ) );
+        assertEquals( "value", storage.getConfigurationItem( "test" ) );
+        assertTrue( root.getSubTreeIds().isEmpty() );
+    }
+
+    /**
+     * A storage that only holds configuration, publishing a new snapshot for every change like the real storage
+     * does once a change is committed.
+     */
+    static class SnapshotStorage
+        implements Storage
+    {
+        private ConfigurationSnapshot snapshot;
+
+        SnapshotStorage( Map<String, String> values )
+        {
+            snapshot = new ConfigurationSnapshot( 0, values );
+        }
+
+        public String getConfigurationItem( String name )
+        {
+            return snapshot.getValue( name );
+        }
+
+        public void setConfigurationItem( String name, String value )
+        {
+            setConfigurationItems( Collections.singletonMap( name, value ) );
+        }
+
+        public void removeConfigurationItem( String name )
+        {
+            removeConfigurationItems( Collections.singleton( name ) );
+        }
+
+        public Map<String, String> getConfigurationItems( String prefix )
+        {
+            return snapshot.getItems( prefix );
+        }
+
+        public void setConfigurationItems( Map<String, String> items )
+        {
+            snapshot = snapshot.update( items, Collections.<String>emptySet() );
+        }
+
+        public void removeConfigurationItems( Collection<String> names )
+        {
+            snapshot = snapshot.update( Collections.<String, String>emptyMap(), names );
+        }
+
+        public ConfigurationSnapshot getConfigurationSnapshot()
+        {
+            return snapshot;
+        }
+
+        public void addConfigurationListener( ConfigurationListener listener )
+        {
+        }
+
+        public void removeConfigurationListener( ConfigurationListener listener )
+        {
+        }
+
+        public File getDataDirectory()
+        {
+            return null;
+        }
+
+        public File getApplicationDataDirectory( Application application )
+        {
+            return null;
+        }
+
+        public File getWorkingDirectory( Project project )
+        {
+            return null;
+        }
+
+        public void copyWorkingDirectory( Project project, File dest )
+        {
+        }
+
+        public int syncWorkingDirectory( Project project, File dest )
+        {
+            return 0;
+        }
+
+        public Project getProject( String id )
+        {
+            return null;
+        }
+
+        public List<Project> getProjects()
+        {
+            return null;
+        }
+
+        public List<Project> getRootProjects()
+        {
+            return null;
+        }
+
+        public List<Project> getRootProjects( boolean withDisabled )
+        {
+            return null;
+        }
+
+        public void addProject( Project project )
+        {
+        }
+
+        public List<Event> getEvents( Date start, Date stop )
+        {
+            return null;
+        }
+
+        public List<Event> getEvents( Application app, Date start, Date stop )
+        {
+            return null;
+        }
+
+        public List<Event> getEventsForProject( Project project, Date start, Date stop )
+        {
+            return null;
+        }
+
+        public List<Event> getEventsForProject( Project project, Application app, Date start, Date stop )
+        {
+            return null;
+        }
+
+        public List<Event> getEventsForProjectTree( Project project, Date start, Date stop )
+        {
+            return null;
+        }
+
+        public List<Event> getEventsForProjectTree( Project project, Application app, Date start, Date stop )
+        {
+            return null;
+        }
+
+        public List<Event> getEventsForUser( User user, Date start, Date stop )
+        {
+            return null;
+        }
+
+        public List<Event> getEvents( EventQuery query )
+        {
+            return null;
+        }
+
+        public List<EventSummary> getEventSummaries( EventQuery query )
+        {
+            return null;
+        }
+
+        public void addEvent( Event event )
+        {
+        }
+
+        public HeadsUpConfiguration getGlobalConfiguration()
+        {
+            return null;
+        }
+    }
+}
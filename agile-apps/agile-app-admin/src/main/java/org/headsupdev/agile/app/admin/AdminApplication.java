@@ -143,6 +143,7 @@ public class AdminApplication
     {
         Manager.getStorageInstance().addProject( project );
         addProjectPermission( project );
+        ( (DefaultSecurityManager) Manager.getSecurityInstance() ).invalidatePermissionCache();
 
         HeadsUpRequestCodingStrategy.addProject( project );
     }
@@ -27,6 +27,7 @@ import org.apache.wicket.markup.html.panel.Panel;
 import org.apache.wicket.model.Model;
 import org.apache.wicket.model.PropertyModel;
 import org.headsupdev.agile.api.*;
+import org.headsupdev.agile.security.DefaultSecurityManager;
 import org.headsupdev.agile.security.permission.AdminPermission;
 import org.headsupdev.agile.storage.*;
 import org.headsupdev.agile.web.HeadsUpPage;
@@ -140,6 +141,7 @@ public class Membership
             StoredProject.setDefaultProjectMembers( defaultProjectMembers );
             StoredProject.getDefault().getUsers().clear();
             StoredProject.getDefault().getUsers().addAll( defaultProjectMembers );
+            ( (DefaultSecurityManager) Manager.getSecurityInstance() ).invalidatePermissionCache();
         }
 
         private void submitProject( Project project, User user, Set<User> defaultProjectMembers )
@@ -216,6 +216,7 @@ public class Permissions
             }
 
             tx.commit();
+            ( (DefaultSecurityManager) getSecurityManager() ).invalidatePermissionCache();
         }
     }
 
@@ -276,6 +277,7 @@ public class Permissions
             {
                 session.update( role );
             }
+            ( (DefaultSecurityManager) getSecurityManager() ).invalidatePermissionCache();
         }
 
         private void convertToMap( Map<Permission,List<Role>> map )
@@ -20,7 +20,10 @@ package org.headsupdev.agile.app.admin;
 
 import org.headsupdev.agile.api.HeadsUpConfiguration;
 import org.headsupdev.agile.api.Permission;
+import org.headsupdev.agile.storage.CacheStatistics;
+import org.headsupdev.agile.storage.SearchStatistics;
 import org.headsupdev.agile.storage.HibernateUtil;
+import org.headsupdev.agile.web.components.StripedListView;
 import org.headsupdev.agile.web.components.FormattedDurationModel;
 import org.headsupdev.agile.web.components.FormattedSizeModel;
 import org.headsupdev.agile.web.HeadsUpPage;
@@ -29,6 +32,8 @@ import org.headsupdev.agile.security.permission.AdminPermission;
 import org.apache.wicket.markup.html.CSSPackageResource;
 import org.apache.wicket.markup.html.basic.Label;
 import org.apache.wicket.markup.html.WebMarkupContainer;
+import org.apache.wicket.markup.html.link.Link;
+import org.apache.wicket.markup.html.list.ListItem;
 import org.hibernate.Session;
 
 import java.io.PrintWriter;
@@ -36,6 +41,8 @@ import java.io.StringWriter;
 import java.lang.management.ManagementFactory;
 import java.lang.management.OperatingSystemMXBean;
 import java.lang.management.RuntimeMXBean;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -120,6 +127,64 @@ public class Statistics
         add( new Label( "idle", String.valueOf( HibernateUtil.getStatistics().getIdleConnections() ) ) );
         add( new Label( "maxIdle", String.valueOf( HibernateUtil.getStatistics().getMaximumIdleConnections() ) ) );
 
+        // second level cache stats
+        add( new StripedListView<CacheStatistics>( "regions", HibernateUtil.getCacheStatistics() )
+        {
+            @Override
+            protected void populateItem( ListItem<CacheStatistics> listItem )
+            {
+                super.populateItem( listItem );
+                CacheStatistics region = listItem.getModelObject();
+
+                listItem.add( new Label( "region", region.getRegionName() ) );
+                String size = String.valueOf( region.getSize() );
+                if ( region.getMaximumSize() > 0 )
+                {
+                    size += " / " + region.getMaximumSize();
+                }
+                listItem.add( new Label( "size", size ) );
+                listItem.add( new Label( "hits", String.valueOf( region.getHits() ) ) );
+                listItem.add( new Label( "misses", String.valueOf( region.getMisses() ) ) );
+                int ratio = region.getHitRatio();
+                listItem.add( new Label( "ratio", ratio < 0 ? "-" : ratio + "%" ) );
+                listItem.add( new Label( "evictions", String.valueOf( region.getEvictions() ) ) );
+            }
+        } );
+        add( new Link( "clearcache" )
+        {
+            @Override
+            public void onClick()
+            {
+                HibernateUtil.clearCache();
+            }
+        } );
+
+        // search latency
+        add( new Label( "searches", String.valueOf( SearchStatistics.getSearches() ) ) );
+        long mean = SearchStatistics.getMeanTime();
+        add( new Label( "searchmean", mean < 0 ? "-" : mean + "ms" ) );
+        add( new Label( "searchmax", SearchStatistics.getMaximumTime() + "ms" ) );
+        List<Integer> buckets = new ArrayList<Integer>();
+        for ( int i = 0; i < SearchStatistics.getBucketCount(); i++ )
+        {
+            buckets.add( i );
+        }
+        add( new StripedListView<Integer>( "searchtimes", buckets )
+        {
+            @Override
+            protected void populateItem( ListItem<Integer> listItem )
+            {
+                super.populateItem( listItem );
+                int bucket = listItem.getModelObject();
+
+                listItem.add( new Label( "searchtime", SearchStatistics.getBucketLabel( bucket ) ) );
+                long count = SearchStatistics.getBucketSearches( bucket );
+                listItem.add( new Label( "searchcount", String.valueOf( count ) ) );
+                long total = SearchStatistics.getSearches();
+                listItem.add( new Label( "searchpercent", total == 0 ? "-" : ( count * 100 / total ) + "%" ) );
+            }
+        } );
+
         add( new Label( "sessions", getSessionStacks() ).setEscapeModelStrings( false ).setVisible(
                 HeadsUpConfiguration.isDebug()
         ) );
@@ -84,6 +84,8 @@ public class ProjectConfiguration
                 project.getConfiguration(), null, project, false, 3 ) );
         projectConfig.add( new ConfigurationItemPanel( "timeweekend", StoredProject.CONFIGURATION_TIMETRACKING_IGNOREWEEKEND,
                 project.getConfiguration(), null, project, false, 4 ) );
+        projectConfig.add( new ConfigurationItemPanel( "indexdiffs", StoredProject.CONFIGURATION_INDEX_DIFFS,
+                project.getConfiguration(), null, project, false, 1 ) );
 
         add( projectConfig );
     }
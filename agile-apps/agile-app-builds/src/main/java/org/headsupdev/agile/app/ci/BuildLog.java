@@ -0,0 +1,286 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.headsupdev.agile.app.ci;
+
+import org.headsupdev.agile.api.Manager;
+import org.headsupdev.agile.api.Project;
+import org.headsupdev.agile.app.ci.permission.BuildViewPermission;
+import org.headsupdev.agile.storage.ci.Build;
+import org.headsupdev.agile.web.MountPoint;
+import org.headsupdev.agile.web.WebUtil;
+import org.apache.wicket.RequestCycle;
+import org.apache.wicket.markup.html.WebResource;
+import org.apache.wicket.protocol.http.WebRequest;
+import org.apache.wicket.protocol.http.WebResponse;
+import org.apache.wicket.util.resource.AbstractResourceStream;
+import org.apache.wicket.util.resource.IResourceStream;
+import org.apache.wicket.util.resource.ResourceStreamNotFoundException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Serve the output of a build from a given byte offset so that a running build can be followed.
+ * The offset is passed as a parameter ("offset") or a "Range: bytes=n-" header and the response carries the
+ * offset to ask for next in X-Log-Offset and whether the build is still running in X-Build-Running.
+ * The log is read directly from the file channel so even very large logs are never loaded into memory.
+ *
+ * @author Andrew Williams
+ * @since 2.0
+ */
+@MountPoint( "log" )
+public class BuildLog
+    extends WebResource
+{
+    private static final ThreadLocal<LogRegion> region = new ThreadLocal<LogRegion>();
+
+    public BuildLog()
+    {
+        setCacheable( false );
+    }
+
+    @Override
+    protected void setHeaders( WebResponse response )
+    {
+        super.setHeaders( response );
+
+        // clear the region first so a refused request does not leave it on this thread
+        LogRegion current = region.get();
+        region.remove();
+
+        WebUtil.authenticate( (WebRequest) RequestCycle.get().getRequest(), response, new BuildViewPermission(),
+                getProject() );
+
+        if ( current == null )
+        {
+            return;
+        }
+
+        response.setHeader( "X-Log-Offset", String.valueOf( current.offset + current.length ) );
+        response.setHeader( "X-Build-Running", String.valueOf( current.running ) );
+        if ( current.ranged )
+        {
+            response.getHttpServletResponse().setStatus( 206 );
+            if ( current.length > 0 )
+            {
+                response.setHeader( "Content-Range", "bytes " + current.offset + "-" +
+                        ( current.offset + current.length - 1 ) + "/*" );
+            }
+        }
+    }
+
+    @Override
+    public IResourceStream getResourceStream()
+    {
+        Project project = getProject();
+        long id = getParameters().getLong( "id", -1 );
+        Build build = null;
+        if ( project != null && id >= 0 )
+        {
+            build = CIApplication.getBuild( id, project );
+        }
+
+        LogRegion current = new LogRegion();
+        if ( build == null )
+        {
+            region.set( current );
+            return new LogStream( null, current );
+        }
+
+        // check the state before we measure the file so a finished build never reports a short log
+        current.running = build.getEndTime() == null && build.getStatus() == Build.BUILD_RUNNING;
+        File log = new File( CIApplication.getProjectDir( project ), id + ".txt" );
+
+        current.offset = getRequestedOffset( current );
+        long size = log.length();
+        if ( current.offset > size )
+        {
+            current.offset = size;
+        }
+        current.length = size - current.offset;
+
+        region.set( current );
+        return new LogStream( log, current );
+    }
+
+    protected Project getProject()
+    {
+        String projectId = getParameters().getString( "project" );
+        if ( projectId == null || projectId.length() == 0 )
+        {
+            return null;
+        }
+
+        return Manager.getStorageInstance().getProject( projectId );
+    }
+
+    private long getRequestedOffset( LogRegion current )
+    {
+        String range = ( (WebRequest) RequestCycle.get().getRequest() ).getHttpServletRequest().getHeader( "Range" );
+        if ( range != null && range.startsWith( "bytes=" ) && range.endsWith( "-" ) )
+        {
+            try
+            {
+                long offset = Long.parseLong( range.substring( 6, range.length() - 1 ).trim() );
+                current.ranged = true;
+                return Math.max( 0, offset );
+            }
+            catch ( NumberFormatException e )
+            {
+                // fall back to the parameter
+            }
+        }
+
+        return Math.max( 0, getParameters().getLong( "offset", 0 ) );
+    }
+
+    static class LogRegion
+    {
+        long offset, length;
+        boolean running, ranged;
+    }
+
+    static class LogStream
+        extends AbstractResourceStream
+    {
+        private File log;
+        private LogRegion region;
+        private FileChannel channel;
+
+        LogStream( File log, LogRegion region )
+        {
+            this.log = log;
+            this.region = region;
+        }
+
+        @Override
+        public String getContentType()
+        {
+            return "text/plain; charset=" + Charset.defaultCharset().name();
+        }
+
+        @Override
+        public long length()
+        {
+            return region.length;
+        }
+
+        public InputStream getInputStream()
+            throws ResourceStreamNotFoundException
+        {
+            if ( log == null || region.length == 0 )
+            {
+                return new RegionInputStream( null, 0, 0 );
+            }
+
+            try
+            {
+                channel = new FileInputStream( log ).getChannel();
+            }
+            catch ( IOException e )
+            {
+                throw new ResourceStreamNotFoundException( e );
+            }
+            return new RegionInputStream( channel, region.offset, region.offset + region.length );
+        }
+
+        public void close()
+            throws IOException
+        {
+            if ( channel != null )
+            {
+                channel.close();
+                channel = null;
+            }
+        }
+    }
+
+    /**
+     * Reads a fixed region of a file channel using positional reads, so the channel is shared safely with
+     * a build that is still appending to the file.
+     */
+    static class RegionInputStream
+        extends InputStream
+    {
+        private FileChannel channel;
+        private long position, end;
+
+        RegionInputStream( FileChannel channel, long start, long end )
+        {
+            this.channel = channel;
+            this.position = start;
+            this.end = end;
+        }
+
+        @Override
+        public int read()
+            throws IOException
+        {
+            byte[] single = new byte[1];
+            if ( read( single, 0, 1 ) < 1 )
+            {
+                return -1;
+            }
+
+            return single[0] & 0xff;
+        }
+
+        @Override
+        public int read( byte[] bytes, int off, int len )
+            throws IOException
+        {
+            if ( channel == null || position >= end )
+            {
+                return -1;
+            }
+
+            ByteBuffer buffer = ByteBuffer.wrap( bytes, off, (int) Math.min( len, end - position ) );
+            int read = channel.read( buffer, position );
+            if ( read < 0 )
+            {
+                return -1;
+            }
+
+            position += read;
+            return read;
+        }
+
+        @Override
+        public int available()
+        {
+            return (int) Math.min( Integer.MAX_VALUE, end - position );
+        }
+
+        @Override
+        public void close()
+            throws IOException
+        {
+            if ( channel != null )
+            {
+                channel.close();
+            }
+        }
+    }
+}
@@ -61,6 +61,8 @@ public class BuildPanel
         add( new Label( "start", new FormattedDateModel( build.getStartTime(),
                 ( (HeadsUpSession) getSession() ).getTimeZone() ) ) );
         add( new Label( "duration", new FormattedDurationModel( build.getStartTime(), build.getEndTime() ) ) );
+        add( new Label( "workspace", new FormattedDurationModel( build.getWorkspaceTime() ) ) );
+        add( new Label( "saving", new FormattedDurationModel( build.getWorkspaceSaving() ) ) );
 
         PageParameters params = new PageParameters();
         params.add( "project", build.getProject().getId() );
@@ -0,0 +1,43 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.app.ci;
+
+import org.headsupdev.agile.api.AbstractTask;
+
+/**
+ * A task object representing the build queue, it's description shows how busy the builders are.
+ *
+ * @author Andrew Williams
+ * @since 2.0
+ */
+public class BuildQueueTask extends AbstractTask
+{
+    public BuildQueueTask()
+    {
+        super( "Processing build queue", "Running queued project builds" );
+    }
+
+    @Override
+    public String getDescription()
+    {
+        return super.getDescription() + " (" + CIBuilder.getRunningBuildCount() + " of " +
+                CIApplication.getBuilder().getBuildSlots() + " build slots in use, " + CIBuilder.getQueueLength() +
+                " queued)";
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.headsupdev.agile.app.ci;
+
+import org.headsupdev.agile.api.Manager;
+import org.headsupdev.agile.api.Project;
+import org.headsupdev.agile.api.Storage;
+import org.headsupdev.agile.api.logging.Logger;
+import org.headsupdev.support.java.FileUtil;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+
+/**
+ * The directory a project is built in. By default this is a persistent per-project copy of the working directory
+ * that is brought up to date before each build, so only files changed since the last build need copying.
+ * Alternatively the working directory can be cloned (using copy-on-write where the filesystem supports it)
+ * or copied in full into a temporary directory for each build.
+ *
+ * @author Andrew Williams
+ * @since 2.0
+ */
+public class BuildWorkspace
+{
+    public static final String MODE_INCREMENTAL = "incremental";
+    public static final String MODE_CLONE = "clone";
+    public static final String MODE_COPY = "copy";
+
+    private static final String STATE_FILE = "workspace.properties";
+    private static final String STATE_COPY_TIME = "copy.time";
+
+    private Logger log = Manager.getLogger( getClass().getName() );
+
+    private Project project;
+    private File projectDir;
+    private String mode;
+
+    private File directory;
+    private long prepareTime, saving;
+
+    public BuildWorkspace( Project project, File projectDir, String mode )
+    {
+        this.project = project;
+        this.projectDir = projectDir;
+
+        if ( MODE_CLONE.equals( mode ) || MODE_COPY.equals( mode ) )
+        {
+            this.mode = mode;
+        }
+        else
+        {
+            this.mode = MODE_INCREMENTAL;
+        }
+    }
+
+    public File prepare( Storage storage )
+        throws IOException
+    {
+        long start = System.currentTimeMillis();
+        boolean fullCopy = true;
+
+        try
+        {
+            if ( mode.equals( MODE_INCREMENTAL ) )
+            {
+                directory = new File( projectDir, "workspace" );
+                fullCopy = !directory.exists();
+
+                int copied = storage.syncWorkingDirectory( project, directory );
+                log.debug( "Updated " + copied + " files in workspace for " + project.getAlias() );
+            }
+            else
+            {
+                directory = FileUtil.createTempDir( "build-", "", projectDir );
+
+                if ( !mode.equals( MODE_CLONE ) || !cloneWorkingDirectory( storage ) )
+                {
+                    storage.copyWorkingDirectory( project, directory );
+                }
+                else
+                {
+                    fullCopy = false;
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            discard();
+            throw e;
+        }
+
+        prepareTime = System.currentTimeMillis() - start;
+        if ( fullCopy )
+        {
+            saveCopyTime( prepareTime );
+        }
+        else
+        {
+            long copyTime = loadCopyTime();
+            if ( copyTime > prepareTime )
+            {
+                saving = copyTime - prepareTime;
+            }
+        }
+
+        return directory;
+    }
+
+    /**
+     * Called once a build is complete - temporary workspaces are deleted, the incremental workspace is kept.
+     */
+    public void release()
+    {
+        if ( !mode.equals( MODE_INCREMENTAL ) )
+        {
+            discard();
+        }
+    }
+
+    public File getDirectory()
+    {
+        return directory;
+    }
+
+    public String getMode()
+    {
+        return mode;
+    }
+
+    public long getPrepareTime()
+    {
+        return prepareTime;
+    }
+
+    /**
+     * An estimate of the time saved compared to copying the whole working directory, based on the last full copy.
+     */
+    public long getSaving()
+    {
+        return saving;
+    }
+
+    private void discard()
+    {
+        if ( directory == null )
+        {
+            return;
+        }
+
+        try
+        {
+            FileUtil.delete( directory );
+        }
+        catch ( IOException e )
+        {
+            log.error( "Error removing build workspace " + directory.getPath(), e );
+        }
+    }
+
+    /**
+     * Clone the working directory with "cp --reflink=auto", sharing data blocks on filesystems that support it.
+     * We deliberately do not hard link as builds that rewrite a file in place would alter the working copy.
+     *
+     * @return true if the clone succeeded, false if we should fall back to a full copy
+     */
+    private boolean cloneWorkingDirectory( Storage storage )
+    {
+        File src = storage.getWorkingDirectory( project );
+        try
+        {
+            Process process = new ProcessBuilder( "cp", "-R", "--reflink=auto", src.getAbsolutePath() + "/.",
+                    directory.getAbsolutePath() ).redirectErrorStream( true ).start();
+            process.getOutputStream().close();
+            process.getInputStream().close();
+
+            if ( process.waitFor() == 0 )
+            {
+                return true;
+            }
+        }
+        catch ( IOException e )
+        {
+            log.debug( "Unable to clone working directory: " + e.getMessage() );
+        }
+        catch ( InterruptedException e )
+        {
+            log.debug( "Interrupted cloning working directory" );
+        }
+
+        log.info( "Cloning not available, copying working directory for " + project.getAlias() );
+        try
+        {
+            FileUtil.delete( directory );
+        }
+        catch ( IOException e )
+        {
+            // the copy will overwrite anything left behind
+        }
+        directory.mkdirs();
+        return false;
+    }
+
+    private long loadCopyTime()
+    {
+        Properties state = new Properties();
+        File stateFile = new File( projectDir, STATE_FILE );
+        if ( !stateFile.exists() )
+        {
+            return 0;
+        }
+
+        FileInputStream in = null;
+        try
+        {
+            in = new FileInputStream( stateFile );
+            state.load( in );
+
+            return Long.parseLong( state.getProperty( STATE_COPY_TIME, "0" ) );
+        }
+        catch ( Exception e )
+        {
+            return 0;
+        }
+        finally
+        {
+            if ( in != null )
+            {
+                try
+                {
+                    in.close();
+                }
+                catch ( IOException e )
+                {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private void saveCopyTime( long time )
+    {
+        Properties state = new Properties();
+        state.setProperty( STATE_COPY_TIME, String.valueOf( time ) );
+
+        FileOutputStream out = null;
+        try
+        {
+            out = new FileOutputStream( new File( projectDir, STATE_FILE ) );
+            state.store( out, "Build workspace state" );
+        }
+        catch ( IOException e )
+        {
+            log.error( "Unable to store build workspace state", e );
+        }
+        finally
+        {
+            if ( out != null )
+            {
+                try
+                {
+                    out.close();
+                }
+                catch ( IOException e )
+                {
+                    // ignore
+                }
+            }
+        }
+    }
+}
@@ -31,6 +31,7 @@ import org.headsupdev.agile.security.permission.ProjectListPermission;
 import org.headsupdev.agile.storage.StoredProject;
 import org.headsupdev.agile.storage.HibernateStorage;
 import org.headsupdev.agile.storage.ci.Build;
+import org.headsupdev.agile.storage.ci.BuildSummary;
 import org.headsupdev.agile.api.Project;
 import org.headsupdev.agile.api.Manager;
 import org.headsupdev.agile.api.Permission;
@@ -42,11 +43,14 @@ import org.apache.wicket.markup.html.link.BookmarkablePageLink;
 import org.apache.wicket.markup.html.link.Link;
 import org.apache.wicket.PageParameters;
 import org.apache.wicket.AttributeModifier;
+import org.apache.wicket.model.IModel;
+import org.apache.wicket.model.LoadableDetachableModel;
 import org.apache.wicket.model.Model;
 import org.hibernate.Session;
 import org.hibernate.Transaction;
 
 import java.util.Date;
+import java.util.Map;
 
 /**
  * Continuous integration home page
@@ -69,6 +73,14 @@ public class CI
         }
 
         renderTopLinks( projectList );
+        add( new Label( "slots", new Model<String>()
+        {
+            public String getObject()
+            {
+                return CIBuilder.getRunningBuildCount() + " of " + CIApplication.getBuilder().getBuildSlots() +
+                        " build slots in use, " + CIBuilder.getQueueLength() + " builds queued";
+            }
+        } ) );
 
         WebMarkupContainer builds = new WebMarkupContainer( "buildlist" );
         if ( projectList )
@@ -90,12 +102,19 @@ public class CI
         }
         add( builds );
 
-        WebMarkupContainer projects = new WebMarkupContainer( "projectlist" );
+        final IModel<Map<String, Build>> latestBuilds = new LoadableDetachableModel<Map<String, Build>>()
+        {
+            protected Map<String, Build> load()
+            {
+                return getApp().getLatestBuilds();
+            }
+        };
+        WebMarkupContainer projects = new WebMarkupContainer( "projectlist", latestBuilds );
         projects.add( new ProjectTreeListView( "projects", getProject() )
         {
             protected void populateProjectItem( ListItem listItem, Project project )
             {
-                renderBuild( getApp().getLatestBuildForProject( project ), project,
+                renderBuild( latestBuilds.getObject().get( project.getId() ), project,
                     true, CIBuilder.isProjectQueued( project ), listItem );
 
             }
@@ -116,11 +135,11 @@ public class CI
     {
         if ( !projectList )
         {
-            Build latest = getApp().getLatestBuildForProject( getProject() );
+            BuildSummary summary = CIApplication.getBuildSummary( getProject() );
             int status = Build.BUILD_SUCCEEDED;
-            if ( latest != null )
+            if ( summary != null )
             {
-                status = latest.getStatus();
+                status = summary.getStatus();
             }
 
             WebMarkupContainer building = new WebMarkupContainer( "building" );
@@ -412,6 +431,7 @@ public class CI
         Session session = storage.getHibernateSession();
         Transaction tx = session.beginTransaction();
         session.update( build );
+        CIApplication.updateBuildSummary( session, build );
         tx.commit();
         storage.closeSession();
     }
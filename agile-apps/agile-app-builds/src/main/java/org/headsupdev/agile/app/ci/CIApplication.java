@@ -24,6 +24,7 @@ import org.headsupdev.agile.app.ci.irc.BuildCommand;
 import org.headsupdev.agile.storage.StoredProject;
 import org.headsupdev.agile.storage.hibernate.IdProjectId;
 import org.headsupdev.agile.storage.ci.Build;
+import org.headsupdev.agile.storage.ci.BuildSummary;
 import org.headsupdev.agile.storage.HibernateStorage;
 import org.headsupdev.agile.storage.HibernateUtil;
 import org.headsupdev.agile.app.ci.event.BuildFailedEvent;
@@ -37,11 +38,14 @@ import org.headsupdev.agile.api.*;
 import org.headsupdev.irc.IRCCommand;
 import org.hibernate.Session;
 import org.hibernate.Transaction;
+import org.hibernate.LockMode;
 import org.hibernate.Query;
 import org.osgi.framework.BundleContext;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.LinkedList;
+import java.util.Map;
 import java.io.File;
 
 /**
@@ -62,6 +66,15 @@ public class CIApplication
             "Set this to true if you wish every build to cause a notification, otherwise only failed " +
             "or newly passed builds will send notifications" );
 
+    public static final ConfigurationItem CONFIGURATION_BUILD_SLOTS = new ConfigurationItem( "build.slots", 2,
+            "Concurrent builds", "The number of builds that can run at the same time, builds of the same project " +
+            "will always run one after the other" );
+
+    public static final ConfigurationItem CONFIGURATION_BUILD_WORKSPACE = new ConfigurationItem( "build.workspace",
+            BuildWorkspace.MODE_INCREMENTAL, "Build workspace", "How to prepare the directory a project is built in - " +
+            "\"incremental\" keeps a workspace per project and copies only changed files, \"clone\" uses a " +
+            "copy-on-write clone where the filesystem supports it and \"copy\" copies every file for each build" );
+
     public static final ConfigurationItem CONFIGURATION_MAVEN_HOME = new ConfigurationItem( "maven.home",
         "", "Maven Home (not including /bin/mvn)", "Change this parameter if you wish to use a particular version of maven " +
         "or if your maven installation is not in the system path" );
@@ -152,6 +165,13 @@ public class CIApplication
     private static CIBuilder builder = new CIBuilder();
 
     private static CIScheduler scheduler = new CIScheduler();
+    private static volatile boolean summariesChecked = false;
+
+    // wait before trying a failed summary check again, doubling the wait each time it fails
+    private static final long SUMMARY_RETRY_DELAY = 60 * 1000;
+    private static final long SUMMARY_RETRY_MAX_DELAY = 60 * 60 * 1000;
+    private static long summaryRetryDelay = SUMMARY_RETRY_DELAY;
+    private static volatile long nextSummaryCheck = 0;
 
     public static CIBuilder getBuilder()
     {
@@ -189,6 +209,8 @@ public class CIApplication
         globalItems.add( CONFIGURATION_ANT_HOME );
         globalItems.add( CONFIGURATION_ECLIPSE_HOME );
         globalItems.add( CONFIGURATION_NOTIFY_REPEAT_PASS );
+        globalItems.add( CONFIGURATION_BUILD_SLOTS );
+        globalItems.add( CONFIGURATION_BUILD_WORKSPACE );
 
         List<ConfigurationItem> items = new LinkedList<ConfigurationItem>();
         items.add( CONFIGURATION_MAVEN_GOALS );
@@ -328,6 +350,12 @@ public class CIApplication
         return new Class[] { CI.class, Tests.class, View.class };
     }
 
+    @Override
+    public Class[] getResources()
+    {
+        return new Class[] { BuildLog.class };
+    }
+
     @Override
     public Class<? extends Page> getHomePage()
     {
@@ -429,41 +457,69 @@ public class CIApplication
 
     public Build getLatestBuildForProject( Project project )
     {
-        Build build = null;
+        checkBuildSummaries();
         Session session = ( (HibernateStorage) Manager.getStorageInstance() ).getHibernateSession();
 
-        Query q = session.createQuery( "from Build b where id.project.id = :pid order by id.id desc" );
+        Query q = session.createQuery( "select b from Build b, BuildSummary s where s.projectId = :pid and " +
+                "b.id.project.id = s.projectId and b.id.id = s.latestBuildId" );
         q.setString( "pid", project.getId() );
-        q.setMaxResults( 1 );
-        List<Build> builds = q.list();
-        if ( builds.size() > 0 )
+        return (Build) q.uniqueResult();
+    }
+
+    /**
+     * Load the latest build of every project that has been built, in a single query.
+     *
+     * @return a map of project id to the latest build for that project
+     */
+    public Map<String, Build> getLatestBuilds()
+    {
+        checkBuildSummaries();
+        Session session = ( (HibernateStorage) Manager.getStorageInstance() ).getHibernateSession();
+
+        Query q = session.createQuery( "select b from Build b, BuildSummary s where " +
+                "b.id.project.id = s.projectId and b.id.id = s.latestBuildId" );
+        Map<String, Build> ret = new HashMap<String, Build>();
+        for ( Build build : (List<Build>) q.list() )
         {
-            build = builds.get( 0 );
+            ret.put( build.getProject().getId(), build );
         }
+        return ret;
+    }
 
-        return build;
+    public static BuildSummary getBuildSummary( Project project )
+    {
+        checkBuildSummaries();
+        Session session = ( (HibernateStorage) Manager.getStorageInstance() ).getHibernateSession();
+
+        return (BuildSummary) session.get( BuildSummary.class, project.getId() );
     }
 
-    public static String getLastChangePassed( Project project )
+    /**
+     * Load the build summary of every project that has been built, in a single query.
+     *
+     * @return a map of project id to the build summary for that project
+     */
+    public static Map<String, BuildSummary> getBuildSummaries()
     {
-        Build build = null;
+        checkBuildSummaries();
         Session session = ( (HibernateStorage) Manager.getStorageInstance() ).getHibernateSession();
 
-        Query q = session.createQuery( "from Build b where id.project.id = :pid and status = " + Build.BUILD_SUCCEEDED +
-                " order by endTime desc" );
-        q.setString( "pid", project.getId() );
-        q.setMaxResults( 1 );
-        List<Build> builds = q.list();
-        if ( builds.size() > 0 )
+        Map<String, BuildSummary> ret = new HashMap<String, BuildSummary>();
+        for ( BuildSummary summary : (List<BuildSummary>) session.createQuery( "from BuildSummary s" ).list() )
         {
-            build = builds.get( 0 );
+            ret.put( summary.getProjectId(), summary );
         }
+        return ret;
+    }
 
-        if ( build == null )
+    public static String getLastChangePassed( Project project )
+    {
+        BuildSummary summary = getBuildSummary( project );
+        if ( summary == null || summary.getLastSuccessRevision() == null )
         {
             return "";
         }
-        return build.getRevision();
+        return summary.getLastSuccessRevision();
     }
 
     public static Build getPreviousLastChangePassed( Build current, Project project )
@@ -487,11 +543,13 @@ public class CIApplication
 
     public long addBuild( Build build )
     {
+        checkBuildSummaries();
         Session session = HibernateUtil.getCurrentSession();
 
         Transaction tx = session.beginTransaction();
         IdProjectId id = (IdProjectId) session.save( build );
         long ret = id.getId();
+        updateBuildSummary( session, build );
         tx.commit();
 
         return ret;
@@ -499,13 +557,108 @@ public class CIApplication
 
     public void saveBuild( Build build )
     {
+        checkBuildSummaries();
         Session session = HibernateUtil.getCurrentSession();
 
         Transaction tx = session.beginTransaction();
         session.saveOrUpdate( build );
+        updateBuildSummary( session, build );
         tx.commit();
     }
 
+    /**
+     * Record the state of a build in its project's summary. This should be called within the transaction that
+     * saves the build so the two are always consistent.
+     */
+    static void updateBuildSummary( Session session, Build build )
+    {
+        String projectId = build.getProject().getId();
+        BuildSummary summary = (BuildSummary) session.get( BuildSummary.class, projectId, LockMode.UPGRADE );
+        if ( summary == null )
+        {
+            summary = new BuildSummary( projectId );
+            summary.update( build );
+            session.save( summary );
+        }
+        else
+        {
+            summary.update( build );
+        }
+    }
+
+    /**
+     * Create summaries for any projects that were built before summaries were stored. This only runs once and
+     * replays the builds since each project's last success to find its current failure streak.
+     * If it fails it is not tried again until a retry delay has passed, so callers are not held up repeating it.
+     */
+    static void checkBuildSummaries()
+    {
+        if ( summariesChecked || System.currentTimeMillis() < nextSummaryCheck )
+        {
+            return;
+        }
+
+        synchronized ( CIApplication.class )
+        {
+            if ( summariesChecked || System.currentTimeMillis() < nextSummaryCheck )
+            {
+                return;
+            }
+
+            Session session = HibernateUtil.openSession();
+            Transaction tx = session.beginTransaction();
+            try
+            {
+                Query q = session.createQuery( "select distinct b.id.project.id from Build b where b.id.project.id " +
+                        "not in (select s.projectId from BuildSummary s)" );
+                for ( String projectId : (List<String>) q.list() )
+                {
+                    Query latest = session.createQuery( "select max(b.id.id) from Build b where b.id.project.id = :pid" );
+                    latest.setString( "pid", projectId );
+                    Long latestId = (Long) latest.uniqueResult();
+
+                    Query success = session.createQuery( "select max(b.id.id) from Build b where " +
+                            "b.id.project.id = :pid and b.status = " + Build.BUILD_SUCCEEDED );
+                    success.setString( "pid", projectId );
+                    Long successId = (Long) success.uniqueResult();
+
+                    long from = 0;
+                    if ( successId != null && latestId != null )
+                    {
+                        from = Math.min( successId, latestId - 1 );
+                    }
+
+                    Query builds = session.createQuery( "from Build b where b.id.project.id = :pid and " +
+                            "b.id.id >= :from order by b.id.id" );
+                    builds.setString( "pid", projectId );
+                    builds.setLong( "from", from );
+
+                    BuildSummary summary = new BuildSummary( projectId );
+                    for ( Build build : (List<Build>) builds.list() )
+                    {
+                        summary.update( build );
+                    }
+                    session.save( summary );
+                }
+                tx.commit();
+                summariesChecked = true;
+            }
+            catch ( Exception e )
+            {
+                tx.rollback();
+                Manager.getLogger( CIApplication.class.getName() ).error( "Unable to create build summaries, " +
+                        "trying again in " + ( summaryRetryDelay / 1000 ) + " seconds", e );
+
+                nextSummaryCheck = System.currentTimeMillis() + summaryRetryDelay;
+                summaryRetryDelay = Math.min( summaryRetryDelay * 2, SUMMARY_RETRY_MAX_DELAY );
+            }
+            finally
+            {
+                session.close();
+            }
+        }
+    }
+
     public static File getProjectDir( Project project )
     {
         File appDir = new File( Manager.getStorageInstance().getDataDirectory(), "builds" );
@@ -19,7 +19,6 @@
 package org.headsupdev.agile.app.ci;
 
 import org.headsupdev.agile.app.ci.builders.BuildHandlerFactory;
-import org.headsupdev.support.java.FileUtil;
 import org.headsupdev.agile.api.logging.Logger;
 import org.headsupdev.agile.api.*;
 import org.headsupdev.agile.app.ci.event.BuildFailedEvent;
@@ -29,6 +28,9 @@ import org.headsupdev.agile.storage.ci.Build;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * The main CI thread that runs the builds
@@ -40,9 +42,22 @@ import java.util.*;
 public class CIBuilder
     implements ProjectListener
 {
+    // pendingBuilds is kept in priority order and is also the lock for runningProjects and queueTask
     private static final List<CIQueuedBuild> pendingBuilds = new LinkedList<CIQueuedBuild>();
+    private static final Set<String> runningProjects = new HashSet<String>();
+    private static Task queueTask;
 
-    private static boolean building = false;
+    private static ExecutorService builders = Executors.newCachedThreadPool( new ThreadFactory()
+    {
+        private int count = 0;
+
+        public synchronized Thread newThread( Runnable runnable )
+        {
+            Thread thread = new Thread( runnable, "ci-builder-" + ( ++count ) );
+            thread.setDaemon( true );
+            return thread;
+        }
+    } );
 
     private CIApplication application;
 
@@ -61,21 +76,50 @@ public class CIBuilder
     }
 
     public void queueProject( Project project, String id, PropertyTree config, boolean notify )
+    {
+        queueProject( project, id, config, notify, CIQueuedBuild.PRIORITY_HIGH );
+    }
+
+    public void queueProject( Project project, String id, PropertyTree config, boolean notify, int priority )
     {
         if ( !CIApplication.getHandlerFactory().supportsBuilding( project ) )
         {
             return;
         }
 
-        if ( !isProjectQueued( project ) )
+        synchronized ( pendingBuilds )
         {
-            synchronized ( pendingBuilds )
+            Iterator<CIQueuedBuild> queue = pendingBuilds.iterator();
+            while ( queue.hasNext() )
             {
-                pendingBuilds.add( new CIQueuedBuild( project, id, config, notify ) );
+                CIQueuedBuild build = queue.next();
+                if ( build != null && build.getProject() != null && build.getProject().equals( project ) )
+                {
+                    if ( build.getPriority() <= priority )
+                    {
+                        return;
+                    }
+
+                    // a more urgent request replaces the queued one so it is not held up behind scheduled builds
+                    queue.remove();
+                    break;
+                }
             }
 
-            buildProjects();
+            // insert after all builds of the same or higher priority
+            int pos = 0;
+            for ( CIQueuedBuild build : pendingBuilds )
+            {
+                if ( build.getPriority() > priority )
+                {
+                    break;
+                }
+                pos++;
+            }
+            pendingBuilds.add( pos, new CIQueuedBuild( project, id, config, notify, priority ) );
         }
+
+        buildProjects();
     }
 
     public void dequeueProject( Project project )
@@ -98,6 +142,8 @@ public class CIBuilder
                 }
             }
         }
+
+        buildProjects();
     }
 
     public void queueAllProjects()
@@ -126,49 +172,97 @@ public class CIBuilder
         return false;
     }
 
-    protected void buildProjects()
+    public static int getQueueLength()
     {
-        if ( building )
+        synchronized ( pendingBuilds )
         {
-            return;
+            return pendingBuilds.size();
         }
+    }
 
-        building = true;
-        new Thread()
+    public static int getRunningBuildCount()
+    {
+        synchronized ( pendingBuilds )
         {
-            public void run()
+            return runningProjects.size();
+        }
+    }
+
+    public int getBuildSlots()
+    {
+        int slots = (Integer) CIApplication.CONFIGURATION_BUILD_SLOTS.getDefault();
+        if ( application != null )
+        {
+            try
             {
-                try
+                slots = Integer.parseInt( application.getConfigurationValue( CIApplication.CONFIGURATION_BUILD_SLOTS ) );
+            }
+            catch ( NumberFormatException e )
+            {
+                // use the default
+            }
+        }
+
+        return Math.max( 1, slots );
+    }
+
+    /**
+     * Start as many queued builds as we have free slots for, taking the highest priority first.
+     * A project that is already building is skipped (but left in the queue) so we never build it twice at once.
+     */
+    protected void buildProjects()
+    {
+        synchronized ( pendingBuilds )
+        {
+            int slots = getBuildSlots();
+            Iterator<CIQueuedBuild> queue = pendingBuilds.iterator();
+            while ( runningProjects.size() < slots && queue.hasNext() )
+            {
+                final CIQueuedBuild build = queue.next();
+                final String projectId = build.getProject().getId();
+                if ( runningProjects.contains( projectId ) )
                 {
-                    while ( pendingBuilds.size() > 0 )
+                    continue;
+                }
+
+                queue.remove();
+                runningProjects.add( projectId );
+                builders.execute( new Runnable()
+                {
+                    public void run()
                     {
-                        CIQueuedBuild build;
-                        synchronized( pendingBuilds )
+                        try
                         {
-                            try
-                            {
-                                build = pendingBuilds.remove( 0 );
-                            }
-                            catch ( NoSuchElementException e )
+                            buildProject( build );
+                        }
+                        catch ( Exception e )
+                        {
+                            e.printStackTrace();
+                        }
+                        finally
+                        {
+                            ( (HibernateStorage) Manager.getStorageInstance() ).closeSession();
+                            synchronized ( pendingBuilds )
                             {
-                                // changed whilst building - just ignore and try later
-                                break;
+                                runningProjects.remove( projectId );
                             }
+                            buildProjects();
                         }
-
-                        buildProject( build );
                     }
-                }
-                catch ( Exception e )
-                {
-                    e.printStackTrace();
-                }
-                finally
-                {
-                    building = false;
-                }
+                } );
             }
-        }.start();
+
+            if ( queueTask == null && ( pendingBuilds.size() > 0 || runningProjects.size() > 0 ) )
+            {
+                queueTask = new BuildQueueTask();
+                Manager.getInstance().addTask( queueTask );
+            }
+            else if ( queueTask != null && pendingBuilds.size() == 0 && runningProjects.size() == 0 )
+            {
+                Manager.getInstance().removeTask( queueTask );
+                queueTask = null;
+            }
+        }
     }
 
     private void buildProject( CIQueuedBuild queued )
@@ -177,7 +271,6 @@ public class CIBuilder
         PropertyTree config = queued.getConfig();
         log.info( "Preparing build for project " + project.getAlias() );
 
-        File base = null;
         File projectDir = CIApplication.getProjectDir( project );
         projectDir.mkdirs();
 
@@ -188,36 +281,39 @@ public class CIBuilder
             storage.getHibernateSession();
 
             Manager.getInstance().addTask( buildTask );
+            BuildWorkspace workspace = new BuildWorkspace( project, projectDir,
+                    application.getConfigurationValue( CIApplication.CONFIGURATION_BUILD_WORKSPACE ) );
+            File base;
             try
             {
-                base = FileUtil.createTempDir( "build-", "", projectDir );
-                storage.copyWorkingDirectory( project, base );
+                base = workspace.prepare( storage );
             }
             catch ( Exception e )
             {
                 log.error( "Unable to prepare project " + project + " for build", e );
 
-                try
-                {
-                    FileUtil.delete( base );
-                }
-                catch ( IOException e2 )
-                {
-                    log.error( "Error removing failed build", e );
-                }
-
                 Manager.getInstance().removeTask( buildTask );
                 return;
             }
-            log.info( "Building project " + project.getAlias() + " in " + base.getPath() );
+            log.info( "Building project " + project.getAlias() + " in " + base.getPath() + " (" + workspace.getMode() +
+                    " workspace prepared in " + workspace.getPrepareTime() + "ms)" );
 
             Build build = new Build( project, project.getRevision() );
             build.setStatus( Build.BUILD_RUNNING );
+            build.setWorkspaceTime( workspace.getPrepareTime() );
+            build.setWorkspaceSaving( workspace.getSaving() );
             long buildId = application.addBuild( build );
             File output = new File( projectDir, buildId + ".txt" );
 
-            CIApplication.getHandlerFactory().getBuildHandler( project ).runBuild( project, config,
-                    application.getConfiguration(), base, output, build );
+            try
+            {
+                CIApplication.getHandlerFactory().getBuildHandler( project ).runBuild( project, config,
+                        application.getConfiguration(), base, output, build );
+            }
+            finally
+            {
+                workspace.release();
+            }
 
             Event event;
             if ( build.getStatus() != Build.BUILD_SUCCEEDED )
@@ -231,15 +327,6 @@ public class CIBuilder
 
             application.addEvent( event, queued.getNotify() );
             storage.closeSession();
-
-            try
-            {
-                FileUtil.delete( base );
-            }
-            catch ( IOException e )
-            {
-                log.error( "Error cleaning up finished build", e );
-            }
         }
         finally
         {
@@ -29,17 +29,34 @@ import org.headsupdev.agile.api.Project;
  */
 public class CIQueuedBuild
 {
+    /**
+     * Builds triggered by source changes or forced by a user
+     */
+    public static final int PRIORITY_HIGH = 0;
+
+    /**
+     * Builds started by a cron schedule
+     */
+    public static final int PRIORITY_SCHEDULED = 1;
+
     private Project project;
     private String id;
     private PropertyTree config;
     private boolean notify;
+    private int priority;
 
     public CIQueuedBuild( Project project, String id, PropertyTree config, boolean notify )
+    {
+        this( project, id, config, notify, PRIORITY_HIGH );
+    }
+
+    public CIQueuedBuild( Project project, String id, PropertyTree config, boolean notify, int priority )
     {
         this.project = project;
         this.id = id;
         this.config = config;
         this.notify = notify;
+        this.priority = priority;
     }
 
     public Project getProject()
@@ -62,6 +79,11 @@ public class CIQueuedBuild
         return notify;
     }
 
+    public int getPriority()
+    {
+        return priority;
+    }
+
     public boolean equals( Object o )
     {
         return o instanceof CIQueuedBuild && equals( (CIQueuedBuild) o );
@@ -127,7 +127,8 @@ public class CIScheduler {
                     getApplicationConfigurationForProject( CIApplication.ID, project ).getSubTree( "schedule" );
         PropertyTree config = schedules.getSubTree( String.valueOf( id ) );
 
-        CIApplication.getBuilder().queueProject( project, String.valueOf( id ), config, true );
+        CIApplication.getBuilder().queueProject( project, String.valueOf( id ), config, true,
+                CIQueuedBuild.PRIORITY_SCHEDULED );
     }
 }
 
@@ -19,7 +19,6 @@
 package org.headsupdev.agile.app.ci;
 
 import org.apache.wicket.markup.html.CSSPackageResource;
-import org.headsupdev.support.java.IOUtil;
 import org.headsupdev.agile.web.HeadsUpPage;
 import org.headsupdev.agile.web.BookmarkableMenuLink;
 import org.headsupdev.agile.web.MountPoint;
@@ -29,10 +28,15 @@ import org.headsupdev.agile.app.ci.permission.BuildViewPermission;
 import org.headsupdev.agile.storage.ci.Build;
 import org.apache.wicket.markup.html.basic.Label;
 import org.apache.wicket.markup.html.link.BookmarkablePageLink;
+import org.apache.wicket.markup.html.link.ExternalLink;
+import org.apache.wicket.markup.html.WebMarkupContainer;
+import org.apache.wicket.markup.html.JavascriptPackageResource;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * Page that when loaded suggests to the CI Builder that it should run again.
@@ -45,6 +49,8 @@ import java.io.IOException;
 public class View
     extends HeadsUpPage
 {
+    private static final int LOG_TAIL_BYTES = 256 * 1024;
+
     private long buildId;
 
     public Permission getRequiredPermission() {
@@ -54,6 +60,7 @@ public class View
     public void layout() {
         super.layout();
         add( CSSPackageResource.getHeaderContribution( getClass(), "ci.css" ) );
+        add( JavascriptPackageResource.getHeaderContribution( getClass(), "log.js" ) );
 
         Project project = getProject();
         long id = getPageParameters().getLong("id");
@@ -76,15 +83,55 @@ public class View
             .setVisible( build.getTestResults().size() > 0 ) );
 
         File outputFile = new File( CIApplication.getProjectDir( project ), id + ".txt" );
+        String logUrl = "/" + project.getId() + "/builds/log/id/" + id;
 
+        long offset = 0;
+        boolean truncated = false;
+        Label result;
         try
         {
-            add( new Label( "result", IOUtil.toString( new FileInputStream( outputFile ) ) ) );
+            FileChannel channel = new FileInputStream( outputFile ).getChannel();
+            try
+            {
+                long size = channel.size();
+                long start = Math.max( 0, size - LOG_TAIL_BYTES );
+                truncated = start > 0;
+
+                ByteBuffer buffer = ByteBuffer.allocate( (int) ( size - start ) );
+                while ( buffer.hasRemaining() )
+                {
+                    if ( channel.read( buffer, start + buffer.position() ) <= 0 )
+                    {
+                        break;
+                    }
+                }
+                offset = start + buffer.position();
+
+                String content = new String( buffer.array(), 0, buffer.position() );
+                if ( truncated && content.indexOf( '\n' ) > -1 )
+                {
+                    content = content.substring( content.indexOf( '\n' ) + 1 );
+                }
+                result = new Label( "result", content );
+            }
+            finally
+            {
+                channel.close();
+            }
         }
         catch ( IOException e )
         {
-            add( new Label( "result", "Unable to load results file - reason: " + e.getMessage() ) );
+            result = new Label( "result", "Unable to load results file - reason: " + e.getMessage() );
         }
+        add( result.setOutputMarkupId( true ) );
+
+        WebMarkupContainer truncatedNote = new WebMarkupContainer( "truncated" );
+        truncatedNote.add( new ExternalLink( "full-log", logUrl ) );
+        add( truncatedNote.setVisible( truncated ) );
+
+        boolean running = build.getEndTime() == null && build.getStatus() == Build.BUILD_RUNNING;
+        add( new Label( "follow", "followBuildLog( \"" + result.getMarkupId() + "\", \"" + logUrl + "\", " +
+                offset + " );" ).setEscapeModelStrings( false ).setVisible( running ) );
     }
 
     @Override
@@ -50,6 +50,8 @@ public class FileOutputHandler
         try {
             writer.write( line );
             writer.write( '\n' );
+            // flushed each line so the log can be followed while the build runs
+            writer.flush();
         } catch (IOException e) {
             Manager.getLogger( getClass().getName() ).error( "Error consuming build output", e );
         }
@@ -26,7 +26,6 @@ import org.headsupdev.agile.api.logging.Logger;
 import org.headsupdev.agile.storage.ci.Build;
 import org.headsupdev.agile.app.ci.CIApplication;
 import org.headsupdev.agile.storage.ci.TestResultSet;
-import org.headsupdev.agile.storage.ci.TestResult;
 import org.headsupdev.agile.storage.HibernateStorage;
 
 import java.io.*;
@@ -35,10 +34,6 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.maven.shared.invoker.*;
-import org.jdom.input.SAXBuilder;
-import org.jdom.Document;
-import org.jdom.Element;
-import org.jdom.JDOMException;
 
 /**
  * The main code for building a Maven2 project. Parses JUnit test output also.
@@ -158,87 +153,54 @@ public class MavenTwoBuildHandler
                     return name.startsWith( "TEST-" ) && name.endsWith( ".xml" );
                 }
             };
-            SAXBuilder builder = new SAXBuilder();
-            for ( File test : reportDir.listFiles( reportFilter ) )
+            TestResultWriter writer = new TestResultWriter( (HibernateStorage) storage, build );
+            try
             {
-                String testSuiteName = test.getName().substring( 5, test.getName().length() - 4 );
-                String suiteOutName = testSuiteName + ".txt";
-
-                File suiteLog = new File( reportDir, suiteOutName );
-                File cachedLog = new File( testdir, suiteOutName );
-                if ( suiteLog.exists() )
+                for ( File test : reportDir.listFiles( reportFilter ) )
                 {
-                    suiteLog.renameTo( cachedLog );
-                }
-                else
-                {
-                    suiteOutName = "TEST-" + suiteOutName;
-                    suiteLog = new File( reportDir, suiteOutName );
+                    String testSuiteName = test.getName().substring( 5, test.getName().length() - 4 );
+                    String suiteOutName = testSuiteName + ".txt";
 
+                    File suiteLog = new File( reportDir, suiteOutName );
+                    File cachedLog = new File( testdir, suiteOutName );
                     if ( suiteLog.exists() )
                     {
                         suiteLog.renameTo( cachedLog );
                     }
-                }
-                TestResultSet set = new TestResultSet( testSuiteName, cachedLog.getAbsolutePath() );
-
-                int setTests = 0, setFailures = 0, setErrors = 0;
-                long time = 0;
-                try
-                {
-                    Document doc = builder.build( test ).getDocument();
-                    Element root = doc.getRootElement();
-
-                    tests += root.getAttribute( "tests" ).getIntValue();
-                    failures += root.getAttribute( "failures" ).getIntValue();
-                    errors += root.getAttribute( "errors" ).getIntValue();
-                    time = (long) ( root.getAttribute( "time" ).getFloatValue() * 1000 );
-
-                    List<Element> testCases = root.getChildren( "testcase" );
-                    for ( Element testCase : testCases )
+                    else
                     {
-                        String testName = testCase.getAttributeValue( "name" );
-                        int status = TestResult.STATUS_PASSED;
-                        String message = "";
-                        String output = "";
-                        if ( testCase.getChild( "failure" ) != null )
-                        {
-                            setFailures++;
-                            status = TestResult.STATUS_FAILED;
-                            message = testCase.getChild( "failure" ).getAttributeValue( "message" );
-                            output = testCase.getChildText( "failure" );
-                        }
-                        else if ( testCase.getChild( "error" ) != null )
+                        suiteOutName = "TEST-" + suiteOutName;
+                        suiteLog = new File( reportDir, suiteOutName );
+
+                        if ( suiteLog.exists() )
                         {
-                            setErrors++;
-                            status = TestResult.STATUS_ERROR;
-                            message = testCase.getChild( "error" ).getAttributeValue( "type" );
-                            output = testCase.getChildText( "error" );
+                            suiteLog.renameTo( cachedLog );
                         }
-                        setTests++;
-                        long testTime = (long) ( testCase.getAttribute( "time" ).getFloatValue() * 1000 );
-
-                        TestResult testResult = new TestResult( testName, status, testTime, message, output );
-                        ( (HibernateStorage) storage ).save( testResult );
-                        set.getResults().add( testResult );
                     }
-                }
-                catch ( JDOMException e )
-                {
-                    log.error( "Failed to parse surefire report", e );
-                }
-                catch ( IOException e )
-                {
-                    log.error( "Failed to load surefire report", e );
-                }
+                    TestResultSet set = new TestResultSet( testSuiteName, cachedLog.getAbsolutePath() );
 
-                set.setTests( setTests );
-                set.setFailures( setFailures );
-                set.setErrors( setErrors );
-                set.setDuration( time );
-                ( (HibernateStorage) storage ).save( set );
+                    SurefireReportParser parser = new SurefireReportParser();
+                    try
+                    {
+                        parser.parse( test, set, writer );
 
-                build.getTestResults().add( set );
+                        tests += parser.getTests();
+                        failures += parser.getFailures();
+                        errors += parser.getErrors();
+                    }
+                    catch ( IOException e )
+                    {
+                        log.error( "Failed to load surefire report", e );
+                    }
+
+                    writer.addResultSet( set );
+                }
+                writer.commit();
+            }
+            catch ( RuntimeException e )
+            {
+                log.error( "Failed to store test results", e );
+                writer.rollback();
             }
         }
 
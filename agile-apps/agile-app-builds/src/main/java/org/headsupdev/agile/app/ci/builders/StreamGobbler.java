@@ -49,6 +49,12 @@ public class StreamGobbler extends Thread
             {
                 out.write( line );
                 out.write( '\n' );
+
+                // flush whenever we catch up so the log can be followed while the build runs
+                if ( !reader.ready() )
+                {
+                    out.flush();
+                }
             }
         }
         catch ( IOException e )
@@ -0,0 +1,205 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.headsupdev.agile.app.ci.builders;
+
+import org.headsupdev.agile.storage.ci.TestResult;
+import org.headsupdev.agile.storage.ci.TestResultSet;
+import org.headsupdev.support.java.IOUtil;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A streaming parser for the JUnit XML report format written by surefire and the ant junit task.
+ * Test cases are passed to a TestResultWriter as they are read so a report never needs to be held in memory.
+ *
+ * @author Andrew Williams
+ * @since 2.0
+ */
+public class SurefireReportParser
+{
+    private static final XMLInputFactory factory = XMLInputFactory.newInstance();
+
+    private int tests, failures, errors;
+    private int setTests, setFailures, setErrors;
+    private long time;
+
+    /**
+     * Parse a single TEST-*.xml report, adding the results to the set passed in.
+     * The totals declared by the suite are available from the getters once parsing is complete.
+     */
+    public void parse( File report, TestResultSet set, TestResultWriter writer )
+        throws IOException
+    {
+        InputStream in = new BufferedInputStream( new FileInputStream( report ) );
+        XMLStreamReader reader = null;
+        try
+        {
+            reader = factory.createXMLStreamReader( in );
+
+            String testName = null;
+            long testTime = 0;
+            int status = TestResult.STATUS_PASSED;
+            String message = "", output = "";
+            while ( reader.hasNext() )
+            {
+                int event = reader.next();
+                if ( event == XMLStreamConstants.START_ELEMENT )
+                {
+                    String element = reader.getLocalName();
+                    if ( element.equals( "testsuite" ) )
+                    {
+                        tests = parseInt( reader.getAttributeValue( null, "tests" ) );
+                        failures = parseInt( reader.getAttributeValue( null, "failures" ) );
+                        errors = parseInt( reader.getAttributeValue( null, "errors" ) );
+                        time = parseTime( reader.getAttributeValue( null, "time" ) );
+                    }
+                    else if ( element.equals( "testcase" ) )
+                    {
+                        testName = reader.getAttributeValue( null, "name" );
+                        testTime = parseTime( reader.getAttributeValue( null, "time" ) );
+                        status = TestResult.STATUS_PASSED;
+                        message = "";
+                        output = "";
+                    }
+                    else if ( testName != null && status == TestResult.STATUS_PASSED &&
+                            ( element.equals( "failure" ) || element.equals( "error" ) ) )
+                    {
+                        if ( element.equals( "failure" ) )
+                        {
+                            status = TestResult.STATUS_FAILED;
+                            message = reader.getAttributeValue( null, "message" );
+                        }
+                        else
+                        {
+                            status = TestResult.STATUS_ERROR;
+                            message = reader.getAttributeValue( null, "type" );
+                        }
+                        output = reader.getElementText();
+                    }
+                }
+                else if ( event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals( "testcase" ) )
+                {
+                    setTests++;
+                    if ( status == TestResult.STATUS_FAILED )
+                    {
+                        setFailures++;
+                    }
+                    else if ( status == TestResult.STATUS_ERROR )
+                    {
+                        setErrors++;
+                    }
+
+                    writer.addResult( set, new TestResult( testName, status, testTime, message, output ) );
+                    testName = null;
+                }
+            }
+        }
+        catch ( XMLStreamException e )
+        {
+            throw new IOException( "Failed to parse report " + report.getName() + ": " + e.getMessage() );
+        }
+        finally
+        {
+            if ( reader != null )
+            {
+                try
+                {
+                    reader.close();
+                }
+                catch ( XMLStreamException e )
+                {
+                    // ignore, the stream is closed below
+                }
+            }
+            IOUtil.close( in );
+        }
+
+        set.setTests( setTests );
+        set.setFailures( setFailures );
+        set.setErrors( setErrors );
+        set.setDuration( time );
+    }
+
+    public int getTests()
+    {
+        return tests;
+    }
+
+    public int getFailures()
+    {
+        return failures;
+    }
+
+    public int getErrors()
+    {
+        return errors;
+    }
+
+    public long getTime()
+    {
+        return time;
+    }
+
+    private static int parseInt( String value )
+    {
+        if ( value == null )
+        {
+            return 0;
+        }
+
+        try
+        {
+            return Integer.parseInt( value.trim() );
+        }
+        catch ( NumberFormatException e )
+        {
+            return 0;
+        }
+    }
+
+    /**
+     * Convert a time in seconds to milliseconds. Some versions of surefire format large values with a
+     * grouping separator (1,234.5) so we strip that out first.
+     */
+    private static long parseTime( String value )
+    {
+        if ( value == null )
+        {
+            return 0;
+        }
+
+        try
+        {
+            return (long) ( Float.parseFloat( value.replace( ",", "" ).trim() ) * 1000 );
+        }
+        catch ( NumberFormatException e )
+        {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.headsupdev.agile.app.ci.builders;
+
+import org.headsupdev.agile.storage.HibernateStorage;
+import org.headsupdev.agile.storage.ci.Build;
+import org.headsupdev.agile.storage.ci.TestResult;
+import org.headsupdev.agile.storage.ci.TestResultSet;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Stores the test results of a build in a single transaction, flushing them to the database in batches.
+ * Build handlers that parse test output should add each result as it is read, add the result set once it is
+ * complete and then commit when all of the build's results have been added.
+ *
+ * @author Andrew Williams
+ * @since 2.0
+ */
+public class TestResultWriter
+{
+    private static final int BATCH_SIZE = 50;
+
+    private Build build;
+    private Session session;
+    private Transaction tx;
+
+    private List<TestResult> unflushed = new LinkedList<TestResult>();
+
+    public TestResultWriter( HibernateStorage storage, Build build )
+    {
+        this.build = build;
+
+        session = storage.getHibernateSession();
+        tx = session.beginTransaction();
+    }
+
+    public void addResult( TestResultSet set, TestResult result )
+    {
+        session.save( result );
+        set.getResults().add( result );
+
+        unflushed.add( result );
+        if ( unflushed.size() >= BATCH_SIZE )
+        {
+            flush();
+        }
+    }
+
+    public void addResultSet( TestResultSet set )
+    {
+        session.save( set );
+        build.getTestResults().add( set );
+    }
+
+    public void commit()
+    {
+        tx.commit();
+        unflushed.clear();
+    }
+
+    public void rollback()
+    {
+        tx.rollback();
+        unflushed.clear();
+    }
+
+    /**
+     * Write out the pending results and evict them from the session so that a large test run does not leave
+     * thousands of entities to be checked on every later flush.
+     */
+    private void flush()
+    {
+        session.flush();
+        for ( TestResult result : unflushed )
+        {
+            session.evict( result );
+        }
+        unflushed.clear();
+    }
+}
@@ -28,6 +28,7 @@ import org.headsupdev.agile.api.logging.Logger;
 import org.headsupdev.agile.app.ci.CIApplication;
 import org.headsupdev.agile.storage.ci.Build;
 import org.headsupdev.support.java.StringUtil;
+import org.hibernate.HibernateException;
 
 import java.io.*;
 import java.util.ArrayList;
@@ -279,95 +280,117 @@ public class XCodeBuildHandler
     {
         BufferedReader reader = new BufferedReader( new FileReader( dat ) );
         String rootPath = Manager.getStorageInstance().getDataDirectory().getAbsolutePath();
-        HibernateStorage storage = (HibernateStorage) Manager.getStorageInstance();
+        TestResultWriter writer = new TestResultWriter( (HibernateStorage) Manager.getStorageInstance(), build );
 
         String line;
         long totalMillis = 0;
         TestResultSet currentSuite = null;
         int setTests = 0, failedTests = 0;
         int totalTests = 0, totalFailed = 0;
-        while ( ( line = reader.readLine() ) != null )
+        try
         {
-            if ( line.length() > 1 && line.charAt( 0 ) == 'o' )
+            while ( ( line = reader.readLine() ) != null )
             {
-                if ( line.startsWith( "oTest Suite" ) && !line.contains( rootPath ) )
+                if ( line.length() > 1 && line.charAt( 0 ) == 'o' )
                 {
-                    int pos1 = line.indexOf( "\'" );
-                    int pos2 = line.indexOf( "\'", pos1 + 1 );
-                    String suiteName = line.substring( pos1 + 1, pos2 );
-
-                    if ( line.contains( " started at " ) )
+                    if ( line.startsWith( "oTest Suite" ) && !line.contains( rootPath ) )
                     {
+                        int pos1 = line.indexOf( "\'" );
+                        int pos2 = line.indexOf( "\'", pos1 + 1 );
+                        String suiteName = line.substring( pos1 + 1, pos2 );
 
-                        currentSuite = new TestResultSet( suiteName, null );
-                    }
-                    else if ( line.contains( " finished at " ) )
-                    {
-                        if ( currentSuite == null )
+                        if ( line.contains( " started at " ) )
                         {
-                            System.err.println( "No Test Suite to close for '" + suiteName + "'" );
-                            continue;
+
+                            currentSuite = new TestResultSet( suiteName, null );
                         }
+                        else if ( line.contains( " finished at " ) )
+                        {
+                            if ( currentSuite == null )
+                            {
+                                System.err.println( "No Test Suite to close for '" + suiteName + "'" );
+                                continue;
+                            }
 
-                        currentSuite.setTests( setTests );
-                        currentSuite.setFailures( failedTests );
-                        currentSuite.setDuration( totalMillis );
+                            currentSuite.setTests( setTests );
+                            currentSuite.setFailures( failedTests );
+                            currentSuite.setDuration( totalMillis );
 
-                        storage.save( currentSuite );
-                        build.getTestResults().add( currentSuite );
-                        build.setTests( totalTests );
-                        build.setFailures( totalFailed );
+                            writer.addResultSet( currentSuite );
+                            build.setTests( totalTests );
+                            build.setFailures( totalFailed );
 
-                        // reset for next test
-                        currentSuite = null;
-                        setTests = failedTests = 0;
-                        totalMillis = 0;
+                            // reset for next test
+                            currentSuite = null;
+                            setTests = failedTests = 0;
+                            totalMillis = 0;
+                        }
                     }
-                }
-                else if ( line.startsWith( "oTest Case" ) && !line.endsWith( "started." ) )
-                {
-                    int pos1 = line.indexOf( "\'" );
-                    int pos2 = line.indexOf( "\'", pos1 + 1 );
-                    String testName = line.substring( pos1 + 1, pos2 );
-
-                    if ( currentSuite == null )
+                    else if ( line.startsWith( "oTest Case" ) && !line.endsWith( "started." ) )
                     {
-                        System.err.println( "No Test Suite for test '" + testName + "'" );
-                        continue;
-                    }
+                        int pos1 = line.indexOf( "\'" );
+                        int pos2 = line.indexOf( "\'", pos1 + 1 );
+                        String testName = line.substring( pos1 + 1, pos2 );
 
-                    pos1 = line.indexOf( "(", pos2 );
-                    pos2 = line.indexOf( " ", pos1 + 1 );
-                    String testTime = line.substring( pos1 + 1, pos2 );
-                    long millis = (long) ( Double.parseDouble( testTime ) * 1000 );
-                    totalMillis += millis;
+                        if ( currentSuite == null )
+                        {
+                            System.err.println( "No Test Suite for test '" + testName + "'" );
+                            continue;
+                        }
 
-                    setTests++;
-                    totalTests++;
-                    int status;// = TestResult.STATUS_ERROR;
-                    if ( line.contains( " passed (" ) )
-                    {
-                        status = TestResult.STATUS_PASSED;
+                        pos1 = line.indexOf( "(", pos2 );
+                        pos2 = line.indexOf( " ", pos1 + 1 );
+                        String testTime = line.substring( pos1 + 1, pos2 );
+                        long millis = (long) ( Double.parseDouble( testTime ) * 1000 );
+                        totalMillis += millis;
+
+                        setTests++;
+                        totalTests++;
+                        int status;// = TestResult.STATUS_ERROR;
+                        if ( line.contains( " passed (" ) )
+                        {
+                            status = TestResult.STATUS_PASSED;
+                        }
+                        else
+                        {
+                            status = TestResult.STATUS_FAILED;
+                            failedTests++;
+                            totalFailed++;
+                        }
+
+                        TestResult testResult = new TestResult( testName, status, millis, "", null );
+                        writer.addResult( currentSuite, testResult );
                     }
-                    else
+                    else if ( line.startsWith( "oExecuted" ) )
                     {
-                        status = TestResult.STATUS_FAILED;
-                        failedTests++;
-                        totalFailed++;
+                        // don't think we need this
                     }
-
-                    TestResult testResult = new TestResult( testName, status, millis, "", null );
-                    storage.save( testResult );
-                    currentSuite.getResults().add( testResult );
-                }
-                else if ( line.startsWith( "oExecuted" ) )
-                {
-                    // don't think we need this
                 }
             }
         }
+        catch ( HibernateException e )
+        {
+            writer.rollback();
+            throw e;
+        }
+        catch ( IOException e )
+        {
+            // keep the results of any suites we managed to read
+            writer.commit();
+            throw e;
+        }
+        catch ( RuntimeException e )
+        {
+            // a malformed line - keep the results of any suites we managed to read
+            writer.commit();
+            throw e;
+        }
+        finally
+        {
+            IOUtil.close( reader );
+        }
 
-        IOUtil.close( reader );
+        writer.commit();
     }
 
     public void onBuildPassed( Project project, PropertyTree config, PropertyTree appConfig, File dir, File output,
@@ -23,6 +23,7 @@ import org.headsupdev.agile.api.User;
 import org.headsupdev.support.java.IOUtil;
 import org.headsupdev.agile.web.AbstractEvent;
 import org.headsupdev.agile.storage.ci.Build;
+import org.headsupdev.agile.storage.ci.BuildSummary;
 import org.headsupdev.agile.web.components.FormattedDurationModel;
 import org.headsupdev.agile.web.BookmarkableMenuLink;
 import org.headsupdev.agile.web.RenderUtil;
@@ -132,11 +133,27 @@ public class BuildSucceededEvent
             return false;
         }
 
-        Build build = CIApplication.getBuild( Long.parseLong( getObjectId() ), getProject() );
-        Build previousBuild = null;
-        if ( build.getId() > 0 )
+        // the summary holds the last two statuses so we only need to load builds for older events
+        long buildId = Long.parseLong( getObjectId() );
+        int status, previousStatus = 0;
+        BuildSummary summary = CIApplication.getBuildSummary( getProject() );
+        if ( summary != null && summary.getLatestBuildId() == buildId )
         {
-            previousBuild = CIApplication.getBuild( build.getId() - 1, getProject() );
+            status = summary.getStatus();
+            previousStatus = summary.getPreviousStatus();
+        }
+        else
+        {
+            Build build = CIApplication.getBuild( buildId, getProject() );
+            status = build.getStatus();
+            if ( build.getId() > 0 )
+            {
+                Build previousBuild = CIApplication.getBuild( build.getId() - 1, getProject() );
+                if ( previousBuild != null )
+                {
+                    previousStatus = previousBuild.getStatus();
+                }
+            }
         }
 
         boolean repeatNotify = (Boolean) CIApplication.CONFIGURATION_NOTIFY_REPEAT_PASS.getDefault();
@@ -146,7 +163,6 @@ public class BuildSucceededEvent
         {
             repeatNotify = Boolean.parseBoolean( repeatNotifyStr );
         }
-        return previousBuild == null || build.getStatus() != previousBuild.getStatus() ||
-                build.getStatus() != Build.BUILD_SUCCEEDED || repeatNotify;
+        return previousStatus == 0 || status != previousStatus || status != Build.BUILD_SUCCEEDED || repeatNotify;
     }
 }
\ No newline at end of file
@@ -25,9 +25,9 @@ import org.headsupdev.irc.IRCUser;
 import org.headsupdev.irc.IRCConnection;
 import org.hibernate.Session;
 import org.hibernate.Transaction;
-import org.hibernate.Query;
 import org.headsupdev.agile.web.HeadsUpSession;
 import org.headsupdev.agile.storage.ci.Build;
+import org.headsupdev.agile.storage.ci.BuildSummary;
 import org.headsupdev.agile.storage.HibernateUtil;
 import org.headsupdev.agile.app.ci.CIBuilder;
 import org.headsupdev.agile.app.ci.permission.BuildForcePermission;
@@ -36,8 +36,8 @@ import org.headsupdev.agile.api.Project;
 import org.headsupdev.agile.api.User;
 
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
-import java.util.List;
 
 /**
  * A build command for managing continuous integration from the IRC bot
@@ -64,7 +64,8 @@ public class BuildCommand
         {
             if ( message.equals( "list" ) )
             {
-                listProjects( channel, new HashSet<Project>( Manager.getStorageInstance().getRootProjects() ), "", conn );
+                listProjects( channel, new HashSet<Project>( Manager.getStorageInstance().getRootProjects() ), "",
+                        getBuildSummaries(), conn );
             }
             else
             {
@@ -112,16 +113,17 @@ public class BuildCommand
             "  or specify the <projectId> (or 'all') to queue the projects for building";
     }
 
-    private void listProjects( String channel, Set<Project> projects, String indent, IRCConnection conn )
+    private void listProjects( String channel, Set<Project> projects, String indent,
+                               Map<String, BuildSummary> summaries, IRCConnection conn )
     {
         for ( Project project : projects )
         {
             String message = indent + project.getId() + " \t";
 
-            Build build = getLatestBuildForProject( project );
-            if ( build != null )
+            BuildSummary summary = summaries.get( project.getId() );
+            if ( summary != null )
             {
-                switch ( build.getStatus() )
+                switch ( summary.getStatus() )
                 {
                     case Build.BUILD_FAILED:
                         message += "FAILED";
@@ -138,7 +140,7 @@ public class BuildCommand
                     default:
                         message += "OK";
                 }
-                message += " \t" + build.getId();
+                message += " \t" + summary.getLatestBuildId();
 
                 if ( CIBuilder.isProjectQueued( project ) )
                 {
@@ -147,27 +149,19 @@ public class BuildCommand
             }
             conn.sendMessage( channel, message );
 
-            listProjects( channel, project.getChildProjects(), indent + "  ", conn );
+            listProjects( channel, project.getChildProjects(), indent + "  ", summaries, conn );
         }
     }
 
-    private Build getLatestBuildForProject( Project project )
+    private Map<String, BuildSummary> getBuildSummaries()
     {
-        Build build = null;
         Session session = HibernateUtil.getCurrentSession();
 
         Transaction tx = session.beginTransaction();
-        Query q = session.createQuery( "from Build b where id.project.id = :pid order by id.id desc" );
-        q.setString( "pid", project.getId() );
-        q.setMaxResults( 1 );
-        List<Build> builds = q.list();
-        if ( builds.size() > 0 )
-        {
-            build = builds.get( 0 );
-        }
+        Map<String, BuildSummary> summaries = CIApplication.getBuildSummaries();
         tx.commit();
 
-        return build;
+        return summaries;
     }
 
     private boolean canAnonUserBuild( Project project )
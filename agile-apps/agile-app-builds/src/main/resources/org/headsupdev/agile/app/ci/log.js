@@ -0,0 +1,61 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+/*
+ * Follow the output of a running build, asking the server for anything written after the last offset we saw.
+ * We keep polling once a second until the build has stopped and there is no more output to collect.
+ */
+function followBuildLog( elementId, url, offset )
+{
+    var poll = function()
+    {
+        jQuery.ajax( {
+            url: url + "?offset=" + offset,
+            dataType: "text",
+            cache: false,
+            success: function( data, status, request )
+            {
+                var next = parseInt( request.getResponseHeader( "X-Log-Offset" ), 10 );
+                if ( !isNaN( next ) )
+                {
+                    offset = next;
+                }
+                if ( data.length > 0 )
+                {
+                    document.getElementById( elementId ).appendChild( document.createTextNode( data ) );
+                }
+
+                if ( request.getResponseHeader( "X-Build-Running" ) == "true" || data.length > 0 )
+                {
+                    setTimeout( poll, 1000 );
+                }
+            },
+            error: function( request )
+            {
+                // keep trying if the server is busy or restarting, but not if we are refused or the build is gone
+                if ( request.status == 0 || request.status >= 500 )
+                {
+                    setTimeout( poll, 5000 );
+                }
+            }
+        } );
+    };
+
+    setTimeout( poll, 1000 );
+}
@@ -0,0 +1,158 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.headsupdev.agile.app.ci.builders;
+
+import junit.framework.TestCase;
+import org.headsupdev.agile.storage.HibernateStorage;
+import org.headsupdev.agile.storage.ci.TestResult;
+import org.headsupdev.agile.storage.ci.TestResultSet;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for reading surefire XML reports
+ *
+ * @author Andrew Williams
+ * @since 2.0
+ */
+public class SurefireReportParserTest
+        extends TestCase
+{
+    private RecordingStorage storage;
+    private TestResultWriter writer;
+    private TestResultSet set;
+
+    public void setUp()
+    {
+        storage = new RecordingStorage();
+        writer = new TestResultWriter( storage, null );
+        set = new TestResultSet( "org.example.SampleTest", null );
+    }
+
+    public void testSuiteTotals()
+            throws Exception
+    {
+        SurefireReportParser parser = new SurefireReportParser();
+        parser.parse( getReport( "TEST-org.example.SampleTest.xml" ), set, writer );
+
+        assertEquals( "Wrong declared test count", 4, parser.getTests() );
+        assertEquals( "Wrong declared failure count", 1, parser.getFailures() );
+        assertEquals( "Wrong declared error count", 1, parser.getErrors() );
+        assertEquals( "Grouped suite time not parsed", 1234500, parser.getTime() );
+
+        assertEquals( "Wrong set test count", 4, set.getTests() );
+        assertEquals( "Wrong set failure count", 1, set.getFailures() );
+        assertEquals( "Wrong set error count", 1, set.getErrors() );
+        assertEquals( "Wrong set duration", 1234500, set.getDuration() );
+    }
+
+    public void testCaseResults()
+            throws Exception
+    {
+        new SurefireReportParser().parse( getReport( "TEST-org.example.SampleTest.xml" ), set, writer );
+
+        assertEquals( "Wrong number of results written", 4, storage.results.size() );
+
+        TestResult passed = storage.results.get( 0 );
+        assertEquals( "testPasses", passed.getName() );
+        assertEquals( TestResult.STATUS_PASSED, passed.getStatus() );
+        assertEquals( 12, passed.getDuration() );
+        assertEquals( "", passed.getMessage() );
+
+        TestResult failed = storage.results.get( 1 );
+        assertEquals( "testFails", failed.getName() );
+        assertEquals( TestResult.STATUS_FAILED, failed.getStatus() );
+        assertEquals( 500, failed.getDuration() );
+        assertEquals( "expected:<1> but was:<2>", failed.getMessage() );
+        assertTrue( "Failure output not read", failed.getOutput().contains( "SampleTest.java:20" ) );
+
+        TestResult error = storage.results.get( 2 );
+        assertEquals( "testErrors", error.getName() );
+        assertEquals( TestResult.STATUS_ERROR, error.getStatus() );
+        assertEquals( "java.lang.NullPointerException", error.getMessage() );
+        assertTrue( "Error output not read", error.getOutput().contains( "SampleTest.java:25" ) );
+
+        TestResult noTime = storage.results.get( 3 );
+        assertEquals( "testNoTime", noTime.getName() );
+        assertEquals( "Missing time should be zero", 0, noTime.getDuration() );
+    }
+
+    public void testTruncatedReport()
+            throws Exception
+    {
+        try
+        {
+            new SurefireReportParser().parse( getReport( "TEST-org.example.BrokenTest.xml" ), set, writer );
+            fail( "A truncated report should not parse" );
+        }
+        catch ( IOException e )
+        {
+            // expected
+        }
+
+        assertEquals( "Completed test cases should be kept", 1, storage.results.size() );
+        assertEquals( "testFirst", storage.results.get( 0 ).getName() );
+    }
+
+    private File getReport( String name )
+            throws URISyntaxException
+    {
+        return new File( getClass().getResource( name ).toURI() );
+    }
+
+    /**
+     * A storage whose session just records the test results that are saved
+     */
+    private static class RecordingStorage
+        extends HibernateStorage
+        implements InvocationHandler
+    {
+        private List<TestResult> results = new ArrayList<TestResult>();
+
+        @Override
+        public Session getHibernateSession()
+        {
+            return (Session) Proxy.newProxyInstance( getClass().getClassLoader(), new Class[]{ Session.class }, this );
+        }
+
+        public Object invoke( Object proxy, Method method, Object[] args )
+        {
+            if ( method.getName().equals( "beginTransaction" ) )
+            {
+                return Proxy.newProxyInstance( getClass().getClassLoader(), new Class[]{ Transaction.class }, this );
+            }
+            if ( method.getName().equals( "save" ) && args[0] instanceof TestResult )
+            {
+                results.add( (TestResult) args[0] );
+            }
+
+            return null;
+        }
+    }
+}
@@ -23,9 +23,10 @@ import java.awt.geom.AffineTransform;
 import java.util.*;
 import java.util.List;
 
-import org.headsupdev.agile.api.Event;
 import org.headsupdev.agile.api.Manager;
 import org.headsupdev.agile.app.dashboard.permission.MemberViewPermission;
+import org.headsupdev.agile.storage.ActivityRollup;
+import org.headsupdev.agile.storage.HibernateStorage;
 import org.headsupdev.agile.web.CachedImageResource;
 import org.headsupdev.agile.web.WebUtil;
 import org.headsupdev.agile.web.MountPoint;
@@ -86,10 +87,10 @@ public class AccountGraph
         cal.add( Calendar.DATE, -28 );
         Date start = cal.getTime();
 
-        List<Event> events =
-            Manager.getStorageInstance().getEventsForUser( user, start, now );
+        List<ActivityRollup> rollups = ( (HibernateStorage) Manager.getStorageInstance() ).getActivityRollupsForUser(
+                user, ActivityRollup.PERIOD_DAY, start );
 
-        int[][] totals = getTotalsForEvents( events, now );
+        int[][] totals = getTotalsForRollups( rollups, start );
         int graphTop = getTotalMax( totals );
         if ( graphTop == 0 )
         {
@@ -133,6 +134,12 @@ public class AccountGraph
         drawString( g, String.valueOf( graphTop ), getHeight(), 13, PAD, Component.RIGHT_ALIGNMENT, -Math.PI / 2 );
     }
 
+    @Override
+    protected Collection<String> getCacheTags()
+    {
+        return Arrays.asList( TAG_USER_ACTIVITY );
+    }
+
     public int getWidth()
     {
         return WIDTH + PAD * 2;
@@ -143,56 +150,35 @@ public class AccountGraph
         return HEIGHT + PAD * 2;
     }
 
-    private int[][] getTotalsForEvents( List<Event> events, Date now )
+    private int[][] getTotalsForRollups( List<ActivityRollup> rollups, Date start )
     {
         int[][] ret = new int[28][4];
 
-        Calendar cal = new GregorianCalendar();
-        cal.setTime( now );
-        cal.set( Calendar.HOUR_OF_DAY, 0 );
-        cal.set( Calendar.MINUTE, 0 );
-        cal.set( Calendar.SECOND, 0 );
-
-        Date divStart = cal.getTime();
-        ListIterator<Event> eventIter = events.listIterator();
-        for ( int c = 27; c >= 0; c-- )
+        for ( ActivityRollup rollup : rollups )
         {
-            ret[c][CHANGES] = 0;
-            ret[c][ISSUES] = 0;
-            ret[c][DOCS] = 0;
-            ret[c][MILESTONES] = 0;
-
-            while ( eventIter.hasNext() )
+            // round so that a daylight saving change does not move us to the wrong day, the first day is not drawn
+            int c = (int) Math.round( ( rollup.getStart().getTime() - start.getTime() ) / ( 24 * 60 * 60 * 1000.0 ) ) - 1;
+            if ( c < 0 || c >= 28 )
             {
-                Event next = eventIter.next();
-                if ( divStart.before( next.getTime() ) )
-                {
-                    if ( next.getApplicationId().equals( "files" ) )
-                    {
-                        ret[c][CHANGES]++;
-                    }
-                    else if ( next.getApplicationId().equals( "issues" ) )
-                    {
-                        ret[c][ISSUES]++;
-                    }
-                    else if ( next.getApplicationId().equals( "docs" ) )
-                    {
-                        ret[c][DOCS]++;
-                    }
-                    else if ( next.getApplicationId().equals( "milestones" ) )
-                    {
-                        ret[c][MILESTONES]++;
-                    }
-                }
-                else
-                {
-                    eventIter.previous();
-                    break;
-                }
+                continue;
             }
 
-            cal.add( Calendar.DATE, -1 );
-            divStart = cal.getTime();
+            if ( rollup.getApplicationId().equals( "files" ) )
+            {
+                ret[c][CHANGES] += rollup.getTotal();
+            }
+            else if ( rollup.getApplicationId().equals( "issues" ) )
+            {
+                ret[c][ISSUES] += rollup.getTotal();
+            }
+            else if ( rollup.getApplicationId().equals( "docs" ) )
+            {
+                ret[c][DOCS] += rollup.getTotal();
+            }
+            else if ( rollup.getApplicationId().equals( "milestones" ) )
+            {
+                ret[c][MILESTONES] += rollup.getTotal();
+            }
         }
 
         return ret;
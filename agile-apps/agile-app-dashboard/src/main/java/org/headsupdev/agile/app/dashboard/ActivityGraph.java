@@ -19,13 +19,12 @@
 package org.headsupdev.agile.app.dashboard;
 
 import org.headsupdev.agile.api.*;
-import org.headsupdev.agile.api.Event;
 import org.headsupdev.agile.app.dashboard.permission.ProjectViewPermission;
+import org.headsupdev.agile.storage.ActivityRollup;
 import org.headsupdev.agile.storage.issues.Milestone;
 import org.headsupdev.agile.storage.HibernateStorage;
 import org.headsupdev.agile.web.CachedImageResource;
 import org.headsupdev.agile.web.WebUtil;
-import org.headsupdev.agile.web.ApplicationPageMapper;
 import org.headsupdev.agile.web.MountPoint;
 
 import java.awt.*;
@@ -127,8 +126,8 @@ public class ActivityGraph
         }
         Date start = cal.getTime();
 
-        // draw CI results
-        java.util.List<Event> ciEvents = getEvents( "builds", project, start, now, tree );
+        // draw CI results - the state depends on the order of the builds so we cannot use the rollups here
+        java.util.List<EventSummary> ciEvents = getEvents( "builds", project, start, now, tree );
         boolean[] ciStates = getStatesForCIEvents( ciEvents, now );
 
         for ( int i = 0; i < ciStates.length; i++ )
@@ -149,11 +148,10 @@ public class ActivityGraph
         }
 
         // Draw issue bars
-        java.util.List<Event> issueEvents = getEvents( "issues", project, start, now, tree );
-        // TODO optimise this, we don't need 3 iterations
-        int[] issueCreateTotals = getTotalsForEvents( issueEvents, now, "CreateIssueEvent" );
-        int[] issueUpdateTotals = getTotalsForEvents( issueEvents, now, "UpdateIssueEvent" );
-        int[] issueCloseTotals = getTotalsForEvents( issueEvents, now, "CloseIssueEvent" );
+        java.util.List<ActivityRollup> rollups = getRollups( project, start, tree );
+        int[] issueCreateTotals = getTotalsForRollups( rollups, start, "issues", "createissue" );
+        int[] issueUpdateTotals = getTotalsForRollups( rollups, start, "issues", "updateissue" );
+        int[] issueCloseTotals = getTotalsForRollups( rollups, start, "issues", "closeissue" );
         int issueMax = getTotalMax( issueCreateTotals ) + getTotalMax( issueUpdateTotals ) + getTotalMax( issueCloseTotals );
 
         double graphTop = issueMax * 2.2;
@@ -182,10 +180,8 @@ public class ActivityGraph
         }
 
         // Draw docs bars
-        java.util.List<Event> docEvents = getEvents( "docs", project, start, now, tree );
-        // TODO optimise this, we don't need 3 iterations
-        int[] docCreateTotals = getTotalsForEvents( docEvents, now, "CreateDocumentEvent" );
-        int[] docUpdateTotals = getTotalsForEvents( docEvents, now, "UpdateDocumentEvent" );
+        int[] docCreateTotals = getTotalsForRollups( rollups, start, "docs", "createdocument" );
+        int[] docUpdateTotals = getTotalsForRollups( rollups, start, "docs", "updatedocument" );
         int docMax = getTotalMax( docCreateTotals ) + getTotalMax( docUpdateTotals );
 
         graphTop = docMax * 2.2;
@@ -212,8 +208,7 @@ public class ActivityGraph
         }
 
         // draw the scm line chart
-        java.util.List<Event> scmEvents = getEvents( "files", project, start, now, tree );
-        int[] scmTotals = getTotalsForEvents( scmEvents, now );
+        int[] scmTotals = getTotalsForRollups( rollups, start, "files", null );
         int scmMax = getTotalMax( scmTotals );
 
         graphTop = scmMax;
@@ -306,6 +301,18 @@ public class ActivityGraph
         drawString( g, "0%", getHeight(), 247, PAD, Component.RIGHT_ALIGNMENT, Math.PI / 2 );
     }
 
+    @Override
+    protected Collection<String> getCacheTags()
+    {
+        Project project = getProject();
+        if ( project == null )
+        {
+            return Collections.emptyList();
+        }
+
+        return Arrays.asList( getProjectTag( project ) );
+    }
+
     public int getWidth()
     {
         return WIDTH + PAD * 4; // add more space to display the side stack for milestone completion
@@ -327,86 +334,64 @@ public class ActivityGraph
         return true;
     }
 
-    private List<Event> getEvents( String app, Project project, Date start, Date end, boolean tree )
+    private List<EventSummary> getEvents( String app, Project project, Date start, Date end, boolean tree )
     {
-        Application application = ApplicationPageMapper.get().getApplication( app );
-        if ( application == null )
-        {
-            // application is still loading, return empty list for now
-            // TODO something more clever
-            return new LinkedList<Event>();
-        }
+        EventQuery query = new EventQuery( project, tree );
+        query.setApplicationId( app );
+        query.setSince( start );
+        query.setBefore( end );
+        query.setLimit( 0 );
 
-        if ( tree )
-        {
-            return application.getEventsForProjectTree( project, start, end );
-        }
-        else
-        {
-            return application.getEventsForProject( project, start, end );
-        }
+        return Manager.getStorageInstance().getEventSummaries( query );
     }
 
-    private int[] getTotalsForEvents( List<Event> events, Date now )
+    private List<ActivityRollup> getRollups( Project project, Date start, boolean tree )
     {
-        return getTotalsForEvents( events, now, null );
+        int period = isMonth() ? ActivityRollup.PERIOD_DAY : ActivityRollup.PERIOD_MONTH;
+
+        return ( (HibernateStorage) Manager.getStorageInstance() ).getActivityRollups( project, tree, null, period,
+                start );
     }
 
-    private int[] getTotalsForEvents( List<Event> events, Date now, String eventClass )
+    private int[] getTotalsForRollups( List<ActivityRollup> rollups, Date start, String applicationId, String type )
     {
         int divisions = getDivisions();
         int[] ret = new int[divisions];
 
+        Calendar startCal = new GregorianCalendar();
+        startCal.setTime( start );
         Calendar cal = new GregorianCalendar();
-        cal.setTime( now );
-        cal.set( Calendar.HOUR_OF_DAY, 0 );
-        cal.set( Calendar.MINUTE, 0 );
-        cal.set( Calendar.SECOND, 0 );
-        if ( !isMonth() )
-        {
-            cal.set( Calendar.DAY_OF_MONTH, 1 );
-        }
-
-        Date divStart = cal.getTime();
-        ListIterator<Event> eventIter = events.listIterator();
-        for ( int c = divisions - 1; c >= 0; c-- )
+        for ( ActivityRollup rollup : rollups )
         {
-            int total = 0;
-
-            while ( eventIter.hasNext() )
+            if ( !applicationId.equals( rollup.getApplicationId() ) ||
+                    ( type != null && !type.equals( rollup.getType() ) ) )
             {
-                Event next = eventIter.next();
-                if ( divStart.before( next.getTime() ) )
-                {
-                    if ( eventClass == null || next.getClass().getName().endsWith( eventClass ) )
-                    {
-                        total++;
-                    }
-                }
-                else
-                {
-                    eventIter.previous();
-                    break;
-                }
+                continue;
             }
 
-            ret[c] = total;
-
+            int division;
             if ( isMonth() )
             {
-                cal.add( Calendar.DATE, -1 );
+                // round so that a daylight saving change does not move us to the wrong day
+                division = (int) Math.round( ( rollup.getStart().getTime() - start.getTime() ) / ( 24 * 60 * 60 * 1000.0 ) );
             }
             else
             {
-                cal.add( Calendar.MONTH, -1 );
+                cal.setTime( rollup.getStart() );
+                division = ( cal.get( Calendar.YEAR ) - startCal.get( Calendar.YEAR ) ) * 12 +
+                        cal.get( Calendar.MONTH ) - startCal.get( Calendar.MONTH );
+            }
+
+            if ( division >= 0 && division < divisions )
+            {
+                ret[division] += rollup.getTotal();
             }
-            divStart = cal.getTime();
         }
 
         return ret;
     }
 
-    private boolean[] getStatesForCIEvents( List<Event> events, Date now )
+    private boolean[] getStatesForCIEvents( List<EventSummary> events, Date now )
     {
         int divisions = getDivisions();
         boolean[] ret = new boolean[divisions];
@@ -427,32 +412,32 @@ public class ActivityGraph
             cal.add( Calendar.DATE, -26 );
         }
 
-        List<Project> projects = new LinkedList<Project>();
+        List<String> projects = new LinkedList<String>();
         // TODO we actually need to find what the current state is (look to the previous event)
-        ListIterator<Event> eventIter = events.listIterator();
+        ListIterator<EventSummary> eventIter = events.listIterator();
         while ( eventIter.hasNext() )
         {
-            Event e = eventIter.next();
-            if ( !projects.contains( e.getProject() ) ) {
-                projects.add( e.getProject() );
+            EventSummary e = eventIter.next();
+            if ( !projects.contains( e.getProjectId() ) ) {
+                projects.add( e.getProjectId() );
             }
         }
 
-        Map<Project, Boolean> states = new HashMap<Project, Boolean>();
+        Map<String, Boolean> states = new HashMap<String, Boolean>();
         Date divEnd = cal.getTime();
         eventIter = events.listIterator();
         for ( int c = 0; c < divisions; c++ )
         {
-            Map<Project, Integer> failureMap = new HashMap<Project, Integer>();
-            Map<Project, Boolean> finalFailures = new HashMap<Project, Boolean>();
-            Map<Project, Boolean> finalSuccesses = new HashMap<Project, Boolean>();
+            Map<String, Integer> failureMap = new HashMap<String, Integer>();
+            Map<String, Boolean> finalFailures = new HashMap<String, Boolean>();
+            Map<String, Boolean> finalSuccesses = new HashMap<String, Boolean>();
 
             while ( eventIter.hasNext() )
             {
-                Event next = eventIter.next();
+                EventSummary next = eventIter.next();
                 if ( divEnd.after( next.getTime() ) )
                 {
-                    Project p = next.getProject();
+                    String p = next.getProjectId();
                     int failures = 0;
                     if ( failureMap.containsKey( p ) ) {
                         failures = failureMap.get( p );
@@ -466,12 +451,12 @@ public class ActivityGraph
                         finallySucceeded = finalSuccesses.get( p );
                     }
 
-                    if ( next.getClass().getName().endsWith( "BuildSucceededEvent" ) )
+                    if ( "buildsucceeded".equals( next.getType() ) )
                     {
                         finallyFailed = false;
                         finallySucceeded = true;
                     }
-                    else if ( next.getClass().getName().endsWith( "BuildFailedEvent" ) )
+                    else if ( "buildfailed".equals( next.getType() ) )
                     {
                         failures++;
                         finallyFailed = true;
@@ -490,7 +475,7 @@ public class ActivityGraph
             }
 
             int failures = 0;
-            for ( Project project : projects )
+            for ( String project : projects )
             {
                 if ( failureMap.containsKey( project ) )
                 {
@@ -556,9 +541,11 @@ public class ActivityGraph
     {
         int completingMilestones = 0;
         double milestoneCompletion = 0.0;
-        if ( recurse && project.getChildProjects().size() > 0 )
+        if ( recurse )
         {
-            for ( Project child : project.getChildProjects() )
+            HibernateStorage storage = (HibernateStorage) Manager.getStorageInstance();
+            List<String> childIds = storage.getProjectHierarchy().getChildIds( project.getId() );
+            for ( Project child : storage.getProjects( childIds ) )
             {
                 double completion = getCompletion( child, recurse );
                 if ( completion >= 0 )
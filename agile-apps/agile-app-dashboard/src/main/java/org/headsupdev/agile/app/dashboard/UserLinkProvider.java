@@ -23,6 +23,9 @@ import org.headsupdev.agile.api.Manager;
 import org.headsupdev.agile.api.Project;
 import org.headsupdev.agile.api.User;
 
+import java.util.HashSet;
+import java.util.Set;
+
 /**
  * Docs link format for a users profile
  *
@@ -55,4 +58,24 @@ public class UserLinkProvider extends LinkProvider
 
         return user == null;
     }
+
+    @Override
+    public Set<String> getBrokenLinks( Set<String> params, Project project )
+    {
+        Set<String> usernames = new HashSet<String>();
+        for ( User user : Manager.getSecurityInstance().getUsers() )
+        {
+            usernames.add( user.getUsername().toUpperCase() );
+        }
+
+        Set<String> broken = new HashSet<String>();
+        for ( String param : params )
+        {
+            if ( !usernames.contains( param.toUpperCase() ) )
+            {
+                broken.add( param );
+            }
+        }
+        return broken;
+    }
 }
\ No newline at end of file
@@ -22,6 +22,9 @@ import org.headsupdev.agile.api.LinkProvider;
 import org.headsupdev.agile.api.Project;
 import org.headsupdev.agile.storage.docs.Document;
 
+import java.util.HashSet;
+import java.util.Set;
+
 /**
  * Doc link format for another document
  *
@@ -53,4 +56,12 @@ public class DocLinkProvider extends LinkProvider
         Document doc = DocsApplication.getDocument( params, project );
         return doc == null;
     }
+
+    @Override
+    public Set<String> getBrokenLinks( Set<String> params, Project project )
+    {
+        Set<String> broken = new HashSet<String>( params );
+        broken.removeAll( DocsApplication.getExistingDocumentNames( params, project ) );
+        return broken;
+    }
 }
@@ -35,8 +35,10 @@ import org.hibernate.Query;
 import org.osgi.framework.BundleContext;
 
 import java.io.File;
+import java.util.HashSet;
 import java.util.List;
 import java.util.LinkedList;
+import java.util.Set;
 
 /**
  * The application descriptor for documents
@@ -174,6 +176,37 @@ public class DocsApplication
         return ret;
     }
 
+    /**
+     * Find which of the given document names exist in a project using a single query.
+     */
+    public static Set<String> getExistingDocumentNames( Set<String> names, Project project )
+    {
+        Set<String> ret = new HashSet<String>();
+        if ( names.isEmpty() )
+        {
+            return ret;
+        }
+
+        Session session = ( (HibernateStorage) Manager.getStorageInstance() ).getHibernateSession();
+
+        Transaction tx = session.beginTransaction();
+        Query q;
+        if ( project == null )
+        {
+            q = session.createQuery( "select d.name.name from Document d where d.name.name in (:names) and d.name.project is null" );
+        }
+        else
+        {
+            q = session.createQuery( "select d.name.name from Document d where d.name.name in (:names) and d.name.project = :project" );
+            q.setEntity( "project", project );
+        }
+        q.setParameterList( "names", names );
+        ret.addAll( (List<String>) q.list() );
+        tx.commit();
+
+        return ret;
+    }
+
     public void addDocument( Document doc )
     {
         Session session = ( (HibernateStorage) Manager.getStorageInstance() ).getHibernateSession();
@@ -181,6 +214,8 @@ public class DocsApplication
         Transaction tx = session.beginTransaction();
         session.save( doc );
         tx.commit();
+
+        LinkProvider.targetsChanged();
     }
 
     public static Comment getComment( long id )
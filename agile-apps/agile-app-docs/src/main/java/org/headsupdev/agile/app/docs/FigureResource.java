@@ -51,7 +51,7 @@ public class FigureResource
         setFormat( "application/octet-stream" );
     }
 
-    protected byte[] getImageData()
+    protected byte[] createImageData()
     {
         String projectStr = getParameters().getString( "project" );
         String docStr = getParameters().getString( "page" );
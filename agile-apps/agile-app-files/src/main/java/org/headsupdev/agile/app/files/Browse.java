@@ -286,6 +286,36 @@ public class Browse
             parent.add( iconLink );
             add( parent );
 
+            // file details are recorded against the root project, so find where this directory sits within it
+            String rootPath = dir.replace( ':', File.separatorChar );
+            File searchDir = getStorage().getWorkingDirectory( getProject() );
+            Project searchRoot = getProject();
+            while ( searchRoot.getParent() != null )
+            {
+                searchRoot = searchRoot.getParent();
+                rootPath = searchDir.getName() + File.separatorChar + rootPath;
+                searchDir = searchDir.getParentFile();
+            }
+            final Project root = searchRoot;
+            final String rootDir = rootPath;
+
+            String directory = rootPath;
+            if ( directory.endsWith( File.separator ) )
+            {
+                directory = directory.substring( 0, directory.length() - 1 );
+            }
+            final Map<String, org.headsupdev.agile.storage.files.File> directoryMap =
+                    app.getDirectoryFileMap( root, directory );
+            Set<String> revisions = new HashSet<String>();
+            for ( org.headsupdev.agile.storage.files.File fileMeta : directoryMap.values() )
+            {
+                if ( fileMeta.getRevision() != null )
+                {
+                    revisions.add( fileMeta.getRevision() );
+                }
+            }
+            final Map<String, ChangeSet> changes = app.getChangeSets( root, revisions );
+
             add( new StripedListView<File>( "browse-items", files )
             {
                 protected void populateItem( ListItem<File> listItem )
@@ -320,32 +350,29 @@ public class Browse
                     String author, comment;
                     Date modified;
 
-                    String searchPath = dir.replace( ':', File.separatorChar ) + file.getName();
-                    File searchDir = getStorage().getWorkingDirectory( getProject() );
-                    Project root = getProject();
-                    while ( root.getParent() != null )
-                    {
-                        root = root.getParent();
-                        searchPath = searchDir.getName() + File.separatorChar + searchPath;
-                        searchDir = searchDir.getParentFile();
-                    }
-                    Map<String, org.headsupdev.agile.storage.files.File> projectMap = app.getProjectFileMap( root );
+                    org.headsupdev.agile.storage.files.File fileMeta = directoryMap.get( rootDir + file.getName() );
                     String fileRevision = null;
-                    if ( projectMap != null )
+                    if ( fileMeta != null )
                     {
-                        org.headsupdev.agile.storage.files.File fileMeta = projectMap.get( searchPath );
-                        if ( fileMeta != null )
-                        {
-                            fileRevision = fileMeta.getRevision();
-                        }
+                        fileRevision = fileMeta.getRevision();
                     }
+                    ChangeSet change = null;
                     if ( fileRevision != null )
                     {
-                        ChangeSet change = Manager.getInstance().getScmService().getChangeSet( root, fileRevision );
+                        change = changes.get( fileRevision );
+                    }
+                    if ( change != null )
+                    {
                         author = change.getAuthor();
                         comment = change.getComment();
                         modified = change.getDate();
                     }
+                    else if ( fileMeta != null && fileMeta.getAuthor() != null )
+                    {
+                        author = fileMeta.getAuthor();
+                        comment = "";
+                        modified = fileMeta.getDate();
+                    }
                     else
                     {
                         author = "";
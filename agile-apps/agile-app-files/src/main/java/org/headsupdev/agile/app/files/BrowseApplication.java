@@ -18,11 +18,13 @@
 
 package org.headsupdev.agile.app.files;
 
+import org.headsupdev.agile.api.service.ChangeSet;
 import org.headsupdev.agile.api.service.ScmService;
 import org.headsupdev.agile.app.files.event.FileChangeSetEvent;
 import org.headsupdev.agile.app.files.permission.FileListPermission;
 import org.headsupdev.agile.app.files.permission.FileViewPermission;
 import org.headsupdev.agile.storage.HibernateStorage;
+import org.headsupdev.agile.storage.ScmChangeSet;
 import org.headsupdev.agile.storage.files.File;
 import org.headsupdev.agile.web.WebApplication;
 import org.headsupdev.agile.storage.ScmChange;
@@ -45,13 +47,25 @@ public class BrowseApplication
 {
     public static final String ID = "files";
 
+    public static final ConfigurationItem CONFIGURATION_UPDATE_THREADS = new ConfigurationItem( "update.threads", 4,
+        "Concurrent project updates", "The maximum number of root projects that will be updated from their " +
+        "repositories at the same time" );
+    public static final ConfigurationItem CONFIGURATION_POLL_MAXIMUM = new ConfigurationItem( "update.poll.maximum", 240,
+        "Maximum poll interval (minutes)", "Repositories with no recent changes are checked less often, up to this " +
+        "many minutes apart. Repositories that notify us of commits are updated straight away" );
+
     static transient BrowseScmUpdater updater = new BrowseScmUpdater();
+    static transient DirectoryIndexer indexer;
+    private static final Set<String> indexedRoots = Collections.synchronizedSet( new HashSet<String>() );
 
     List<MenuLink> links;
     List<String> eventTypes;
 
     public BrowseApplication()
     {
+        addConfigurationItem( CONFIGURATION_UPDATE_THREADS );
+        addConfigurationItem( CONFIGURATION_POLL_MAXIMUM );
+
         links = new LinkedList<MenuLink>();
 
         eventTypes = new LinkedList<String>();
@@ -67,6 +81,9 @@ public class BrowseApplication
 
         Dictionary props = new Properties();
         bc.registerService( ScmService.class.getName(), new BrowseScmService(), props );
+
+        indexer = new DirectoryIndexer();
+        indexer.start();
     }
 
     public static BrowseScmUpdater getUpdater()
@@ -103,6 +120,12 @@ public class BrowseApplication
         return new Class[] { Browse.class, BrowseChange.class, BrowseFile.class, BrowseHistory.class, Update.class };
     }
 
+    @Override
+    public Class[] getResources()
+    {
+        return new Class[] { RawDiff.class };
+    }
+
     @Override
     public Class<? extends Page> getHomePage() {
         return Browse.class;
@@ -126,6 +149,11 @@ public class BrowseApplication
         super.stop( bc );
 
         updater.stop();
+        if ( indexer != null )
+        {
+            indexer.cancel();
+            indexer = null;
+        }
     }
 
     public List<File> getProjectFiles( Project project )
@@ -138,18 +166,119 @@ public class BrowseApplication
         return files;
     }
 
-    public Map<String, File> getProjectFileMap( Project project )
+    /**
+     * Get the details of the files and directories directly within a directory of a root project, keyed by their
+     * path. Once the project's file details are indexed by directory this is a single indexed query so the cost does
+     * not depend on the size of the project.
+     *
+     * @param root The root project that the file information is stored against
+     * @param directory The path of the directory relative to the root project, "" for the top level
+     * @return a map of path to file information, files that have not been loaded from the scm are missing
+     */
+    public Map<String, File> getDirectoryFileMap( Project root, String directory )
     {
-        List<File> files = getProjectFiles( project );
         Map<String, File> ret = new HashMap<String, File>();
+        if ( !isDirectoryIndexed( root ) )
+        {
+            // the DirectoryIndexer has not reached this project yet so look through all of its files
+            for ( File file : getProjectFiles( root ) )
+            {
+                if ( directory.equals( File.getDirectory( file.getName() ) ) )
+                {
+                    ret.put( file.getName(), file );
+                }
+            }
+            return ret;
+        }
 
-        for ( File file : files )
+        Session session = ( (HibernateStorage) Manager.getStorageInstance() ).getHibernateSession();
+        Query q = session.createQuery( "select f.name.name, f.revision, f.author, f.date from File f " +
+                "where f.name.project.id = :pid and f.directory = :directory" );
+        q.setString( "pid", root.getId() );
+        q.setString( "directory", directory );
+        q.setCacheable( true );
+
+        for ( Object[] row : (List<Object[]>) q.list() )
         {
-            ret.put( file.getName(), file );
+            String path = (String) row[0];
+            ret.put( path, new File( path, (String) row[1], (String) row[2], (Date) row[3], root ) );
         }
         return ret;
     }
 
+    /**
+     * Get the information stored about a single file or directory.
+     *
+     * @param root The root project that the file information is stored against
+     * @param path The path of the file relative to the root project
+     * @return the file information or null if it has not been loaded from the scm
+     */
+    public File getFile( Project root, String path )
+    {
+        Session session = ( (HibernateStorage) Manager.getStorageInstance() ).getHibernateSession();
+        Query q = session.createQuery( "from File f where f.name.project.id = :pid and f.name.name = :path" );
+        q.setString( "pid", root.getId() );
+        q.setString( "path", path );
+
+        return (File) q.uniqueResult();
+    }
+
+    /**
+     * Load the change sets for a number of revisions of a root project in one query, keyed by revision.
+     */
+    public Map<String, ChangeSet> getChangeSets( Project root, Collection<String> revisions )
+    {
+        Map<String, ChangeSet> ret = new HashMap<String, ChangeSet>();
+        if ( revisions.isEmpty() )
+        {
+            return ret;
+        }
+
+        Session session = ( (HibernateStorage) Manager.getStorageInstance() ).getHibernateSession();
+        Query q = session.createQuery( "from ScmChangeSet c where c.id.project.id = :pid and c.id.name in (:revisions)" );
+        q.setString( "pid", root.getId() );
+        q.setParameterList( "revisions", revisions );
+
+        for ( ScmChangeSet set : (List<ScmChangeSet>) q.list() )
+        {
+            ret.put( set.getId(), set );
+        }
+        return ret;
+    }
+
+    /**
+     * File information stored before the directory column was added is indexed in the background by the
+     * DirectoryIndexer, newer entries are written with their directory by the BrowseScmUpdater.
+     *
+     * @return true if every file entry of the root project has its directory recorded
+     */
+    static boolean isDirectoryIndexed( Project root )
+    {
+        if ( indexedRoots.contains( root.getId() ) )
+        {
+            return true;
+        }
+
+        Session session = ( (HibernateStorage) Manager.getStorageInstance() ).getHibernateSession();
+        Query q = session.createQuery( "select f.name.name from File f where f.name.project.id = :pid and " +
+                "f.directory is null" );
+        q.setString( "pid", root.getId() );
+        q.setMaxResults( 1 );
+
+        if ( !q.list().isEmpty() )
+        {
+            return false;
+        }
+
+        indexedRoots.add( root.getId() );
+        return true;
+    }
+
+    static void directoryIndexed( String rootId )
+    {
+        indexedRoots.add( rootId );
+    }
+
     public static List<ScmChange> getChanges( Project project, String path )
     {
         Session session = ( (HibernateStorage) Manager.getStorageInstance() ).getHibernateSession();
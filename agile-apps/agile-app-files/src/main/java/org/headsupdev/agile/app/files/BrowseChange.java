@@ -101,7 +101,7 @@ public class BrowseChange
             addLink( new BookmarkableMenuLink( getClass(), params, "\u25ba next changeset" ) );
         }
 
-        add( new ChangeSetPanel( "changeset", changeSet, stripPrefix ) );
+        add( new ChangeSetPanel( "changeset", changeSet, stripPrefix, true ) );
     }
 
     @Override
@@ -40,7 +40,6 @@ import org.apache.wicket.markup.html.link.Link;
 import java.io.*;
 import java.io.File;
 import java.net.URLEncoder;
-import java.util.Map;
 import java.util.Date;
 
 /**
@@ -147,15 +146,11 @@ public class BrowseFile
             searchPath = searchDir.getName() + File.separatorChar + searchPath;
             searchDir = searchDir.getParentFile();
         }
-        Map<String, org.headsupdev.agile.storage.files.File> projectMap = app.getProjectFileMap( root );
+        org.headsupdev.agile.storage.files.File fileMeta = app.getFile( root, searchPath );
         String fileRevision = null;
-        if ( projectMap != null )
+        if ( fileMeta != null )
         {
-            org.headsupdev.agile.storage.files.File fileMeta = projectMap.get( searchPath );
-            if ( fileMeta != null )
-            {
-                fileRevision = fileMeta.getRevision();
-            }
+            fileRevision = fileMeta.getRevision();
         }
 
         if ( fileRevision != null )
@@ -56,6 +56,11 @@ public class BrowseScmService implements ScmService
         return (ScmChangeSet) q.uniqueResult();
     }
 
+    public void requestUpdate( Project project )
+    {
+        BrowseApplication.getUpdater().notifyProject( project );
+    }
+
     public List<ChangeSet> getChangesSinceRevision( String fromRevision, Project project )
     {
         Session session = ( (HibernateStorage) Manager.getStorageInstance() ).getHibernateSession();
@@ -33,12 +33,16 @@ import org.apache.maven.scm.command.changelog.ChangeLogSet;
 import org.apache.maven.scm.command.diff.DiffScmResult;
 import org.apache.maven.scm.command.update.UpdateScmResult;
 import org.headsupdev.support.java.FileUtil;
+import org.hibernate.Query;
 import org.hibernate.Transaction;
 import org.hibernate.Session;
 import org.hibernate.criterion.Restrictions;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * A class used to run the scm updater thread - this keeps projects up to date and loads the metadata about the chates.
@@ -50,17 +54,57 @@ import java.util.*;
 public class BrowseScmUpdater
     implements ProjectListener
 {
+    /**
+     * The number of changesets a worker will import for one project before it goes to the back of the queue,
+     * this stops a large initial import from holding a worker while smaller projects wait.
+     */
+    private static final int CHANGESETS_PER_TURN = 100;
+
+    /**
+     * The number of changesets written in each transaction when importing the history of a project.
+     */
+    private static final int IMPORT_BATCH_SIZE = 50;
+
+    /**
+     * How often we look for projects that are due to be polled, also the shortest interval between polls.
+     */
+    private static final long POLL_INTERVAL = 1000 * 60 * 15;
+    private static final int MAX_POLL_BACKOFF = 8;
+
     private HeadsUpScmManager scmManager = HeadsUpScmManager.getInstance();
 
     private Thread updater;
-    private List<String> pendingUpdates = new LinkedList<String>();
-    private boolean shutdown = false;
-    private boolean updating = false;
+    private ExecutorService workers;
+
+    // pendingUpdates is also the lock for inFlight and check
+    private final LinkedList<String> pendingUpdates = new LinkedList<String>();
+    private final Set<String> inFlight = new HashSet<String>();
+    private final Map<String, Boolean> partialImports = new HashMap<String, Boolean>();
+    private Task check;
+
+    // the adaptive polling state for each root project, these are locked on pollCounts
+    private final Map<String, Integer> pollCounts = new HashMap<String, Integer>();
+    private final Map<String, Long> lastPolled = new HashMap<String, Long>();
+    private volatile boolean pollAll = false;
+
+    private volatile boolean shutdown = false;
 
     private Logger log = Manager.getLogger( getClass().getName() );
 
     public BrowseScmUpdater()
     {
+        workers = Executors.newCachedThreadPool( new ThreadFactory()
+        {
+            private int count = 0;
+
+            public synchronized Thread newThread( Runnable runnable )
+            {
+                Thread thread = new Thread( runnable, "scm-updater-" + ( ++count ) );
+                thread.setDaemon( true );
+                return thread;
+            }
+        } );
+
         updater = new Thread()
         {
             public void run()
@@ -79,10 +123,16 @@ public class BrowseScmUpdater
                 {
                     try
                     {
-                        // add each (not currently updating) project to the list again and make sure we are updating
+                        // add each project that is due a poll to the list again and make sure we are updating
+                        long now = System.currentTimeMillis();
+                        boolean all = pollAll;
+                        pollAll = false;
                         for ( Project project : Manager.getStorageInstance().getRootProjects() )
                         {
-                            queueProject( project );
+                            if ( all || isPollDue( project.getId(), now ) )
+                            {
+                                queueProject( project );
+                            }
                         }
                         updateProjects();
                     }
@@ -93,7 +143,7 @@ public class BrowseScmUpdater
 
                     try
                     {
-                        Thread.sleep( 1000 * 60 * 15/* 60 */);
+                        Thread.sleep( POLL_INTERVAL );
                     }
                     catch ( InterruptedException e )
                     {
@@ -111,13 +161,96 @@ public class BrowseScmUpdater
     {
         shutdown = true;
         updater.interrupt();
+        workers.shutdown();
     }
 
     public void updateAll()
     {
+        pollAll = true;
         updater.interrupt();
     }
 
+    /**
+     * Called when a repository tells us it has new commits, for example from a post-commit hook.
+     * The project is queued straight away and it's polling interval is reset.
+     * Repeated notifications coalesce - a project is never queued more than once, so a burst of notifications
+     * causes at most one more update after any that is currently running.
+     */
+    public void notifyProject( Project project )
+    {
+        while ( project.getParent() != null )
+        {
+            project = project.getParent();
+        }
+
+        synchronized ( pollCounts )
+        {
+            pollCounts.put( project.getId(), 0 );
+        }
+        queueProject( project );
+        updateProjects();
+    }
+
+    /**
+     * A project with no recent changes is polled less often, doubling the interval each time we find nothing
+     * up to the configured maximum.
+     */
+    protected boolean isPollDue( String projectId, long now )
+    {
+        long interval;
+        synchronized ( pollCounts )
+        {
+            Long last = lastPolled.get( projectId );
+            if ( last == null )
+            {
+                return true;
+            }
+
+            Integer idle = pollCounts.get( projectId );
+            interval = POLL_INTERVAL << ( idle == null ? 0 : idle );
+            interval = Math.min( interval, getMaximumPollInterval() );
+
+            // allow a little slack as we only wake up every POLL_INTERVAL
+            return now - last >= interval - ( POLL_INTERVAL / 2 );
+        }
+    }
+
+    protected void recordPoll( String projectId, boolean changed )
+    {
+        synchronized ( pollCounts )
+        {
+            lastPolled.put( projectId, System.currentTimeMillis() );
+
+            Integer idle = pollCounts.get( projectId );
+            if ( changed || idle == null )
+            {
+                pollCounts.put( projectId, changed ? 0 : 1 );
+            }
+            else if ( idle < MAX_POLL_BACKOFF )
+            {
+                pollCounts.put( projectId, idle + 1 );
+            }
+        }
+    }
+
+    protected long getMaximumPollInterval()
+    {
+        int minutes = (Integer) BrowseApplication.CONFIGURATION_POLL_MAXIMUM.getDefault();
+        if ( application != null )
+        {
+            try
+            {
+                minutes = Integer.parseInt( application.getConfigurationValue( BrowseApplication.CONFIGURATION_POLL_MAXIMUM ) );
+            }
+            catch ( NumberFormatException e )
+            {
+                // use the default
+            }
+        }
+
+        return Math.max( POLL_INTERVAL, minutes * 60l * 1000 );
+    }
+
     public void updateProject( Project project )
     {
         if ( project.equals( StoredProject.getDefault() ) )
@@ -133,38 +266,144 @@ public class BrowseScmUpdater
 
     public void queueProject( Project project )
     {
-        if ( !pendingUpdates.contains( project ) )
+        if ( project.getParent() != null )
+        {
+            return;
+        }
+
+        synchronized ( pendingUpdates )
         {
-            if ( project.getParent() == null )
+            if ( !pendingUpdates.contains( project.getId() ) )
             {
                 pendingUpdates.add( project.getId() );
             }
         }
     }
 
+    /**
+     * Hand queued projects to the worker pool, up to the configured number of concurrent updates.
+     * A project that is already being updated stays queued so that only one worker ever touches its checkout.
+     * This does not block, workers call back in here as they finish to pick up the rest of the queue.
+     */
     protected void updateProjects()
     {
-        if ( updating )
+        if ( shutdown )
         {
             return;
         }
 
-        Task check = new CheckUpdateTask();
-        Manager.getInstance().addTask( check );
-        updating = true;
-        while ( pendingUpdates.size() > 0 )
+        synchronized ( pendingUpdates )
+        {
+            int threads = getConcurrentUpdates();
+            Iterator<String> queue = pendingUpdates.iterator();
+            while ( inFlight.size() < threads && queue.hasNext() )
+            {
+                String next = queue.next();
+                if ( inFlight.contains( next ) )
+                {
+                    continue;
+                }
+
+                queue.remove();
+                inFlight.add( next );
+                workers.execute( new ProjectUpdater( next ) );
+            }
+
+            if ( check == null && ( pendingUpdates.size() > 0 || inFlight.size() > 0 ) )
+            {
+                check = new CheckUpdateTask();
+                Manager.getInstance().addTask( check );
+            }
+            else if ( check != null && pendingUpdates.size() == 0 && inFlight.size() == 0 )
+            {
+                Manager.getInstance().removeTask( check );
+                check = null;
+            }
+        }
+    }
+
+    public int getQueueDepth()
+    {
+        synchronized ( pendingUpdates )
+        {
+            return pendingUpdates.size();
+        }
+    }
+
+    public List<String> getInFlightProjects()
+    {
+        synchronized ( pendingUpdates )
+        {
+            return new LinkedList<String>( inFlight );
+        }
+    }
+
+    protected int getConcurrentUpdates()
+    {
+        if ( application == null )
+        {
+            return 1;
+        }
+
+        try
+        {
+            return Math.max( 1, Integer.parseInt( application.getConfigurationValue(
+                    BrowseApplication.CONFIGURATION_UPDATE_THREADS ) ) );
+        }
+        catch ( NumberFormatException e )
+        {
+            return (Integer) BrowseApplication.CONFIGURATION_UPDATE_THREADS.getDefault();
+        }
+    }
+
+    private class ProjectUpdater
+        implements Runnable
+    {
+        private String projectId;
+
+        public ProjectUpdater( String projectId )
+        {
+            this.projectId = projectId;
+        }
+
+        public void run()
         {
-            String next = pendingUpdates.remove( 0 );
+            try
+            {
+                recordPoll( projectId, loadChangeSets( projectId ) );
+            }
+            catch ( Throwable t )
+            {
+                log.error( "Error updating project " + projectId, t );
+            }
+            finally
+            {
+                ( (HibernateStorage) Manager.getStorageInstance() ).closeSession();
 
-            loadChangeSets( next );
+                synchronized ( pendingUpdates )
+                {
+                    inFlight.remove( projectId );
+                    synchronized ( partialImports )
+                    {
+                        if ( partialImports.containsKey( projectId ) && !pendingUpdates.contains( projectId ) )
+                        {
+                            pendingUpdates.add( projectId );
+                        }
+                    }
+                }
+                updateProjects();
+            }
         }
-        updating = false;
-        Manager.getInstance().removeTask( check );
     }
 
     // TODO if we shut down whilst this is running we need to resume when we restart
     // (currently it waits for the next update before it sees we have changes to load)
-    private void loadChangeSets( String projectId )
+    /**
+     * Load the new changes for a project from it's repository.
+     *
+     * @return true if any new changesets were loaded
+     */
+    private boolean loadChangeSets( String projectId )
     {
         Project project = getProject( projectId );
         String scm = project.getScm();
@@ -172,6 +411,17 @@ public class BrowseScmUpdater
         boolean importing = false;
         boolean first = false;
 
+        // if we stopped part way through last time to let other projects update then pick up where we left off
+        Boolean resumed;
+        synchronized ( partialImports )
+        {
+            resumed = partialImports.remove( projectId );
+        }
+        if ( resumed != null )
+        {
+            importing = resumed;
+        }
+
         UpdateScmResult result;
         // this date is set in the future so we get all changes from any timezone
         // TODO maybe there is a better way of knowing when the last change for the changeLog is?...
@@ -186,18 +436,19 @@ public class BrowseScmUpdater
                 importing = true;
                 first = true;
             }
-            else if ( result.getUpdatedFiles() == null || result.getUpdatedFiles().size() == 0 )
+            else if ( resumed == null && ( result.getUpdatedFiles() == null || result.getUpdatedFiles().size() == 0 ) )
             {
-                return;
+                return false;
             }
         }
         catch ( Exception e )
         {
             log.error( "Error updating scm copy", e );
-            return;
+            return false;
         }
 
         Task updateTask = new UpdateTask( project );
+        ImportBatch batch = null;
         try
         {
             Manager.getInstance().addTask( updateTask );
@@ -239,7 +490,7 @@ public class BrowseScmUpdater
                 loadedWorking.mkdirs();
                 if ( changes == null || changes.getChangeSets() == null || changes.getChangeSets().size() == 0 )
                 {
-                    return;
+                    return false;
                 }
 
                 org.apache.maven.scm.ChangeSet firstChange;
@@ -259,7 +510,7 @@ public class BrowseScmUpdater
 
             if ( changes == null || changes.getChangeSets() == null )
             {
-                return;
+                return false;
             }
 
             log.info( "Found " + (variant.isTransactional()?"":"non") + "transactional changeset with " +
@@ -271,8 +522,74 @@ public class BrowseScmUpdater
                 Collections.reverse( changeListings );
             }
             ListIterator changeList = changeListings.listIterator();
-            while ( changeList.hasNext() )
+            int loaded = 0;
+
+            // when importing we write many changesets per transaction and the file links once per batch
+            boolean batching = importing;
+            Set<String> knownRevisions = null;
+            // the files updated for each revision in the batch that is not yet committed. If the batch is replayed
+            // the working copy is already past these revisions so the files found the first time are used instead
+            Map<String, List<ScmFile>> batchUpdates = new HashMap<String, List<ScmFile>>();
+            Set<String> batchMoves = new HashSet<String>();
+            if ( batching )
+            {
+                knownRevisions = getKnownRevisions( project );
+            }
+
+            while ( true )
             {
+                boolean more = changeList.hasNext() && loaded < CHANGESETS_PER_TURN;
+                if ( batch != null && ( !more || batch.failure != null || batch.size() >= IMPORT_BATCH_SIZE ) )
+                {
+                    try
+                    {
+                        batch.commit();
+                    }
+                    catch ( Exception e )
+                    {
+                        log.error( "Failed to load batch of change sets, retrying them one at a time", e );
+                        batch.rollback();
+
+                        // step back to the start of the batch and carry on without batching
+                        while ( changeList.nextIndex() > batch.startIndex )
+                        {
+                            changeList.previous();
+                        }
+                        previousId = batch.startId;
+                        lastChanges = batch.startChanges;
+                        first = batch.startFirst;
+                        loaded -= batch.size();
+
+                        batching = false;
+                        batch = null;
+                        continue;
+                    }
+
+                    knownRevisions.addAll( batch.revisions );
+                    batchUpdates.clear();
+                    batchMoves.clear();
+                    for ( Map.Entry<org.headsupdev.agile.api.service.ChangeSet, Set<Project>> event : batch.events.entrySet() )
+                    {
+                        for ( Project affect : event.getValue() )
+                        {
+                            application.addEvent( new FileChangeSetEvent( event.getKey(), affect ), !importing );
+                        }
+                    }
+                    batch = null;
+                }
+
+                if ( !more )
+                {
+                    if ( changeList.hasNext() )
+                    {
+                        log.info( "Pausing import of project " + project.getId() + " to let other projects update" );
+                        synchronized ( partialImports )
+                        {
+                            partialImports.put( projectId, importing );
+                        }
+                    }
+                    break;
+                }
                 org.apache.maven.scm.ChangeSet changeSet = (org.apache.maven.scm.ChangeSet) changeList.next();
 
                 String revision;
@@ -293,7 +610,16 @@ public class BrowseScmUpdater
                 }
 
                 // some scms return the revision before this time for completeness...
-                if ( getChangeSet( project, revision ) != null )
+                boolean known;
+                if ( batching )
+                {
+                    known = knownRevisions.contains( revision ) || ( batch != null && batch.revisions.contains( revision ) );
+                }
+                else
+                {
+                    known = getChangeSet( project, revision ) != null;
+                }
+                if ( known )
                 {
                     // note that here we may have updated info if the scm supports duplicates - i.e. 2 merges into 1 commit...
                     continue;
@@ -307,6 +633,12 @@ public class BrowseScmUpdater
                 {
                     updatedFiles = checkedOutFiles;
                 }
+                else if ( batchUpdates.containsKey( revision ) )
+                {
+                    // replaying a failed batch, updating the working copy again would compare against the wrong tree
+                    updatedFiles = batchUpdates.remove( revision );
+                    moved = batchMoves.remove( revision );
+                }
                 else
                 {
                     if ( variant.isTransactional() )
@@ -323,7 +655,11 @@ public class BrowseScmUpdater
                             if ( shutdown )
                             {
                                 log.warn( "Terminating update, not all changes imported" );
-                                return;
+                                if ( batch != null )
+                                {
+                                    batch.rollback();
+                                }
+                                return false;
                             }
                             moved = true;
 
@@ -338,6 +674,15 @@ public class BrowseScmUpdater
                         UpdateScmResult updateResult = scmManager.update( repository, new ScmFileSet( loadedWorking ), current );
                         updatedFiles = updateResult.getUpdatedFiles();
                     }
+
+                    if ( batching )
+                    {
+                        batchUpdates.put( revision, updatedFiles );
+                        if ( moved )
+                        {
+                            batchMoves.add( revision );
+                        }
+                    }
                 }
 
                 org.headsupdev.agile.api.service.ChangeSet set;
@@ -365,8 +710,20 @@ public class BrowseScmUpdater
                 }
                 log.info( "Found " + diff.getChangedFiles() + " file diffs" );
 
-                session = HibernateUtil.openSession();
-                tx = session.beginTransaction();
+                if ( batching )
+                {
+                    if ( batch == null )
+                    {
+                        batch = new ImportBatch( changeList.nextIndex() - 1, previousId, lastChanges, first );
+                    }
+                    session = batch.session;
+                    tx = batch.tx;
+                }
+                else
+                {
+                    session = HibernateUtil.openSession();
+                    tx = session.beginTransaction();
+                }
                 try {
                     project = (Project) session.merge( project );
                     ( (ScmChangeSet) set ).setPrevious( lastChanges );
@@ -435,13 +792,20 @@ public class BrowseScmUpdater
                     // update the file revision links
                     for ( ScmChange file : changedFiles )
                     {
+                        String fileRevision = file.getRevision();
                         if ( variant.isTransactional() )
                         {
-                            affected.add( updateFile( project, file.getName(), revision, session, importing ) );
+                            fileRevision = revision;
+                        }
+
+                        if ( batching )
+                        {
+                            deferFile( project, file.getName(), fileRevision, set, batch.fileRevisions );
+                            affected.add( getChangedProjects( file.getName(), project, "", session, importing ) );
                         }
                         else
                         {
-                            affected.add( updateFile( project, file.getName(), file.getRevision(), session, importing ) );
+                            affected.add( updateFile( project, file.getName(), fileRevision, set, session, importing ) );
                         }
                     }
 
@@ -458,33 +822,51 @@ public class BrowseScmUpdater
 
                     ScmCommentParser.parseComment( set.getComment(), set );
 
-                    tx.commit();
+                    if ( !batching )
+                    {
+                        tx.commit();
+                    }
                 }
                 catch ( Exception e )
                 {
+                    if ( batching )
+                    {
+                        // pick this up as a commit failure above so the batch is replayed without batching
+                        batch.failure = e;
+                        continue;
+                    }
+
                     // something failed in the database, log it and try again
                     // TODO find the real cause and remove this (previous(); continue) hack...
                     log.error( "Failed to load project change set", e );
 e.printStackTrace();
                     tx.rollback();
+                    session.close();
 //                    changeList.previous();
 
                     continue;
                 }
-                finally
-                {
-                    session.close();
-                }
 
                 previousId = set.getId();
                 lastChanges = set;
                 first = false;
+                loaded++;
 
-                for ( Project affect : affected )
+                if ( batching )
                 {
-                    application.addEvent( new FileChangeSetEvent( set, affect ), !importing );
+                    batch.add( revision, set, affected );
+                }
+                else
+                {
+                    session.close();
+                    for ( Project affect : affected )
+                    {
+                        application.addEvent( new FileChangeSetEvent( set, affect ), !importing );
+                    }
                 }
             }
+
+            return loaded > 0;
         }
         catch ( Throwable t )
         {
@@ -492,8 +874,30 @@ e.printStackTrace();
         }
         finally
         {
+            if ( batch != null )
+            {
+                batch.rollback();
+            }
             Manager.getInstance().removeTask( updateTask );
         }
+
+        return false;
+    }
+
+    private Set<String> getKnownRevisions( Project project )
+    {
+        Session session = HibernateUtil.openSession();
+        try
+        {
+            Query q = session.createQuery( "select c.id.name from ScmChangeSet c where c.id.project.id = :pid" );
+            q.setString( "pid", project.getId() );
+
+            return new HashSet<String>( (List<String>) q.list() );
+        }
+        finally
+        {
+            session.close();
+        }
     }
 
     private Project getProject( String id )
@@ -538,16 +942,43 @@ e.printStackTrace();
     {
     }
 
-    protected Project updateFile( Project project, String path, String revision, Session session, boolean importing )
+    /**
+     * Record the latest revision for a file and each of it's parent directories, to be written when the batch commits.
+     */
+    protected void deferFile( Project project, String path, String revision,
+                              org.headsupdev.agile.api.service.ChangeSet set,
+                              Map<String, org.headsupdev.agile.storage.files.File> fileRevisions )
+    {
+        File file = new File( path );
+        fileRevisions.put( path, new org.headsupdev.agile.storage.files.File( path, revision, set.getAuthor(),
+                set.getDate(), project ) );
+
+        while ( file.getParentFile() != null )
+        {
+            file = file.getParentFile();
+
+            fileRevisions.put( file.getPath(), new org.headsupdev.agile.storage.files.File( file.getPath(), revision,
+                    set.getAuthor(), set.getDate(), project ) );
+        }
+    }
+
+    /**
+     * Record the latest revision for a file and each of it's parent directories, along with the directory, author
+     * and date used when listing directories.
+     */
+    protected Project updateFile( Project project, String path, String revision,
+                                  org.headsupdev.agile.api.service.ChangeSet set, Session session, boolean importing )
     {
         File file = new File( path );
-        session.merge( new org.headsupdev.agile.storage.files.File( path, revision, project ) );
+        session.merge( new org.headsupdev.agile.storage.files.File( path, revision, set.getAuthor(), set.getDate(),
+                project ) );
 
         while ( file.getParentFile() != null )
         {
             file = file.getParentFile();
 
-            session.merge( new org.headsupdev.agile.storage.files.File( file.getPath(), revision, project ) );
+            session.merge( new org.headsupdev.agile.storage.files.File( file.getPath(), revision, set.getAuthor(),
+                    set.getDate(), project ) );
         }
 
         return getChangedProjects( path, project, "", session, importing );
@@ -632,4 +1063,91 @@ e.printStackTrace();
 
         return version;
     }
+
+    /**
+     * A group of changesets that are written to the database in one transaction during an import, along with the
+     * latest revision links for the files they change.
+     * We remember where the batch started so that it can be replayed one changeset at a time if the commit fails.
+     */
+    private static class ImportBatch
+    {
+        final Session session;
+        final Transaction tx;
+
+        final int startIndex;
+        final String startId;
+        final org.headsupdev.agile.api.service.ChangeSet startChanges;
+        final boolean startFirst;
+
+        final Set<String> revisions = new HashSet<String>();
+        final Map<String, org.headsupdev.agile.storage.files.File> fileRevisions =
+                new HashMap<String, org.headsupdev.agile.storage.files.File>();
+        final Map<org.headsupdev.agile.api.service.ChangeSet, Set<Project>> events =
+                new LinkedHashMap<org.headsupdev.agile.api.service.ChangeSet, Set<Project>>();
+        Exception failure;
+
+        ImportBatch( int startIndex, String startId, org.headsupdev.agile.api.service.ChangeSet startChanges,
+                     boolean startFirst )
+        {
+            this.startIndex = startIndex;
+            this.startId = startId;
+            this.startChanges = startChanges;
+            this.startFirst = startFirst;
+
+            session = HibernateUtil.openSession();
+            tx = session.beginTransaction();
+        }
+
+        void add( String revision, org.headsupdev.agile.api.service.ChangeSet set, Set<Project> affected )
+        {
+            revisions.add( revision );
+            events.put( set, affected );
+        }
+
+        int size()
+        {
+            return revisions.size();
+        }
+
+        void commit()
+            throws Exception
+        {
+            if ( failure != null )
+            {
+                throw failure;
+            }
+
+            int count = 0;
+            for ( org.headsupdev.agile.storage.files.File file : fileRevisions.values() )
+            {
+                session.merge( file );
+
+                if ( ++count % IMPORT_BATCH_SIZE == 0 )
+                {
+                    session.flush();
+                    session.clear();
+                }
+            }
+
+            tx.commit();
+            session.close();
+        }
+
+        void rollback()
+        {
+            if ( !session.isOpen() )
+            {
+                return;
+            }
+
+            try
+            {
+                tx.rollback();
+            }
+            finally
+            {
+                session.close();
+            }
+        }
+    }
 }
@@ -24,6 +24,8 @@ import org.headsupdev.agile.api.service.Change;
 import org.headsupdev.agile.api.service.ChangeSet;
 import org.headsupdev.agile.storage.ScmChange;
 import org.headsupdev.agile.web.HeadsUpSession;
+import org.apache.wicket.ajax.AjaxRequestTarget;
+import org.apache.wicket.ajax.markup.html.AjaxLink;
 import org.apache.wicket.markup.html.basic.Label;
 import org.apache.wicket.markup.html.link.Link;
 import org.apache.wicket.markup.html.list.ListView;
@@ -56,7 +58,26 @@ import java.util.LinkedList;
 public class ChangeSetPanel
     extends Panel
 {
+    // when loading on demand the diffs of the first few files are shown straight away
+    private static final int EXPANDED_FILES = 10;
+    // when rendering everything up front (for notifications) only this many diffs are included
+    private static final int INLINE_FILES = 25;
+
     public ChangeSetPanel( String id, ChangeSet changeSet, final String stripPrefix )
+    {
+        this( id, changeSet, stripPrefix, false );
+    }
+
+    /**
+     * Create a panel listing the files in a changeset followed by their diffs.
+     *
+     * @param id The wicket id
+     * @param changeSet The changeset to display
+     * @param stripPrefix Only files under this path are shown and the prefix is removed from their names
+     * @param lazy If true each diff can be shown and hidden with an ajax link and is only loaded when shown,
+     *             otherwise the first diffs are rendered in the page and the rest are left out
+     */
+    public ChangeSetPanel( String id, ChangeSet changeSet, final String stripPrefix, final boolean lazy )
     {
         super( id );
         if ( changeSet instanceof TransactionalScmChangeSet)
@@ -130,10 +151,63 @@ public class ChangeSetPanel
             }
         });
 
-        DiffModel model = new DiffModel( changeSet, stripPrefix );
-        add( new Label( "diffs", model ).setEscapeModelStrings( false ) );
+        List<Change> shown = new LinkedList<Change>();
+        int othersCount = 0;
+        for ( Change change : changes )
+        {
+            if ( change.getName().startsWith( stripPrefix ) )
+            {
+                shown.add( change );
+            }
+            else
+            {
+                othersCount++;
+            }
+        }
+
+        final int expanded = lazy ? EXPANDED_FILES : INLINE_FILES;
+        ListView<Change> diffs = new ListView<Change>( "diffs", shown )
+        {
+            protected void populateItem( ListItem<Change> listItem )
+            {
+                final ScmChange file = (ScmChange) listItem.getModelObject();
+                String path = file.getName().substring( stripPrefix.length() );
+
+                WebMarkupContainer anchor = new WebMarkupContainer( "anchor" );
+                anchor.add( new AttributeModifier( "name", true,
+                    new Model<String>( path.replace( File.separatorChar, ':' ) ) ) );
+                listItem.add( anchor );
+
+                // the diff model only loads when the content is rendered, so hidden diffs cost nothing
+                final WebMarkupContainer content = new WebMarkupContainer( "content" );
+                content.add( new Label( "diff", new DiffModel( file ) ).setEscapeModelStrings( false ) );
+                content.setOutputMarkupPlaceholderTag( true );
+                content.setVisible( listItem.getIndex() < expanded );
+                listItem.add( content );
+
+                AjaxLink toggle = new AjaxLink( "toggle" )
+                {
+                    public void onClick( AjaxRequestTarget target )
+                    {
+                        content.setVisible( !content.isVisible() );
+                        target.addComponent( content );
+                    }
+                };
+                toggle.add( new Label( "path", path ) );
+                listItem.add( toggle.setEnabled( lazy ) );
+
+                if ( file.getRevision() == null )
+                {
+                    listItem.add( new WebMarkupContainer( "revision" ).setVisible( false ) );
+                }
+                else
+                {
+                    listItem.add( new Label( "revision", file.getRevision() ) );
+                }
+            }
+        };
+        add( diffs.setReuseItems( true ) );
 
-        int othersCount = model.getHiddenCount();
         if ( othersCount > 0 )
         {
             Project parent = changeSet.getProject();
@@ -20,6 +20,8 @@ package org.headsupdev.agile.app.files;
 
 import org.headsupdev.agile.api.AbstractTask;
 
+import java.util.List;
+
 /**
  * A task object representing an SCM update task.
  *
@@ -33,4 +35,14 @@ public class CheckUpdateTask extends AbstractTask
     {
         super( "Checking for updated source code", "Checking the projects for source code updates" );
     }
+
+    @Override
+    public String getDescription()
+    {
+        BrowseScmUpdater updater = BrowseApplication.getUpdater();
+        List<String> updating = updater.getInFlightProjects();
+
+        return super.getDescription() + " (" + updater.getQueueDepth() + " queued, " + updating.size() +
+                " updating " + updating + ")";
+    }
 }
\ No newline at end of file
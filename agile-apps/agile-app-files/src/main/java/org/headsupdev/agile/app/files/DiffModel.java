@@ -18,98 +18,134 @@
 
 package org.headsupdev.agile.app.files;
 
-import org.headsupdev.agile.api.service.Change;
-import org.headsupdev.agile.api.service.ChangeSet;
-import org.apache.wicket.model.Model;
 import org.headsupdev.agile.api.Manager;
+import org.headsupdev.agile.storage.HibernateStorage;
+import org.headsupdev.agile.storage.ScmChange;
+import org.headsupdev.agile.web.SizeBoundedCache;
+import org.apache.wicket.model.LoadableDetachableModel;
+import org.hibernate.Session;
 
 import java.io.BufferedReader;
 import java.io.StringReader;
 import java.io.IOException;
-import java.io.File;
 
 /**
- * A model that renders the diffs for a given changeset
+ * A model that renders the diff of a single changed file.
+ * Marked up diffs are shared between requests in a cache, bounded by size and keyed by the change id, and diffs with
+ * too many lines or characters are cut short with a link to download the full text. Only the change id is kept
+ * between requests so pages do not hold on to large diffs.
  *
  * @author Andrew Williams
  * @version $Id$
  * @since 1.0
  */
-public class DiffModel extends Model<String>
+public class DiffModel extends LoadableDetachableModel<String>
 {
-    private ChangeSet changes;
-    private String match;
+    private static final int MAX_LINES = 2000;
+    // generated or minified files can have a few very long lines so the diff text is limited too
+    private static final long MAX_CHARS = 100 * 1024;
+    private static final long MAX_CACHED_CHARS = 8 * 1024 * 1024;
+    // anything larger than this is returned but not kept, a cut short diff should always fit
+    private static final long MAX_ENTRY_CHARS = MAX_CACHED_CHARS / 8;
 
-    public DiffModel( ChangeSet changes )
+    private static final SizeBoundedCache<Long, String> markup = new SizeBoundedCache<Long, String>(
+            MAX_CACHED_CHARS, MAX_ENTRY_CHARS )
     {
-        this( changes, "" );
+        protected long sizeOf( String html )
+        {
+            return html.length();
+        }
+    };
+
+    private long changeId;
+
+    public DiffModel( ScmChange change )
+    {
+        this.changeId = change.getId();
     }
 
-    public DiffModel( ChangeSet changes, String match )
+    protected String load()
     {
-        this.changes = changes;
-        this.match = match;
+        return getMarkup( changeId );
     }
 
-    public int getHiddenCount()
+    /**
+     * Get the marked up diff for a change, from the cache if it has been rendered recently.
+     *
+     * @param changeId The id of the ScmChange to render
+     * @return the HTML for the diff, or an empty string if the change does not exist
+     */
+    public static String getMarkup( long changeId )
     {
-        int others = 0;
-        for ( Change change : changes.getChanges() )
+        String ret = markup.get( changeId );
+        if ( ret != null )
         {
-            String fileName = change.getName();
-            if ( !fileName.startsWith( match ) )
-            {
-                others++;
-            }
+            return ret;
         }
 
-        return others;
+        Session session = ( (HibernateStorage) Manager.getStorageInstance() ).getHibernateSession();
+        ScmChange change = (ScmChange) session.get( ScmChange.class, changeId );
+        if ( change == null )
+        {
+            return "";
+        }
+
+        ret = markupChange( change );
+        markup.put( changeId, ret );
+        return ret;
     }
 
-    public String getObject()
+    /**
+     * The address that the full text of a change's diff can be downloaded from.
+     */
+    public static String getDownloadUrl( ScmChange change )
     {
-        StringBuffer diffOut = new StringBuffer();
-        for ( Change change : changes.getChanges() )
-        {
-            String fileName = change.getName();
-            if ( !fileName.startsWith( match ) )
-            {
-                continue;
-            }
-
-            String rawDiff = change.getDiff();
-            if ( rawDiff == null || rawDiff.length() == 0 )
-            {
-                continue;
-            }
+        return "/" + change.getSet().getProject().getId() + "/files/diff/id/" + change.getId();
+    }
 
-            String path = fileName.substring( match.length() );
-            diffOut.append( "<h3><a name=\"" );
-            diffOut.append( path.replace( File.separatorChar, ':' ) );
-            diffOut.append( "\"></a>" );
-            diffOut.append( path );
-            if ( change.getRevision() != null )
-            {
-                diffOut.append( "<span wicket:id=\"revision\">" );
-                diffOut.append( change.getRevision() );
-                diffOut.append( "</span>" );
-            }
-            diffOut.append( "</h3>");
+    private static String markupChange( ScmChange change )
+    {
+        String diff = change.getDiff();
+        if ( diff == null || diff.length() == 0 )
+        {
+            return "<p class=\"diff-none\">No differences available</p>";
+        }
 
-            markupDiff( rawDiff, diffOut );
+        StringBuffer out = new StringBuffer();
+        int hidden = markupDiff( diff, out, MAX_LINES, MAX_CHARS );
+        if ( hidden > 0 )
+        {
+            out.append( "<p class=\"diff-truncated\">" );
+            out.append( hidden );
+            out.append( " more lines are not shown, <a href=\"" );
+            out.append( getDownloadUrl( change ) );
+            out.append( "\">download the full diff</a></p>" );
         }
 
-        return diffOut.toString();
+        return out.toString();
     }
 
-    public void markupDiff( String in, StringBuffer out )
+    /**
+     * Mark up a unified diff as an HTML table, stopping after a number of lines or once a line would take the text
+     * marked up past a number of characters.
+     *
+     * @param in The diff text
+     * @param out The buffer to write the markup to
+     * @param maxLines The most lines of the diff to mark up
+     * @param maxChars The most characters of the diff text to mark up
+     * @return the number of lines that were not marked up
+     */
+    public static int markupDiff( String in, StringBuffer out, int maxLines, long maxChars )
     {
         if ( in == null )
         {
-            return;
+            return 0;
         }
         out.append( "<table class=\"diff\">" );
 
+        int lines = 0, hidden = 0;
+        long chars = 0;
+
         BufferedReader reader = new BufferedReader( new StringReader( in ) ) ;
         try
         {
@@ -119,6 +155,13 @@ public class DiffModel extends Model<String>
             boolean firstCommand = true;
             while ( ( line = reader.readLine() ) != null )
             {
+                if ( hidden > 0 || lines++ >= maxLines || chars + line.length() > maxChars )
+                {
+                    hidden++;
+                    continue;
+                }
+                chars += line.length();
+
                 boolean displaySpacer = false;
                 char first = '\0';
                 if ( line.length() > 0)
@@ -171,7 +214,7 @@ public class DiffModel extends Model<String>
                     }
                     catch ( NumberFormatException e )
                     {
-                        Manager.getLogger( getClass().getName() ).error( "Failed to parse line numbers from \"" + line + "\"", e );
+                        Manager.getLogger( DiffModel.class.getName() ).error( "Failed to parse line numbers from \"" + line + "\"", e );
                     }
                 }
 
@@ -240,9 +283,10 @@ public class DiffModel extends Model<String>
         }
 
         out.append( "</table>" );
+        return hidden;
     }
 
-    public String encode( String in )
+    public static String encode( String in )
     {
         if ( in.length() == 0 )
         {
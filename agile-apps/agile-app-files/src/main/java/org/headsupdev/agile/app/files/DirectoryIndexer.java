@@ -0,0 +1,118 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.headsupdev.agile.app.files;
+
+import org.headsupdev.agile.api.Task;
+import org.headsupdev.agile.storage.BatchJob;
+import org.headsupdev.agile.storage.files.File;
+import org.hibernate.Query;
+import org.hibernate.Session;
+
+import java.util.List;
+
+/**
+ * A one off job that records the directory of file details stored before the directory column was added.
+ * It works through one root project at a time in batches, each batch is committed on its own so browsing is never
+ * held up and an interrupted run simply carries on with the rows that are left next time. Until a project has been
+ * indexed Browse lists its directories the old way, see BrowseApplication.isDirectoryIndexed().
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class DirectoryIndexer
+    extends BatchJob
+{
+    private static final long START_DELAY = 30 * 1000;
+    private static final int BATCH_SIZE = 500;
+
+    private List<String> rootIds;
+    private int rootIndex = 0;
+    private String indexedRoot;
+
+    public DirectoryIndexer()
+    {
+        super( "file-directory-index", START_DELAY );
+    }
+
+    protected boolean prepare( Session session )
+    {
+        rootIds = session.createQuery( "select distinct f.name.project.id from File f " +
+                "where f.directory is null" ).list();
+        if ( rootIds.isEmpty() )
+        {
+            return false;
+        }
+
+        log.info( "Indexing file details for " + rootIds.size() + " projects" );
+        return true;
+    }
+
+    protected boolean runBatch( Session session )
+    {
+        String rootId = rootIds.get( rootIndex );
+        if ( indexBatch( session, rootId ) < BATCH_SIZE )
+        {
+            indexedRoot = rootId;
+            rootIndex++;
+        }
+
+        return rootIndex < rootIds.size();
+    }
+
+    protected void batchCommitted()
+    {
+        if ( indexedRoot != null )
+        {
+            BrowseApplication.directoryIndexed( indexedRoot );
+            indexedRoot = null;
+        }
+    }
+
+    protected Task createTask()
+    {
+        return new DirectoryIndexTask();
+    }
+
+    protected String getDescription()
+    {
+        return "index file details";
+    }
+
+    protected void finished()
+    {
+        log.info( "Finished indexing file details" );
+    }
+
+    private int indexBatch( Session session, String rootId )
+    {
+        Query q = session.createQuery( "from File f where f.name.project.id = :pid and f.directory is null" );
+        q.setString( "pid", rootId );
+        q.setMaxResults( BATCH_SIZE );
+
+        List<File> files = q.list();
+        for ( File file : files )
+        {
+            file.setDirectory( File.getDirectory( file.getName() ) );
+        }
+
+        return files.size();
+    }
+}
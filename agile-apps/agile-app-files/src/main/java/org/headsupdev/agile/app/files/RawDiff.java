@@ -0,0 +1,92 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.app.files;
+
+import org.headsupdev.agile.api.Manager;
+import org.headsupdev.agile.api.Project;
+import org.headsupdev.agile.app.files.permission.FileViewPermission;
+import org.headsupdev.agile.storage.HibernateStorage;
+import org.headsupdev.agile.storage.ScmChange;
+import org.headsupdev.agile.web.MountPoint;
+import org.headsupdev.agile.web.WebUtil;
+import org.apache.wicket.RequestCycle;
+import org.apache.wicket.markup.html.WebResource;
+import org.apache.wicket.protocol.http.WebRequest;
+import org.apache.wicket.protocol.http.WebResponse;
+import org.apache.wicket.util.resource.IResourceStream;
+import org.apache.wicket.util.resource.StringResourceStream;
+
+/**
+ * Serve the full text of the diff for a single changed file, linked to when a diff is too long to display.
+ * The change is identified by the "id" parameter and must belong to the project requested.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+@MountPoint( "diff" )
+public class RawDiff
+    extends WebResource
+{
+    @Override
+    protected void setHeaders( WebResponse response )
+    {
+        super.setHeaders( response );
+
+        WebUtil.authenticate( (WebRequest) RequestCycle.get().getRequest(), response, new FileViewPermission(),
+                getProject() );
+        response.setHeader( "Content-Disposition", "attachment; filename=\"" +
+                getParameters().getLong( "id", -1 ) + ".diff\"" );
+    }
+
+    @Override
+    public IResourceStream getResourceStream()
+    {
+        Project project = getProject();
+        long id = getParameters().getLong( "id", -1 );
+
+        String diff = null;
+        if ( project != null && id >= 0 )
+        {
+            ScmChange change = (ScmChange) ( (HibernateStorage) Manager.getStorageInstance() ).getHibernateSession()
+                    .get( ScmChange.class, id );
+            if ( change != null && change.getSet() != null && project.equals( change.getSet().getProject() ) )
+            {
+                diff = change.getDiff();
+            }
+        }
+
+        if ( diff == null )
+        {
+            diff = "";
+        }
+        return new StringResourceStream( diff, "text/x-diff; charset=UTF-8" );
+    }
+
+    protected Project getProject()
+    {
+        String projectId = getParameters().getString( "project" );
+        if ( projectId == null || projectId.length() == 0 )
+        {
+            return null;
+        }
+
+        return Manager.getStorageInstance().getProject( projectId );
+    }
+}
@@ -55,7 +55,7 @@ public class History
     extends HeadsUpPage
 {
     private List<String> types;
-    private long before;
+    private long before, beforeId;
 
     public Permission getRequiredPermission() {
         return new HistoryViewPermission();
@@ -191,40 +191,38 @@ public class History
         {
             before = Long.MAX_VALUE;
         }
+        try
+        {
+            beforeId = getPageParameters().getLong( "beforeId" );
+        }
+        catch ( Exception e ) // NumberFormatException or a wicket wrapped NumberFormatException
+        {
+            beforeId = Long.MAX_VALUE;
+        }
         add( new HistoryPanel( "history", new AbstractReadOnlyModel<List<? extends Event>>()
         {
             public List<? extends Event> getObject()
             {
-                if ( allProject )
-                {
-                    return ( (HistoryApplication) getHeadsUpApplication() ).getEvents( before, types );
-                }
-                else
-                {
-                    return ( (HistoryApplication) getHeadsUpApplication() ).getEventsForProject( project, before, types );
-                }
+                return ( (HistoryApplication) getHeadsUpApplication() ).getEvents( project, before, beforeId, types );
             }
         }, allProject ) );
 
         boolean more = false;
-        List<Event> events;
-        if ( allProject )
-        {
-            events = ( (HistoryApplication) getHeadsUpApplication() ).getEvents( before, types );
-        }
-        else
-        {
-            events = ( (HistoryApplication) getHeadsUpApplication() ).getEventsForProject( project, before, types );
-        }
+        List<Event> events = ( (HistoryApplication) getHeadsUpApplication() ).getEvents( project, before, beforeId,
+                types );
         long oldest = Long.MAX_VALUE;
+        long oldestId = Long.MAX_VALUE;
         if ( events != null && events.size() > 0 )
         {
-            more = events.size() == 50; // TODO we need a better way if figuring if there are more events to see
-            oldest = events.get( events.size() - 1 ).getTime().getTime();
+            more = events.size() == HistoryApplication.PAGE_SIZE; // TODO we need a better way if figuring if there are more events to see
+            Event last = events.get( events.size() - 1 );
+            oldest = last.getTime().getTime();
+            oldestId = last.getId();
         }
 
         PageParameters params = getProjectPageParameters();
         params.put( "before", oldest );
+        params.put( "beforeId", oldestId );
         if ( more ) {
             addLink( new BookmarkableMenuLink( getClass(), params, "\u25c0 earlier" ) );
         }
@@ -42,6 +42,8 @@ import org.hibernate.Query;
 public class HistoryApplication
     extends WebApplication
 {
+    public static final int PAGE_SIZE = EventQuery.DEFAULT_LIMIT;
+
     List<MenuLink> links;
 
     public HistoryApplication()
@@ -96,36 +98,26 @@ public class HistoryApplication
         return ret;
     }
 
-    public List<Event> getEvents( long before, List<String> types )
-    {
-        if ( types == null || types.size() == 0 )
-        {
-            return new LinkedList<Event>();
-        }
-
-        Session session = ( (HibernateStorage) Manager.getStorageInstance() ).getHibernateSession();
-
-        Query q = session.createQuery( "from StoredEvent e where e.class in (:types) and e.time < :before order by time desc" );
-        q.setParameterList( "types", types );
-        q.setTimestamp( "before", new Date( before ) );
-        q.setMaxResults( 50 );
-        return q.list();
-    }
-
-    public List<Event> getEventsForProject( Project project, long before, List<String> types )
+    /**
+     * Load the page of events of the listed types that come before the specified event in the timeline.
+     *
+     * @param project the project to list events for, or the default project for all projects
+     * @param before the time of the last event displayed, Long.MAX_VALUE for the most recent events
+     * @param beforeId the id of the last event displayed, Long.MAX_VALUE if not known
+     * @param types the event types to include, if none are listed no events are returned
+     */
+    public List<Event> getEvents( Project project, long before, long beforeId, List<String> types )
     {
         if ( types == null || types.size() == 0 )
         {
             return new LinkedList<Event>();
         }
 
-        Session session = ( (HibernateStorage) Manager.getStorageInstance() ).getHibernateSession();
+        EventQuery query = new EventQuery( project, false );
+        query.setTypes( types );
+        query.setBefore( new Date( before ), beforeId );
+        query.setLimit( PAGE_SIZE );
 
-        Query q = session.createQuery( "from StoredEvent e where e.class in (:types) and project.id = :pid and e.time < :before order by time desc" );
-        q.setParameterList( "types", types );
-        q.setString( "pid", project.getId() );
-        q.setTimestamp( "before", new Date( before ) );
-        q.setMaxResults( 50 );
-        return q.list();
+        return Manager.getStorageInstance().getEvents( query );
     }
-}
\ No newline at end of file
+}
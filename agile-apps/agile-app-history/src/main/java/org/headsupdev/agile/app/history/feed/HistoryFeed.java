@@ -18,10 +18,8 @@
 
 package org.headsupdev.agile.app.history.feed;
 
+import org.headsupdev.agile.api.EventQuery;
 import org.headsupdev.agile.api.HeadsUpConfiguration;
-import org.hibernate.Session;
-import org.hibernate.Transaction;
-import org.hibernate.Query;
 
 import java.util.List;
 import java.util.ArrayList;
@@ -33,12 +31,12 @@ import org.headsupdev.agile.web.feed.AbstractFeed;
 import org.headsupdev.agile.web.feed.RomeModule;
 import org.headsupdev.agile.web.feed.RomeModuleImpl;
 import org.headsupdev.agile.web.MountPoint;
+import org.headsupdev.agile.app.history.HistoryApplication;
 import org.headsupdev.agile.app.history.permission.HistoryViewPermission;
 import org.headsupdev.agile.api.Manager;
 import org.headsupdev.agile.api.Permission;
 import org.headsupdev.agile.api.Event;
 import org.headsupdev.agile.storage.StoredProject;
-import org.headsupdev.agile.storage.HibernateStorage;
 
 /**
  * A simple feed page that reports the recent activity
@@ -88,23 +86,20 @@ public class HistoryFeed
             before = Long.MAX_VALUE;
         }
 
-        Session session = ( (HibernateStorage) Manager.getStorageInstance() ).getHibernateSession();
-        Transaction tx = session.beginTransaction();
-        Query q;
-        if ( getProject().equals( StoredProject.getDefault() ) )
+        long beforeId;
+        try
         {
-            q = session.createQuery( "from StoredEvent e where e.time < :before order by time desc" );
-            q.setTimestamp( "before", new Date( before ) );
+            beforeId = getPageParameters().getLong( "beforeId" );
         }
-        else
+        catch ( Exception e ) // NumberFormatException or a wicket wrapped NumberFormatException
         {
-            q = session.createQuery( "from StoredEvent e where project.id = :pid and e.time < :before order by time desc" );
-            q.setString( "pid", getProject().getId() );
-            q.setTimestamp( "before", new Date( before ) );
+            beforeId = Long.MAX_VALUE;
         }
-        q.setMaxResults( 50 );
-        List<Event> list = q.list();
-        tx.commit();
+
+        EventQuery query = new EventQuery( getProject(), false );
+        query.setBefore( new Date( before ), beforeId );
+        query.setLimit( HistoryApplication.PAGE_SIZE );
+        List<Event> list = Manager.getStorageInstance().getEvents( query );
 
         List<SyndEntry> entries = new ArrayList<SyndEntry>();
         for ( Event event : list )
@@ -22,6 +22,9 @@ import org.headsupdev.agile.api.LinkProvider;
 import org.headsupdev.agile.api.Project;
 import org.headsupdev.agile.storage.issues.Issue;
 
+import java.util.HashSet;
+import java.util.Set;
+
 /**
  * Docs link format for an issue
  *
@@ -61,4 +64,32 @@ public class IssueLinkProvider extends LinkProvider
             return true;
         }
     }
+
+    @Override
+    public Set<String> getBrokenLinks( Set<String> params, Project project )
+    {
+        Set<String> broken = new HashSet<String>();
+        Set<Long> ids = new HashSet<Long>();
+        for ( String param : params )
+        {
+            try
+            {
+                ids.add( Long.parseLong( param ) );
+            }
+            catch ( NumberFormatException e )
+            {
+                broken.add( param );
+            }
+        }
+
+        Set<Long> found = IssuesApplication.getExistingIssueIds( ids, project );
+        for ( String param : params )
+        {
+            if ( !broken.contains( param ) && !found.contains( Long.parseLong( param ) ) )
+            {
+                broken.add( param );
+            }
+        }
+        return broken;
+    }
 }
\ No newline at end of file
@@ -47,8 +47,10 @@ import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Restrictions;
 
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 
 /**
  * The application descriptor for the issues application
@@ -201,6 +203,26 @@ public class IssuesApplication
         return (Issue) q.uniqueResult();
     }
 
+    /**
+     * Find which of the given issue ids exist in a project using a single query.
+     */
+    public static Set<Long> getExistingIssueIds( Set<Long> ids, Project project )
+    {
+        Set<Long> ret = new HashSet<Long>();
+        if ( ids.isEmpty() || project == null )
+        {
+            return ret;
+        }
+
+        Session session = ( (HibernateStorage) Manager.getStorageInstance() ).getHibernateSession();
+
+        Query q = session.createQuery( "select i.id.id from Issue i where i.id.id in (:ids) and i.id.project.id = :pid" );
+        q.setParameterList( "ids", ids );
+        q.setString( "pid", project.getId() );
+        ret.addAll( (List<Long>) q.list() );
+        return ret;
+    }
+
     public static Comment getComment( long id )
     {
         Session session = ( (HibernateStorage) Manager.getStorageInstance() ).getHibernateSession();
@@ -217,6 +239,8 @@ public class IssuesApplication
         Transaction tx = session.beginTransaction();
         session.save( issue );
         tx.commit();
+
+        LinkProvider.targetsChanged();
     }
 
     public List<Milestone> getMilestones()
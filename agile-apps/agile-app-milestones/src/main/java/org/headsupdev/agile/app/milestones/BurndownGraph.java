@@ -24,7 +24,6 @@ import org.headsupdev.agile.app.milestones.permission.MilestoneViewPermission;
 import org.headsupdev.agile.storage.DurationWorkedUtil;
 import org.headsupdev.agile.storage.StoredProject;
 import org.headsupdev.agile.storage.issues.Duration;
-import org.headsupdev.agile.storage.issues.Issue;
 import org.headsupdev.agile.storage.issues.Milestone;
 import org.headsupdev.agile.web.CachedImageResource;
 import org.headsupdev.agile.web.MountPoint;
@@ -36,7 +35,10 @@ import org.apache.wicket.protocol.http.WebResponse;
 import java.awt.*;
 import java.awt.geom.AffineTransform;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 
 /**
@@ -154,6 +156,7 @@ public class BurndownGraph
         final boolean ignoreWeekend = Boolean.parseBoolean( getMilestone().getProject().getConfigurationValue(
                 StoredProject.CONFIGURATION_TIMETRACKING_IGNOREWEEKEND ) );
         java.util.List<Date> dates = DurationWorkedUtil.getMilestoneDates( getMilestone(), true );
+        double[] hoursWorked = DurationWorkedUtil.getMilestoneHoursWorked( getMilestone(), dates );
 
         drawString( g, "time", getHeight() - MONTH_PAD, 13, PAD, Component.CENTER_ALIGNMENT, -Math.PI / 2 );
         drawString( g, "0", getHeight() - MONTH_PAD, 13, PAD, Component.LEFT_ALIGNMENT, -Math.PI / 2 );
@@ -169,7 +172,7 @@ public class BurndownGraph
 
             int xc = PAD + ( (int) ( ( i * ( (double) WIDTH / dates.size() ) ) + ( (double) WIDTH / ( dates.size() * 2 ) ) ) );
 
-            double workedTotal = getTotalHoursForDay( date );
+            double workedTotal = hoursWorked[ i ];
             int y = PAD + HEIGHT - ( (int) ( HEIGHT * ( workedTotal / total ) ) );
             g.setColor( hoursColor );
             g.fillRect( x + 5, y, x2 - x - 10, HEIGHT + PAD - y );
@@ -267,21 +270,16 @@ public class BurndownGraph
         }
     }
 
-
-    protected double getTotalHoursForDay( Date day )
+    @Override
+    protected Collection<String> getCacheTags()
     {
-        double total = 0;
-        if ( getMilestone() == null )
-        {
-            return total;
-        }
-
-        for ( Issue issue : getMilestone().getIssues() )
+        Project project = getProject();
+        if ( project == null )
         {
-            total += DurationWorkedUtil.totalWorkedForDay( issue, day ).getHours();
+            return Collections.emptyList();
         }
 
-        return total;
+        return Arrays.asList( getProjectTag( project ) );
     }
 
     @Override
@@ -22,6 +22,9 @@ import org.headsupdev.agile.api.LinkProvider;
 import org.headsupdev.agile.api.Project;
 import org.headsupdev.agile.storage.issues.Milestone;
 
+import java.util.HashSet;
+import java.util.Set;
+
 /**
  * Docs link format for a milestone
  *
@@ -53,4 +56,12 @@ public class MilestoneLinkProvider extends LinkProvider
         Milestone milestone = MilestonesApplication.getMilestone( params, project );
         return milestone == null;
     }
+
+    @Override
+    public Set<String> getBrokenLinks( Set<String> params, Project project )
+    {
+        Set<String> broken = new HashSet<String>( params );
+        broken.removeAll( MilestonesApplication.getExistingMilestoneNames( params, project ) );
+        return broken;
+    }
 }
\ No newline at end of file
@@ -251,6 +251,26 @@ public class MilestonesApplication
         return (Milestone) q.uniqueResult();
     }
 
+    /**
+     * Find which of the given milestone names exist in a project using a single query.
+     */
+    public static Set<String> getExistingMilestoneNames( Set<String> names, Project project )
+    {
+        Set<String> ret = new HashSet<String>();
+        if ( names.isEmpty() || project == null )
+        {
+            return ret;
+        }
+
+        Session session = ( (HibernateStorage) Manager.getStorageInstance() ).getHibernateSession();
+
+        Query q = session.createQuery( "select m.name.name from Milestone m where m.name.name in (:names) and m.name.project.id = :pid" );
+        q.setParameterList( "names", names );
+        q.setString( "pid", project.getId() );
+        ret.addAll( (List<String>) q.list() );
+        return ret;
+    }
+
     public static Date getDueSoonDate()
     {
         return new Date( System.currentTimeMillis() + (1000L * 60 * 60 * 24 * 14 ) );
@@ -263,6 +283,8 @@ public class MilestonesApplication
         Transaction tx = session.beginTransaction();
         session.save( milestone );
         tx.commit();
+
+        LinkProvider.targetsChanged();
     }
 
 
@@ -30,8 +30,10 @@ import org.apache.wicket.markup.html.list.ListItem;
 import org.apache.wicket.markup.html.panel.Panel;
 
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * A tabular layout of the duration worked for a milestone
@@ -51,6 +53,7 @@ public class WorkRemainingTable
                 StoredProject.CONFIGURATION_TIMETRACKING_BURNDOWN ) );
 
         List<User> users = new LinkedList<User>();
+        final Map<User, Integer> workedByUser = new HashMap<User, Integer>();
         for ( Issue issue : milestone.getIssues() )
         {
             if ( issue.getAssignee() != null && !users.contains( issue.getAssignee() ) )
@@ -60,10 +63,25 @@ public class WorkRemainingTable
 
             for ( DurationWorked worked : issue.getTimeWorked() )
             {
-                if ( worked.getUser() != null && !users.contains( worked.getUser() ) )
+                if ( worked.getUser() == null )
+                {
+                    continue;
+                }
+                if ( !users.contains( worked.getUser() ) )
                 {
                     users.add( worked.getUser() );
                 }
+
+                if ( worked.getWorked() != null )
+                {
+                    int total = 0;
+                    if ( workedByUser.containsKey( worked.getUser() ) )
+                    {
+                        total = workedByUser.get( worked.getUser() );
+                    }
+                    total += worked.getWorked().getHours();
+                    workedByUser.put( worked.getUser(), total );
+                }
             }
         }
 
@@ -86,6 +104,10 @@ public class WorkRemainingTable
 
                 int estimate = 0;
                 int worked = 0;
+                if ( workedByUser.containsKey( user ) )
+                {
+                    worked = workedByUser.get( user );
+                }
                 int remaining = 0;
                 for ( Issue issue : milestone.getIssues() )
                 {
@@ -118,14 +140,6 @@ public class WorkRemainingTable
                             }
                         }
                     }
-
-                    for ( DurationWorked dur : issue.getTimeWorked() )
-                    {
-                        if ( user.equals( dur.getUser() ) && dur.getWorked() != null )
-                        {
-                            worked += dur.getWorked().getHours();
-                        }
-                    }
                 }
 
                 listItem.add( new Label( "estimate", new Duration( estimate ).toString()) );
@@ -0,0 +1,99 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.headsupdev.agile.app.search;
+
+import org.headsupdev.agile.api.ConfigurationListener;
+import org.headsupdev.agile.api.ConfigurationSnapshot;
+import org.headsupdev.agile.storage.StoredProject;
+
+import java.util.Set;
+
+/**
+ * Watches for changes to the diff indexing option of a project and queues the project's change sets to be indexed
+ * again, otherwise existing change sets would keep or lack their diffs until something else reindexed them.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class IndexDiffsListener
+    implements ConfigurationListener
+{
+    // project settings are stored as projects.<project id with '.' replaced by '+'>.<key>
+    private static final String PREFIX = "projects.";
+    private static final String SUFFIX = "." + StoredProject.CONFIGURATION_INDEX_DIFFS.getKey();
+
+    private SearchIndexer indexer;
+    private ConfigurationSnapshot last;
+
+    public IndexDiffsListener( SearchIndexer indexer, ConfigurationSnapshot current )
+    {
+        this.indexer = indexer;
+        this.last = current;
+    }
+
+    public synchronized void configurationChanged( ConfigurationSnapshot snapshot, Set<String> names )
+    {
+        if ( last != null && snapshot.getVersion() <= last.getVersion() )
+        {
+            // an older snapshot arriving late, the newer one has already been looked at
+            return;
+        }
+        ConfigurationSnapshot previous = last;
+        last = snapshot;
+
+        for ( String name : names )
+        {
+            if ( !name.startsWith( PREFIX ) || !name.endsWith( SUFFIX ) ||
+                    name.length() <= PREFIX.length() + SUFFIX.length() )
+            {
+                continue;
+            }
+
+            String encodedId = name.substring( PREFIX.length(), name.length() - SUFFIX.length() );
+            if ( encodedId.indexOf( '.' ) != -1 )
+            {
+                continue;
+            }
+
+            if ( isChanged( previous, snapshot, name ) )
+            {
+                indexer.reindexChangeSets( encodedId.replace( '+', '.' ) );
+            }
+        }
+    }
+
+    private static boolean isChanged( ConfigurationSnapshot previous, ConfigurationSnapshot snapshot, String name )
+    {
+        if ( previous == null )
+        {
+            return true;
+        }
+
+        String before = previous.getValue( name );
+        String after = snapshot.getValue( name );
+        if ( before == null )
+        {
+            return after != null;
+        }
+
+        return !before.equals( after );
+    }
+}
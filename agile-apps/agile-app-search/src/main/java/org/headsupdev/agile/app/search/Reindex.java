@@ -18,18 +18,10 @@
 
 package org.headsupdev.agile.app.search;
 
-import org.headsupdev.agile.api.HeadsUpConfiguration;
 import org.headsupdev.agile.web.HeadsUpPage;
 import org.headsupdev.agile.web.MountPoint;
 import org.headsupdev.agile.api.Permission;
-import org.headsupdev.agile.api.Task;
-import org.headsupdev.agile.api.Manager;
 import org.headsupdev.agile.security.permission.AdminPermission;
-import org.headsupdev.agile.storage.HibernateUtil;
-import org.headsupdev.agile.storage.SessionProxy;
-import org.hibernate.*;
-import org.hibernate.search.FullTextSession;
-import org.hibernate.search.annotations.Indexed;
 
 /**
  * A simple page to re-index our search cache
@@ -50,7 +42,7 @@ public class Reindex
     {
         super.layout();
 
-        new ReindexThread().start();
+        SearchApplication.getIndexer().rebuildAll();
     }
 
     @Override
@@ -59,67 +51,3 @@ public class Reindex
         return "Reindex Search Cache";
     }
 }
-
-class ReindexThread
-    extends Thread
-{
-    static int BATCH_SIZE = 100;
-    public void run()
-    {
-        Task reindex = new ReindexTask();
-        Manager.getInstance().addTask( reindex );
-
-        try
-        {
-            for ( String className: HibernateUtil.getEntityClassNames() )
-            {
-                Session session = HibernateUtil.getCurrentSession();
-                FullTextSession fullTextSession = org.hibernate.search.Search.createFullTextSession(
-                    ( (SessionProxy) session ).getRealSession() );
-                Transaction tx = fullTextSession.beginTransaction();
-
-                fullTextSession.setFlushMode( FlushMode.MANUAL );
-                fullTextSession.setCacheMode( CacheMode.IGNORE );
-
-                Manager.getLogger( getClass().getName() ).debug("  object type " + className);
-
-                //Scrollable results will avoid loading too many objects in memory
-                ScrollableResults results = fullTextSession.createCriteria( className )
-                    .setFetchSize( BATCH_SIZE )
-                    .scroll( ScrollMode.FORWARD_ONLY );
-
-                int index = 0;
-                while( results.next() )
-                {
-                    Object o = results.get( 0 );
-
-                    index++;
-                    if ( o.getClass().isAnnotationPresent( Indexed.class ) )
-                    {
-                        if ( HeadsUpConfiguration.isDebug() )
-                        {
-                            System.out.print( "." );
-                        }
-                        fullTextSession.index( o ); //index each element
-                    }
-                    if ( index % BATCH_SIZE == 0 ) {
-                        fullTextSession.flushToIndexes(); //apply changes to indexes
-                        fullTextSession.clear(); //clear since the queue is processed
-                    }
-                }
-                tx.commit();
-
-                if ( HeadsUpConfiguration.isDebug() )
-                {
-                    System.out.println();
-                }
-            }
-        }
-        catch ( Exception e )
-        {
-            Manager.getLogger( getClass().getName() ).error( "Failed to reindex search data", e );
-        }
-
-        Manager.getInstance().removeTask( reindex );
-    }
-}
\ No newline at end of file
@@ -20,17 +20,18 @@ package org.headsupdev.agile.app.search;
 
 import org.headsupdev.agile.HeadsUpResourceMarker;
 import org.headsupdev.agile.app.search.permission.SearchPermission;
+import org.headsupdev.agile.storage.SearchStatistics;
 import org.headsupdev.agile.storage.StoredProject;
 import org.headsupdev.agile.web.HeadsUpPage;
 import org.headsupdev.agile.web.components.HeadsUpResourceReference;
 import org.headsupdev.agile.api.*;
 import org.headsupdev.agile.storage.HibernateStorage;
 import org.headsupdev.agile.storage.SessionProxy;
-import org.headsupdev.agile.storage.HibernateUtil;
 
 import java.util.*;
-import java.lang.reflect.Method;
 
+import org.apache.wicket.ajax.AjaxRequestTarget;
+import org.apache.wicket.ajax.markup.html.AjaxLink;
 import org.apache.wicket.markup.html.CSSPackageResource;
 import org.apache.wicket.markup.html.basic.Label;
 import org.apache.wicket.markup.html.form.Form;
@@ -46,10 +47,8 @@ import org.apache.wicket.model.AbstractReadOnlyModel;
 import org.apache.wicket.model.PropertyModel;
 import org.apache.wicket.PageParameters;
 import org.apache.wicket.ResourceReference;
-import org.apache.lucene.queryParser.MultiFieldQueryParser;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.Explanation;
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.hibernate.Session;
 import org.hibernate.search.FullTextSession;
 import org.hibernate.search.FullTextQuery;
@@ -119,27 +118,21 @@ public class Search
         form.add( new TextField<String>( "query", new PropertyModel<String>( this, "query" ) ) );
 
         final Map<String,Integer> colors = new HashMap<String,Integer>();
-        add( new ListView<Object[]>( "result", new SearchModel() )
+        add( new ListView<SearchHit>( "result", new SearchModel() )
         {
-            protected void populateItem( ListItem<Object[]> listItem ) {
-                Object[] o = listItem.getModelObject();
+            protected void populateItem( ListItem<SearchHit> listItem ) {
+                final SearchHit hit = listItem.getModelObject();
 
-                if ( o[1] == null )
-                {
-                    listItem.setVisible( false );
-                    return;
-                }
-
-                ResourceReference icon = new HeadsUpResourceReference( getClassImageName( o[1] ) );
+                ResourceReference icon = new HeadsUpResourceReference( hit.getIconPath() );
                 listItem.add( new Image( "icon", icon ) );
 
-                int relevance = (int) ( ( (Float) o[0] ) * 100 );
+                int relevance = (int) ( hit.getScore() * 100 );
                 listItem.add(new Label("relevance", relevance + "%"));
 
                 WebMarkupContainer container;
-                if ( o[1] instanceof SearchResult)
+                if ( hit.getLink() != null )
                 {
-                    container = new ExternalLink( "link", ( (SearchResult) o[1] ).getLink() );
+                    container = new ExternalLink( "link", hit.getLink() );
                     listItem.add( new WebMarkupContainer( "nolink" ).setVisible( false ) );
                 }
                 else
@@ -147,16 +140,43 @@ public class Search
                     container = new WebMarkupContainer( "nolink" );
                     listItem.add( new WebMarkupContainer( "link" ).setVisible( false ) );
                 }
-                container.add( new Label( "title", o[1].toString() ) );
+                container.add( new Label( "title", hit.getTitle() ) );
                 listItem.add( container );
 
-                listItem.add( new Label( "project", getProjectFromResult( o ).getAlias() ) );
+                listItem.add( new Label( "project", hit.getProject().getAlias() ) );
+
+                final Label summary = new Label( "summary", hit.getSummary() );
+                listItem.add( summary.setOutputMarkupId( true ).setOutputMarkupPlaceholderTag( true )
+                    .setVisible( hit.getSummary() != null ) );
 
-                Map<String,List<String>> fields = new HashMap<String,List<String>>();
-                parseMatches( (Explanation) o[2], fields, colors );
+                // the full explanation of a match is expensive so it is only worked out when asked for
+                final Label matches = new Label( "matches", new AbstractReadOnlyModel<String>()
+                {
+                    private String rendered;
+
+                    public String getObject()
+                    {
+                        if ( rendered == null )
+                        {
+                            rendered = renderMatches( hit, colors );
+                        }
 
-                listItem.add( new Label( "summary", new SearchRenderModel( o[1], fields, colors ) )
-                    .setEscapeModelStrings( false ) );
+                        return rendered;
+                    }
+                } );
+                listItem.add( matches.setEscapeModelStrings( false ).setOutputMarkupId( true )
+                    .setOutputMarkupPlaceholderTag( true ).setVisible( false ) );
+
+                listItem.add( new AjaxLink( "explain" )
+                {
+                    public void onClick( AjaxRequestTarget target )
+                    {
+                        matches.setVisible( !matches.isVisible() );
+                        summary.setVisible( !matches.isVisible() && hit.getSummary() != null );
+                        target.addComponent( matches );
+                        target.addComponent( summary );
+                    }
+                } );
             }
         });
     }
@@ -167,22 +187,33 @@ public class Search
         return "Search";
     }
 
-    private Project getProjectFromResult( Object[] result )
+    private static FullTextSession getFullTextSession()
     {
-        if ( result[1] instanceof Project) {
-            return (Project) result[1];
-        }
-        else
+        Session session = ( (HibernateStorage) Manager.getStorageInstance() ).getHibernateSession();
+        return org.hibernate.search.Search.createFullTextSession( ( (SessionProxy) session ).getRealSession() );
+    }
+
+    private String renderMatches( SearchHit hit, Map<String,Integer> colors )
+    {
+        try
         {
-            try
-            {
-                Method getProject = result[1].getClass().getMethod( "getProject" );
-                return (Project) getProject.invoke( result[1] );
-            }
-            catch ( Exception e )
+            FullTextQuery textQuery = getFullTextSession().createFullTextQuery( SearchQueryCache.parse( query ) );
+            Explanation explanation = textQuery.explain( hit.getDocumentId() );
+
+            Object o = hit.loadObject();
+            if ( o == null )
             {
-                return StoredProject.getDefault();
+                return "";
             }
+
+            Map<String,List<String>> fields = new HashMap<String,List<String>>();
+            parseMatches( explanation, fields, colors );
+            return new SearchRenderModel( o, fields, colors ).getObject();
+        }
+        catch ( Exception e )
+        {
+            Manager.getLogger( "Search" ).error( "Failed to explain search result", e );
+            return "";
         }
     }
 
@@ -267,26 +298,21 @@ public class Search
     }
 
     class SearchModel
-        extends AbstractReadOnlyModel<List<Object[]>>
+        extends AbstractReadOnlyModel<List<SearchHit>>
     {
-        List<Object[]> results = new LinkedList<Object[]>();
+        List<SearchHit> results = new LinkedList<SearchHit>();
         int newFrom;
 
         public SearchModel()
         {
             if ( query != null )
             {
-                Session session = ( (HibernateStorage) Manager.getStorageInstance() ).getHibernateSession();
-                FullTextSession fullTextSession = org.hibernate.search.Search.createFullTextSession(
-                    ( (SessionProxy) session ).getRealSession() );
-
-                MultiFieldQueryParser parser = new MultiFieldQueryParser(
-                    new ArrayList<String>( HibernateUtil.getSearchFields() ).toArray(
-                            new String[ HibernateUtil.getSearchFields().size() ] ),
-                    new StandardAnalyzer());
+                long start = System.currentTimeMillis();
+                FullTextSession fullTextSession = getFullTextSession();
+
                 try
                 {
-                    Query q = parser.parse( query );
+                    Query q = SearchQueryCache.parse( query );
 
                     newFrom = from;
                     boolean more = true;
@@ -299,6 +325,7 @@ public class Search
                 {
                     Manager.getLogger( "Search" ).error( "Failed to run search", e );
                 }
+                SearchStatistics.record( System.currentTimeMillis() - start );
 
                 noresults.setVisible( results.size() == 0 );
                 notallprojectsLink.setVisible( results.size() == 0 && !getProject().equals( StoredProject.getDefault() ) );
@@ -307,7 +334,7 @@ public class Search
             }
         }
 
-        public List<Object[]> getObject()
+        public List<SearchHit> getObject()
         {
             return results;
         }
@@ -315,20 +342,22 @@ public class Search
         private boolean addResults( Query q, FullTextSession fullTextSession, int from )
         {
             FullTextQuery textQuery = fullTextSession.createFullTextQuery( q );
-            textQuery.setProjection( FullTextQuery.SCORE, FullTextQuery.THIS, FullTextQuery.EXPLANATION );
-            textQuery.setMaxResults(PAGE_SIZE);
+            textQuery.setProjection( SearchHit.PROJECTION );
+            int requested = PAGE_SIZE - results.size();
+            textQuery.setMaxResults( requested );
             textQuery.setFirstResult( from );
 
-            Iterator i = textQuery.iterate();
-            while ( i.hasNext() ) {
+            boolean allProjects = getProject().equals( StoredProject.getDefault() );
+            List rows = textQuery.list();
+            for ( Object row : rows )
+            {
                 try
                 {
-                    Object[] result = (Object[]) i.next();
+                    SearchHit hit = SearchHit.fromProjection( (Object[]) row );
 
-                    if ( getProject().equals( StoredProject.getDefault() ) || getProject().equals(
-                            getProjectFromResult( result ) ) )
+                    if ( hit != null && ( allProjects || getProject().getId().equals( hit.getProjectId() ) ) )
                     {
-                        results.add( result );
+                        results.add( hit );
                     }
                 }
                 catch ( Exception e )
@@ -337,8 +366,8 @@ public class Search
                 }
                 newFrom++;
             }
-            
-            return textQuery.getResultSize() == PAGE_SIZE;
+
+            return rows.size() == requested;
         }
     }
 }
@@ -22,6 +22,7 @@ import org.headsupdev.agile.api.*;
 import org.headsupdev.agile.web.WebApplication;
 import org.headsupdev.agile.app.search.feed.SearchFeed;
 import org.headsupdev.agile.app.search.permission.SearchPermission;
+import org.osgi.framework.BundleContext;
 
 import java.util.List;
 import java.util.LinkedList;
@@ -36,6 +37,9 @@ import java.util.LinkedList;
 public class SearchApplication
     extends WebApplication
 {
+    static transient SearchIndexer indexer = new SearchIndexer();
+    private transient IndexDiffsListener indexDiffsListener;
+
     List<MenuLink> links;
 
     public SearchApplication()
@@ -43,6 +47,36 @@ public class SearchApplication
         links = new LinkedList<MenuLink>();
     }
 
+    @Override
+    public void start( BundleContext bc )
+    {
+        super.start( bc );
+
+        indexer.start();
+        Storage storage = Manager.getStorageInstance();
+        indexDiffsListener = new IndexDiffsListener( indexer, storage.getConfigurationSnapshot() );
+        storage.addConfigurationListener( indexDiffsListener );
+    }
+
+    @Override
+    public void stop( BundleContext bc )
+        throws Exception
+    {
+        super.stop( bc );
+
+        indexer.stop();
+        if ( indexDiffsListener != null )
+        {
+            Manager.getStorageInstance().removeConfigurationListener( indexDiffsListener );
+            indexDiffsListener = null;
+        }
+    }
+
+    public static SearchIndexer getIndexer()
+    {
+        return indexer;
+    }
+
     public String getName()
     {
         return "Search";
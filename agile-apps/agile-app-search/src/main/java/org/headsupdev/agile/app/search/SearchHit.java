@@ -0,0 +1,188 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.app.search;
+
+import org.apache.lucene.document.Document;
+import org.headsupdev.agile.api.Manager;
+import org.headsupdev.agile.api.Project;
+import org.headsupdev.agile.api.SearchResult;
+import org.headsupdev.agile.storage.HibernateUtil;
+import org.headsupdev.agile.storage.StoredProject;
+import org.headsupdev.agile.storage.hibernate.SearchResultBridge;
+import org.hibernate.search.FullTextQuery;
+
+import java.io.Serializable;
+import java.lang.reflect.Method;
+
+/**
+ * A single search result, built from the fields stored in the index so the matching entity does not need to be
+ * loaded. Entities that were indexed before those fields existed are loaded to fill in the details.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class SearchHit
+    implements Serializable
+{
+    /**
+     * The projection to ask a FullTextQuery for, in the order that fromProjection expects.
+     */
+    public static final String[] PROJECTION = { FullTextQuery.SCORE, FullTextQuery.DOCUMENT_ID,
+        FullTextQuery.OBJECT_CLASS, FullTextQuery.ID, FullTextQuery.DOCUMENT };
+
+    private float score;
+    private int documentId;
+    private Class type;
+    private Serializable id;
+
+    private String title, link, iconPath, projectId, summary;
+
+    /**
+     * Create a hit from a projected result row.
+     *
+     * @return the hit or null if the row refers to something no longer in the database
+     */
+    public static SearchHit fromProjection( Object[] row )
+    {
+        SearchHit hit = new SearchHit();
+        hit.score = (Float) row[0];
+        hit.documentId = (Integer) row[1];
+        hit.type = (Class) row[2];
+        hit.id = (Serializable) row[3];
+
+        Document document = (Document) row[4];
+        hit.title = document.get( SearchResultBridge.FIELD_TITLE );
+        if ( hit.title != null )
+        {
+            hit.link = document.get( SearchResultBridge.FIELD_LINK );
+            hit.iconPath = document.get( SearchResultBridge.FIELD_ICON );
+            hit.projectId = document.get( SearchResultBridge.FIELD_PROJECT );
+            hit.summary = document.get( SearchResultBridge.FIELD_SUMMARY );
+            return hit;
+        }
+
+        // not yet reindexed with the stored fields, look it up the old way
+        Object o = hit.loadObject();
+        if ( o == null )
+        {
+            return null;
+        }
+
+        hit.title = o.toString();
+        if ( o instanceof SearchResult )
+        {
+            hit.link = ( (SearchResult) o ).getLink();
+            hit.iconPath = ( (SearchResult) o ).getIconPath();
+        }
+        if ( o instanceof Project )
+        {
+            hit.projectId = ( (Project) o ).getId();
+        }
+        else
+        {
+            try
+            {
+                Method getProject = o.getClass().getMethod( "getProject" );
+                Project project = (Project) getProject.invoke( o );
+                if ( project != null )
+                {
+                    hit.projectId = project.getId();
+                }
+            }
+            catch ( Exception e )
+            {
+                // no project, we will use the default
+            }
+        }
+        return hit;
+    }
+
+    public float getScore()
+    {
+        return score;
+    }
+
+    public int getDocumentId()
+    {
+        return documentId;
+    }
+
+    public Class getType()
+    {
+        return type;
+    }
+
+    public String getTitle()
+    {
+        return title;
+    }
+
+    public String getLink()
+    {
+        return link;
+    }
+
+    public String getIconPath()
+    {
+        if ( iconPath != null )
+        {
+            return iconPath;
+        }
+
+        return Search.getClassImageName( type );
+    }
+
+    public String getSummary()
+    {
+        return summary;
+    }
+
+    public String getProjectId()
+    {
+        if ( projectId == null )
+        {
+            return StoredProject.ALL_PROJECT_ID;
+        }
+
+        return projectId;
+    }
+
+    public Project getProject()
+    {
+        if ( projectId != null )
+        {
+            Project project = Manager.getStorageInstance().getProject( projectId );
+            if ( project != null )
+            {
+                return project;
+            }
+        }
+
+        return StoredProject.getDefault();
+    }
+
+    /**
+     * Load the entity this hit refers to, only needed when the full details of a match are requested.
+     */
+    public Object loadObject()
+    {
+        return HibernateUtil.getCurrentSession().get( type, id );
+    }
+}
@@ -0,0 +1,628 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.app.search;
+
+import org.headsupdev.agile.api.Manager;
+import org.headsupdev.agile.api.Project;
+import org.headsupdev.agile.api.Task;
+import org.headsupdev.agile.api.logging.Logger;
+import org.headsupdev.agile.storage.HibernateStorage;
+import org.headsupdev.agile.storage.HibernateUtil;
+import org.headsupdev.agile.storage.ScmChangeSet;
+import org.headsupdev.agile.storage.SessionProxy;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.Directory;
+import org.hibernate.*;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.search.FullTextSession;
+import org.hibernate.search.annotations.Indexed;
+import org.hibernate.search.store.DirectoryProvider;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Keeps the on disk search indexes in step with the database. Every so often each indexed entity is checked for
+ * rows that were created or updated since the last pass (the time of which is stored per entity in the index
+ * directory) and those rows are indexed again. This catches anything the index listeners missed, such as changes
+ * made before the indexes were opened or while the server was stopping.
+ * <p/>
+ * A full rebuild purges an index and scrolls through the whole table, flushing and clearing the session every
+ * BATCH_SIZE rows so memory use does not grow with the table. An entity with no checkpoint, or whose index cannot
+ * be opened, is rebuilt this way. All work runs on a single background thread so the application stays online.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class SearchIndexer
+{
+    static final int BATCH_SIZE = 100;
+
+    private static final long START_DELAY = 30 * 1000;
+    private static final long UPDATE_INTERVAL = 15 * 60 * 1000;
+    // allow for clocks that differ between the app and database servers
+    private static final long CHECKPOINT_OVERLAP = 60 * 1000;
+
+    // bump this when the indexed documents change shape so every index is rebuilt on the next pass
+    private static final String INDEX_VERSION = "2";
+    private static final String VERSION_KEY = "index.version";
+
+    // properties that tell us when a row last changed, any that an entity has are checked
+    private static final String[] TIMESTAMP_PROPERTIES = { "updated", "created", "date", "startTime", "endTime",
+        "imported" };
+
+    private final Set<String> rebuilds = new LinkedHashSet<String>();
+    private final Set<String> changeSetProjects = new LinkedHashSet<String>();
+    private boolean running, update;
+    private long nextUpdate;
+    private Thread thread;
+
+    private Logger log = Manager.getLogger( getClass().getName() );
+
+    public synchronized void start()
+    {
+        if ( running )
+        {
+            return;
+        }
+        running = true;
+        update = true;
+
+        thread = new Thread( "search-indexer" )
+        {
+            public void run()
+            {
+                try
+                {
+                    Thread.sleep( START_DELAY );
+                }
+                catch ( InterruptedException e )
+                {
+                    // carry on, stop() will have cleared running if we should exit
+                }
+
+                SearchIndexer.this.run();
+            }
+        };
+        thread.setDaemon( true );
+        thread.start();
+    }
+
+    public synchronized void stop()
+    {
+        running = false;
+        notifyAll();
+        thread = null;
+    }
+
+    /**
+     * Queue a full rebuild of every search index.
+     */
+    public synchronized void rebuildAll()
+    {
+        rebuilds.addAll( getIndexedEntities() );
+        notifyAll();
+    }
+
+    /**
+     * Queue a full rebuild of the index for one entity.
+     */
+    public synchronized void rebuild( String entityName )
+    {
+        rebuilds.add( entityName );
+        notifyAll();
+    }
+
+    /**
+     * Queue the change sets of a project and the projects below it to be indexed again. This is needed when a
+     * project setting changes what is indexed, such as the diff indexing option.
+     */
+    public synchronized void reindexChangeSets( String projectId )
+    {
+        if ( Project.ALL_PROJECT_ID.equals( projectId ) )
+        {
+            // the default project's settings apply to every project that has not set its own
+            rebuild( ScmChangeSet.class.getName() );
+            return;
+        }
+
+        changeSetProjects.add( projectId );
+        notifyAll();
+    }
+
+    /**
+     * Ask for an incremental update to run now rather than waiting for the next interval.
+     */
+    public synchronized void update()
+    {
+        update = true;
+        notifyAll();
+    }
+
+    private void run()
+    {
+        while ( true )
+        {
+            String rebuild = null;
+            String changeSetProject = null;
+            boolean runUpdate;
+            synchronized ( this )
+            {
+                while ( running && rebuilds.isEmpty() && changeSetProjects.isEmpty() && !update )
+                {
+                    long delay = nextUpdate - System.currentTimeMillis();
+                    if ( delay <= 0 )
+                    {
+                        update = true;
+                        break;
+                    }
+
+                    try
+                    {
+                        wait( delay );
+                    }
+                    catch ( InterruptedException e )
+                    {
+                        // loop round to check our state
+                    }
+                }
+
+                if ( !running )
+                {
+                    return;
+                }
+
+                if ( !rebuilds.isEmpty() )
+                {
+                    rebuild = rebuilds.iterator().next();
+                    rebuilds.remove( rebuild );
+                }
+                else if ( !changeSetProjects.isEmpty() )
+                {
+                    changeSetProject = changeSetProjects.iterator().next();
+                    changeSetProjects.remove( changeSetProject );
+                }
+                runUpdate = rebuild == null && changeSetProject == null && update;
+                if ( runUpdate )
+                {
+                    update = false;
+                    nextUpdate = System.currentTimeMillis() + UPDATE_INTERVAL;
+                }
+            }
+
+            try
+            {
+                if ( rebuild != null )
+                {
+                    rebuildEntity( rebuild );
+                }
+                else if ( changeSetProject != null )
+                {
+                    reindexProjectChangeSets( changeSetProject );
+                }
+                else if ( runUpdate )
+                {
+                    updateAll();
+                }
+            }
+            catch ( Exception e )
+            {
+                log.error( "Failed to update search index", e );
+            }
+            finally
+            {
+                ( (HibernateStorage) Manager.getStorageInstance() ).closeSession();
+            }
+        }
+    }
+
+    private void updateAll()
+    {
+        Properties checkpoints = loadCheckpoints();
+        for ( String entityName : getIndexedEntities() )
+        {
+            if ( !isIndexReadable( entityName ) || checkpoints.getProperty( entityName ) == null )
+            {
+                rebuild( entityName );
+                continue;
+            }
+
+            long started = System.currentTimeMillis();
+            Date since = new Date( Long.parseLong( checkpoints.getProperty( entityName ) ) );
+            try
+            {
+                int count = updateEntity( entityName, since );
+                if ( count > 0 )
+                {
+                    log.info( "Indexed " + count + " changed " + entityName + " records" );
+                }
+            }
+            finally
+            {
+                ( (HibernateStorage) Manager.getStorageInstance() ).closeSession();
+            }
+
+            saveCheckpoint( entityName, started );
+        }
+    }
+
+    private int updateEntity( String entityName, Date since )
+    {
+        List<String> properties = getTimestampProperties( entityName );
+        if ( properties.isEmpty() )
+        {
+            // nothing to tell us what changed, the index listeners will have to do
+            return 0;
+        }
+
+        StringBuilder hql = new StringBuilder( "from " );
+        hql.append( entityName ).append( " e where " );
+        for ( int i = 0; i < properties.size(); i++ )
+        {
+            if ( i > 0 )
+            {
+                hql.append( " or " );
+            }
+            hql.append( "e." ).append( properties.get( i ) ).append( " > :since" );
+        }
+
+        FullTextSession session = getFullTextSession();
+        Transaction tx = session.beginTransaction();
+        try
+        {
+            Query q = session.createQuery( hql.toString() );
+            q.setTimestamp( "since", since );
+            q.setFetchSize( BATCH_SIZE );
+
+            int count = index( session, q.scroll( ScrollMode.FORWARD_ONLY ) );
+            tx.commit();
+            return count;
+        }
+        catch ( RuntimeException e )
+        {
+            tx.rollback();
+            throw e;
+        }
+    }
+
+    private void rebuildEntity( String entityName )
+    {
+        Task task = new ReindexTask();
+        Manager.getInstance().addTask( task );
+        log.info( "Rebuilding search index for " + entityName );
+
+        long started = System.currentTimeMillis();
+        try
+        {
+            repairIndex( entityName );
+
+            FullTextSession session = getFullTextSession();
+            Transaction tx = session.beginTransaction();
+            try
+            {
+                session.purgeAll( getEntityClass( entityName ) );
+                session.flushToIndexes();
+
+                ScrollableResults results = session.createCriteria( entityName )
+                    .setFetchSize( BATCH_SIZE )
+                    .scroll( ScrollMode.FORWARD_ONLY );
+                int count = index( session, results );
+                tx.commit();
+
+                log.info( "Rebuilt search index for " + entityName + " with " + count + " records" );
+            }
+            catch ( RuntimeException e )
+            {
+                tx.rollback();
+                throw e;
+            }
+
+            saveCheckpoint( entityName, started );
+        }
+        finally
+        {
+            Manager.getInstance().removeTask( task );
+        }
+    }
+
+    private void reindexProjectChangeSets( String projectId )
+    {
+        Set<String> projectIds = ( (HibernateStorage) Manager.getStorageInstance() ).getProjectHierarchy()
+            .getTreeIds( projectId );
+
+        Task task = new ReindexTask();
+        Manager.getInstance().addTask( task );
+        try
+        {
+            FullTextSession session = getFullTextSession();
+            Transaction tx = session.beginTransaction();
+            try
+            {
+                Query q = session.createQuery( "from ScmChangeSet s where s.id.project.id in (:pids)" );
+                q.setParameterList( "pids", projectIds );
+                q.setFetchSize( BATCH_SIZE );
+
+                int count = index( session, q.scroll( ScrollMode.FORWARD_ONLY ) );
+                tx.commit();
+
+                log.info( "Indexed " + count + " change sets for project " + projectId );
+            }
+            catch ( RuntimeException e )
+            {
+                tx.rollback();
+                throw e;
+            }
+        }
+        finally
+        {
+            Manager.getInstance().removeTask( task );
+        }
+    }
+
+    private int index( FullTextSession session, ScrollableResults results )
+    {
+        int count = 0;
+        try
+        {
+            while ( results.next() )
+            {
+                Object o = results.get( 0 );
+                if ( o.getClass().isAnnotationPresent( Indexed.class ) )
+                {
+                    session.index( o );
+                }
+
+                count++;
+                if ( count % BATCH_SIZE == 0 )
+                {
+                    session.flushToIndexes();
+                    session.clear();
+                }
+            }
+            session.flushToIndexes();
+            session.clear();
+        }
+        finally
+        {
+            results.close();
+        }
+
+        return count;
+    }
+
+    /**
+     * If an index cannot be read then replace it with an empty one so the rebuild has somewhere to write.
+     */
+    private void repairIndex( String entityName )
+    {
+        for ( DirectoryProvider provider : getFullTextSession().getSearchFactory().getDirectoryProviders(
+            getEntityClass( entityName ) ) )
+        {
+            Directory directory = provider.getDirectory();
+            if ( canOpen( directory ) )
+            {
+                continue;
+            }
+
+            log.warn( "Search index for " + entityName + " is unreadable, creating a new one" );
+            try
+            {
+                new IndexWriter( directory, new StandardAnalyzer(), true, IndexWriter.MaxFieldLength.UNLIMITED ).close();
+            }
+            catch ( IOException e )
+            {
+                log.error( "Unable to reset search index for " + entityName, e );
+            }
+        }
+    }
+
+    private boolean isIndexReadable( String entityName )
+    {
+        for ( DirectoryProvider provider : getFullTextSession().getSearchFactory().getDirectoryProviders(
+            getEntityClass( entityName ) ) )
+        {
+            if ( !canOpen( provider.getDirectory() ) )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private boolean canOpen( Directory directory )
+    {
+        try
+        {
+            if ( !IndexReader.indexExists( directory ) )
+            {
+                return false;
+            }
+
+            IndexReader.open( directory ).close();
+            return true;
+        }
+        catch ( IOException e )
+        {
+            return false;
+        }
+    }
+
+    /**
+     * The indexed entities, leaving out subclasses whose parent entity is also listed as loading the parent
+     * returns the subclass rows too.
+     */
+    private List<String> getIndexedEntities()
+    {
+        List<String> entityNames = HibernateUtil.getEntityClassNames();
+
+        List<String> ret = new ArrayList<String>();
+        for ( String entityName : entityNames )
+        {
+            Class type = getEntityClass( entityName );
+            if ( type == null || !type.isAnnotationPresent( Indexed.class ) )
+            {
+                continue;
+            }
+
+            boolean parentListed = false;
+            for ( Class parent = type.getSuperclass(); parent != null; parent = parent.getSuperclass() )
+            {
+                if ( entityNames.contains( parent.getName() ) )
+                {
+                    parentListed = true;
+                    break;
+                }
+            }
+
+            if ( !parentListed )
+            {
+                ret.add( entityName );
+            }
+        }
+
+        return ret;
+    }
+
+    private List<String> getTimestampProperties( String entityName )
+    {
+        ClassMetadata metadata = HibernateUtil.getCurrentSession().getSessionFactory().getClassMetadata( entityName );
+        List<String> names = Arrays.asList( metadata.getPropertyNames() );
+
+        List<String> ret = new ArrayList<String>();
+        for ( String property : TIMESTAMP_PROPERTIES )
+        {
+            if ( names.contains( property ) )
+            {
+                ret.add( property );
+            }
+        }
+
+        return ret;
+    }
+
+    private Class getEntityClass( String entityName )
+    {
+        ClassMetadata metadata = HibernateUtil.getCurrentSession().getSessionFactory().getClassMetadata( entityName );
+        if ( metadata == null )
+        {
+            return null;
+        }
+
+        return metadata.getMappedClass( EntityMode.POJO );
+    }
+
+    private FullTextSession getFullTextSession()
+    {
+        Session session = HibernateUtil.getCurrentSession();
+        FullTextSession fullTextSession = org.hibernate.search.Search.createFullTextSession(
+            ( (SessionProxy) session ).getRealSession() );
+
+        fullTextSession.setFlushMode( FlushMode.MANUAL );
+        fullTextSession.setCacheMode( CacheMode.IGNORE );
+        return fullTextSession;
+    }
+
+    private File getCheckpointFile()
+    {
+        return new File( new File( Manager.getStorageInstance().getDataDirectory(), "index" ), "checkpoints.properties" );
+    }
+
+    private synchronized Properties loadCheckpoints()
+    {
+        Properties checkpoints = new Properties();
+        File file = getCheckpointFile();
+        if ( !file.exists() )
+        {
+            return checkpoints;
+        }
+
+        FileInputStream in = null;
+        try
+        {
+            in = new FileInputStream( file );
+            checkpoints.load( in );
+        }
+        catch ( IOException e )
+        {
+            log.error( "Unable to read search index checkpoints", e );
+        }
+        finally
+        {
+            if ( in != null )
+            {
+                try
+                {
+                    in.close();
+                }
+                catch ( IOException e )
+                {
+                    // ignore
+                }
+            }
+        }
+
+        if ( !INDEX_VERSION.equals( checkpoints.getProperty( VERSION_KEY ) ) )
+        {
+            log.info( "Search indexes are out of date and will be rebuilt" );
+            checkpoints.clear();
+        }
+        return checkpoints;
+    }
+
+    private synchronized void saveCheckpoint( String entityName, long started )
+    {
+        Properties checkpoints = loadCheckpoints();
+        checkpoints.setProperty( VERSION_KEY, INDEX_VERSION );
+        checkpoints.setProperty( entityName, String.valueOf( started - CHECKPOINT_OVERLAP ) );
+
+        File file = getCheckpointFile();
+        file.getParentFile().mkdirs();
+        FileOutputStream out = null;
+        try
+        {
+            out = new FileOutputStream( file );
+            checkpoints.store( out, "Last time each search index was brought up to date" );
+        }
+        catch ( IOException e )
+        {
+            log.error( "Unable to write search index checkpoints", e );
+        }
+        finally
+        {
+            if ( out != null )
+            {
+                try
+                {
+                    out.close();
+                }
+                catch ( IOException e )
+                {
+                    // ignore
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.app.search;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.queryParser.MultiFieldQueryParser;
+import org.apache.lucene.queryParser.ParseException;
+import org.apache.lucene.search.Query;
+import org.headsupdev.agile.storage.HibernateUtil;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parsing a query across every search field is not cheap so recently used queries are kept here. The cache is
+ * cleared whenever the list of search fields changes as applications are added.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class SearchQueryCache
+{
+    private static final int CACHE_SIZE = 200;
+
+    private static String[] fields = new String[0];
+
+    private static final Map<String, Query> queries = new LinkedHashMap<String, Query>( 16, 0.75f, true )
+    {
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<String, Query> eldest )
+        {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    public static Query parse( String query )
+        throws ParseException
+    {
+        String[] searchFields;
+        synchronized ( queries )
+        {
+            List<String> current = HibernateUtil.getSearchFields();
+            if ( current.size() != fields.length )
+            {
+                fields = current.toArray( new String[current.size()] );
+                queries.clear();
+            }
+
+            Query ret = queries.get( query );
+            if ( ret != null )
+            {
+                return ret;
+            }
+            searchFields = fields;
+        }
+
+        // the parser is not thread safe so we make one for each miss
+        Query ret = new MultiFieldQueryParser( searchFields, new StandardAnalyzer() ).parse( query );
+        synchronized ( queries )
+        {
+            queries.put( query, ret );
+        }
+
+        return ret;
+    }
+}
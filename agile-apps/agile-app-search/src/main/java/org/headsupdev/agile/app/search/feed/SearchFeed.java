@@ -20,20 +20,18 @@ package org.headsupdev.agile.app.search.feed;
 
 import org.headsupdev.agile.web.WebUtil;
 import org.headsupdev.agile.web.MountPoint;
-import org.headsupdev.agile.app.search.Search;
+import org.headsupdev.agile.app.search.SearchHit;
+import org.headsupdev.agile.app.search.SearchQueryCache;
 import org.headsupdev.agile.security.permission.ProjectListPermission;
 import org.headsupdev.agile.api.Storage;
 import org.headsupdev.agile.api.Manager;
 import org.headsupdev.agile.api.Permission;
-import org.headsupdev.agile.api.SearchResult;
-import org.headsupdev.agile.storage.HibernateUtil;
+import org.headsupdev.agile.storage.SearchStatistics;
 import org.headsupdev.agile.storage.SessionProxy;
 import org.headsupdev.agile.storage.HibernateStorage;
 import org.hibernate.Session;
 import org.hibernate.search.FullTextSession;
 import org.hibernate.search.FullTextQuery;
-import org.apache.lucene.queryParser.MultiFieldQueryParser;
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.search.Query;
 import org.apache.wicket.markup.MarkupStream;
 import org.apache.wicket.markup.html.WebPage;
@@ -103,20 +101,18 @@ public class SearchFeed
         String query = parameters.getString( "query" );
         List<Object[]> results = new LinkedList<Object[]>();
 
+        long start = System.currentTimeMillis();
         Session session = ( (HibernateStorage) Manager.getStorageInstance() ).getHibernateSession();
         FullTextSession fullTextSession = org.hibernate.search.Search.createFullTextSession(
             ( (SessionProxy) session ).getRealSession() );
 
-        MultiFieldQueryParser parser = new MultiFieldQueryParser(
-            new ArrayList<String>( HibernateUtil.getSearchFields() ).toArray( new String[ 0 ] ),
-            new StandardAnalyzer());
         try
         {
             // TODO can we limit by project somehow? I think not :(
-            Query q = parser.parse( query );
+            Query q = SearchQueryCache.parse( query );
 
             FullTextQuery textQuery = fullTextSession.createFullTextQuery( q );
-            textQuery.setProjection( FullTextQuery.SCORE, FullTextQuery.THIS );//, FullTextQuery.EXPLANATION );
+            textQuery.setProjection( SearchHit.PROJECTION );
             textQuery.setMaxResults( 25 );
             results = textQuery.list();
         }
@@ -124,26 +120,31 @@ public class SearchFeed
         {
             Manager.getLogger( getClass().getName() ).error( "Failed to run search", e );
         }
+        SearchStatistics.record( System.currentTimeMillis() - start );
 
         for ( Object[] o : results )
         {
+            SearchHit hit = SearchHit.fromProjection( o );
+            if ( hit == null )
+            {
+                continue;
+            }
+
             Element node = new Element( "result" );
-            int relevance = (int) ( ( (Float) o[0] ) * 100 );
-            String title = o[1].toString();
+            int relevance = (int) ( hit.getScore() * 100 );
 
             String link = "";
-            if ( o[1] instanceof SearchResult)
+            if ( hit.getLink() != null )
             {
-                link = ( (SearchResult) o[1] ).getLink();
+                link = hit.getLink();
             }
 
-            node.addContent( new Element( "title" ).addContent( title ) );
+            node.addContent( new Element( "title" ).addContent( hit.getTitle() ) );
             node.addContent( new Element( "relevance" ).addContent( relevance + "%" ) );
             node.addContent( new Element( "link" ).addContent( storage.getGlobalConfiguration().getFullUrl( link ) ) );
 
-            String image = Search.getClassImageName( o[1] );
             node.addContent( new Element( "icon" ).addContent( storage.getGlobalConfiguration().getFullUrl(
-                "resources/org.headsupdev.agile.HeadsUpResourceMarker/" + image ) ) );
+                "resources/org.headsupdev.agile.HeadsUpResourceMarker/" + hit.getIconPath() ) ) );
 
             root.addContent( node );
         }
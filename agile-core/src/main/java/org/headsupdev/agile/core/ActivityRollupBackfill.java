@@ -0,0 +1,104 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.core;
+
+import org.headsupdev.agile.api.Manager;
+import org.headsupdev.agile.api.Task;
+import org.headsupdev.agile.storage.ActivityRollups;
+import org.headsupdev.agile.storage.BatchJob;
+import org.headsupdev.agile.storage.HibernateStorage;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+
+/**
+ * A one off job that counts the events stored before activity rollups were kept. It works through the Events table
+ * in batches, in id order, recording its progress with each batch so it can carry on after a restart. Once the
+ * backfill is complete starting this thread does nothing.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class ActivityRollupBackfill
+    extends BatchJob
+{
+    private static final long START_DELAY = 60 * 1000;
+    private static final int BATCH_SIZE = 1000;
+
+    public ActivityRollupBackfill()
+    {
+        super( "activity-rollup-backfill", START_DELAY );
+    }
+
+    /**
+     * Fix the point that separates backfilled events from live ones. This runs in its own transaction before the
+     * thread is started so events recorded while the application starts up all use the committed value.
+     */
+    public void loadLimit()
+    {
+        HibernateStorage storage = (HibernateStorage) Manager.getStorageInstance();
+        Session session = storage.getHibernateSession();
+        Transaction tx = session.beginTransaction();
+        try
+        {
+            ActivityRollups.loadBackfillLimit( session );
+            tx.commit();
+        }
+        catch ( RuntimeException e )
+        {
+            tx.rollback();
+            log.error( "Failed to load the activity rollup backfill limit", e );
+        }
+        finally
+        {
+            storage.closeSession();
+        }
+    }
+
+    protected boolean prepare( Session session )
+    {
+        if ( ActivityRollups.isBackfillComplete( session ) )
+        {
+            return false;
+        }
+
+        log.info( "Counting past events for activity rollups" );
+        return true;
+    }
+
+    protected boolean runBatch( Session session )
+    {
+        return ActivityRollups.backfill( session, BATCH_SIZE );
+    }
+
+    protected Task createTask()
+    {
+        return new ActivityRollupTask();
+    }
+
+    protected String getDescription()
+    {
+        return "count past events for activity rollups";
+    }
+
+    protected void finished()
+    {
+        log.info( "Finished counting past events for activity rollups" );
+    }
+}
@@ -21,7 +21,6 @@ package org.headsupdev.agile.core;
 import org.headsupdev.agile.api.service.ScmService;
 import org.headsupdev.agile.core.notifiers.irc.ProjectCommand;
 import org.headsupdev.agile.storage.*;
-import org.headsupdev.support.java.StringUtil;
 import org.headsupdev.irc.IRCCommand;
 import org.headsupdev.irc.IRCServiceManager;
 import org.headsupdev.irc.impl.DefaultIRCServiceManager;
@@ -54,9 +53,12 @@ public class DefaultManager
 
     transient private List<UpdateDetails> availableUpdates = new LinkedList<UpdateDetails>();
     transient private UpdatesThread updatesThread;
+    transient private NotificationQueue notificationQueue;
+    transient private ActivityRollupBackfill rollupBackfill;
+    transient private DiffMigration diffMigration;
 
     // currently we do not have any way of reviving dead tasks, so we don't store them
-    transient private List<Task> tasks = new LinkedList<Task>();
+    transient private List<Task> tasks = new Vector<Task>();
 
     static private Map<String,Class<? extends Notifier>> availableNotifiers;
 
@@ -82,6 +84,16 @@ public class DefaultManager
             initNotifiers( project );
         }
 
+        notificationQueue = new NotificationQueue( this );
+        notificationQueue.start();
+
+        rollupBackfill = new ActivityRollupBackfill();
+        rollupBackfill.loadLimit();
+        rollupBackfill.start();
+
+        diffMigration = new DiffMigration();
+        diffMigration.start();
+
         updatesThread = newUpdatesThreadInstance();
         updatesThread.start();
     }
@@ -151,6 +163,15 @@ public class DefaultManager
         updatesThread.cancel();
         updatesThread = null;
 
+        notificationQueue.stop();
+        notificationQueue = null;
+
+        rollupBackfill.cancel();
+        rollupBackfill = null;
+
+        diffMigration.cancel();
+        diffMigration = null;
+
         deinitNotifiers( StoredProject.getDefault() );
         for ( Project project : Manager.getStorageInstance().getProjects() )
         {
@@ -185,6 +206,7 @@ public class DefaultManager
         {
             linkProviders.put( provider.getId(), provider );
         }
+        LinkProvider.targetsChanged();
 
         for ( IRCCommand command : application.getIRCCommands() )
         {
@@ -198,6 +220,7 @@ public class DefaultManager
         {
             linkProviders.remove( provider.getId() );
         }
+        LinkProvider.targetsChanged();
 
         for ( IRCCommand command : application.getIRCCommands() )
         {
@@ -207,6 +230,7 @@ public class DefaultManager
 
     public void fireProjectAdded( final Project proj )
     {
+        HibernateStorage.projectChanged( proj );
         ( new StorageThread() {
             public void runWithSession()
             {
@@ -222,6 +246,7 @@ public class DefaultManager
 
     public void fireProjectModified( final Project proj )
     {
+        HibernateStorage.projectChanged( proj );
         ( new StorageThread() {
             public void runWithSession()
             {
@@ -297,72 +322,14 @@ public class DefaultManager
 
     public void fireEventAdded( Event event )
     {
-        Project project = event.getProject();
-
-        while ( project != null && !project.equals( StoredProject.getDefault() ) )
-        {
-            sendNotification( event, project );
-
-            project = project.getParent();
-        }
-
-        sendNotification( event, StoredProject.getDefault() );
-        sendSubscriptions( event );
-    }
-
-    private void sendNotification( Event event, Project project )
-    {
-        if ( notifiers.get( project ) != null )
-        {
-            for ( Notifier notifier : notifiers.get( project ) ) {
-                try
-                {
-                    getLoggerForComponent( getClass().getName() ).info( "Running " + notifier.getId() + " notifier for project " + project.getId() );
-                    notifier.eventAdded( event );
-                }
-                catch ( Exception e )
-                {
-                    // we do not want broken notifiers to kill the process that spawned them!!!
-                    getLoggerForComponent( getClass().getName() ).error( "Problem found in notifier " + notifier.getId(), e );
-                }
-            }
-        }
-    }
-
-    private void sendSubscriptions( Event event )
-    {
-        String from = Manager.getStorageInstance().getGlobalConfiguration().getSmtpHost();
-        if ( StringUtil.isEmpty( from ) )
+        // notifiers and subscription emails are sent from the queue so a slow notifier never holds up the caller
+        try
         {
-            from = "noreply@headsupdev.com";
+            notificationQueue.enqueue( event );
         }
-
-        Session session = HibernateUtil.getCurrentSession();
-        for ( User user : Manager.getSecurityInstance().getUsers() )
+        catch ( Exception e )
         {
-            user = (User) session.load( StoredUser.class, user.getUsername() );
-
-            // TODO a configurable system for controlling what a user gets sent
-            if ( ( event.getUsername() == null || !event.getUsername().equals( user.getUsername() ) ) && event.shouldNotify( user ) )
-            {
-                if ( !StringUtil.isEmpty( user.getEmail() ) )
-                {
-                    getLoggerForComponent( getClass().getName() ).info( "Emailing event to user " + user.getUsername() + " at " + user.getEmail() );
-                    try
-                    {
-                        ( (EmailNotifier) getNotifierList().get( "email" ).newInstance() ).sendEventEmail( event, user.getEmail(), from, EmailNotifier.FooterType.Subscription );
-                    }
-                    catch ( Exception e )
-                    {
-                        // we do not want broken notifiers to kill the process that spawned them!!!
-                        getLoggerForComponent( getClass().getName() ).error( "Problem found sending email subscriptions", e );
-                    }
-                }
-                else
-                {
-                    getLoggerForComponent( getClass().getName() ).warn( "No email for user " + user.getUsername() );
-                }
-            }
+            getLoggerForComponent( getClass().getName() ).error( "Unable to queue notifications for event " + event.getId(), e );
         }
     }
 
@@ -378,7 +345,8 @@ public class DefaultManager
 
     public List<Task> getTasks()
     {
-        return Collections.unmodifiableList( tasks );
+        // tasks are added and removed from many threads so hand out a copy to iterate
+        return Collections.unmodifiableList( new ArrayList<Task>( tasks ) );
     }
 
     public void addTask( Task task )
@@ -0,0 +1,89 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.core;
+
+import org.headsupdev.agile.api.Task;
+import org.headsupdev.agile.storage.BatchJob;
+import org.headsupdev.agile.storage.DiffStore;
+import org.hibernate.Query;
+import org.hibernate.Session;
+
+/**
+ * A one off job that moves the diffs of changes stored before 2.0 out of the Changes table and into the DiffStore.
+ * It works through the table in batches, in id order, and each batch is committed on its own so an interrupted
+ * migration simply carries on with the rows that are left next time. Once every diff is moved this does nothing.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class DiffMigration
+    extends BatchJob
+{
+    private static final long START_DELAY = 2 * 60 * 1000;
+    private static final int BATCH_SIZE = 200;
+
+    private long last = 0;
+    private int batches = 0;
+
+    public DiffMigration()
+    {
+        super( "diff-migration", START_DELAY );
+    }
+
+    protected boolean prepare( Session session )
+    {
+        Query q = session.createQuery( "select c.id from ScmChange c where c.diff is not null" );
+        q.setMaxResults( 1 );
+        if ( q.list().isEmpty() )
+        {
+            return false;
+        }
+
+        log.info( "Moving diffs out of the database" );
+        return true;
+    }
+
+    protected boolean runBatch( Session session )
+    {
+        last = DiffStore.migrate( session, last, BATCH_SIZE );
+        if ( last == -1 )
+        {
+            return false;
+        }
+
+        batches++;
+        return true;
+    }
+
+    protected Task createTask()
+    {
+        return new DiffMigrationTask();
+    }
+
+    protected String getDescription()
+    {
+        return "move diffs out of the database";
+    }
+
+    protected void finished()
+    {
+        log.info( "Finished moving diffs out of the database in " + batches + " batches" );
+    }
+}
@@ -0,0 +1,598 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.core;
+
+import org.headsupdev.agile.api.*;
+import org.headsupdev.agile.api.logging.Logger;
+import org.headsupdev.agile.core.notifiers.EmailNotifier;
+import org.headsupdev.agile.storage.HibernateStorage;
+import org.headsupdev.agile.storage.HibernateUtil;
+import org.headsupdev.agile.storage.StoredEvent;
+import org.headsupdev.agile.storage.StoredNotification;
+import org.headsupdev.agile.storage.StoredProject;
+import org.headsupdev.agile.storage.StoredUser;
+import org.headsupdev.support.java.StringUtil;
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A durable outbound queue for event notifications. Adding an event only writes a few rows to the Notifications
+ * table, the notifiers and subscription emails are then run from a small pool of worker threads. Subscription
+ * emails are held for a short time so that a burst of events turns into a single digest per user and any delivery
+ * that fails is tried again with an increasing delay. As the queue lives in the database anything that was not
+ * sent before a shutdown is picked up again when the server restarts.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class NotificationQueue
+{
+    private static final int WORKER_COUNT = 4;
+    private static final int BATCH_SIZE = 100;
+    // batches claimed but not yet delivered - more than this and leases could expire before the workers catch up
+    private static final int MAX_BATCHES_IN_FLIGHT = 2;
+
+    private static final long POLL_INTERVAL = 30 * 1000;
+    // how long a claimed row is hidden from the dispatcher - if we die while sending it will be retried after this
+    private static final long LEASE_TIME = 10 * 60 * 1000;
+    private static final long DIGEST_DELAY = 2 * 60 * 1000;
+
+    private static final long RETRY_DELAY = 60 * 1000;
+    private static final long MAX_RETRY_DELAY = 6 * 60 * 60 * 1000;
+    private static final int MAX_ATTEMPTS = 12;
+
+    private DefaultManager manager;
+
+    private ExecutorService workers;
+    private Semaphore batches;
+    private Thread dispatcher;
+
+    private final Object lock = new Object();
+    private boolean running, pending;
+
+    private Logger log = Manager.getLogger( getClass().getName() );
+
+    public NotificationQueue( DefaultManager manager )
+    {
+        this.manager = manager;
+    }
+
+    public void start()
+    {
+        synchronized ( lock )
+        {
+            if ( running )
+            {
+                return;
+            }
+            running = true;
+            pending = true;
+        }
+
+        // a fresh set of permits, any held by work dropped at the last stop will never be released
+        batches = new Semaphore( MAX_BATCHES_IN_FLIGHT );
+
+        workers = Executors.newFixedThreadPool( WORKER_COUNT, new ThreadFactory()
+        {
+            private int count = 0;
+
+            public synchronized Thread newThread( Runnable runnable )
+            {
+                Thread thread = new Thread( runnable, "notification-" + ( ++count ) );
+                thread.setDaemon( true );
+                return thread;
+            }
+        } );
+
+        dispatcher = new Thread( "notification-dispatcher" )
+        {
+            public void run()
+            {
+                dispatch();
+            }
+        };
+        dispatcher.setDaemon( true );
+        dispatcher.start();
+    }
+
+    public void stop()
+    {
+        synchronized ( lock )
+        {
+            running = false;
+            lock.notifyAll();
+        }
+
+        // anything that is cut off here is still in the table and will be sent on the next start
+        workers.shutdownNow();
+        dispatcher = null;
+    }
+
+    /**
+     * Queue the notifications for a new event. This writes the outstanding work in one transaction and returns,
+     * none of the notifiers are run on the calling thread.
+     */
+    public void enqueue( Event event )
+    {
+        Date now = new Date();
+
+        Session session = HibernateUtil.getCurrentSession();
+        Transaction tx = session.beginTransaction();
+        try
+        {
+            Project project = event.getProject();
+            while ( project != null && !project.equals( StoredProject.getDefault() ) )
+            {
+                enqueueNotifiers( session, event, project, now );
+
+                project = project.getParent();
+            }
+            enqueueNotifiers( session, event, StoredProject.getDefault(), now );
+
+            session.save( new StoredNotification( StoredNotification.TYPE_SUBSCRIPTIONS, event.getId(), now ) );
+            tx.commit();
+        }
+        catch ( RuntimeException e )
+        {
+            tx.rollback();
+            throw e;
+        }
+
+        wake();
+    }
+
+    private void enqueueNotifiers( Session session, Event event, Project project, Date due )
+    {
+        List<Notifier> notifiers = manager.getNotifiers( project );
+        if ( notifiers == null )
+        {
+            return;
+        }
+
+        Set<String> ids = new HashSet<String>();
+        for ( Notifier notifier : notifiers )
+        {
+            ids.add( notifier.getId() );
+        }
+
+        for ( String id : ids )
+        {
+            StoredNotification notification = new StoredNotification( StoredNotification.TYPE_NOTIFIER, event.getId(), due );
+            notification.setProjectId( project.getId() );
+            notification.setNotifierId( id );
+            session.save( notification );
+        }
+    }
+
+    private void wake()
+    {
+        synchronized ( lock )
+        {
+            pending = true;
+            lock.notifyAll();
+        }
+    }
+
+    private void dispatch()
+    {
+        while ( true )
+        {
+            synchronized ( lock )
+            {
+                if ( !pending && running )
+                {
+                    try
+                    {
+                        lock.wait( POLL_INTERVAL );
+                    }
+                    catch ( InterruptedException e )
+                    {
+                        // fall through to check if we are still running
+                    }
+                }
+
+                if ( !running )
+                {
+                    return;
+                }
+                pending = false;
+            }
+
+            try
+            {
+                // keep going while we are filling batches so a backlog clears without waiting for the poll,
+                // but only claim more when the workers have room so that nothing sits queued past its lease
+                while ( batches.tryAcquire( POLL_INTERVAL, TimeUnit.MILLISECONDS ) )
+                {
+                    synchronized ( lock )
+                    {
+                        if ( !running )
+                        {
+                            batches.release();
+                            return;
+                        }
+                    }
+
+                    if ( claimDue() < BATCH_SIZE )
+                    {
+                        break;
+                    }
+                }
+            }
+            catch ( InterruptedException e )
+            {
+                // go round again to check if we are still running
+            }
+            catch ( Exception e )
+            {
+                log.error( "Failed to read the notification queue", e );
+            }
+            finally
+            {
+                closeSession();
+            }
+        }
+    }
+
+    /**
+     * Load the notifications that are due, push their due date forward so no-one else picks them up and hand them
+     * to the workers. Subscriber rows for the same user are grouped so they are sent as one email.
+     * The caller must hold a batch permit, it is released once every notification in the batch has been handled.
+     */
+    private int claimDue()
+    {
+        final Semaphore permits = batches;
+        Date now = new Date();
+        // whole seconds so the lease compares equal after a round trip through any database's timestamp type
+        final Date lease = new Date( ( now.getTime() + LEASE_TIME ) / 1000 * 1000 );
+
+        List<StoredNotification> due;
+        try
+        {
+            due = claim( now, lease );
+        }
+        catch ( RuntimeException e )
+        {
+            permits.release();
+            throw e;
+        }
+
+        Map<String, List<Long>> digests = new HashMap<String, List<Long>>();
+        List<List<Long>> tasks = new LinkedList<List<Long>>();
+        for ( StoredNotification notification : due )
+        {
+            if ( StoredNotification.TYPE_SUBSCRIBER.equals( notification.getType() ) )
+            {
+                List<Long> ids = digests.get( notification.getRecipient() );
+                if ( ids == null )
+                {
+                    ids = new LinkedList<Long>();
+                    digests.put( notification.getRecipient(), ids );
+                    tasks.add( ids );
+                }
+                ids.add( notification.getId() );
+            }
+            else
+            {
+                tasks.add( Collections.singletonList( notification.getId() ) );
+            }
+        }
+
+        if ( tasks.isEmpty() )
+        {
+            permits.release();
+            return 0;
+        }
+
+        final AtomicInteger remaining = new AtomicInteger( tasks.size() );
+        for ( final List<Long> ids : tasks )
+        {
+            try
+            {
+                workers.execute( new Runnable()
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            deliver( ids, lease );
+                        }
+                        finally
+                        {
+                            if ( remaining.decrementAndGet() == 0 )
+                            {
+                                permits.release();
+                            }
+                        }
+                    }
+                } );
+            }
+            catch ( RejectedExecutionException e )
+            {
+                // shutting down, the rows stay leased and will be sent after the next start
+                if ( remaining.decrementAndGet() == 0 )
+                {
+                    permits.release();
+                }
+            }
+        }
+
+        return due.size();
+    }
+
+    private List<StoredNotification> claim( Date now, Date lease )
+    {
+        Session session = HibernateUtil.getCurrentSession();
+        Transaction tx = session.beginTransaction();
+        Query q = session.createQuery( "from StoredNotification n where n.due <= :now order by n.due, n.recipient" );
+        q.setTimestamp( "now", now );
+        q.setMaxResults( BATCH_SIZE );
+        List<StoredNotification> due = (List<StoredNotification>) q.list();
+
+        for ( StoredNotification notification : due )
+        {
+            notification.lease( lease );
+        }
+        tx.commit();
+
+        return due;
+    }
+
+    private void deliver( List<Long> ids, Date lease )
+    {
+        try
+        {
+            Session session = HibernateUtil.getCurrentSession();
+            List<StoredNotification> notifications = new ArrayList<StoredNotification>();
+            for ( Long id : ids )
+            {
+                StoredNotification notification = (StoredNotification) session.get( StoredNotification.class, id );
+                // if the lease has moved on the row was claimed again after ours ran out, leave it to that claim
+                if ( notification != null && notification.getDue().getTime() == lease.getTime() )
+                {
+                    notifications.add( notification );
+                }
+            }
+            if ( notifications.isEmpty() )
+            {
+                return;
+            }
+
+            List<StoredNotification> subscribers = Collections.emptyList();
+            Exception failure = null;
+            try
+            {
+                StoredNotification first = notifications.get( 0 );
+                if ( StoredNotification.TYPE_NOTIFIER.equals( first.getType() ) )
+                {
+                    runNotifier( first );
+                }
+                else if ( StoredNotification.TYPE_SUBSCRIPTIONS.equals( first.getType() ) )
+                {
+                    subscribers = expandSubscriptions( session, first );
+                }
+                else
+                {
+                    sendDigest( first.getRecipient(), notifications );
+                }
+            }
+            catch ( Exception e )
+            {
+                failure = e;
+            }
+
+            // new subscriber rows are saved with the removal of the request so a restart cannot queue them twice
+            Transaction tx = session.beginTransaction();
+            for ( StoredNotification subscriber : subscribers )
+            {
+                session.save( subscriber );
+            }
+            for ( StoredNotification notification : notifications )
+            {
+                if ( failure == null )
+                {
+                    session.delete( notification );
+                }
+                else if ( notification.getAttempts() + 1 >= MAX_ATTEMPTS )
+                {
+                    log.error( "Giving up on notification " + notification.getId() + " for event " +
+                        notification.getEventId() + " after " + MAX_ATTEMPTS + " attempts", failure );
+                    session.delete( notification );
+                }
+                else
+                {
+                    long delay = Math.min( RETRY_DELAY << notification.getAttempts(), MAX_RETRY_DELAY );
+                    notification.failed( failure.getMessage(), new Date( System.currentTimeMillis() + delay ) );
+                    log.warn( "Notification " + notification.getId() + " failed, retrying in " + ( delay / 1000 ) +
+                        "s: " + failure.getMessage() );
+                }
+            }
+            tx.commit();
+        }
+        catch ( Exception e )
+        {
+            // the lease will expire and the notifications will be picked up again
+            log.error( "Failed to process notifications " + ids, e );
+        }
+        finally
+        {
+            closeSession();
+        }
+    }
+
+    private void runNotifier( StoredNotification notification )
+    {
+        Event event = loadEvent( notification.getEventId() );
+        if ( event == null )
+        {
+            return;
+        }
+
+        Project project;
+        if ( Project.ALL_PROJECT_ID.equals( notification.getProjectId() ) )
+        {
+            project = StoredProject.getDefault();
+        }
+        else
+        {
+            project = Manager.getStorageInstance().getProject( notification.getProjectId() );
+        }
+        if ( project == null || manager.getNotifiers( project ) == null )
+        {
+            return;
+        }
+
+        for ( Notifier notifier : new ArrayList<Notifier>( manager.getNotifiers( project ) ) )
+        {
+            if ( notifier.getId().equals( notification.getNotifierId() ) )
+            {
+                log.info( "Running " + notifier.getId() + " notifier for project " + project.getId() );
+                notifier.eventAdded( event );
+            }
+        }
+    }
+
+    /**
+     * Work out who is subscribed to this event and create a row for each of them. These only become due once the
+     * digest delay has passed so that other events for the same user can be sent in the same email. If a user already
+     * has a digest waiting the new row joins it, so a burst of events is sent together once the first has waited.
+     */
+    private List<StoredNotification> expandSubscriptions( Session session, StoredNotification notification )
+    {
+        List<StoredNotification> subscribers = new ArrayList<StoredNotification>();
+        Event event = loadEvent( notification.getEventId() );
+        if ( event == null )
+        {
+            return subscribers;
+        }
+
+        Date due = new Date( System.currentTimeMillis() + DIGEST_DELAY );
+        Map<String, Date> waiting = getWaitingDigests( session, due );
+        for ( User user : Manager.getSecurityInstance().getUsers() )
+        {
+            user = (User) session.load( StoredUser.class, user.getUsername() );
+
+            // TODO a configurable system for controlling what a user gets sent
+            if ( ( event.getUsername() == null || !event.getUsername().equals( user.getUsername() ) ) && event.shouldNotify( user ) )
+            {
+                if ( StringUtil.isEmpty( user.getEmail() ) )
+                {
+                    log.warn( "No email for user " + user.getUsername() );
+                    continue;
+                }
+
+                Date digestDue = waiting.get( user.getUsername() );
+                StoredNotification subscriber = new StoredNotification( StoredNotification.TYPE_SUBSCRIBER,
+                    event.getId(), digestDue == null ? due : digestDue );
+                subscriber.setRecipient( user.getUsername() );
+                subscribers.add( subscriber );
+            }
+        }
+
+        return subscribers;
+    }
+
+    /**
+     * Find when each user's waiting digest is due. Rows that have failed or been claimed are due later than a new
+     * digest would be, so they are not joined.
+     */
+    private Map<String, Date> getWaitingDigests( Session session, Date latest )
+    {
+        Query q = session.createQuery( "select n.recipient, min(n.due) from StoredNotification n where " +
+                "n.type = :type and n.attempts = 0 and n.due <= :latest group by n.recipient" );
+        q.setString( "type", StoredNotification.TYPE_SUBSCRIBER );
+        q.setTimestamp( "latest", latest );
+
+        Map<String, Date> ret = new HashMap<String, Date>();
+        for ( Object[] row : (List<Object[]>) q.list() )
+        {
+            ret.put( (String) row[0], (Date) row[1] );
+        }
+
+        return ret;
+    }
+
+    private void sendDigest( String username, List<StoredNotification> notifications )
+        throws Exception
+    {
+        User user = Manager.getSecurityInstance().getUserByUsername( username );
+        if ( user == null || StringUtil.isEmpty( user.getEmail() ) )
+        {
+            return;
+        }
+
+        List<Event> events = new ArrayList<Event>();
+        for ( StoredNotification notification : notifications )
+        {
+            Event event = loadEvent( notification.getEventId() );
+            if ( event != null && !events.contains( event ) )
+            {
+                events.add( event );
+            }
+        }
+        if ( events.isEmpty() )
+        {
+            return;
+        }
+        Collections.sort( events, new Comparator<Event>()
+        {
+            public int compare( Event event1, Event event2 )
+            {
+                return event1.getTime().compareTo( event2.getTime() );
+            }
+        } );
+
+        String from = Manager.getStorageInstance().getGlobalConfiguration().getSmtpHost();
+        if ( StringUtil.isEmpty( from ) )
+        {
+            from = "noreply@headsupdev.com";
+        }
+
+        log.info( "Emailing " + events.size() + " event(s) to user " + user.getUsername() + " at " + user.getEmail() );
+        ( (EmailNotifier) manager.getNotifierList().get( "email" ).newInstance() ).sendEventsEmail( events,
+            user.getEmail(), from, EmailNotifier.FooterType.Subscription );
+    }
+
+    private Event loadEvent( long id )
+    {
+        Event event = (Event) HibernateUtil.getCurrentSession().get( StoredEvent.class, id );
+        if ( event == null )
+        {
+            log.warn( "Dropping notification for missing event " + id );
+        }
+
+        return event;
+    }
+
+    private void closeSession()
+    {
+        ( (HibernateStorage) Manager.getStorageInstance() ).closeSession();
+    }
+}
@@ -21,6 +21,7 @@ package org.headsupdev.agile.core.notifiers;
 import org.headsupdev.agile.api.*;
 import org.headsupdev.agile.api.util.MailUtil;
 
+import javax.mail.MessagingException;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.List;
@@ -69,14 +70,68 @@ public class EmailNotifier
             title += " (project " + event.getProject().getAlias() + ")";
         }
 
-        StringBuilder body = new StringBuilder( "<html><head><title>" );
+        StringBuilder body = new StringBuilder();
+        appendHeader( body, title, event.getBodyHeader(), event.getUsername(), String.valueOf( event.getProject() ), config );
+        appendEvent( body, event, config );
+        appendFooter( body, footerType );
+
+        sendNotification( to, from, title, body.toString(), config );
+    }
+
+    /**
+     * Send a single email that lists all of the events passed in. If there is only one event then the normal
+     * email for that event is sent instead.
+     */
+    public void sendEventsEmail( List<Event> events, String to, String from, FooterType footerType )
+    {
+        if ( events.size() == 1 )
+        {
+            sendEventEmail( events.get( 0 ), to, from, footerType );
+            return;
+        }
+
+        HeadsUpConfiguration config = Manager.getStorageInstance().getGlobalConfiguration();
+        String title = "[HeadsUp Agile] " + events.size() + " updates";
+
+        StringBuilder headers = new StringBuilder();
+        for ( Event event : events )
+        {
+            String header = event.getBodyHeader();
+            if ( header != null && headers.indexOf( header ) == -1 )
+            {
+                headers.append( header );
+            }
+        }
+
+        StringBuilder body = new StringBuilder();
+        appendHeader( body, title, headers.toString(), null, events.size() + " updates", config );
+        for ( Event event : events )
+        {
+            if ( event.getProject() != null )
+            {
+                body.append( "<h3>" ).append( event.getProject() ).append( "</h3>" );
+            }
+            appendEvent( body, event, config );
+        }
+        appendFooter( body, footerType );
+
+        sendNotification( to, from, title, body.toString(), config );
+    }
+
+    private void appendHeader( StringBuilder body, String title, String bodyHeader, String username, String heading,
+                               HeadsUpConfiguration config )
+    {
+        body.append( "<html><head><title>" );
         body.append( title );
         body.append( "</title>" );
         body.append( "<base href=\"" );
         body.append( config.getBaseUrl() );
         body.append( "\" />" );
         body.append( "<link rel=\"stylesheet\" type=\"text/css\" href=\"/resources/org.headsupdev.agile.web.HeadsUpPage/common.css\" />" );
-        body.append( event.getBodyHeader() );
+        if ( bodyHeader != null )
+        {
+            body.append( bodyHeader );
+        }
         body.append( "</head><body><div id=\"page\" style=\"background:#fff;\n" +
                 "            width:100%;\n" +
                 "            margin:0;\n" +
@@ -97,10 +152,10 @@ public class EmailNotifier
                 "            height: 34px;\n" +
                 "            overflow: hidden;\">" );
         body.append( "<img style=\"padding:1px;float:left;margin-left:30px\" src=\"http://headsupdev.com/api/agile/images/2/header-logo.png\" />" );
-        if ( event.getUsername() != null )
+        if ( username != null )
         {
             body.append( "<span class=\"user\" style=\"float: right; padding: 8px 30px; margin-right: 30px;\">" );
-            body.append( Manager.getSecurityInstance().getUserByUsername( event.getUsername() ) );
+            body.append( Manager.getSecurityInstance().getUserByUsername( username ) );
             body.append( "</span>" );
         }
         body.append( "</div>" );
@@ -111,10 +166,13 @@ public class EmailNotifier
                 "            font-size:38px;\n" +
                 "            background-color:#f0f1eb;\n" +
                 "            height:45px;\n" +
-                "            color:#555b5b;\"><div style=\"margin: 0 30px;\">" + event.getProject() + "</div></h1>" );
+                "            color:#555b5b;\"><div style=\"margin: 0 30px;\">" + heading + "</div></h1>" );
 
         body.append( "<div id=\"content\" style=\"padding: 0 30px;\">" );
+    }
 
+    private void appendEvent( StringBuilder body, Event event, HeadsUpConfiguration config )
+    {
         String time = new SimpleDateFormat( "hh:mm aa" ).format( event.getTime() );
         String link = config.getFullUrl( "/activity/event/id/" ) + event.getId();
         body.append( "<div class=\"history-item\" style=\"margin-top: 15pt;\n" +
@@ -156,7 +214,10 @@ public class EmailNotifier
         if ( content != null ) {
             body.append( content );
         }
+    }
 
+    private void appendFooter( StringBuilder body, FooterType footerType )
+    {
         body.append( "</div></div>" );
         body.append( "<div class=\"footer\" style=\"position:absolute;\n" +
                 "            left:0;\n" +
@@ -168,15 +229,24 @@ public class EmailNotifier
                 "            font-size: 75%;\">" );
         body.append( getFooterText( footerType ) );
         body.append( "</div></body></html>" );
-
-        sendNotification( to, from, title, body.toString(), config );
     }
 
+    /**
+     * Deliver the email, throwing a NotificationFailedException if the mail server could not accept it so that
+     * the delivery can be tried again later.
+     */
     protected void sendNotification( String to, String from, String title, String body, HeadsUpConfiguration config )
     {
         boolean secure = "smtp.google.com".equalsIgnoreCase( config.getSmtpHost() )|| "smtp.gmail.com".equalsIgnoreCase( config.getSmtpHost() );
-        MailUtil.sendEmail( to, from, title, body, config.getSmtpHost(),
-                config.getSmtpUsername(), config.getSmtpPassword(), secure );
+        try
+        {
+            MailUtil.deliverEmail( to, from, title, body, config.getSmtpHost(),
+                    config.getSmtpUsername(), config.getSmtpPassword(), secure );
+        }
+        catch ( MessagingException e )
+        {
+            throw new NotificationFailedException( "Unable to send email to " + to, e );
+        }
     }
 
     public PropertyTree getConfiguration()
@@ -76,6 +76,10 @@ public class HeadsUpActivator
         props.put( "alias", "/repository/*" );
         bc.registerService( Servlet.class.getName(), new RepositoryServlet(), props );
 
+        props = new Hashtable();
+        props.put( "alias", "/scm-notify/*" );
+        bc.registerService( Servlet.class.getName(), new ScmNotifyServlet(), props );
+
         props = new Hashtable();
         props.put( "alias", "/favicon.ico" );
         bc.registerService( Servlet.class.getName(), new FaviconServlet(), props );
@@ -27,7 +27,7 @@ import java.util.Enumeration;
 import java.util.Vector;
 
 /**
- * The main filter for our "webapp" passes control back to RepositoryServlet or FaviconServlet where appropriate
+ * The main filter for our "webapp" passes control back to RepositoryServlet, ScmNotifyServlet or FaviconServlet where appropriate
  * and serves everything else as the wicket filter would have but with a custom FilterConfig.
  *
  * Also a place to set up some missing (from jetty?) content type responses...
@@ -55,9 +55,9 @@ public class HeadsUpFilter
             path = path.substring( 0, cookiePos );
         }
 
-        if ( path.startsWith( "/repository" ) || path.equals( "/favicon.ico" ) )
+        if ( path.startsWith( "/repository" ) || path.startsWith( "/scm-notify" ) || path.equals( "/favicon.ico" ) )
         {
-            // bypass the wicket (which we extend) and go straight to the webdav
+            // bypass the wicket (which we extend) and go straight to the webdav or other servlet
             filterChain.doFilter(servletRequest, servletResponse);
         }
         else if ( path.startsWith( "/resources/" ) && path.endsWith( ".css" ) )
@@ -0,0 +1,96 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.framework;
+
+import org.headsupdev.agile.api.Manager;
+import org.headsupdev.agile.api.Project;
+import org.headsupdev.agile.api.service.ScmService;
+import org.headsupdev.agile.storage.HibernateStorage;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+/**
+ * Accept notifications from post-commit or post-receive hooks so that a project's source is updated as soon as it
+ * changes rather than waiting for the next poll. A hook should POST to /scm-notify/&lt;project id&gt;.
+ * Notifications only queue an update so there is no permission required, just like the update page.
+ *
+ * @author Andrew Williams
+ * @since 2.0
+ */
+public class ScmNotifyServlet
+    extends HttpServlet
+{
+    private static final Pattern PROJECT_ID = Pattern.compile( "[\\w\\-\\.:]+" );
+
+    @Override
+    protected void doPost( HttpServletRequest req, HttpServletResponse res )
+        throws IOException
+    {
+        String projectId = req.getPathInfo();
+        if ( projectId != null && projectId.startsWith( "/" ) )
+        {
+            projectId = projectId.substring( 1 );
+        }
+
+        if ( projectId == null || !PROJECT_ID.matcher( projectId ).matches() )
+        {
+            res.sendError( HttpServletResponse.SC_BAD_REQUEST, "Please specify a project id" );
+            return;
+        }
+
+        ScmService scm = Manager.getInstance().getScmService();
+        if ( scm == null )
+        {
+            res.sendError( HttpServletResponse.SC_SERVICE_UNAVAILABLE, "No scm service is loaded" );
+            return;
+        }
+
+        try
+        {
+            Project project = Manager.getStorageInstance().getProject( projectId );
+            if ( project == null )
+            {
+                res.sendError( HttpServletResponse.SC_NOT_FOUND, "Project " + projectId + " not found" );
+                return;
+            }
+
+            Manager.getLogger( getClass().getName() ).info( "Received change notification for project " +
+                    project.getId() );
+            scm.requestUpdate( project );
+        }
+        finally
+        {
+            ( (HibernateStorage) Manager.getStorageInstance() ).closeSession();
+        }
+
+        res.setStatus( HttpServletResponse.SC_ACCEPTED );
+    }
+
+    @Override
+    protected void doGet( HttpServletRequest req, HttpServletResponse res )
+        throws IOException
+    {
+        // some simple hook configurations can only make GET requests
+        doPost( req, res );
+    }
+}
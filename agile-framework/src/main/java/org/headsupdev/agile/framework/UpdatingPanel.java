@@ -28,6 +28,7 @@ import org.headsupdev.agile.security.permission.AdminPermission;
 import org.headsupdev.agile.core.UpdateDetails;
 import org.headsupdev.agile.core.DefaultManager;
 import org.headsupdev.agile.web.SystemEvent;
+import org.headsupdev.agile.web.ApplicationPageMapper;
 import org.headsupdev.agile.web.HeadsUpSession;
 import org.headsupdev.agile.storage.HibernateUtil;
 import org.headsupdev.agile.runtime.HeadsUpRuntime;
@@ -204,8 +205,8 @@ public class UpdatingPanel extends Panel
                                 version, Manager.getStorageInstance().getGlobalConfiguration().getProductName() + " has been upgraded to " + version +
                                 " - congratulations", "<h2>" + Manager.getStorageInstance().getGlobalConfiguration().getProductName() + " version " +
                                 version + "</h2>" + update.getDetails() );
-                            Manager.getStorageInstance().addEvent( event );
-                            Manager.getInstance().fireEventAdded(event);
+                            // go through the application so cached graphs for this event are invalidated too
+                            ApplicationPageMapper.get().getApplication( "home" ).addEvent( event );
 
                             // override some permissions as they are lost when we unpack in java
                             Process chmodProcess = null;
@@ -29,6 +29,7 @@ import java.io.File;
 import java.net.URLEncoder;
 
 import org.hibernate.search.annotations.*;
+import org.headsupdev.agile.storage.hibernate.SearchResultBridge;
 
 /**
  * A simple file record for files stored into the repositories
@@ -40,6 +41,7 @@ import org.hibernate.search.annotations.*;
 @Entity
 @Table( name = "Artifacts" )
 @Indexed( index = "Artifacts" )
+@ClassBridge( name = "result", impl = SearchResultBridge.class, index = Index.NO, store = Store.YES )
 public class Artifact
     implements Serializable, SearchResult
 {
@@ -0,0 +1,156 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.headsupdev.agile.framework.webdav;
+
+import org.headsupdev.agile.api.Permission;
+import org.headsupdev.agile.api.Role;
+import org.headsupdev.agile.api.SecurityManager;
+import org.headsupdev.agile.api.User;
+import org.headsupdev.agile.security.ExpiringCache;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches repository logins by the hash of their authorization header and access decisions by user, permission,
+ * repository and path prefix. A build can make thousands of repository requests and this saves looking up the user
+ * and roles for each one.
+ * Everything is dropped whenever users, roles or memberships change and, so that a login is checked again
+ * regularly, after a minute.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+class RepositoryAuthCache
+    extends ExpiringCache
+{
+    private static final long MAX_AGE = 60 * 1000;
+    private static final int MAX_ENTRIES = 10000;
+    private static final String ANONYMOUS_ROLE_ID = "anonymous";
+
+    private final Map<String, User> logins = new ConcurrentHashMap<String, User>();
+    private final Map<String, Boolean> decisions = new ConcurrentHashMap<String, Boolean>();
+    private Set<String> anonymousPermissions;
+
+    RepositoryAuthCache()
+    {
+        super( MAX_AGE );
+    }
+
+    protected void clear()
+    {
+        logins.clear();
+        decisions.clear();
+        anonymousPermissions = null;
+    }
+
+    public User getLogin( String headerHash )
+    {
+        return logins.get( headerHash );
+    }
+
+    public void putLogin( String headerHash, User user, long lookupGeneration )
+    {
+        put( logins, headerHash, user, lookupGeneration, MAX_ENTRIES );
+    }
+
+    public Boolean getDecision( String key )
+    {
+        return decisions.get( key );
+    }
+
+    public void putDecision( String key, boolean decision, long lookupGeneration )
+    {
+        put( decisions, key, decision, lookupGeneration, MAX_ENTRIES );
+    }
+
+    public Set<String> getAnonymousPermissions( SecurityManager manager, long lookupGeneration )
+    {
+        Set<String> permissions;
+        synchronized ( this )
+        {
+            permissions = anonymousPermissions;
+        }
+        if ( permissions != null )
+        {
+            return permissions;
+        }
+
+        permissions = new HashSet<String>();
+        Role anon = manager.getRoleById( ANONYMOUS_ROLE_ID );
+        if ( anon != null )
+        {
+            permissions.addAll( anon.getPermissions() );
+        }
+
+        synchronized ( this )
+        {
+            if ( isCurrent( lookupGeneration ) )
+            {
+                anonymousPermissions = permissions;
+            }
+        }
+        return permissions;
+    }
+
+    /**
+     * Work out the part of a repository that an access decision applies to. Every file in an artifact directory
+     * belongs to the same project so files share the scope of their directory, the accounts and projects areas are
+     * checked by their top level directory only. Anything else is its own scope.
+     *
+     * @param repository the repository name
+     * @param resource the path within the repository without leading or trailing slashes
+     * @param file true if the resource is an existing file
+     * @return the path that the decision should be made for
+     */
+    static String getDecisionScope( String repository, String resource, boolean file )
+    {
+        if ( repository == null || resource == null || resource.length() == 0 )
+        {
+            return "";
+        }
+
+        if ( repository.equals( "accounts" ) || repository.equals( "projects" ) )
+        {
+            int pos = resource.indexOf( '/' );
+            return pos == -1 ? resource : resource.substring( 0, pos );
+        }
+
+        int pos = resource.lastIndexOf( '/' );
+        // a file at the top of a repository is not shared with the repository listing
+        if ( file && pos > -1 )
+        {
+            return resource.substring( 0, pos );
+        }
+        return resource;
+    }
+
+    /**
+     * @return the key that an access decision is cached under
+     */
+    static String getDecisionKey( User user, Permission permission, boolean write, String repository, String scope )
+    {
+        return ( user == null ? "" : user.getUsername() ) + '\n' + permission.getId() + '\n' + ( write ? "w" : "r" ) +
+                '\n' + ( repository == null ? "" : repository ) + '\n' + scope;
+    }
+}
@@ -55,6 +55,8 @@ public class RepositoryServlet
 {
     private org.headsupdev.agile.api.SecurityManager securityManager;
 
+    private final RepositoryAuthCache authCache = new RepositoryAuthCache();
+
     private static Storage storage;
 
     private static File repoRoot;
@@ -188,12 +190,13 @@ public class RepositoryServlet
     public boolean isAuthenticated(HttpServletRequest req, HttpServletResponse resp, String repository, String path)
             throws ServletException, IOException
     {
+        long generation = authCache.begin();
+
         // don't allow anon to access accounts / projects area...
         if ( repository == null || !(repository.equals( "accounts" ) || repository.equals( "projects" ) ) )
         {
             // if anon access allowed then grant access to other areas
-            Role anon = securityManager.getRoleById( "anonymous" );
-            if ( anon.getPermissions().contains( getPermission( req ).getId() ) )
+            if ( authCache.getAnonymousPermissions( securityManager, generation ).contains( getPermission( req ).getId() ) )
             {
                 return true;
             }
@@ -203,6 +206,15 @@ public class RepositoryServlet
         String message = "You must provide a username and password to access this resource.";
         if ( ( header != null ) && header.startsWith( "Basic " ) )
         {
+            // we key on a hash of the header so that passwords are not kept in memory
+            String headerHash = HashUtil.getSHA1Hex( header.getBytes() );
+            User cached = authCache.getLogin( headerHash );
+            if ( cached != null )
+            {
+                req.setAttribute( "agile-user", cached );
+                return true;
+            }
+
             String base64Token = header.substring( 6 );
             String token = new String( Base64.decodeBase64( base64Token.getBytes() ) );
 
@@ -231,6 +243,7 @@ public class RepositoryServlet
                 }
                 else
                 {
+                    authCache.putLogin( headerHash, user, generation );
                     req.setAttribute( "agile-user", user );
                     return true;
                 }
@@ -261,9 +274,38 @@ public class RepositoryServlet
     public boolean isAuthorized( HttpServletRequest req, HttpServletResponse resp, String repository, String path )
         throws ServletException, IOException
     {
-        Role anon = securityManager.getRoleById( "anonymous" );
+        long generation = authCache.begin();
         User user = (User) req.getAttribute( "agile-user" );
 
+        String resource = stripSlashes( path );
+        boolean file = repository != null && resource != null && resource.length() > 0 &&
+                new File( new File( repoRoot, repository ), resource ).isFile();
+        String scope = RepositoryAuthCache.getDecisionScope( repository, resource, file );
+
+        String key = RepositoryAuthCache.getDecisionKey( user, getPermission( req ), isWriteMethod( req.getMethod() ),
+                repository, scope );
+        Boolean decision = authCache.getDecision( key );
+        if ( decision != null )
+        {
+            return decision;
+        }
+
+        // a cached login is detached from the database so load the user again to check roles and memberships
+        if ( user != null && !( (HibernateStorage) storage ).getHibernateSession().contains( user ) )
+        {
+            user = securityManager.getUserByUsername( user.getUsername() );
+        }
+
+        boolean auth = checkAuthorized( req, user, repository, path, scope );
+        authCache.putDecision( key, auth, generation );
+        return auth;
+    }
+
+    private boolean checkAuthorized( HttpServletRequest req, User user, String repository, String path, String scope )
+        throws ServletException, IOException
+    {
+        Role anon = securityManager.getRoleById( "anonymous" );
+
         if ( repository == null || repository.length() == 0 )
         {
             if ( isWriteMethod( req.getMethod() ) )
@@ -348,8 +390,9 @@ public class RepositoryServlet
             return false;
         }
 
+        // the project is found from the decision scope so that the decision holds for everything that shares it
         Permission perm = getPermission( req );
-        Project project = getProject( repository, path );
+        Project project = getProject( repository, scope );
 
         boolean auth = ( anon.getPermissions().contains( perm.getId() ) ) ||
             securityManager.userHasPermission( user, perm, project );
@@ -0,0 +1,175 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.framework.webdav;
+
+import junit.framework.TestCase;
+import org.headsupdev.agile.api.Permission;
+import org.headsupdev.agile.api.User;
+import org.headsupdev.agile.security.permission.RepositoryReadPermission;
+import org.headsupdev.agile.security.permission.RepositoryWritePermission;
+import org.headsupdev.agile.storage.HibernateStorage;
+import org.headsupdev.agile.storage.StoredUser;
+
+/**
+ * Tests for the expiry of the repository auth cache and the sharing of its access decisions
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class RepositoryAuthCacheTest
+    extends TestCase
+{
+    private static final Permission READ = new RepositoryReadPermission();
+    private static final Permission WRITE = new RepositoryWritePermission();
+
+    private TestAuthCache cache;
+    private User user;
+
+    protected void setUp()
+        throws Exception
+    {
+        cache = new TestAuthCache();
+        user = new StoredUser( "test" );
+    }
+
+    public void testLoginsDroppedOnSecurityChange()
+    {
+        long generation = cache.begin();
+        cache.putLogin( "hash", user, generation );
+        cache.begin();
+        assertSame( user, cache.getLogin( "hash" ) );
+
+        HibernateStorage.securityChanged();
+        cache.begin();
+        assertNull( "Login was kept after users or roles changed", cache.getLogin( "hash" ) );
+    }
+
+    public void testDecisionsDroppedOnSecurityChange()
+    {
+        long generation = cache.begin();
+        cache.putDecision( "key", true, generation );
+        cache.begin();
+        assertEquals( Boolean.TRUE, cache.getDecision( "key" ) );
+
+        HibernateStorage.securityChanged();
+        cache.begin();
+        assertNull( "Decision was kept after users or roles changed", cache.getDecision( "key" ) );
+    }
+
+    public void testEntriesDroppedAfterMaxAge()
+    {
+        long generation = cache.begin();
+        cache.putLogin( "hash", user, generation );
+        cache.putDecision( "key", false, generation );
+
+        cache.now += 59 * 1000;
+        cache.begin();
+        assertSame( user, cache.getLogin( "hash" ) );
+        assertEquals( Boolean.FALSE, cache.getDecision( "key" ) );
+
+        cache.now += 2 * 1000;
+        cache.begin();
+        assertNull( "Login was kept for more than a minute", cache.getLogin( "hash" ) );
+        assertNull( "Decision was kept for more than a minute", cache.getDecision( "key" ) );
+    }
+
+    public void testStaleLookupNotStored()
+    {
+        // the login and decision were checked against data that changed while the lookup was busy
+        long generation = cache.begin();
+        HibernateStorage.securityChanged();
+        cache.begin();
+
+        cache.putLogin( "hash", user, generation );
+        cache.putDecision( "key", true, generation );
+        assertNull( "Stale login was stored", cache.getLogin( "hash" ) );
+        assertNull( "Stale decision was stored", cache.getDecision( "key" ) );
+    }
+
+    public void testFilesShareTheirDirectory()
+    {
+        String jar = RepositoryAuthCache.getDecisionScope( "release", "org/example/app/1.0/app-1.0.jar", true );
+        String pom = RepositoryAuthCache.getDecisionScope( "release", "org/example/app/1.0/app-1.0.pom", true );
+
+        assertEquals( "org/example/app/1.0", jar );
+        assertEquals( jar, pom );
+        assertEquals( "A directory should be its own scope", "org/example/app/1.0",
+                RepositoryAuthCache.getDecisionScope( "release", "org/example/app/1.0", false ) );
+    }
+
+    public void testFileDecisionNotSharedAcrossProjects()
+    {
+        String app = RepositoryAuthCache.getDecisionScope( "release", "org/example/app/1.0/app-1.0.jar", true );
+        String lib = RepositoryAuthCache.getDecisionScope( "release", "org/example/lib/1.0/lib-1.0.jar", true );
+        assertFalse( keyFor( READ, false, "release", app ).equals( keyFor( READ, false, "release", lib ) ) );
+
+        String top = RepositoryAuthCache.getDecisionScope( "apps", "app.jar", true );
+        assertFalse( "A top level file should not share the repository listing decision",
+                keyFor( READ, false, "apps", top ).equals(
+                        keyFor( READ, false, "apps", RepositoryAuthCache.getDecisionScope( "apps", "", false ) ) ) );
+
+        assertFalse( "Repositories should not share decisions",
+                keyFor( READ, false, "release", app ).equals( keyFor( READ, false, "snapshot", app ) ) );
+    }
+
+    public void testFileDecisionNotSharedWithWrites()
+    {
+        String scope = RepositoryAuthCache.getDecisionScope( "release", "org/example/app/1.0/app-1.0.jar", true );
+
+        assertFalse( keyFor( READ, false, "release", scope ).equals( keyFor( WRITE, true, "release", scope ) ) );
+        assertFalse( "A write should not reuse a read decision even with the same permission",
+                keyFor( READ, false, "release", scope ).equals( keyFor( READ, true, "release", scope ) ) );
+    }
+
+    public void testUsersDoNotShareDecisions()
+    {
+        String scope = RepositoryAuthCache.getDecisionScope( "release", "org/example/app/1.0/app-1.0.jar", true );
+        String other = RepositoryAuthCache.getDecisionKey( new StoredUser( "other" ), READ, false, "release", scope );
+
+        assertFalse( keyFor( READ, false, "release", scope ).equals( other ) );
+        assertFalse( "Anonymous should not share a user's decision",
+                RepositoryAuthCache.getDecisionKey( null, READ, false, "release", scope ).equals(
+                        keyFor( READ, false, "release", scope ) ) );
+    }
+
+    public void testAccountsScopedByTopDirectory()
+    {
+        assertEquals( "test", RepositoryAuthCache.getDecisionScope( "accounts", "test/notes/todo.txt", true ) );
+        assertEquals( "other", RepositoryAuthCache.getDecisionScope( "projects", "other", false ) );
+        assertEquals( "", RepositoryAuthCache.getDecisionScope( "projects", "", false ) );
+    }
+
+    private String keyFor( Permission permission, boolean write, String repository, String scope )
+    {
+        return RepositoryAuthCache.getDecisionKey( user, permission, write, repository, scope );
+    }
+
+    private static class TestAuthCache
+        extends RepositoryAuthCache
+    {
+        private long now = 0;
+
+        @Override
+        protected long currentTime()
+        {
+            return now;
+        }
+    }
+}
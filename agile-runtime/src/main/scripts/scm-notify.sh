@@ -0,0 +1,28 @@
+#! /bin/sh
+#leave the space above, maven resources plugin bug - MRESOURCES-110
+
+# Tell HeadsUp Agile that a project's repository has changed so it updates straight away.
+# Call this from a subversion post-commit or git post-receive hook, for example:
+#   /path/to/agile/bin/scm-notify.sh myproject http://localhost:8069/
+
+if [ -z "$1" ]; then
+  echo "Usage: scm-notify.sh <project id> [agile url]"
+  exit 1
+fi
+
+PROJECT=$1
+URL=$2
+if [ -z "$URL" ]; then
+  URL="http://localhost:8069/"
+fi
+
+case "$URL" in
+  */) ;;
+  *) URL="$URL/" ;;
+esac
+
+if which curl > /dev/null 2>&1; then
+  curl -s -X POST "$URL""scm-notify/$PROJECT" > /dev/null
+else
+  wget -q -O /dev/null --post-data="" "$URL""scm-notify/$PROJECT"
+fi
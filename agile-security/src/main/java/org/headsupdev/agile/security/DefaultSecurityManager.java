@@ -43,6 +43,8 @@ public class DefaultSecurityManager
     List<Permission> permissions = new LinkedList<Permission>();
     Map<String, Permission> permissionIdMap = new HashMap<String, Permission>();
 
+    private transient PermissionCache permissionCache;
+
     public void scanPermissions( Application application )
     {
         if ( !PrivateConfiguration.isInstalled() )
@@ -54,6 +56,7 @@ public class DefaultSecurityManager
         {
             addPermission( perm );
         }
+        invalidatePermissionCache();
 
         // TODO figure why the last role_permission in the iteration is sometimes not committed
     }
@@ -138,6 +141,7 @@ public class DefaultSecurityManager
         Transaction tx = session.beginTransaction();
         Query q = session.createQuery( "from StoredUser u where UPPER(username) = UPPER(:username)" );
         q.setString( "username", username );
+        q.setCacheable( true );
         User ret = (User) q.uniqueResult();
         tx.commit();
 
@@ -200,6 +204,8 @@ public class DefaultSecurityManager
     public void addUser( User user )
     {
         ( (HibernateStorage) Manager.getStorageInstance() ).save( user );
+        invalidatePermissionCache();
+        LinkProvider.targetsChanged();
     }
 
     public List<Role> getRoles()
@@ -216,9 +222,7 @@ public class DefaultSecurityManager
     {
         Session session = ( (HibernateStorage) Manager.getStorageInstance() ).getHibernateSession();
         Transaction tx = session.beginTransaction();
-        Query q = session.createQuery( "from StoredRole r where id = :id" );
-        q.setString( "id", id );
-        Role ret = (Role) q.uniqueResult();
+        Role ret = (Role) session.get( StoredRole.class, id );
         tx.commit();
 
         return ret;
@@ -227,11 +231,13 @@ public class DefaultSecurityManager
     public void addRole( Role role )
     {
         ( (HibernateStorage) Manager.getStorageInstance() ).save( role );
+        invalidatePermissionCache();
     }
 
     public void removeRole( Role role )
     {
         ( (HibernateStorage) Manager.getStorageInstance() ).delete( role );
+        invalidatePermissionCache();
     }
 
     public List<Permission> getPermissions()
@@ -246,29 +252,27 @@ public class DefaultSecurityManager
 
     public boolean userHasPermission( User user, Permission permission, Project project )
     {
-        String permId = permission.getId();
-        for ( Role role : user.getRoles() )
-        {
-            if ( role.equals( new MemberRole() ) )
-            {
-                if ( !( project == null || project.getUsers().contains( user ) ) )
-                {
-                    continue;
-                }
-            }
-            if ( role.getPermissions().contains( permId ) )
-            {
-                return true;
-            }
-        }
+        return getPermissionCache().userHasPermission( user, permission.getId(), project );
+    }
 
-        Role anon = getRoleById( new AnonymousRole().getId() );
-        if ( anon == null ) // can be null if we are setting up
+    /**
+     * Called whenever roles, the permissions of a role or project memberships are changed so that permission
+     * decisions are worked out again.
+     */
+    public void invalidatePermissionCache()
+    {
+        // memberships are read from the project hierarchy, so have that reload them too
+        HibernateStorage.membershipsChanged();
+        getPermissionCache().invalidate();
+    }
+
+    private synchronized PermissionCache getPermissionCache()
+    {
+        if ( permissionCache == null )
         {
-            return false;
+            permissionCache = new PermissionCache( this );
         }
 
-        Set<String> permissionIds = anon.getPermissions();
-        return permissionIds.contains( permId );
+        return permissionCache;
     }
 }
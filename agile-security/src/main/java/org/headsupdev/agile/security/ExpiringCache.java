@@ -0,0 +1,109 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.security;
+
+import org.headsupdev.agile.storage.HibernateStorage;
+
+import java.util.Map;
+
+/**
+ * The bookkeeping shared by the security caches. Everything a cache holds is dropped by invalidate(), whenever a user
+ * or role change is committed and, as a safety net for changes made elsewhere, once it is older than a maximum age.
+ * Each invalidation starts a new generation so that a value worked out from data that was invalidated part way
+ * through a lookup is not stored.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public abstract class ExpiringCache
+{
+    private final long maxAge;
+
+    private long generation = 0;
+    private long created;
+    private long securityGeneration;
+
+    protected ExpiringCache( long maxAge )
+    {
+        this.maxAge = maxAge;
+        created = currentTime();
+        securityGeneration = HibernateStorage.getSecurityGeneration();
+    }
+
+    /**
+     * Start a lookup, dropping the cache first if it is out of date or users, roles or memberships have changed.
+     *
+     * @return the generation to pass back when storing anything worked out during this lookup
+     */
+    public synchronized long begin()
+    {
+        long currentSecurity = HibernateStorage.getSecurityGeneration();
+        if ( currentSecurity != securityGeneration || currentTime() - created > maxAge )
+        {
+            securityGeneration = currentSecurity;
+            invalidate();
+        }
+
+        return generation;
+    }
+
+    public synchronized void invalidate()
+    {
+        generation++;
+        created = currentTime();
+
+        clear();
+    }
+
+    /**
+     * @return true if nothing has been invalidated since the lookup that returned this generation began
+     */
+    protected synchronized boolean isCurrent( long lookupGeneration )
+    {
+        return lookupGeneration == generation;
+    }
+
+    protected synchronized long getGeneration()
+    {
+        return generation;
+    }
+
+    /**
+     * Store a value worked out during a lookup, unless the cache was invalidated since or the map is full.
+     */
+    protected synchronized <K, V> void put( Map<K, V> map, K key, V value, long lookupGeneration, int maxEntries )
+    {
+        // don't store a value that was worked out from data invalidated while we were busy
+        if ( lookupGeneration == generation && map.size() < maxEntries )
+        {
+            map.put( key, value );
+        }
+    }
+
+    /**
+     * Drop everything the cache holds, called with the cache locked.
+     */
+    protected abstract void clear();
+
+    protected long currentTime()
+    {
+        return System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.headsupdev.agile.security;
+
+import org.headsupdev.agile.api.Project;
+import org.headsupdev.agile.api.Role;
+import org.headsupdev.agile.api.SecurityManager;
+import org.headsupdev.agile.api.User;
+import org.headsupdev.agile.api.Manager;
+import org.headsupdev.agile.storage.AnonymousRole;
+import org.headsupdev.agile.storage.HibernateStorage;
+import org.headsupdev.agile.storage.MemberRole;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches permission decisions by user, permission and project.
+ * Role permissions are loaded once into bitsets and project membership comes from the project hierarchy, so a
+ * decision that is not yet cached does not need to query the database. Everything is dropped by invalidate() whenever
+ * roles, role permissions or memberships change, when a user or role change is committed and after a few minutes.
+ *
+ * @author Andrew Williams
+ * @since 2.0
+ */
+class PermissionCache
+    extends ExpiringCache
+{
+    private static final long MAX_AGE = 5 * 60 * 1000;
+    private static final int MAX_DECISIONS = 50000;
+
+    private static final String MEMBER_ROLE_ID = new MemberRole().getId();
+    private static final String ANONYMOUS_ROLE_ID = new AnonymousRole().getId();
+
+    private final SecurityManager manager;
+
+    private final Map<String, Integer> permissionIndex = new HashMap<String, Integer>();
+    private Map<String, BitSet> rolePermissions;
+
+    private final Map<String, Set<String>> memberships = new ConcurrentHashMap<String, Set<String>>();
+    private final Map<String, Boolean> decisions = new ConcurrentHashMap<String, Boolean>();
+
+    PermissionCache( SecurityManager manager )
+    {
+        super( MAX_AGE );
+        this.manager = manager;
+    }
+
+    public boolean userHasPermission( User user, String permissionId, Project project )
+    {
+        long currentGeneration = begin();
+
+        String key = user.getUsername() + '\n' + permissionId + '\n' + ( project == null ? "" : project.getId() );
+        Boolean decision = decisions.get( key );
+        if ( decision != null )
+        {
+            return decision;
+        }
+
+        boolean ret = evaluate( user, permissionId, project );
+        put( decisions, key, ret, currentGeneration, MAX_DECISIONS );
+
+        return ret;
+    }
+
+    protected void clear()
+    {
+        rolePermissions = null;
+        memberships.clear();
+        decisions.clear();
+    }
+
+    private boolean evaluate( User user, String permissionId, Project project )
+    {
+        Map<String, BitSet> roles = getRolePermissions();
+        int bit = getPermissionIndex( permissionId );
+
+        for ( Role role : user.getRoles() )
+        {
+            if ( role.getId().equals( MEMBER_ROLE_ID ) && project != null && !isMember( user, project ) )
+            {
+                continue;
+            }
+
+            BitSet permissions = roles.get( role.getId() );
+            if ( permissions != null && permissions.get( bit ) )
+            {
+                return true;
+            }
+        }
+
+        BitSet anonymous = roles.get( ANONYMOUS_ROLE_ID );
+        return anonymous != null && anonymous.get( bit );
+    }
+
+    private synchronized int getPermissionIndex( String permissionId )
+    {
+        Integer index = permissionIndex.get( permissionId );
+        if ( index == null )
+        {
+            index = permissionIndex.size();
+            permissionIndex.put( permissionId, index );
+        }
+
+        return index;
+    }
+
+    private synchronized Map<String, BitSet> getRolePermissions()
+    {
+        if ( rolePermissions == null )
+        {
+            long loadGeneration = getGeneration();
+            Map<String, BitSet> loaded = new HashMap<String, BitSet>();
+            for ( Role role : manager.getRoles() )
+            {
+                BitSet permissions = new BitSet();
+                for ( String permissionId : role.getPermissions() )
+                {
+                    permissions.set( getPermissionIndex( permissionId ) );
+                }
+
+                loaded.put( role.getId(), permissions );
+            }
+
+            // roles changed while they were loading, use them for this decision but read them again next time
+            if ( !isCurrent( loadGeneration ) )
+            {
+                return loaded;
+            }
+            rolePermissions = loaded;
+        }
+
+        return rolePermissions;
+    }
+
+    private boolean isMember( User user, Project project )
+    {
+        // the default project is not stored, its members are held in the configuration
+        if ( Project.ALL_PROJECT_ID.equals( project.getId() ) )
+        {
+            return project.getUsers().contains( user );
+        }
+
+        Set<String> projectIds = memberships.get( user.getUsername() );
+        if ( projectIds == null )
+        {
+            long loadGeneration = getGeneration();
+            projectIds = loadMemberships( user );
+            synchronized ( this )
+            {
+                if ( isCurrent( loadGeneration ) )
+                {
+                    memberships.put( user.getUsername(), projectIds );
+                }
+            }
+        }
+
+        return projectIds.contains( project.getId() );
+    }
+
+    Set<String> loadMemberships( User user )
+    {
+        return ( (HibernateStorage) Manager.getStorageInstance() ).getProjectHierarchy().getProjectIds( user );
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.headsupdev.agile.security;
+
+import junit.framework.TestCase;
+import org.headsupdev.agile.api.Permission;
+import org.headsupdev.agile.api.Project;
+import org.headsupdev.agile.api.Role;
+import org.headsupdev.agile.api.SecurityManager;
+import org.headsupdev.agile.api.User;
+import org.headsupdev.agile.storage.AnonymousRole;
+import org.headsupdev.agile.storage.HibernateStorage;
+import org.headsupdev.agile.storage.MemberRole;
+import org.headsupdev.agile.storage.StoredProject;
+import org.headsupdev.agile.storage.StoredRole;
+import org.headsupdev.agile.storage.StoredUser;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tests for the permission decisions and invalidation of the permission cache
+ *
+ * @author Andrew Williams
+ * @since 2.0
+ */
+public class PermissionCacheTest
+        extends TestCase
+{
+    private StubSecurityManager manager;
+    private TestPermissionCache cache;
+
+    private StoredRole member, anonymous, admin;
+    private StoredUser user;
+    private Project project, other;
+
+    public void setUp()
+    {
+        member = new MemberRole();
+        member.getPermissions().add( "issue-view" );
+        anonymous = new AnonymousRole();
+        anonymous.getPermissions().add( "doc-view" );
+        admin = new StoredRole( "administrator" );
+        admin.getPermissions().add( "admin-edit" );
+
+        manager = new StubSecurityManager();
+        manager.roles.add( member );
+        manager.roles.add( anonymous );
+        manager.roles.add( admin );
+
+        cache = new TestPermissionCache( manager );
+        user = new StoredUser( "test" );
+        user.addRole( member );
+
+        project = new StoredProject( "project", "Project" );
+        other = new StoredProject( "other", "Other" );
+        cache.memberships.add( project.getId() );
+    }
+
+    public void testRolePermission()
+    {
+        assertTrue( cache.userHasPermission( user, "issue-view", null ) );
+        assertFalse( cache.userHasPermission( user, "admin-edit", null ) );
+
+        user.addRole( admin );
+        cache.invalidate();
+        assertTrue( cache.userHasPermission( user, "admin-edit", null ) );
+    }
+
+    public void testAnonymousPermissionGrantedToAll()
+    {
+        assertTrue( cache.userHasPermission( user, "doc-view", null ) );
+        assertTrue( cache.userHasPermission( user, "doc-view", other ) );
+    }
+
+    public void testMemberRoleRequiresMembership()
+    {
+        assertTrue( cache.userHasPermission( user, "issue-view", project ) );
+        assertFalse( "Member role should not apply outside the user's projects",
+                cache.userHasPermission( user, "issue-view", other ) );
+    }
+
+    public void testDefaultProjectMembership()
+    {
+        Project all = new StoredProject( Project.ALL_PROJECT_ID, "All Projects" );
+        assertFalse( cache.userHasPermission( user, "issue-view", all ) );
+
+        cache.invalidate();
+        all.getUsers().add( user );
+        assertTrue( cache.userHasPermission( user, "issue-view", all ) );
+    }
+
+    public void testDecisionsAreCached()
+    {
+        assertTrue( cache.userHasPermission( user, "issue-view", null ) );
+
+        member.getPermissions().remove( "issue-view" );
+        assertTrue( "Decision should come from the cache", cache.userHasPermission( user, "issue-view", null ) );
+
+        cache.invalidate();
+        assertFalse( cache.userHasPermission( user, "issue-view", null ) );
+    }
+
+    public void testDecisionsExpire()
+    {
+        assertTrue( cache.userHasPermission( user, "issue-view", null ) );
+        member.getPermissions().remove( "issue-view" );
+
+        cache.now += 4 * 60 * 1000;
+        assertTrue( "Decision should come from the cache", cache.userHasPermission( user, "issue-view", null ) );
+
+        cache.now += 2 * 60 * 1000;
+        assertFalse( "Decision was kept for more than five minutes",
+                cache.userHasPermission( user, "issue-view", null ) );
+    }
+
+    public void testCommittedSecurityChangeInvalidates()
+    {
+        assertTrue( cache.userHasPermission( user, "issue-view", null ) );
+        member.getPermissions().remove( "issue-view" );
+
+        HibernateStorage.securityChanged();
+        assertFalse( "Decision was kept after a security change", cache.userHasPermission( user, "issue-view", null ) );
+    }
+
+    public void testMembershipsAreCached()
+    {
+        assertTrue( cache.userHasPermission( user, "issue-view", project ) );
+        assertEquals( 1, cache.membershipLoads );
+
+        cache.userHasPermission( user, "issue-view", other );
+        assertEquals( "Memberships should be loaded once per user", 1, cache.membershipLoads );
+    }
+
+    public void testRoleChangeDuringLoadIsNotStored()
+    {
+        manager.invalidateOnLoad = cache;
+
+        // the roles were read before the change, so this decision is stale and must not be kept
+        assertTrue( cache.userHasPermission( user, "issue-view", null ) );
+
+        member.getPermissions().remove( "issue-view" );
+        assertFalse( "Stale decision was stored", cache.userHasPermission( user, "issue-view", null ) );
+    }
+
+    public void testMembershipChangeDuringEvaluationIsNotStored()
+    {
+        cache.invalidateOnMembershipLoad = true;
+        assertTrue( cache.userHasPermission( user, "issue-view", project ) );
+
+        cache.memberships.remove( project.getId() );
+        assertFalse( "Stale decision was stored", cache.userHasPermission( user, "issue-view", project ) );
+    }
+
+    private static class TestPermissionCache
+        extends PermissionCache
+    {
+        private Set<String> memberships = new HashSet<String>();
+        private int membershipLoads = 0;
+        private boolean invalidateOnMembershipLoad = false;
+        private long now = 0;
+
+        TestPermissionCache( SecurityManager manager )
+        {
+            super( manager );
+        }
+
+        @Override
+        protected long currentTime()
+        {
+            return now;
+        }
+
+        @Override
+        Set<String> loadMemberships( User user )
+        {
+            membershipLoads++;
+            Set<String> ret = new HashSet<String>( memberships );
+            if ( invalidateOnMembershipLoad )
+            {
+                invalidateOnMembershipLoad = false;
+                invalidate();
+            }
+
+            return ret;
+        }
+    }
+
+    private static class StubSecurityManager
+        implements SecurityManager
+    {
+        private List<Role> roles = new ArrayList<Role>();
+        private PermissionCache invalidateOnLoad;
+
+        public List<Role> getRoles()
+        {
+            // copy the roles before any change so a change part way through a load can be simulated
+            List<Role> ret = new ArrayList<Role>();
+            for ( Role role : roles )
+            {
+                StoredRole copy = new StoredRole( role.getId() );
+                copy.getPermissions().addAll( role.getPermissions() );
+                ret.add( copy );
+            }
+
+            if ( invalidateOnLoad != null )
+            {
+                PermissionCache cache = invalidateOnLoad;
+                invalidateOnLoad = null;
+                cache.invalidate();
+            }
+            return ret;
+        }
+
+        public List<User> getUsers()
+        {
+            return null;
+        }
+
+        public List<User> getRealUsers()
+        {
+            return null;
+        }
+
+        public List<User> getRealUsersIncluding( User user )
+        {
+            return null;
+        }
+
+        public User getUserByUsername( String username )
+        {
+            return null;
+        }
+
+        public User getUserByUsernameEmailOrFullname( String userdetail )
+        {
+            return null;
+        }
+
+        public Role getRoleById( String id )
+        {
+            return null;
+        }
+
+        public List<Permission> getPermissions()
+        {
+            return null;
+        }
+
+        public Permission getPermissionById( String id )
+        {
+            return null;
+        }
+
+        public boolean userHasPermission( User user, Permission permission, Project project )
+        {
+            return false;
+        }
+    }
+}
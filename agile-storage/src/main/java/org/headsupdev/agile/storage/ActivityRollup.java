@@ -0,0 +1,117 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.storage;
+
+import org.hibernate.annotations.Index;
+
+import javax.persistence.*;
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * A count of the events of a single type that a user caused in a project over one day or month. These are kept up
+ * to date as events are added so that activity graphs can be drawn without loading the events themselves.
+ * <p/>
+ * Missing values are stored as empty strings so rows can be matched with a simple equality. More than one row may
+ * exist for the same key, readers should always sum the totals.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+@Entity
+@Table( name = "ActivityRollups" )
+@org.hibernate.annotations.Table( appliesTo = "ActivityRollups", indexes = {
+    @Index( name = "rollupProjectIndex", columnNames = { "period", "projectId", "start" } ),
+    @Index( name = "rollupUserIndex", columnNames = { "period", "username", "start" } ) } )
+public class ActivityRollup
+    implements Serializable
+{
+    public static final int PERIOD_DAY = 0;
+    public static final int PERIOD_MONTH = 1;
+
+    @Id
+    @GeneratedValue
+    private long id;
+
+    private int period;
+
+    @Temporal( TemporalType.TIMESTAMP )
+    private Date start;
+
+    private String projectId, applicationId, type, username;
+
+    private long total;
+
+    protected ActivityRollup()
+    {
+    }
+
+    public ActivityRollup( int period, Date start, String projectId, String applicationId, String type,
+                           String username, long total )
+    {
+        this.period = period;
+        this.start = start;
+        this.projectId = projectId;
+        this.applicationId = applicationId;
+        this.type = type;
+        this.username = username;
+        this.total = total;
+    }
+
+    public long getId()
+    {
+        return id;
+    }
+
+    public int getPeriod()
+    {
+        return period;
+    }
+
+    public Date getStart()
+    {
+        return start;
+    }
+
+    public String getProjectId()
+    {
+        return projectId;
+    }
+
+    public String getApplicationId()
+    {
+        return applicationId;
+    }
+
+    public String getType()
+    {
+        return type;
+    }
+
+    public String getUsername()
+    {
+        return username;
+    }
+
+    public long getTotal()
+    {
+        return total;
+    }
+}
@@ -0,0 +1,369 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.storage;
+
+import org.headsupdev.agile.api.Event;
+import org.headsupdev.agile.api.User;
+import org.headsupdev.support.java.StringUtil;
+import org.hibernate.Query;
+import org.hibernate.Session;
+
+import javax.persistence.DiscriminatorValue;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import java.util.*;
+
+/**
+ * Maintains and reads the ActivityRollup counts. Events added while the server is running are counted as they are
+ * saved, older events are counted by a one off backfill. The id of the newest event that was stored before the
+ * rollups were first kept is recorded so that each event is counted by exactly one of the two.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class ActivityRollups
+{
+    static final String CONFIG_BACKFILL_LIMIT = "activity.rollup.backfill.limit";
+    static final String CONFIG_BACKFILL_PROGRESS = "activity.rollup.backfill.progress";
+
+    private static final int[] PERIODS = { ActivityRollup.PERIOD_DAY, ActivityRollup.PERIOD_MONTH };
+
+    private static Long backfillLimit;
+
+    /**
+     * Count a newly saved event, this should be called in the same transaction that saved the event.
+     */
+    public static void record( Session session, Event event )
+    {
+        if ( event.getId() <= getBackfillLimit( session, event.getId() - 1 ) )
+        {
+            return;
+        }
+
+        String projectId = event.getProject() == null ? null : event.getProject().getId();
+        for ( int period : PERIODS )
+        {
+            increment( session, new ActivityRollup( period, getPeriodStart( period, event.getTime() ), projectId,
+                    event.getApplicationId(), getEventType( event.getClass() ), event.getUsername(), 1 ) );
+        }
+    }
+
+    /**
+     * Count the next batch of older events and record how far through the backfill we are, in one transaction so an
+     * interrupted backfill can carry on without counting anything twice.
+     *
+     * @param session the session to work in, a transaction should have been started
+     * @param batchSize the maximum number of events to count
+     * @return true if there may be more events to count
+     */
+    public static boolean backfill( Session session, int batchSize )
+    {
+        long after = getBackfillProgress( session );
+        long limit = getBackfillLimit( session, -1 );
+        if ( after >= limit )
+        {
+            return false;
+        }
+
+        Query q = session.createQuery( "select e.id, e.time, e.type, e.applicationId, e.project.id, e.username " +
+                "from StoredEvent e where e.id > :after and e.id <= :limit order by e.id" );
+        q.setLong( "after", after );
+        q.setLong( "limit", limit );
+        q.setMaxResults( batchSize );
+        List<Object[]> rows = q.list();
+
+        long last = -1;
+        Map<List<Object>, Long> counts = new HashMap<List<Object>, Long>();
+        for ( Object[] row : rows )
+        {
+            last = (Long) row[0];
+            for ( int period : PERIODS )
+            {
+                List<Object> key = Arrays.<Object>asList( period, getPeriodStart( period, (Date) row[1] ), row[2],
+                        row[3], row[4], row[5] );
+                Long count = counts.get( key );
+                counts.put( key, count == null ? 1 : count + 1 );
+            }
+        }
+
+        for ( Map.Entry<List<Object>, Long> entry : counts.entrySet() )
+        {
+            List<Object> key = entry.getKey();
+            increment( session, new ActivityRollup( (Integer) key.get( 0 ), (Date) key.get( 1 ), (String) key.get( 4 ),
+                    (String) key.get( 3 ), (String) key.get( 2 ), (String) key.get( 5 ), entry.getValue() ) );
+        }
+
+        // nothing left below the limit, so the backfill is done even if the newest events were deleted
+        long progress = last == -1 ? limit : last;
+        setConfigurationItem( session, CONFIG_BACKFILL_PROGRESS, String.valueOf( progress ) );
+        return progress < limit;
+    }
+
+    /**
+     * Find the id of the last event counted by the backfill, or 0 if the backfill has not started.
+     */
+    public static long getBackfillProgress( Session session )
+    {
+        StoredConfigurationItem item = (StoredConfigurationItem) session.get( StoredConfigurationItem.class,
+                CONFIG_BACKFILL_PROGRESS );
+        if ( item == null )
+        {
+            return 0;
+        }
+
+        return Long.parseLong( item.getValue() );
+    }
+
+    public static boolean isBackfillComplete( Session session )
+    {
+        return getBackfillProgress( session ) >= getBackfillLimit( session, -1 );
+    }
+
+    /**
+     * Load the summed counts for the listed projects, grouped by period start, application and event type.
+     */
+    public static List<ActivityRollup> getProjectRollups( Session session, Collection<String> projectIds,
+                                                          String applicationId, int period, Date since )
+    {
+        String hql = "select r.start, r.applicationId, r.type, sum(r.total) from ActivityRollup r " +
+                "where r.period = :period and r.projectId in (:pids) and r.start >= :since";
+        if ( applicationId != null )
+        {
+            hql += " and r.applicationId = :appId";
+        }
+        hql += " group by r.start, r.applicationId, r.type";
+
+        Query q = session.createQuery( hql );
+        q.setInteger( "period", period );
+        q.setParameterList( "pids", projectIds );
+        q.setTimestamp( "since", getPeriodStart( period, since ) );
+        if ( applicationId != null )
+        {
+            q.setString( "appId", applicationId );
+        }
+
+        return toRollups( q.list(), period );
+    }
+
+    /**
+     * Load the summed counts for events attributed to the user, grouped by period start, application and event type.
+     * This uses the same name matching as HibernateStorage.getEventsForUser.
+     */
+    public static List<ActivityRollup> getUserRollups( Session session, User user, int period, Date since )
+    {
+        Query q = session.createQuery( "select r.start, r.applicationId, r.type, sum(r.total) from ActivityRollup r " +
+                "where r.period = :period and r.start >= :since and " +
+                "(r.username = :username or r.username like :emailLike or r.username like :nameLike) " +
+                "group by r.start, r.applicationId, r.type" );
+        q.setInteger( "period", period );
+        q.setTimestamp( "since", getPeriodStart( period, since ) );
+        q.setString( "username", user.getUsername() );
+
+        if ( !StringUtil.isEmpty( user.getEmail() ) )
+        {
+            q.setString( "emailLike", "%<" + user.getEmail() + ">" );
+        }
+        else
+        {
+            q.setString( "emailLike", user.getUsername() );
+        }
+
+        if ( !StringUtil.isEmpty( user.getFullname() ) )
+        {
+            q.setString( "nameLike", user.getFullname() + " <%" );
+        }
+        else
+        {
+            q.setString( "nameLike", user.getUsername() );
+        }
+
+        return toRollups( q.list(), period );
+    }
+
+    /**
+     * Find the beginning of the day or month that contains the time specified, in the server's time zone.
+     */
+    public static Date getPeriodStart( int period, Date time )
+    {
+        Calendar cal = new GregorianCalendar();
+        cal.setTime( time );
+        cal.set( Calendar.HOUR_OF_DAY, 0 );
+        cal.set( Calendar.MINUTE, 0 );
+        cal.set( Calendar.SECOND, 0 );
+        cal.set( Calendar.MILLISECOND, 0 );
+        if ( period == ActivityRollup.PERIOD_MONTH )
+        {
+            cal.set( Calendar.DAY_OF_MONTH, 1 );
+        }
+
+        return cal.getTime();
+    }
+
+    /**
+     * Look up the type of an event class as stored in the Events table.
+     */
+    public static String getEventType( Class type )
+    {
+        while ( type != null )
+        {
+            DiscriminatorValue value = (DiscriminatorValue) type.getAnnotation( DiscriminatorValue.class );
+            if ( value != null )
+            {
+                return value.value();
+            }
+
+            type = type.getSuperclass();
+        }
+
+        return null;
+    }
+
+    private static List<ActivityRollup> toRollups( List<Object[]> rows, int period )
+    {
+        List<ActivityRollup> ret = new ArrayList<ActivityRollup>( rows.size() );
+        for ( Object[] row : rows )
+        {
+            ret.add( new ActivityRollup( period, (Date) row[0], null, (String) row[1], (String) row[2], null,
+                    ( (Number) row[3] ).longValue() ) );
+        }
+
+        return ret;
+    }
+
+    private static void increment( Session session, ActivityRollup rollup )
+    {
+        String projectId = emptyIfNull( rollup.getProjectId() );
+        String applicationId = emptyIfNull( rollup.getApplicationId() );
+        String type = emptyIfNull( rollup.getType() );
+        String username = emptyIfNull( rollup.getUsername() );
+
+        Query q = session.createQuery( "update ActivityRollup r set r.total = r.total + :amount where " +
+                "r.period = :period and r.start = :start and r.projectId = :pid and r.applicationId = :appId and " +
+                "r.type = :type and r.username = :username" );
+        q.setLong( "amount", rollup.getTotal() );
+        q.setInteger( "period", rollup.getPeriod() );
+        q.setTimestamp( "start", rollup.getStart() );
+        q.setString( "pid", projectId );
+        q.setString( "appId", applicationId );
+        q.setString( "type", type );
+        q.setString( "username", username );
+
+        if ( q.executeUpdate() == 0 )
+        {
+            // if another transaction adds the same row at once we get two, which is fine as readers sum them
+            session.save( new ActivityRollup( rollup.getPeriod(), rollup.getStart(), projectId, applicationId, type,
+                    username, rollup.getTotal() ) );
+        }
+    }
+
+    /**
+     * Fix the backfill limit before any events are recorded live. This should be called once at startup in its own
+     * transaction - the limit is only used by other callers once that transaction has committed.
+     *
+     * @param session the session to look up or store the limit with
+     */
+    public static void loadBackfillLimit( Session session )
+    {
+        getBackfillLimit( session, -1 );
+    }
+
+    /*
+     * The backfill counts events up to and including this id, live recording counts everything after.
+     * The first caller fixes the value - either the event before the first one recorded live or, if the backfill
+     * gets there first, the newest event in the database. A newly chosen value is only cached once the transaction
+     * that stored it has committed so a rollback cannot leave us using a limit the database does not have.
+     */
+    private static synchronized long getBackfillLimit( Session session, long lastBeforeLive )
+    {
+        if ( backfillLimit != null )
+        {
+            return backfillLimit;
+        }
+
+        StoredConfigurationItem item = (StoredConfigurationItem) session.get( StoredConfigurationItem.class,
+                CONFIG_BACKFILL_LIMIT );
+        long limit;
+        if ( item != null )
+        {
+            // may still be our own uncommitted value, so this is cached on commit too
+            limit = Long.parseLong( item.getValue() );
+        }
+        else
+        {
+            limit = lastBeforeLive;
+            if ( limit < 0 )
+            {
+                Long max = (Long) session.createQuery( "select max(e.id) from StoredEvent e" ).uniqueResult();
+                limit = max == null ? 0 : max;
+            }
+            setConfigurationItem( session, CONFIG_BACKFILL_LIMIT, String.valueOf( limit ) );
+        }
+
+        final long stored = limit;
+        session.getTransaction().registerSynchronization( new Synchronization()
+        {
+            public void beforeCompletion()
+            {
+            }
+
+            public void afterCompletion( int status )
+            {
+                if ( status == Status.STATUS_COMMITTED )
+                {
+                    setBackfillLimit( stored );
+                }
+            }
+        } );
+        return limit;
+    }
+
+    private static synchronized void setBackfillLimit( long limit )
+    {
+        if ( backfillLimit == null )
+        {
+            backfillLimit = limit;
+        }
+    }
+
+    private static void setConfigurationItem( Session session, String name, String value )
+    {
+        StoredConfigurationItem item = (StoredConfigurationItem) session.get( StoredConfigurationItem.class, name );
+        if ( item == null )
+        {
+            item = new StoredConfigurationItem( name, value );
+        }
+        else
+        {
+            item.setValue( value );
+        }
+
+        session.saveOrUpdate( item );
+    }
+
+    private static String emptyIfNull( String value )
+    {
+        if ( value == null )
+        {
+            return "";
+        }
+
+        return value;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.storage;
+
+import org.headsupdev.agile.api.Manager;
+import org.headsupdev.agile.api.Task;
+import org.headsupdev.agile.api.logging.Logger;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+
+/**
+ * A background job that works through stored data in batches, such as a one off migration after an upgrade.
+ * Each batch is committed on its own so the job never holds up other users of the database, and a job that is
+ * cancelled or stopped by a restart simply carries on with whatever is left the next time it runs.
+ * A task is shown for as long as the job has work to do.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public abstract class BatchJob
+    extends Thread
+{
+    // give the database a breather between batches
+    private static final long BATCH_DELAY = 100;
+
+    private final long startDelay;
+    private volatile boolean running = true;
+
+    protected Logger log = Manager.getLogger( getClass().getName() );
+
+    protected BatchJob( String name, long startDelay )
+    {
+        super( name );
+        this.startDelay = startDelay;
+        setDaemon( true );
+    }
+
+    /**
+     * Find out if there is any work left, loading anything the batches need to know.
+     *
+     * @param session The session to query with, the transaction is managed by the job
+     * @return true if there is work to do, false if the job has nothing to do and can stop now
+     */
+    protected abstract boolean prepare( Session session );
+
+    /**
+     * Work through the next batch, the transaction is managed by the job and committed once this returns.
+     *
+     * @return true if there is more work to do after this batch
+     */
+    protected abstract boolean runBatch( Session session );
+
+    /**
+     * @return the task to show while the job is working
+     */
+    protected abstract Task createTask();
+
+    /**
+     * @return what this job does, to describe a failure in the logs
+     */
+    protected abstract String getDescription();
+
+    /**
+     * Called after each batch has been committed, for anything that should only change once the batch is stored.
+     */
+    protected void batchCommitted()
+    {
+    }
+
+    /**
+     * Called once all of the work is done.
+     */
+    protected void finished()
+    {
+    }
+
+    public void run()
+    {
+        try
+        {
+            Thread.sleep( startDelay );
+        }
+        catch ( InterruptedException e )
+        {
+            // cancelled or carry on early
+        }
+
+        HibernateStorage storage = (HibernateStorage) Manager.getStorageInstance();
+        Task task = null;
+        try
+        {
+            Session session = storage.getHibernateSession();
+            Transaction tx = session.beginTransaction();
+            boolean more;
+            try
+            {
+                more = prepare( session );
+                tx.commit();
+            }
+            catch ( RuntimeException e )
+            {
+                tx.rollback();
+                throw e;
+            }
+            if ( !more || !running )
+            {
+                return;
+            }
+
+            task = createTask();
+            Manager.getInstance().addTask( task );
+
+            while ( running && more )
+            {
+                session = storage.getHibernateSession();
+                tx = session.beginTransaction();
+                try
+                {
+                    more = runBatch( session );
+                    tx.commit();
+                }
+                catch ( RuntimeException e )
+                {
+                    tx.rollback();
+                    throw e;
+                }
+                session.clear();
+                batchCommitted();
+
+                Thread.sleep( BATCH_DELAY );
+            }
+
+            if ( !more )
+            {
+                finished();
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            // cancelled, the remaining work will be picked up next time
+        }
+        catch ( Exception e )
+        {
+            log.error( "Failed to " + getDescription(), e );
+        }
+        finally
+        {
+            if ( task != null )
+            {
+                Manager.getInstance().removeTask( task );
+            }
+            storage.closeSession();
+        }
+    }
+
+    public void cancel()
+    {
+        running = false;
+        interrupt();
+    }
+}
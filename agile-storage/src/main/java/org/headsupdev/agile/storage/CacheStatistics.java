@@ -0,0 +1,91 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.headsupdev.agile.storage;
+
+import org.headsupdev.agile.storage.hibernate.BoundedCache;
+
+/**
+ * Statistics for a single region of the second level cache.
+ *
+ * @author Andrew Williams
+ * @since 2.0
+ */
+public class CacheStatistics
+{
+    private BoundedCache region;
+
+    public CacheStatistics( BoundedCache region )
+    {
+        this.region = region;
+    }
+
+    public String getRegionName()
+    {
+        return region.getRegionName();
+    }
+
+    public long getSize()
+    {
+        return region.getElementCountInMemory();
+    }
+
+    /**
+     * @return the maximum number of entries in this region, 0 if it is unbounded
+     */
+    public int getMaximumSize()
+    {
+        return region.getMaximumSize();
+    }
+
+    public long getHits()
+    {
+        return region.getHits();
+    }
+
+    public long getMisses()
+    {
+        return region.getMisses();
+    }
+
+    public long getEvictions()
+    {
+        return region.getEvictions();
+    }
+
+    /**
+     * @return the percentage of lookups that were found in the cache, or -1 if there have been no lookups
+     */
+    public int getHitRatio()
+    {
+        long hits = getHits();
+        long total = hits + getMisses();
+        if ( total == 0 )
+        {
+            return -1;
+        }
+
+        return (int) ( hits * 100 / total );
+    }
+
+    public void clear()
+    {
+        region.clear();
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.storage;
+
+import org.headsupdev.agile.api.Manager;
+import org.headsupdev.agile.api.logging.Logger;
+import org.headsupdev.agile.api.util.HashUtil;
+import org.headsupdev.support.java.IOUtil;
+import org.hibernate.Query;
+import org.hibernate.Session;
+
+import java.io.*;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A store for the diffs of scm changes, kept out of the database as compressed files in the data directory.
+ * Each diff is named by the SHA-1 of its content so an identical diff is only stored once and a file, once written,
+ * never changes.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class DiffStore
+{
+    private static final String ENCODING = "UTF-8";
+
+    private static Logger log = Manager.getLogger( DiffStore.class.getName() );
+
+    /**
+     * Store a diff and return the key it can be loaded with.
+     *
+     * @param diff The diff text to store
+     * @return the key for the diff or null if the diff was null or could not be written
+     */
+    public static String store( String diff )
+    {
+        if ( diff == null )
+        {
+            return null;
+        }
+
+        try
+        {
+            byte[] bytes = diff.getBytes( ENCODING );
+            String key = HashUtil.getSHA1Hex( bytes );
+
+            File file = getFile( key );
+            if ( file.exists() )
+            {
+                return key;
+            }
+
+            // write to a temporary file first so a partly written diff is never visible under its key
+            file.getParentFile().mkdirs();
+            File temp = File.createTempFile( "diff", ".tmp", file.getParentFile() );
+            OutputStream out = null;
+            try
+            {
+                out = new GZIPOutputStream( new FileOutputStream( temp ) );
+                out.write( bytes );
+
+                // close here so an error finishing the compressed data is not ignored
+                out.close();
+                out = null;
+            }
+            finally
+            {
+                // still open if the write failed
+                if ( out != null )
+                {
+                    IOUtil.close( out );
+                    temp.delete();
+                }
+            }
+
+            if ( !temp.renameTo( file ) )
+            {
+                temp.delete();
+
+                // another thread may have stored the same diff while we were writing
+                if ( !file.exists() )
+                {
+                    throw new IOException( "Unable to rename diff to " + file.getPath() );
+                }
+            }
+
+            return key;
+        }
+        catch ( IOException e )
+        {
+            log.error( "Unable to store diff", e );
+            return null;
+        }
+    }
+
+    /**
+     * Load a diff that was stored previously.
+     *
+     * @param key The key returned when the diff was stored
+     * @return the diff text or null if it could not be read
+     */
+    public static String load( String key )
+    {
+        File file = getFile( key );
+        if ( !file.exists() )
+        {
+            log.warn( "Missing stored diff " + key );
+            return null;
+        }
+
+        InputStream in = null;
+        try
+        {
+            in = new GZIPInputStream( new FileInputStream( file ) );
+            ByteArrayOutputStream out = new ByteArrayOutputStream( (int) file.length() * 4 );
+
+            byte[] buffer = new byte[8192];
+            int read;
+            while ( ( read = in.read( buffer ) ) != -1 )
+            {
+                out.write( buffer, 0, read );
+            }
+
+            return out.toString( ENCODING );
+        }
+        catch ( IOException e )
+        {
+            log.error( "Unable to load diff " + key, e );
+            return null;
+        }
+        finally
+        {
+            if ( in != null )
+            {
+                IOUtil.close( in );
+            }
+        }
+    }
+
+    /**
+     * Move a batch of diffs that are still held in the Changes table into the store, in id order.
+     *
+     * @param session The session to load and update the changes with, the caller manages the transaction
+     * @param after The id of the last change that was processed, 0 to start at the beginning
+     * @param batchSize The most changes to move in this batch
+     * @return the id of the last change looked at, or -1 if there are none left to move
+     */
+    public static long migrate( Session session, long after, int batchSize )
+    {
+        Query q = session.createQuery( "from ScmChange c where c.id > :after and c.diff is not null order by c.id" );
+        q.setLong( "after", after );
+        q.setMaxResults( batchSize );
+        List<ScmChange> changes = q.list();
+        if ( changes.isEmpty() )
+        {
+            return -1;
+        }
+
+        for ( ScmChange change : changes )
+        {
+            change.moveDiffToStore();
+        }
+
+        return changes.get( changes.size() - 1 ).getId();
+    }
+
+    private static File getFile( String key )
+    {
+        File dir = new File( Manager.getStorageInstance().getDataDirectory(), "diffs" );
+        return new File( new File( dir, key.substring( 0, 2 ) ), key.substring( 2 ) + ".gz" );
+    }
+}
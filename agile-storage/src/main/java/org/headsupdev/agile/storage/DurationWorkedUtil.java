@@ -25,6 +25,8 @@ import org.headsupdev.agile.storage.issues.Duration;
 import org.headsupdev.agile.storage.issues.DurationWorked;
 import org.headsupdev.agile.storage.issues.Issue;
 import org.headsupdev.agile.storage.issues.Milestone;
+import org.headsupdev.agile.storage.hibernate.IdProjectId;
+import org.headsupdev.agile.storage.hibernate.NameProjectId;
 import org.headsupdev.support.java.DateUtil;
 import org.hibernate.Criteria;
 import org.hibernate.ObjectNotFoundException;
@@ -39,10 +41,14 @@ import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Utility methods for working with DurationWorked calculations.
@@ -55,6 +61,22 @@ public class DurationWorkedUtil
 {
     private static Logger log = Manager.getLogger( DurationWorkedUtil.class.getName() );
 
+    private static final int MAX_CACHED_MILESTONES = 100;
+    private static final long VELOCITY_CACHE_TIME = 1000l * 60 * 60 * 24;
+
+    private static final Map<String, EffortSeries> milestoneEfforts = new LinkedHashMap<String, EffortSeries>( 16, 0.75f, true )
+    {
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<String, EffortSeries> eldest )
+        {
+            return size() > MAX_CACHED_MILESTONES;
+        }
+    };
+
+    private static final Map<String, CachedVelocity> userVelocities = new ConcurrentHashMap<String, CachedVelocity>();
+    private static volatile CachedVelocity averageVelocity;
+    private static final AtomicLong velocityVersion = new AtomicLong();
+
     /**
      * this will always return a duration object. it will be the most appropriate 'estimated time' remaining
      * for the issue in question on the dayInQuestion.
@@ -248,6 +270,8 @@ public class DurationWorkedUtil
     /**
      * this will return an array of durations that match to the dates on the milestone in date order.
      * index 0 will show the effort remaining at end of day 1 , etc.
+     * The series is cached per milestone and only the issues that have changed since it was last requested
+     * are recalculated, see {@link #durationWorkedChanged} and {@link #issueChanged}.
      *
      * @param milestone
      * @return
@@ -259,6 +283,34 @@ public class DurationWorkedUtil
             return null;
         }
 
+        String key = getMilestoneKey( milestone.getInternalId() );
+        String fingerprint = getEffortFingerprint( milestone );
+        EffortSeries series;
+        synchronized ( milestoneEfforts )
+        {
+            series = milestoneEfforts.get( key );
+        }
+
+        if ( series == null || !series.getFingerprint().equals( fingerprint ) )
+        {
+            List<Date> dates = getMilestoneEffortDates( milestone );
+            if ( dates == null )
+            {
+                return null;
+            }
+
+            series = new EffortSeries( fingerprint, milestone.getStartDate() == null, dates );
+            synchronized ( milestoneEfforts )
+            {
+                milestoneEfforts.put( key, series );
+            }
+        }
+
+        return series.getEffortRequired( milestone );
+    }
+
+    private static List<Date> getMilestoneEffortDates( Milestone milestone )
+    {
         List<Date> milestoneDates = getMilestoneDates( milestone, false );
         if ( milestoneDates == null || milestoneDates.size() == 0 )
         {
@@ -277,37 +329,226 @@ public class DurationWorkedUtil
             dates.add( date );
         }
 
-        Set<Issue> issues = milestone.getIssues();
-        Duration[] effortRequired = new Duration[ dates.size() ];
-        // initialise the returnArray if there are no issues on milestone.
-        if ( issues == null || issues.size() == 0 )
+        return dates;
+    }
+
+    /**
+     * The values that the dates of a milestone's effort series are calculated from.
+     * When no start date is set the dates also depend on the work logged, see {@link EffortSeries#isDerivedDates()}.
+     */
+    private static String getEffortFingerprint( Milestone milestone )
+    {
+        StringBuilder fingerprint = new StringBuilder();
+        if ( milestone.getStartDate() == null )
+        {
+            fingerprint.append( "derived" );
+        }
+        else
         {
-            for ( int i = 0; i < effortRequired.length; i++ )
+            fingerprint.append( milestone.getStartDate().getTime() );
+        }
+        fingerprint.append( ':' );
+        if ( milestone.getDueDate() != null )
+        {
+            fingerprint.append( milestone.getDueDate().getTime() );
+        }
+        fingerprint.append( ':' );
+        fingerprint.append( milestone.getProject().getConfigurationValue(
+                StoredProject.CONFIGURATION_TIMETRACKING_IGNOREWEEKEND ) );
+        fingerprint.append( ':' );
+        fingerprint.append( milestone.getProject().getConfigurationValue(
+                StoredProject.CONFIGURATION_TIMETRACKING_BURNDOWN ) );
+
+        return fingerprint.toString();
+    }
+
+    /**
+     * Calculate the effort remaining for an issue at the end of each of the days passed in, with the same result as
+     * calling lastEstimateForDay for each day but looking at the work logged only once.
+     */
+    static double[] getIssueEffortRequired( Issue issue, Date[] dayEnds )
+    {
+        List<DurationWorked> estimates = new ArrayList<DurationWorked>();
+        for ( DurationWorked worked : issue.getTimeWorked() )
+        {
+            if ( worked.getDay() == null || worked.getUpdatedRequired() == null )
             {
-                effortRequired[ i ] = new Duration( 0 );
+                continue;
             }
-            return effortRequired;
+
+            estimates.add( worked );
         }
+        Collections.sort( estimates, new Comparator<DurationWorked>()
+        {
+            public int compare( DurationWorked d1, DurationWorked d2 )
+            {
+                return d1.getDay().compareTo( d2.getDay() );
+            }
+        } );
 
-        // iterate over each day and calculate the effort remaining.
-        int dayIndex = 0;
-        for ( Date date : dates )
+        double[] effort = new double[ dayEnds.length ];
+        Duration estimate = null;
+        Date lastEstimateDate = null;
+        int next = 0;
+        for ( int i = 0; i < dayEnds.length; i++ )
         {
-            double totalHoursForDay = 0;
-            for ( Issue issue : issues )
+            while ( next < estimates.size() && estimates.get( next ).getDay().before( dayEnds[ i ] ) )
             {
-                Duration lastEstimate = lastEstimateForDay( issue, date );
-                if ( lastEstimate != null )
+                DurationWorked worked = estimates.get( next );
+                if ( lastEstimateDate == null || worked.getDay().after( lastEstimateDate ) )
                 {
-                    totalHoursForDay += lastEstimate.getHours();
+                    estimate = worked.getUpdatedRequired();
+                    lastEstimateDate = worked.getDay();
                 }
+                next++;
             }
-            effortRequired[ dayIndex ] = new Duration( totalHoursForDay );
 
-            dayIndex++;
+            Duration dayEstimate = estimate;
+            if ( dayEstimate == null )
+            {
+                if ( issue.getIncludeInInitialEstimates() || issue.getCreated().before( dayEnds[ i ] ) )
+                {
+                    dayEstimate = issue.getTimeEstimate();
+                }
+            }
+
+            if ( dayEstimate != null )
+            {
+                effort[ i ] = dayEstimate.getHours();
+            }
+        }
+
+        return effort;
+    }
+
+    /**
+     * Called once a change to some work logged has been committed.
+     *
+     * @param issueId the issue the work was logged against, or null if it is not known
+     * @param user the user that logged the work
+     */
+    public static void durationWorkedChanged( IdProjectId issueId, User user )
+    {
+        velocityVersion.incrementAndGet();
+        averageVelocity = null;
+        if ( user != null )
+        {
+            userVelocities.remove( user.getUsername() );
+        }
+
+        synchronized ( milestoneEfforts )
+        {
+            if ( issueId == null )
+            {
+                milestoneEfforts.clear();
+                return;
+            }
+
+            String issueKey = getIssueKey( issueId );
+            Iterator<EffortSeries> series = milestoneEfforts.values().iterator();
+            while ( series.hasNext() )
+            {
+                EffortSeries next = series.next();
+                if ( next.issueChanged( issueKey ) && next.isDerivedDates() )
+                {
+                    // the start of the milestone may have moved
+                    series.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Called once a change to an issue has been committed.
+     *
+     * @param issueId the issue that changed
+     * @param milestoneId the milestone the issue is now in, if any
+     * @param oldMilestoneId the milestone the issue was in before the change, if any
+     */
+    public static void issueChanged( IdProjectId issueId, NameProjectId milestoneId, NameProjectId oldMilestoneId )
+    {
+        String issueKey = getIssueKey( issueId );
+        synchronized ( milestoneEfforts )
+        {
+            for ( EffortSeries series : milestoneEfforts.values() )
+            {
+                series.issueChanged( issueKey );
+            }
+
+            for ( NameProjectId id : new NameProjectId[]{ milestoneId, oldMilestoneId } )
+            {
+                if ( id == null )
+                {
+                    continue;
+                }
+
+                EffortSeries series = milestoneEfforts.get( getMilestoneKey( id ) );
+                if ( series != null )
+                {
+                    series.issuesChanged();
+                }
+            }
         }
+    }
 
-        return effortRequired;
+    /**
+     * Called once a change to a milestone has been committed.
+     */
+    public static void milestoneChanged( NameProjectId milestoneId )
+    {
+        synchronized ( milestoneEfforts )
+        {
+            milestoneEfforts.remove( getMilestoneKey( milestoneId ) );
+        }
+    }
+
+    private static String getIssueKey( IdProjectId id )
+    {
+        return id.getProject().getId() + ":" + id.getId();
+    }
+
+    private static String getMilestoneKey( NameProjectId id )
+    {
+        return id.getProject().getId() + ":" + id.getName();
+    }
+
+    /**
+     * Sum the hours worked on a milestone for each of the days passed in, looking at the work logged only once.
+     * This gives the same totals as calling totalWorkedForDay for each issue and day.
+     */
+    public static double[] getMilestoneHoursWorked( Milestone milestone, List<Date> dates )
+    {
+        Map<Date, Double> hours = new HashMap<Date, Double>();
+        Calendar cal = Calendar.getInstance();
+        for ( Issue issue : milestone.getIssues() )
+        {
+            for ( DurationWorked worked : issue.getTimeWorked() )
+            {
+                if ( worked.getDay() == null || worked.getUpdatedRequired() == null || worked.getWorked() == null )
+                {
+                    continue;
+                }
+
+                Date day = DateUtil.getStartOfDate( cal, worked.getDay() );
+                Double total = hours.get( day );
+                if ( total == null )
+                {
+                    total = 0d;
+                }
+                hours.put( day, total + worked.getWorked().getHours() );
+            }
+        }
+
+        double[] ret = new double[ dates.size() ];
+        for ( int i = 0; i < ret.length; i++ )
+        {
+            Double total = hours.get( DateUtil.getStartOfDate( cal, dates.get( i ) ) );
+            if ( total != null )
+            {
+                ret[ i ] = total;
+            }
+        }
+        return ret;
     }
 
     public static double getMilestoneCompleteness( Milestone milestone )
@@ -363,11 +604,13 @@ public class DurationWorkedUtil
 
     public static Double getAverageVelocity()
     {
-        if ( !averageVelocity.equals( Double.NaN ) )
+        CachedVelocity cached = averageVelocity;
+        if ( cached != null && !cached.isExpired() )
         {
-            return averageVelocity;
+            return cached.getVelocity();
         }
 
+        long version = velocityVersion.get();
         double velocities = 0.0;
         int velocityCount = 0;
         for ( User user : Manager.getSecurityInstance().getRealUsers() )
@@ -385,28 +628,58 @@ public class DurationWorkedUtil
             }
         }
 
-        averageVelocity = velocities / velocityCount;
-        return averageVelocity;
+        Double velocity = velocities / velocityCount;
+        if ( velocityVersion.get() == version )
+        {
+            averageVelocity = new CachedVelocity( velocity );
+        }
+        return velocity;
     }
 
-    // TODO we need to expire this once a week (or day)...
-    private static Map<User, Double> userVelocities = new HashMap<User, Double>();
-    private static Double averageVelocity = Double.NaN;
-
     public static Double getUserVelocity( User user )
     {
-        if ( userVelocities.get( user ) != null )
+        Double cached = getCachedUserVelocity( user.getUsername() );
+        if ( cached != null )
         {
-            return userVelocities.get( user );
+            return cached;
         }
 
+        long version = velocityVersion.get();
         List<DurationWorked> worked = getDurationWorkedForUser(user);
         Double velocity = calculateVelocity( worked, user );
 
-        userVelocities.put( user, velocity );
+        cacheUserVelocity( user.getUsername(), version, velocity );
         return velocity;
     }
 
+    static long getVelocityVersion()
+    {
+        return velocityVersion.get();
+    }
+
+    static Double getCachedUserVelocity( String username )
+    {
+        CachedVelocity cached = userVelocities.get( username );
+        if ( cached == null || cached.isExpired() )
+        {
+            return null;
+        }
+
+        return cached.getVelocity();
+    }
+
+    /**
+     * Store a user velocity that was calculated starting at the velocity version passed in.
+     * A value calculated while the work logged was changing is not stored.
+     */
+    static void cacheUserVelocity( String username, long version, Double velocity )
+    {
+        if ( velocityVersion.get() == version )
+        {
+            userVelocities.put( username, new CachedVelocity( velocity ) );
+        }
+    }
+
     public static Double getCurrentUserVelocity( User user )
     {
 //        if ( userVelocities.get( user ) != null )
@@ -778,4 +1051,134 @@ public class DurationWorkedUtil
 
         return new Duration( hoursLogged );
     }
+
+    /**
+     * A velocity that was calculated recently enough to be reused. Velocities also depend on estimates updated by
+     * other users so they expire after a day even if the user has not logged any work.
+     */
+    private static class CachedVelocity
+    {
+        private final Double velocity;
+        private final long created = System.currentTimeMillis();
+
+        CachedVelocity( Double velocity )
+        {
+            this.velocity = velocity;
+        }
+
+        public Double getVelocity()
+        {
+            return velocity;
+        }
+
+        public boolean isExpired()
+        {
+            return System.currentTimeMillis() - created > VELOCITY_CACHE_TIME;
+        }
+    }
+
+    /**
+     * The effort remaining for each day of a milestone, kept per issue so a change to one issue only recalculates
+     * that issue's part of the total.
+     */
+    private static class EffortSeries
+    {
+        private final String fingerprint;
+        private final boolean derivedDates;
+        private final Date[] dayEnds;
+
+        private final Map<String, double[]> issueEfforts = new HashMap<String, double[]>();
+        private final Set<String> changedIssues = new HashSet<String>();
+        private boolean issuesChanged = true;
+        private double[] totals;
+
+        EffortSeries( String fingerprint, boolean derivedDates, List<Date> dates )
+        {
+            this.fingerprint = fingerprint;
+            this.derivedDates = derivedDates;
+
+            Calendar calendar = Calendar.getInstance();
+            dayEnds = new Date[ dates.size() ];
+            for ( int i = 0; i < dayEnds.length; i++ )
+            {
+                dayEnds[ i ] = DateUtil.getEndOfDate( calendar, dates.get( i ) );
+            }
+            totals = new double[ dayEnds.length ];
+        }
+
+        public String getFingerprint()
+        {
+            return fingerprint;
+        }
+
+        public boolean isDerivedDates()
+        {
+            return derivedDates;
+        }
+
+        /**
+         * @return true if the issue is part of this series and will be recalculated
+         */
+        public synchronized boolean issueChanged( String issueKey )
+        {
+            if ( !issueEfforts.containsKey( issueKey ) )
+            {
+                return false;
+            }
+
+            changedIssues.add( issueKey );
+            return true;
+        }
+
+        public synchronized void issuesChanged()
+        {
+            issuesChanged = true;
+        }
+
+        public synchronized Duration[] getEffortRequired( Milestone milestone )
+        {
+            if ( issuesChanged || !changedIssues.isEmpty() )
+            {
+                update( milestone );
+            }
+
+            Duration[] effortRequired = new Duration[ totals.length ];
+            for ( int i = 0; i < totals.length; i++ )
+            {
+                effortRequired[ i ] = new Duration( totals[ i ] );
+            }
+            return effortRequired;
+        }
+
+        private void update( Milestone milestone )
+        {
+            Set<String> current = new HashSet<String>();
+            if ( milestone.getIssues() != null )
+            {
+                for ( Issue issue : milestone.getIssues() )
+                {
+                    String key = getIssueKey( issue.getInternalId() );
+                    current.add( key );
+
+                    if ( !issueEfforts.containsKey( key ) || changedIssues.contains( key ) )
+                    {
+                        issueEfforts.put( key, getIssueEffortRequired( issue, dayEnds ) );
+                    }
+                }
+            }
+            issueEfforts.keySet().retainAll( current );
+            changedIssues.clear();
+            issuesChanged = false;
+
+            // summed again rather than adjusted so rounding errors cannot build up
+            totals = new double[ dayEnds.length ];
+            for ( double[] effort : issueEfforts.values() )
+            {
+                for ( int i = 0; i < totals.length; i++ )
+                {
+                    totals[ i ] += effort[ i ];
+                }
+            }
+        }
+    }
 }
@@ -18,6 +18,7 @@
 
 package org.headsupdev.agile.storage;
 
+import org.headsupdev.support.java.FileUtil;
 import org.headsupdev.support.java.StringUtil;
 import org.hibernate.Transaction;
 import org.hibernate.Session;
@@ -26,6 +27,7 @@ import org.hibernate.Query;
 import java.util.*;
 import java.io.*;
 import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.headsupdev.agile.api.*;
 
@@ -45,6 +47,18 @@ public class HibernateStorage
 
     private static HeadsUpConfiguration globalConfig;
 
+    private static final Object configLock = new Object();
+    private static volatile ConfigurationSnapshot configSnapshot;
+    private static long configChanges = 0;
+    private static final List<ConfigurationListener> configListeners =
+            new java.util.concurrent.CopyOnWriteArrayList<ConfigurationListener>();
+
+    private static final Object hierarchyLock = new Object();
+    private static volatile ProjectHierarchy projectHierarchy;
+    // read without the lock so other threads must see it set as soon as the memberships change
+    private static volatile boolean membersChanged = false;
+    private static final AtomicLong securityGeneration = new AtomicLong();
+
     public Session getHibernateSession()
     {
         return getCurrentSession();
@@ -110,13 +124,26 @@ public class HibernateStorage
 
         String rootId = project.getId();
         String rootScm = project.getScm();
-        Project parent = project;
-        while ( parent.getParent() != null )
+        ProjectHierarchy hierarchy = getProjectHierarchy();
+        if ( hierarchy.contains( project.getId() ) )
         {
-            parent = parent.getParent();
+            rootId = hierarchy.getRootId( project.getId() );
+            if ( !rootId.equals( project.getId() ) )
+            {
+                rootScm = getProject( rootId ).getScm();
+            }
+        }
+        else
+        {
+            // not stored yet, so walk the tree we were given
+            Project parent = project;
+            while ( parent.getParent() != null )
+            {
+                parent = parent.getParent();
 
-            rootId = parent.getId();
-            rootScm = parent.getScm();
+                rootId = parent.getId();
+                rootScm = parent.getScm();
+            }
         }
 
         String folders = "";
@@ -136,6 +163,20 @@ public class HibernateStorage
         copyFiles( src, dest );
     }
 
+    /**
+     * Bring dest into line with the working directory of the project, copying only the files that have changed
+     * (by size or modification time) and removing any that no longer exist in the working directory.
+     *
+     * @return the number of files that had to be copied
+     */
+    public int syncWorkingDirectory( Project project, File dest )
+        throws IOException
+    {
+        File src = getWorkingDirectory( project );
+
+        return syncFiles( src, dest );
+    }
+
     private void copyFiles( File src, File dest )
         throws IOException
     {
@@ -162,6 +203,57 @@ public class HibernateStorage
         }
     }
 
+    private int syncFiles( File src, File dest )
+        throws IOException
+    {
+        if ( src.isDirectory() )
+        {
+            if ( dest.exists() && !dest.isDirectory() )
+            {
+                FileUtil.delete( dest );
+            }
+            dest.mkdirs();
+
+            String[] files = src.list();
+            if ( files == null )
+            {
+                throw new IOException( "Unable to list directory " + src.getPath() );
+            }
+            Set<String> names = new HashSet<String>( Arrays.asList( files ) );
+            String[] existing = dest.list();
+            if ( existing != null )
+            {
+                for ( String fileName : existing )
+                {
+                    if ( !names.contains( fileName ) )
+                    {
+                        FileUtil.delete( new File( dest, fileName ) );
+                    }
+                }
+            }
+
+            int copied = 0;
+            for ( String fileName : files )
+            {
+                copied += syncFiles( new File( src, fileName ), new File( dest, fileName ) );
+            }
+            return copied;
+        }
+
+        if ( dest.isDirectory() )
+        {
+            FileUtil.delete( dest );
+        }
+        else if ( dest.exists() && dest.length() == src.length() && dest.lastModified() == src.lastModified() )
+        {
+            return 0;
+        }
+
+        copyFiles( src, dest );
+        dest.setLastModified( src.lastModified() );
+        return 1;
+    }
+
     public File getApplicationDataDirectory( Application app )
     {
         if ( app == null )
@@ -181,31 +273,18 @@ public class HibernateStorage
     
     public String getConfigurationItem( String name )
     {
-        Session session = getHibernateSession();
-        Transaction tx = session.beginTransaction();
-        StoredConfigurationItem item = (StoredConfigurationItem) session.createQuery( "from StoredConfigurationItem i where name = '" +
-            name + "'" ).uniqueResult();
-        tx.commit();
-
-        if ( item == null )
-        {
-            return null;
-        }
-        return item.getValue();
+        return getConfigurationSnapshot().getValue( name );
     }
 
     public void setConfigurationItem( String name, String value )
     {
         Session session = getHibernateSession();
         Transaction tx = session.beginTransaction();
-        StoredConfigurationItem item = (StoredConfigurationItem) session.createQuery( "from StoredConfigurationItem i where name = '" +
-            name + "'" ).uniqueResult();
+        StoredConfigurationItem item = (StoredConfigurationItem) session.get( StoredConfigurationItem.class, name );
 
-        boolean requiresReload = false;
         if ( item == null )
         {
             item = new StoredConfigurationItem( name, value );
-            requiresReload = true;
         }
         else
         {
@@ -214,38 +293,34 @@ public class HibernateStorage
 
         session.saveOrUpdate( item );
         tx.commit();
-
-        if ( requiresReload )
-        {
-            reloadGlobalConfiguration();
-        }
     }
 
     public void removeConfigurationItem( String name )
     {
-        Session session = getHibernateSession();
-        Transaction tx = session.beginTransaction();
-
-        session.createQuery( "delete from StoredConfigurationItem i where name = '" + name + "'" ).executeUpdate();
-
-        tx.commit();
+        removeConfigurationItems( Arrays.asList( name ) );
     }
 
-    public Map<String, String> getConfigurationItems( String prefix )
+    public void removeConfigurationItems( Collection<String> names )
     {
-        Map<String, String> ret = new HashMap<String, String>();
         Session session = getHibernateSession();
         Transaction tx = session.beginTransaction();
-        List<StoredConfigurationItem> items = (List<StoredConfigurationItem>) session.createQuery( "from StoredConfigurationItem i where name like '" +
-            prefix + "%'" ).list();
-        tx.commit();
 
-        for ( StoredConfigurationItem item : items )
+        // deleted through the session rather than a bulk query so the change is published
+        for ( String name : names )
         {
-            ret.put( item.getName(), item.getValue() );
+            Object item = session.get( StoredConfigurationItem.class, name );
+            if ( item != null )
+            {
+                session.delete( item );
+            }
         }
 
-        return ret;
+        tx.commit();
+    }
+
+    public Map<String, String> getConfigurationItems( String prefix )
+    {
+        return new HashMap<String, String>( getConfigurationSnapshot().getItems( prefix ) );
     }
 
     public void setConfigurationItems( Map<String, String> items )
@@ -255,8 +330,7 @@ public class HibernateStorage
 
         for ( String name : items.keySet() )
         {
-            StoredConfigurationItem item = (StoredConfigurationItem) session.createQuery( "from StoredConfigurationItem i where name = '" +
-                name + "'" ).uniqueResult();
+            StoredConfigurationItem item = (StoredConfigurationItem) session.get( StoredConfigurationItem.class, name );
 
             if ( item == null )
             {
@@ -272,35 +346,111 @@ public class HibernateStorage
         tx.commit();
     }
 
-    public HeadsUpConfiguration getGlobalConfiguration()
+    public ConfigurationSnapshot getConfigurationSnapshot()
     {
-        if ( globalConfig == null )
+        ConfigurationSnapshot snapshot = configSnapshot;
+        while ( snapshot == null )
         {
-            globalConfig = new HeadsUpConfiguration( getConfigurationItems( "" ) );
+            long changes;
+            synchronized ( configLock )
+            {
+                changes = configChanges;
+            }
+
+            Map<String, String> items = new HashMap<String, String>();
+            Session session = getHibernateSession();
+            Transaction tx = session.beginTransaction();
+            List<StoredConfigurationItem> stored = (List<StoredConfigurationItem>) session.createQuery(
+                    "from StoredConfigurationItem i" ).list();
+            tx.commit();
+            for ( StoredConfigurationItem item : stored )
+            {
+                items.put( item.getName(), item.getValue() );
+            }
+
+            synchronized ( configLock )
+            {
+                // if anything was published while we were loading then our copy may be out of date
+                if ( configSnapshot == null && changes == configChanges )
+                {
+                    configSnapshot = new ConfigurationSnapshot( 0, items );
+                }
+                snapshot = configSnapshot;
+            }
         }
 
-        return globalConfig;
+        return snapshot;
     }
 
-    private void reloadGlobalConfiguration()
+    /**
+     * Publish a new configuration snapshot with the committed changes applied and notify the listeners.
+     */
+    public static void publishConfiguration( Map<String, String> changed, Set<String> removed )
     {
-        globalConfig = null;
+        ConfigurationSnapshot snapshot;
+        synchronized ( configLock )
+        {
+            configChanges++;
+            if ( configSnapshot == null )
+            {
+                // the next read will load everything
+                return;
+            }
+
+            snapshot = configSnapshot.update( changed, removed );
+            configSnapshot = snapshot;
+        }
+
+        Set<String> names = new HashSet<String>( changed.keySet() );
+        names.addAll( removed );
+        for ( ConfigurationListener listener : configListeners )
+        {
+            try
+            {
+                listener.configurationChanged( snapshot, names );
+            }
+            catch ( RuntimeException e )
+            {
+                Manager.getLogger( HibernateStorage.class.getName() ).error( "Configuration listener failed", e );
+            }
+        }
     }
 
-    public Project getProject( String id )
+    public void addConfigurationListener( ConfigurationListener listener )
     {
-        Session session = getHibernateSession();
-        Project ret = (Project) session.createQuery( "from StoredProject p where id = '" + id + "'" ).uniqueResult();
+        configListeners.add( listener );
+    }
 
-        return ret;
+    public void removeConfigurationListener( ConfigurationListener listener )
+    {
+        configListeners.remove( listener );
     }
 
-    public List<Project> getProjects()
+    public HeadsUpConfiguration getGlobalConfiguration()
     {
+        if ( globalConfig == null )
+        {
+            globalConfig = new HeadsUpConfiguration( this );
+        }
+
+        return globalConfig;
+    }
+
+    public Project getProject( String id )
+    {
+        if ( id == null )
+        {
+            return null;
+        }
+
         Session session = getHibernateSession();
-        List<Project> list = session.createQuery( "from StoredProject p where id != '" + Project.ALL_PROJECT_ID + "' order by name" ).list();
+        // loading by id lets this be answered from the second level cache
+        return (Project) session.get( StoredProject.class, id );
+    }
 
-        return list;
+    public List<Project> getProjects()
+    {
+        return getProjects( getProjectHierarchy().getProjectIds() );
     }
 
     public List<Project> getRootProjects()
@@ -310,18 +460,142 @@ public class HibernateStorage
 
     public List<Project> getRootProjects( boolean withDisabled )
     {
+        return getProjects( getProjectHierarchy().getRootIds( withDisabled ) );
+    }
+
+    /**
+     * Load the projects with the given ids in a single query, returned in the order of the ids passed in.
+     */
+    public List<Project> getProjects( Collection<String> ids )
+    {
+        if ( ids.isEmpty() )
+        {
+            return new ArrayList<Project>();
+        }
+
         Session session = getHibernateSession();
-        String disabledWhere = "";
-        if ( !withDisabled )
+        List<Project> loaded = session.createQuery( "from StoredProject p where p.id in (:ids)" )
+                .setParameterList( "ids", ids ).list();
+        Map<String, Project> projects = new HashMap<String, Project>();
+        for ( Project project : loaded )
+        {
+            projects.put( project.getId(), project );
+        }
+
+        List<Project> list = new ArrayList<Project>( ids.size() );
+        for ( String id : ids )
         {
-            disabledWhere = " and (disabled is null or disabled = false)";
+            Project project = projects.get( id );
+            if ( project != null )
+            {
+                list.add( project );
+            }
         }
-        List<Project> list = session.createQuery( "from StoredProject p where id != '" + Project.ALL_PROJECT_ID + "' and parent is null" +
-                disabledWhere + " order by name" ).list();
 
         return list;
     }
 
+    public ProjectHierarchy getProjectHierarchy()
+    {
+        ProjectHierarchy hierarchy = projectHierarchy;
+        if ( hierarchy != null && !membersChanged )
+        {
+            return hierarchy;
+        }
+
+        synchronized ( hierarchyLock )
+        {
+            if ( projectHierarchy == null || membersChanged )
+            {
+                Session session = getHibernateSession();
+                // we may be called part way through another query's transaction
+                Transaction tx = null;
+                if ( !session.getTransaction().isActive() )
+                {
+                    tx = session.beginTransaction();
+                }
+
+                if ( projectHierarchy == null )
+                {
+                    projectHierarchy = ProjectHierarchy.load( session );
+                }
+                else
+                {
+                    projectHierarchy = projectHierarchy.withMembers( session );
+                }
+                membersChanged = false;
+
+                if ( tx != null )
+                {
+                    tx.commit();
+                }
+            }
+
+            return projectHierarchy;
+        }
+    }
+
+    /**
+     * Update the project hierarchy once a project has been added or changed.
+     */
+    public static void projectChanged( Project project )
+    {
+        if ( project == null || project.getId() == null || project.getId().equals( Project.ALL_PROJECT_ID ) )
+        {
+            return;
+        }
+
+        synchronized ( hierarchyLock )
+        {
+            if ( projectHierarchy != null )
+            {
+                projectHierarchy = projectHierarchy.withProject( project );
+            }
+        }
+    }
+
+    /**
+     * Update the project hierarchy once a project has been deleted.
+     */
+    public static void projectRemoved( String id )
+    {
+        synchronized ( hierarchyLock )
+        {
+            if ( projectHierarchy != null )
+            {
+                projectHierarchy = projectHierarchy.withoutProject( id );
+            }
+        }
+    }
+
+    /**
+     * Flag that project memberships have changed, they will be read again the next time the hierarchy is used.
+     */
+    public static void membershipsChanged()
+    {
+        synchronized ( hierarchyLock )
+        {
+            membersChanged = true;
+        }
+        securityChanged();
+    }
+
+    /**
+     * Flag that users, roles or memberships have changed so that cached logins and access decisions are dropped.
+     */
+    public static void securityChanged()
+    {
+        securityGeneration.incrementAndGet();
+    }
+
+    /**
+     * @return a number that changes whenever users, roles or memberships are changed
+     */
+    public static long getSecurityGeneration()
+    {
+        return securityGeneration.get();
+    }
+
     public List<Event> getEvents( Date start, Date end )
     {
         Session session = getHibernateSession();
@@ -390,7 +664,6 @@ public class HibernateStorage
 
         if ( tree )
         {
-            project = (Project) session.merge( project );
             List<String> projects = new LinkedList<String>();
             doListProjectIds( project, projects );
             q.setParameterList( "pids", projects );
@@ -419,6 +692,13 @@ public class HibernateStorage
 
     private void doListProjectIds( Project project, List<String> projects )
     {
+        ProjectHierarchy hierarchy = getProjectHierarchy();
+        if ( hierarchy.contains( project.getId() ) )
+        {
+            projects.addAll( hierarchy.getTreeIds( project.getId() ) );
+            return;
+        }
+
         projects.add( project.getId() );
         for ( Project child : project.getChildProjects() )
         {
@@ -463,6 +743,129 @@ public class HibernateStorage
         return list;
     }
 
+    public List<Event> getEvents( EventQuery query )
+    {
+        Session session = getHibernateSession();
+        Transaction tx = session.beginTransaction();
+
+        Query q = createEventQuery( session, "", query );
+        List<Event> list = new LinkedList<Event>();
+        if ( q != null )
+        {
+            list = q.list();
+        }
+        tx.commit();
+
+        return list;
+    }
+
+    public List<EventSummary> getEventSummaries( EventQuery query )
+    {
+        Session session = getHibernateSession();
+        Transaction tx = session.beginTransaction();
+
+        Query q = createEventQuery( session, "select e.id, e.time, e.type, e.applicationId, e.project.id, e.title, " +
+                "e.username ", query );
+        List<EventSummary> list = new LinkedList<EventSummary>();
+        if ( q != null )
+        {
+            List<Object[]> rows = q.list();
+            for ( Object[] row : rows )
+            {
+                list.add( new EventSummary( (Long) row[0], (Date) row[1], (String) row[2], (String) row[3],
+                        (String) row[4], (String) row[5], (String) row[6] ) );
+            }
+        }
+        tx.commit();
+
+        return list;
+    }
+
+    /*
+     * Build the timeline query, the where clause leads with project and time so it can be answered from the
+     * projectTimeIndex and the (time, id) ordering gives a stable cursor for paging.
+     * Returns null if the query cannot match anything.
+     */
+    private Query createEventQuery( Session session, String select, EventQuery query )
+    {
+        if ( query.getTypes() != null && query.getTypes().size() == 0 )
+        {
+            return null;
+        }
+
+        List<String> where = new LinkedList<String>();
+        List<String> projects = null;
+        if ( query.getProject() != null && !query.getProject().equals( StoredProject.getDefault() ) )
+        {
+            projects = new LinkedList<String>();
+            if ( query.isTree() )
+            {
+                doListProjectIds( query.getProject(), projects );
+            }
+            else
+            {
+                projects.add( query.getProject().getId() );
+            }
+            where.add( "e.project.id in (:pids)" );
+        }
+        if ( query.getApplicationId() != null )
+        {
+            where.add( "e.applicationId = :appId" );
+        }
+        if ( query.getTypes() != null )
+        {
+            where.add( "e.class in (:types)" );
+        }
+        if ( query.getSince() != null )
+        {
+            where.add( "e.time >= :since" );
+        }
+        if ( query.getBefore() != null )
+        {
+            where.add( "(e.time < :before or (e.time = :before and e.id < :beforeId))" );
+        }
+
+        StringBuilder hql = new StringBuilder( select );
+        hql.append( "from StoredEvent e" );
+        boolean first = true;
+        for ( String clause : where )
+        {
+            hql.append( first ? " where " : " and " );
+            hql.append( clause );
+            first = false;
+        }
+        hql.append( " order by e.time desc, e.id desc" );
+
+        Query q = session.createQuery( hql.toString() );
+        if ( projects != null )
+        {
+            q.setParameterList( "pids", projects );
+        }
+        if ( query.getApplicationId() != null )
+        {
+            q.setString( "appId", query.getApplicationId() );
+        }
+        if ( query.getTypes() != null )
+        {
+            q.setParameterList( "types", query.getTypes() );
+        }
+        if ( query.getSince() != null )
+        {
+            q.setTimestamp( "since", query.getSince() );
+        }
+        if ( query.getBefore() != null )
+        {
+            q.setTimestamp( "before", query.getBefore() );
+            q.setLong( "beforeId", query.getBeforeId() );
+        }
+        if ( query.getLimit() > 0 )
+        {
+            q.setMaxResults( query.getLimit() );
+        }
+
+        return q;
+    }
+
     public void addProject( final Project proj )
     {
         save( proj );
@@ -489,7 +892,53 @@ public class HibernateStorage
 
     public void addEvent( Event event )
     {
-        save( event );
+        Session session = getHibernateSession();
+        Transaction tx = session.beginTransaction();
+        session.save( event );
+        ActivityRollups.record( session, event );
+        tx.commit();
+        HibernateUtil.evict( event );
+    }
+
+    /**
+     * Load the daily or monthly event counts for a project, and optionally its child projects.
+     *
+     * @param applicationId only count events from this application, or null for all
+     * @param period ActivityRollup.PERIOD_DAY or ActivityRollup.PERIOD_MONTH
+     * @param since the earliest period to include
+     */
+    public List<ActivityRollup> getActivityRollups( Project project, boolean tree, String applicationId, int period,
+                                                    Date since )
+    {
+        Session session = getHibernateSession();
+        Transaction tx = session.beginTransaction();
+
+        List<String> projects = new LinkedList<String>();
+        if ( tree )
+        {
+            doListProjectIds( project, projects );
+        }
+        else
+        {
+            projects.add( project.getId() );
+        }
+        List<ActivityRollup> list = ActivityRollups.getProjectRollups( session, projects, applicationId, period, since );
+        tx.commit();
+
+        return list;
+    }
+
+    /**
+     * Load the daily or monthly counts of events attributed to a user.
+     */
+    public List<ActivityRollup> getActivityRollupsForUser( User user, int period, Date since )
+    {
+        Session session = getHibernateSession();
+        Transaction tx = session.beginTransaction();
+        List<ActivityRollup> list = ActivityRollups.getUserRollups( session, user, period, since );
+        tx.commit();
+
+        return list;
     }
 
     public Object save( Object o )
@@ -498,6 +947,7 @@ public class HibernateStorage
         Transaction tx = session.beginTransaction();
         Object ret = session.save( o );
         tx.commit();
+        HibernateUtil.evict( o );
 
         return ret;
     }
@@ -508,6 +958,7 @@ public class HibernateStorage
         Transaction tx = session.beginTransaction();
         session.saveOrUpdate( o );
         tx.commit();
+        HibernateUtil.evict( o );
     }
 
     public Object merge( Object o )
@@ -516,6 +967,7 @@ public class HibernateStorage
         Transaction tx = session.beginTransaction();
         Object ret = session.merge( o );
         tx.commit();
+        HibernateUtil.evict( ret );
 
         return ret;
     }
@@ -526,5 +978,6 @@ public class HibernateStorage
         Transaction tx = session.beginTransaction();
         session.delete( o );
         tx.commit();
+        HibernateUtil.evict( o );
     }
 }
@@ -19,8 +19,10 @@
 package org.headsupdev.agile.storage;
 
 import org.headsupdev.agile.api.Application;
-import org.headsupdev.agile.api.Project;
 import org.headsupdev.agile.api.Manager;
+import org.headsupdev.agile.storage.hibernate.BoundedCache;
+import org.headsupdev.agile.storage.hibernate.BoundedCacheProvider;
+import org.headsupdev.agile.storage.hibernate.IdAllocator;
 import org.headsupdev.agile.storage.hibernate.IdProjectId;
 import org.headsupdev.agile.storage.docs.Document;
 import org.headsupdev.agile.storage.issues.Issue;
@@ -29,12 +31,15 @@ import org.headsupdev.agile.storage.ci.Build;
 
 import org.hibernate.*;
 import org.hibernate.mapping.PersistentClass;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.persister.entity.EntityPersister;
 import org.hibernate.search.annotations.Indexed;
 import org.hibernate.engine.SessionFactoryImplementor;
 import org.hibernate.connection.DBCPConnectionProvider;
 import org.hibernate.cfg.AnnotationConfiguration;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.net.URL;
 import java.io.IOException;
 import java.io.InputStream;
@@ -82,6 +87,7 @@ public class HibernateUtil {
 
     public static void shutdown() {
         initThread();
+        IdAllocator.releaseAll();
         thread.shutdown();
     }
 
@@ -100,6 +106,31 @@ public class HibernateUtil {
         return thread.getEntityClassNames();
     }
 
+    public static List<CacheStatistics> getCacheStatistics()
+    {
+        List<CacheStatistics> ret = new ArrayList<CacheStatistics>();
+        for ( BoundedCache region : BoundedCacheProvider.getRegions() )
+        {
+            ret.add( new CacheStatistics( region ) );
+        }
+
+        return ret;
+    }
+
+    /**
+     * Remove an entity from the second level cache, if it is cached, so the next load reads it from the database.
+     */
+    public static void evict( Object entity )
+    {
+        initThread();
+        thread.evict( entity );
+    }
+
+    public static void clearCache()
+    {
+        BoundedCacheProvider.clearAll();
+    }
+
     private static void initThread()
     {
         if ( thread == null )
@@ -111,6 +142,9 @@ public class HibernateUtil {
     public static class SessionProxyImpl
             implements InvocationHandler
     {
+        private static final Map<Class, Field> idFields = new ConcurrentHashMap<Class, Field>();
+        private static final Set<Class> noIdFields = Collections.newSetFromMap( new ConcurrentHashMap<Class, Boolean>() );
+
         private final org.hibernate.classic.Session session;
 
         public static org.hibernate.classic.Session newInstance( org.hibernate.classic.Session session, boolean trace )
@@ -144,51 +178,12 @@ public class HibernateUtil {
             }
             if ( method.getName().equals( "save" ) || method.getName().equals( "saveOrUpdate" ) )
             {
+                // will have a length of 1 or 2 for save
                 Object saving = args[ args.length - 1 ];
-                try
+                Field field = getIdField( saving.getClass() );
+                if ( field != null )
                 {
-                    // will have a length of 1 or 2 for save
-                    Field field = saving.getClass().getDeclaredField( "id" );
-                    field.setAccessible( true );
-
-                    if ( field.get( saving ) instanceof IdProjectId )
-                    {
-                        IdProjectId id = (IdProjectId) field.get( saving );
-
-                        Field idId = id.getClass().getDeclaredField( "id" );
-                        idId.setAccessible( true );
-                        if ( idId.getLong( id ) == 0 )
-                        {
-                            Field projectField = id.getClass().getDeclaredField( "project" );
-                            projectField.setAccessible( true );
-                            Project project = (Project) projectField.get( id );
-
-                            synchronized( session )
-                            {
-                                long max = 0;
-                                try
-                                {
-                                    max = (Long) session.createQuery( "select max(id.id) from " +
-                                            saving.getClass().getName() + " where id.project.id = '" + project.getId() + "'" )
-                                            .uniqueResult();
-                                }
-                                catch ( NullPointerException e )
-                                {
-                                    // thrown from hibernate when there is no id listed for the project (i.e. first time)
-                                    // just use a max of 0 as above
-                                }
-
-                                idId.setLong( id, max + 1 );
-                                // duplicate the method call here so we save in the syncronized block
-                                // the session we are synced on has a transaction open already, so the SQL is fine too
-                                return method.invoke( session, args );
-                            }
-                        }
-                    }
-                }
-                catch ( NoSuchFieldException e )
-                {
-                    // ignore and fall through
+                    IdAllocator.assignId( (IdProjectId) field.get( saving ), saving.getClass(), session );
                 }
             }
             else if ( method.getName().equals( "close" ) )
@@ -199,6 +194,37 @@ public class HibernateUtil {
 
             return method.invoke( session, args );
         }
+
+        /**
+         * Find the IdProjectId "id" field declared by an entity class, or null if it does not use one.
+         * The result is remembered so the reflection is only done once per class.
+         */
+        private static Field getIdField( Class type )
+        {
+            Field field = idFields.get( type );
+            if ( field != null || noIdFields.contains( type ) )
+            {
+                return field;
+            }
+
+            try
+            {
+                field = type.getDeclaredField( "id" );
+                if ( IdProjectId.class.isAssignableFrom( field.getType() ) )
+                {
+                    field.setAccessible( true );
+                    idFields.put( type, field );
+                    return field;
+                }
+            }
+            catch ( NoSuchFieldException e )
+            {
+                // fall through, this class does not have an IdProjectId
+            }
+
+            noIdFields.add( type );
+            return null;
+        }
     }
 }
 
@@ -251,6 +277,21 @@ class HibernateThread extends Thread
             e.printStackTrace();
         }
 
+        // the first factory is built before we know the data directory so it keeps the RAM default from the
+        // configuration - every later factory stores all the indexes on disk so they survive a restart
+        if ( config.getProperty( "hibernate.search.default.indexBase" ) != null )
+        {
+            config.setProperty( "hibernate.search.default.directory_provider",
+                "org.hibernate.search.store.FSDirectoryProvider" );
+
+            // memory map the index files on 64bit JVMs where address space is not a concern, -D overrides this
+            if ( System.getProperty( "org.apache.lucene.FSDirectory.class" ) == null &&
+                "64".equals( System.getProperty( "sun.arch.data.model" ) ) )
+            {
+                System.setProperty( "org.apache.lucene.FSDirectory.class", "org.apache.lucene.store.MMapDirectory" );
+            }
+        }
+
         sessionFactory = config.buildSessionFactory();
         provider = (DBCPConnectionProvider) ( (SessionFactoryImplementor) sessionFactory ).getConnectionProvider();
 
@@ -296,18 +337,7 @@ class HibernateThread extends Thread
         Enumeration<Class> annotationIter = annotated.elements();
         while ( annotationIter.hasMoreElements() )
         {
-            Class annotation = annotationIter.nextElement();
-            config.addAnnotatedClass( annotation );
-
-            if ( annotation.isAnnotationPresent( Indexed.class ) ) {
-                String indexName = ( (Indexed) annotation.getAnnotation( Indexed.class ) ).index();
-                if ( indexName == null || indexName.length() == 0 )
-                {
-                    indexName = annotation.getName();
-                }
-                config.setProperty( "hibernate.search." + indexName + ".directory_provider",
-                    "org.hibernate.search.store.FSDirectoryProvider" );
-            }
+            config.addAnnotatedClass( annotationIter.nextElement() );
         }
         initFactory( config );
     }
@@ -364,6 +394,18 @@ class HibernateThread extends Thread
                                 }
                             }
                         }
+
+                        // class bridges on the embedded class can add indexed fields too
+                        org.hibernate.search.annotations.ClassBridge bridge = (org.hibernate.search.annotations.ClassBridge)
+                            subClass.getAnnotation( org.hibernate.search.annotations.ClassBridge.class );
+                        if ( bridge != null && !bridge.index().equals( org.hibernate.search.annotations.Index.NO ) )
+                        {
+                            String fullName = field.getName() + "." + bridge.name();
+                            if ( !searchFields.contains( fullName ) )
+                            {
+                                searchFields.add( fullName );
+                            }
+                        }
                     }
                 }
 
@@ -401,6 +443,28 @@ class HibernateThread extends Thread
         return classNames;
     }
 
+    public void evict( Object entity )
+    {
+        if ( entity == null )
+        {
+            return;
+        }
+
+        Class type = Hibernate.getClass( entity );
+        ClassMetadata metadata = sessionFactory.getClassMetadata( type );
+        if ( metadata == null )
+        {
+            return;
+        }
+
+        EntityPersister persister = ( (SessionFactoryImplementor) sessionFactory ).getEntityPersister(
+                metadata.getEntityName() );
+        if ( persister.hasCache() )
+        {
+            sessionFactory.evict( type, metadata.getIdentifier( entity, EntityMode.POJO ) );
+        }
+    }
+
     class HibernateClassLoader extends ClassLoader
     {
         private Vector<ClassLoader> loaders = new Vector<ClassLoader>();
@@ -0,0 +1,351 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.headsupdev.agile.storage;
+
+import org.headsupdev.agile.api.Project;
+import org.headsupdev.agile.api.User;
+import org.hibernate.Session;
+
+import java.util.*;
+
+/**
+ * An immutable index of how projects are arranged and who is a member of each.
+ * Looking up the parent, children or whole tree of a project, or its members, never touches the database or walks
+ * the lazy project associations. When a project changes a new index is created from this one, only the changed
+ * project is read again, see HibernateStorage.getProjectHierarchy().
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class ProjectHierarchy
+{
+    private static final Comparator<ProjectNode> NAME_ORDER = new Comparator<ProjectNode>()
+    {
+        public int compare( ProjectNode n1, ProjectNode n2 )
+        {
+            return String.CASE_INSENSITIVE_ORDER.compare( n1.name, n2.name );
+        }
+    };
+
+    private final Map<String, ProjectNode> nodes;
+    private final Map<String, Set<String>> members;
+
+    private final List<String> rootIds = new ArrayList<String>();
+    private final List<String> enabledRootIds = new ArrayList<String>();
+    private final List<String> projectIds = new ArrayList<String>();
+    private final Map<String, List<String>> childIds = new HashMap<String, List<String>>();
+    private final Map<String, Set<String>> treeIds = new HashMap<String, Set<String>>();
+    private final Map<String, Set<String>> userProjectIds = new HashMap<String, Set<String>>();
+
+    private ProjectHierarchy( Map<String, ProjectNode> nodes, Map<String, Set<String>> members )
+    {
+        this.nodes = nodes;
+        this.members = members;
+
+        List<ProjectNode> sorted = new ArrayList<ProjectNode>( nodes.values() );
+        Collections.sort( sorted, NAME_ORDER );
+        for ( ProjectNode node : sorted )
+        {
+            projectIds.add( node.id );
+            if ( node.parentId == null || !nodes.containsKey( node.parentId ) )
+            {
+                rootIds.add( node.id );
+                if ( !node.disabled )
+                {
+                    enabledRootIds.add( node.id );
+                }
+            }
+            else
+            {
+                List<String> children = childIds.get( node.parentId );
+                if ( children == null )
+                {
+                    children = new ArrayList<String>();
+                    childIds.put( node.parentId, children );
+                }
+                children.add( node.id );
+            }
+        }
+
+        for ( String rootId : rootIds )
+        {
+            addTree( rootId );
+        }
+
+        for ( Map.Entry<String, Set<String>> entry : members.entrySet() )
+        {
+            for ( String username : entry.getValue() )
+            {
+                Set<String> projects = userProjectIds.get( username );
+                if ( projects == null )
+                {
+                    projects = new HashSet<String>();
+                    userProjectIds.put( username, projects );
+                }
+                projects.add( entry.getKey() );
+            }
+        }
+    }
+
+    private Set<String> addTree( String id )
+    {
+        // depth first so the ids come out in the same order as walking the child projects
+        Set<String> tree = new LinkedHashSet<String>();
+        tree.add( id );
+        for ( String childId : getChildIds( id ) )
+        {
+            tree.addAll( addTree( childId ) );
+        }
+
+        tree = Collections.unmodifiableSet( tree );
+        treeIds.put( id, tree );
+        return tree;
+    }
+
+    /**
+     * Read all the projects and memberships, this runs two small queries.
+     */
+    static ProjectHierarchy load( Session session )
+    {
+        Map<String, ProjectNode> nodes = new HashMap<String, ProjectNode>();
+        List<Object[]> rows = session.createQuery( "select p.id, p.name, p.parent.id, p.disabled " +
+                "from StoredProject p where p.id != :all" ).setString( "all", Project.ALL_PROJECT_ID ).list();
+        for ( Object[] row : rows )
+        {
+            nodes.put( (String) row[0], new ProjectNode( (String) row[0], (String) row[1], (String) row[2],
+                    Boolean.TRUE.equals( row[3] ) ) );
+        }
+
+        return new ProjectHierarchy( nodes, loadMembers( session ) );
+    }
+
+    /**
+     * Create an index without any projects or members.
+     */
+    static ProjectHierarchy empty()
+    {
+        return new ProjectHierarchy( new HashMap<String, ProjectNode>(), new HashMap<String, Set<String>>() );
+    }
+
+    private static Map<String, Set<String>> loadMembers( Session session )
+    {
+        Map<String, Set<String>> members = new HashMap<String, Set<String>>();
+        List<Object[]> rows = session.createQuery( "select p.id, u.username from StoredUser u join u.projects p" )
+                .list();
+        for ( Object[] row : rows )
+        {
+            Set<String> usernames = members.get( (String) row[0] );
+            if ( usernames == null )
+            {
+                usernames = new HashSet<String>();
+                members.put( (String) row[0], usernames );
+            }
+            usernames.add( (String) row[1] );
+        }
+
+        return members;
+    }
+
+    /**
+     * Create a new index with the details of a project that was added or changed.
+     */
+    ProjectHierarchy withProject( Project project )
+    {
+        Map<String, ProjectNode> next = new HashMap<String, ProjectNode>( nodes );
+        String parentId = null;
+        if ( project.getParent() != null )
+        {
+            parentId = project.getParent().getId();
+        }
+        next.put( project.getId(), new ProjectNode( project.getId(), project.getName(), parentId,
+                project.isDisabled() ) );
+
+        return new ProjectHierarchy( next, members );
+    }
+
+    /**
+     * Create a new index without a project that was deleted.
+     */
+    ProjectHierarchy withoutProject( String id )
+    {
+        Map<String, ProjectNode> next = new HashMap<String, ProjectNode>( nodes );
+        next.remove( id );
+
+        Map<String, Set<String>> nextMembers = new HashMap<String, Set<String>>( members );
+        nextMembers.remove( id );
+        return new ProjectHierarchy( next, nextMembers );
+    }
+
+    /**
+     * Create a new index with the memberships read again.
+     */
+    ProjectHierarchy withMembers( Session session )
+    {
+        return withMembers( loadMembers( session ) );
+    }
+
+    /**
+     * Create a new index with the memberships passed in.
+     *
+     * @param members the usernames of the members of each project, keyed by project id
+     */
+    ProjectHierarchy withMembers( Map<String, Set<String>> members )
+    {
+        return new ProjectHierarchy( nodes, members );
+    }
+
+    public boolean contains( String id )
+    {
+        return nodes.containsKey( id );
+    }
+
+    public int getProjectCount()
+    {
+        return nodes.size();
+    }
+
+    /**
+     * @return the ids of all projects, ordered by name
+     */
+    public List<String> getProjectIds()
+    {
+        return Collections.unmodifiableList( projectIds );
+    }
+
+    /**
+     * @return the ids of the projects without a parent, ordered by name
+     */
+    public List<String> getRootIds( boolean withDisabled )
+    {
+        return Collections.unmodifiableList( withDisabled ? rootIds : enabledRootIds );
+    }
+
+    public String getParentId( String id )
+    {
+        ProjectNode node = nodes.get( id );
+        if ( node == null )
+        {
+            return null;
+        }
+
+        return node.parentId;
+    }
+
+    /**
+     * @return the id of the root project of the tree this project is in
+     */
+    public String getRootId( String id )
+    {
+        String rootId = id;
+        String parentId = getParentId( rootId );
+        while ( parentId != null && nodes.containsKey( parentId ) )
+        {
+            rootId = parentId;
+            parentId = getParentId( rootId );
+        }
+
+        return rootId;
+    }
+
+    /**
+     * @return the ids of the child projects, ordered by name
+     */
+    public List<String> getChildIds( String id )
+    {
+        List<String> ret = childIds.get( id );
+        if ( ret == null )
+        {
+            return Collections.emptyList();
+        }
+
+        return Collections.unmodifiableList( ret );
+    }
+
+    /**
+     * @return the ids of this project and all the projects below it
+     */
+    public Set<String> getTreeIds( String id )
+    {
+        Set<String> ret = treeIds.get( id );
+        if ( ret == null )
+        {
+            return Collections.singleton( id );
+        }
+
+        return ret;
+    }
+
+    /**
+     * @return true if the project is the ancestor, or somewhere in the tree below it
+     */
+    public boolean isInTree( String ancestorId, String id )
+    {
+        return getTreeIds( ancestorId ).contains( id );
+    }
+
+    public boolean isDisabled( String id )
+    {
+        ProjectNode node = nodes.get( id );
+        return node != null && node.disabled;
+    }
+
+    /**
+     * @return the usernames of the members of the project
+     */
+    public Set<String> getMemberUsernames( String id )
+    {
+        Set<String> ret = members.get( id );
+        if ( ret == null )
+        {
+            return Collections.emptySet();
+        }
+
+        return Collections.unmodifiableSet( ret );
+    }
+
+    /**
+     * @return the ids of the projects the user is a member of
+     */
+    public Set<String> getProjectIds( User user )
+    {
+        Set<String> ret = userProjectIds.get( user.getUsername() );
+        if ( ret == null )
+        {
+            return Collections.emptySet();
+        }
+
+        return Collections.unmodifiableSet( ret );
+    }
+
+    private static class ProjectNode
+    {
+        private final String id, name, parentId;
+        private final boolean disabled;
+
+        ProjectNode( String id, String name, String parentId, boolean disabled )
+        {
+            this.id = id;
+            this.name = name == null ? "" : name;
+            this.parentId = parentId;
+            this.disabled = disabled;
+        }
+    }
+}
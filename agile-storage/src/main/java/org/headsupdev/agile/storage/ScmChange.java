@@ -20,15 +20,20 @@ package org.headsupdev.agile.storage;
 
 import org.headsupdev.agile.api.service.Change;
 import org.headsupdev.agile.api.service.ChangeSet;
+import org.headsupdev.agile.storage.hibernate.DiffBridge;
 import org.hibernate.annotations.Type;
+import org.hibernate.search.annotations.ClassBridge;
 import org.hibernate.search.annotations.Field;
 import org.hibernate.search.annotations.Index;
+import org.hibernate.search.annotations.Store;
 
 import javax.persistence.*;
 import java.io.Serializable;
 
 /**
- * TODO add a description
+ * A change to a single file within an scm change set.
+ * The diff is kept in the DiffStore and only read when it is asked for. Changes stored before 2.0 hold their diff
+ * in the database until the DiffMigration moves it.
  *
  * @author Andrew Williams
  * @version $Id$
@@ -39,6 +44,7 @@ import java.io.Serializable;
 @Inheritance( strategy = InheritanceType.SINGLE_TABLE )
 @DiscriminatorColumn( name = "changeType", discriminatorType = DiscriminatorType.STRING )
 @DiscriminatorValue( "file" )
+@ClassBridge( name = "diff", impl = DiffBridge.class, index = Index.TOKENIZED, store = Store.NO )
 public class ScmChange
     implements Change, Serializable
 {
@@ -56,9 +62,14 @@ public class ScmChange
 
     @Type( type = "text" )
     @Column( length = 2147483647 )
-    @Field(index = Index.TOKENIZED)
     private String diff;
 
+    @Column( length = 40 )
+    private String diffKey;
+
+    @Transient
+    private transient String loadedDiff;
+
     @ManyToOne( fetch = FetchType.LAZY, targetEntity = ScmChangeSet.class )
     private ChangeSet set;
 
@@ -76,8 +87,15 @@ public class ScmChange
         this.name = name;
         this.revision = revision;
         this.type = type;
-        this.diff = diff;
         this.set = set;
+
+        // if the store is not available keep the diff in the database, it will be moved when migrating
+        this.diffKey = DiffStore.store( diff );
+        if ( diffKey == null )
+        {
+            this.diff = diff;
+        }
+        this.loadedDiff = diff;
     }
 
     public long getId()
@@ -102,7 +120,40 @@ public class ScmChange
 
     public String getDiff()
     {
-        return diff;
+        if ( diffKey == null )
+        {
+            return diff;
+        }
+
+        if ( loadedDiff == null )
+        {
+            loadedDiff = DiffStore.load( diffKey );
+        }
+        return loadedDiff;
+    }
+
+    /**
+     * Move a diff that is held in the database into the DiffStore.
+     *
+     * @return true if the diff was moved, false if there was nothing to move or it could not be stored
+     */
+    public boolean moveDiffToStore()
+    {
+        if ( diff == null )
+        {
+            return false;
+        }
+
+        String key = DiffStore.store( diff );
+        if ( key == null )
+        {
+            return false;
+        }
+
+        diffKey = key;
+        loadedDiff = diff;
+        diff = null;
+        return true;
     }
 
     public ChangeSet getSet()
@@ -36,6 +36,7 @@ import org.headsupdev.agile.storage.issues.Issue;
 import org.hibernate.annotations.Type;
 import org.hibernate.annotations.Proxy;
 import org.hibernate.search.annotations.*;
+import org.headsupdev.agile.storage.hibernate.SearchResultBridge;
 
 /**
  * TODO add a description
@@ -51,6 +52,7 @@ import org.hibernate.search.annotations.*;
 @DiscriminatorValue( "scm" )
 @Indexed( index = "ChangeSets" )
 @Proxy( lazy = false )
+@ClassBridge( name = "result", impl = SearchResultBridge.class, index = Index.NO, store = Store.YES )
 public class ScmChangeSet
     implements ChangeSet, Serializable, SearchResult
 {
@@ -73,7 +75,7 @@ public class ScmChangeSet
     private String next_name;
 
     @OneToMany( mappedBy = "set", fetch = FetchType.LAZY, targetEntity = ScmChange.class )
-    @IndexedEmbedded
+    @IndexedEmbedded( targetElement = ScmChange.class )
     private Set<Change> changes = new HashSet<Change>();
 
     @ManyToMany( fetch = FetchType.LAZY )
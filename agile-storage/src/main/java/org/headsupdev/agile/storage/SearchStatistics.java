@@ -0,0 +1,106 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.storage;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of how long full text searches take, recorded by the search pages and shown on the statistics page.
+ *
+ * @author Andrew Williams
+ * @since 2.0
+ */
+public class SearchStatistics
+{
+    // the upper bound, in milliseconds, of each bucket - anything slower goes in the last bucket
+    private static final long[] BUCKET_LIMITS = { 10, 25, 50, 100, 250, 500, 1000, 2500, 5000 };
+
+    private static final AtomicLongArray counts = new AtomicLongArray( BUCKET_LIMITS.length + 1 );
+    private static final AtomicLong totalTime = new AtomicLong();
+    private static final AtomicLong maxTime = new AtomicLong();
+
+    public static void record( long millis )
+    {
+        int bucket = 0;
+        while ( bucket < BUCKET_LIMITS.length && millis > BUCKET_LIMITS[bucket] )
+        {
+            bucket++;
+        }
+
+        counts.incrementAndGet( bucket );
+        totalTime.addAndGet( millis );
+
+        long max = maxTime.get();
+        while ( millis > max && !maxTime.compareAndSet( max, millis ) )
+        {
+            max = maxTime.get();
+        }
+    }
+
+    public static int getBucketCount()
+    {
+        return counts.length();
+    }
+
+    public static String getBucketLabel( int bucket )
+    {
+        if ( bucket == BUCKET_LIMITS.length )
+        {
+            return "> " + BUCKET_LIMITS[BUCKET_LIMITS.length - 1] + "ms";
+        }
+
+        return "<= " + BUCKET_LIMITS[bucket] + "ms";
+    }
+
+    public static long getBucketSearches( int bucket )
+    {
+        return counts.get( bucket );
+    }
+
+    public static long getSearches()
+    {
+        long total = 0;
+        for ( int i = 0; i < counts.length(); i++ )
+        {
+            total += counts.get( i );
+        }
+
+        return total;
+    }
+
+    /**
+     * @return the mean search time in milliseconds, or -1 if there have been no searches
+     */
+    public static long getMeanTime()
+    {
+        long searches = getSearches();
+        if ( searches == 0 )
+        {
+            return -1;
+        }
+
+        return totalTime.get() / searches;
+    }
+
+    public static long getMaximumTime()
+    {
+        return maxTime.get();
+    }
+}
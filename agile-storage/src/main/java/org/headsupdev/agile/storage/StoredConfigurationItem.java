@@ -18,6 +18,8 @@
 
 package org.headsupdev.agile.storage;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.Type;
 
 import javax.persistence.Entity;
@@ -33,6 +35,7 @@ import javax.persistence.Id;
  */
 @Entity
 @Table( name = "Configuration" )
+@Cache( usage = CacheConcurrencyStrategy.READ_WRITE )
 public class StoredConfigurationItem
 {
     @Id
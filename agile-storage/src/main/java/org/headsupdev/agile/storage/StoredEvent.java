@@ -43,6 +43,9 @@ import org.headsupdev.agile.api.MenuLink;
 @Inheritance( strategy = InheritanceType.SINGLE_TABLE )
 @DiscriminatorColumn( name = "type", discriminatorType = DiscriminatorType.STRING )
 @DiscriminatorValue( "system" )
+@org.hibernate.annotations.Table( appliesTo = "Events", indexes = {
+    @Index( name = "projectTimeIndex", columnNames = { "project_id", "time", "id" } ),
+    @Index( name = "timeIdIndex", columnNames = { "time", "id" } ) } )
 public class StoredEvent
     implements Event
 {
@@ -60,6 +63,10 @@ public class StoredEvent
 
     private String subObjectId;
 
+    // the discriminator, mapped read only so it can be selected without loading the event
+    @Column( name = "type", insertable = false, updatable = false )
+    private String type;
+
     @Type( type = "text" )
     private String summary;
 
@@ -0,0 +1,171 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.storage;
+
+import org.hibernate.annotations.Index;
+import org.hibernate.annotations.Type;
+
+import javax.persistence.*;
+import java.util.Date;
+
+/**
+ * An outbound notification waiting to be delivered. Each row is either a configured project notifier that should
+ * be told about an event, a request to work out the subscribers for an event or a single subscriber that should be
+ * emailed about an event. Rows are deleted once they have been delivered so anything left in the table when the
+ * server starts still needs sending.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+@Entity
+@Table( name = "Notifications" )
+public class StoredNotification
+{
+    public static final String TYPE_NOTIFIER = "notifier";
+    public static final String TYPE_SUBSCRIPTIONS = "subscriptions";
+    public static final String TYPE_SUBSCRIBER = "subscriber";
+
+    @Id
+    @GeneratedValue
+    private long id;
+
+    private String type;
+
+    private long eventId;
+
+    private String projectId, notifierId, recipient;
+
+    private int attempts;
+
+    @Temporal( TemporalType.TIMESTAMP )
+    private Date created;
+
+    @Temporal( TemporalType.TIMESTAMP )
+    @Index( name = "notificationDueIndex" )
+    private Date due;
+
+    @Type( type = "text" )
+    private String lastError;
+
+    protected StoredNotification()
+    {
+    }
+
+    public StoredNotification( String type, long eventId, Date due )
+    {
+        this.type = type;
+        this.eventId = eventId;
+        this.created = new Date();
+        this.due = due;
+    }
+
+    public long getId()
+    {
+        return id;
+    }
+
+    public String getType()
+    {
+        return type;
+    }
+
+    public long getEventId()
+    {
+        return eventId;
+    }
+
+    public String getProjectId()
+    {
+        return projectId;
+    }
+
+    public void setProjectId( String projectId )
+    {
+        this.projectId = projectId;
+    }
+
+    public String getNotifierId()
+    {
+        return notifierId;
+    }
+
+    public void setNotifierId( String notifierId )
+    {
+        this.notifierId = notifierId;
+    }
+
+    public String getRecipient()
+    {
+        return recipient;
+    }
+
+    public void setRecipient( String recipient )
+    {
+        this.recipient = recipient;
+    }
+
+    public int getAttempts()
+    {
+        return attempts;
+    }
+
+    public Date getCreated()
+    {
+        return created;
+    }
+
+    public Date getDue()
+    {
+        return due;
+    }
+
+    public String getLastError()
+    {
+        return lastError;
+    }
+
+    /**
+     * Claim this notification for delivery by hiding it from the queue until the lease time.
+     */
+    public void lease( Date until )
+    {
+        due = until;
+    }
+
+    /**
+     * Record a failed delivery and push the next attempt back to the given time.
+     */
+    public void failed( String error, Date nextAttempt )
+    {
+        attempts++;
+        lastError = error;
+        due = nextAttempt;
+    }
+
+    public boolean equals( Object o )
+    {
+        return o instanceof StoredNotification && ( (StoredNotification) o ).getId() == id;
+    }
+
+    public int hashCode()
+    {
+        return (int) ( id ^ ( id >>> 32 ) );
+    }
+}
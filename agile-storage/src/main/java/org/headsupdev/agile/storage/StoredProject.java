@@ -22,6 +22,9 @@ import org.headsupdev.agile.api.*;
 import org.headsupdev.support.java.StringUtil;
 import org.headsupdev.support.java.Base64;
 import org.hibernate.search.annotations.*;
+import org.headsupdev.agile.storage.hibernate.SearchResultBridge;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.Proxy;
 
 import javax.persistence.*;
@@ -44,7 +47,9 @@ import java.io.File;
 @Inheritance( strategy = InheritanceType.SINGLE_TABLE )
 @DiscriminatorColumn( name = "type", discriminatorType = DiscriminatorType.STRING )
 @Indexed( index = "Projects" )
+@ClassBridge( name = "result", impl = SearchResultBridge.class, index = Index.NO, store = Store.YES )
 @Proxy( lazy = false )
+@Cache( usage = CacheConcurrencyStrategy.READ_WRITE )
 public class StoredProject
     implements Project, SearchResult
 {
@@ -72,6 +77,10 @@ public class StoredProject
     public static final ConfigurationItem CONFIGURATION_TIMETRACKING_IGNOREWEEKEND = new ConfigurationItem(
             "timetracking.ignoreweekend", true, "Ignore weekends in time tracking?",
             "Hide weekend days from graphs and do not include when calculating time requirements" );
+    public static final ConfigurationItem CONFIGURATION_INDEX_DIFFS = new ConfigurationItem(
+            "search.indexdiffs", false, "Include file differences in search?",
+            "If set then the content of each change is indexed so it can be searched, this can make the index very large. " +
+            "Changing this indexes the project's changes again in the background" );
 
     private static final String KEY_DEFAULTPROJECT_MEMBERS = "defaultprojectmembers";
     private static final String KEY_DEFAULTPROJECT_SUBSCRIBERS = "defaultprojectsubscribers";
@@ -20,6 +20,9 @@ package org.headsupdev.agile.storage;
 
 import org.headsupdev.agile.api.Role;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import javax.persistence.*;
 import java.util.HashSet;
 import java.util.Set;
@@ -36,6 +39,7 @@ import java.util.Set;
 @Inheritance( strategy = InheritanceType.SINGLE_TABLE )
 @DiscriminatorColumn( name = "type", discriminatorType = DiscriminatorType.STRING )
 @DiscriminatorValue( "default" )
+@Cache( usage = CacheConcurrencyStrategy.READ_WRITE )
 public class StoredRole
     implements Role
 {
@@ -46,6 +50,7 @@ public class StoredRole
 
     @org.hibernate.annotations.CollectionOfElements
     @JoinTable( name = "RolePermissions", joinColumns = @JoinColumn( name = "Role_id" ) )
+    @Cache( usage = CacheConcurrencyStrategy.READ_WRITE )
     private Set<String> permissions = new HashSet<String>();
 
     StoredRole()
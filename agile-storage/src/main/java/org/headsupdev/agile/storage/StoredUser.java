@@ -21,11 +21,16 @@ package org.headsupdev.agile.storage;
 import org.headsupdev.agile.api.util.HashUtil;
 import org.headsupdev.support.java.StringUtil;
 import org.headsupdev.agile.api.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.Type;
 import org.hibernate.search.annotations.Indexed;
 import org.hibernate.search.annotations.DocumentId;
 import org.hibernate.search.annotations.Field;
+import org.hibernate.search.annotations.ClassBridge;
+import org.hibernate.search.annotations.Store;
 import org.hibernate.search.annotations.Index;
+import org.headsupdev.agile.storage.hibernate.SearchResultBridge;
 
 import javax.persistence.*;
 import java.util.*;
@@ -40,6 +45,8 @@ import java.util.*;
 @Entity
 @Table( name = "Users" )
 @Indexed( index = "Users" )
+@ClassBridge( name = "result", impl = SearchResultBridge.class, index = Index.NO, store = Store.YES )
+@Cache( usage = CacheConcurrencyStrategy.READ_WRITE )
 public class StoredUser
     implements User, SearchResult
 {
@@ -70,13 +77,16 @@ public class StoredUser
     private Boolean hiddenInTimeTracking = Boolean.FALSE;
 
     @ManyToMany( targetEntity = StoredRole.class, fetch = FetchType.LAZY )
+    @Cache( usage = CacheConcurrencyStrategy.READ_WRITE )
     private Set<Role> roles = new HashSet<Role>();
 
     @ManyToMany( targetEntity = StoredProject.class, fetch = FetchType.LAZY )
+    @Cache( usage = CacheConcurrencyStrategy.READ_WRITE )
     private Set<Project> projects = new HashSet<Project>();
 
     @ManyToMany( targetEntity = StoredProject.class, fetch = FetchType.LAZY )
     @JoinTable( name = "Users_Subscriptions" )
+    @Cache( usage = CacheConcurrencyStrategy.READ_WRITE )
     private Set<Project> subscriptions = new HashSet<Project>();
 
     private transient Map<String, String> preferences = null;
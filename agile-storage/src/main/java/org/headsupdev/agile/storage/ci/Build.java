@@ -33,6 +33,10 @@ import org.hibernate.search.annotations.Indexed;
 import org.hibernate.search.annotations.FieldBridge;
 import org.hibernate.search.annotations.Field;
 import org.hibernate.search.annotations.DocumentId;
+import org.hibernate.search.annotations.ClassBridge;
+import org.hibernate.search.annotations.Store;
+import org.hibernate.search.annotations.Index;
+import org.headsupdev.agile.storage.hibernate.SearchResultBridge;
 
 /**
  * A single build for a project. It has an id and a status as well as other data.
@@ -45,6 +49,7 @@ import org.hibernate.search.annotations.DocumentId;
 @Entity
 @Table( name = "Builds" )
 @Indexed( index = "Builds" )
+@ClassBridge( name = "result", impl = SearchResultBridge.class, index = Index.NO, store = Store.YES )
 public class Build
     implements Serializable, SearchResult
 {
@@ -76,6 +81,8 @@ public class Build
     private Integer errors = 0;
     private Integer warnings = 0;
 
+    private Long workspaceTime, workspaceSaving;
+
     Build()
     {
     }
@@ -151,6 +158,32 @@ public class Build
         this.warnings = warnings;
     }
 
+    /**
+     * The time, in milliseconds, that it took to prepare the workspace for this build
+     */
+    public long getWorkspaceTime()
+    {
+        return workspaceTime == null ? 0 : workspaceTime;
+    }
+
+    public void setWorkspaceTime( long workspaceTime )
+    {
+        this.workspaceTime = workspaceTime;
+    }
+
+    /**
+     * The time, in milliseconds, that preparing the workspace saved compared to a full copy of the working directory
+     */
+    public long getWorkspaceSaving()
+    {
+        return workspaceSaving == null ? 0 : workspaceSaving;
+    }
+
+    public void setWorkspaceSaving( long workspaceSaving )
+    {
+        this.workspaceSaving = workspaceSaving;
+    }
+
     public Date getStartTime()
     {
         return startTime;
@@ -0,0 +1,145 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.headsupdev.agile.storage.ci;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.io.Serializable;
+
+/**
+ * The current build state of a project, kept up to date as builds are added and saved so that status lists do not
+ * have to search the build history. It records the latest build, the last successful build and how many builds
+ * have failed since then.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+@Entity
+@Table( name = "BuildSummaries" )
+public class BuildSummary
+    implements Serializable
+{
+    @Id
+    private String projectId;
+
+    private long latestBuildId;
+    private int status, previousStatus;
+    private String revision;
+
+    private Long lastSuccessId;
+    private String lastSuccessRevision;
+
+    private int failureStreak, previousFailureStreak;
+
+    BuildSummary()
+    {
+    }
+
+    public BuildSummary( String projectId )
+    {
+        this.projectId = projectId;
+    }
+
+    /**
+     * Update this summary with the current state of a build. Builds older than the latest one recorded are ignored
+     * and repeated saves of the same build are safe.
+     *
+     * @param build The build that has been added or saved
+     */
+    public void update( Build build )
+    {
+        if ( latestBuildId > build.getId() )
+        {
+            return;
+        }
+
+        if ( latestBuildId < build.getId() )
+        {
+            previousStatus = status;
+            previousFailureStreak = failureStreak;
+            latestBuildId = build.getId();
+        }
+        status = build.getStatus();
+        revision = build.getRevision();
+
+        switch ( status )
+        {
+            case Build.BUILD_SUCCEEDED:
+                failureStreak = 0;
+                lastSuccessId = build.getId();
+                lastSuccessRevision = build.getRevision();
+                break;
+            case Build.BUILD_FAILED:
+            case Build.BUILD_CANCELLED:
+                failureStreak = previousFailureStreak + 1;
+                break;
+            default:
+                failureStreak = previousFailureStreak;
+        }
+    }
+
+    public String getProjectId()
+    {
+        return projectId;
+    }
+
+    public long getLatestBuildId()
+    {
+        return latestBuildId;
+    }
+
+    public int getStatus()
+    {
+        return status;
+    }
+
+    /**
+     * @return the status of the build before the latest one, or 0 if there was none
+     */
+    public int getPreviousStatus()
+    {
+        return previousStatus;
+    }
+
+    public String getRevision()
+    {
+        return revision;
+    }
+
+    public Long getLastSuccessId()
+    {
+        return lastSuccessId;
+    }
+
+    public String getLastSuccessRevision()
+    {
+        return lastSuccessRevision;
+    }
+
+    /**
+     * @return the number of failed or cancelled builds since the last successful build
+     */
+    public int getFailureStreak()
+    {
+        return failureStreak;
+    }
+}
@@ -33,6 +33,7 @@ import java.io.Serializable;
 
 import org.hibernate.annotations.Type;
 import org.hibernate.search.annotations.*;
+import org.headsupdev.agile.storage.hibernate.SearchResultBridge;
 
 /**
  * This class represents a single document on the system and provides helper methods for editing and rendering.
@@ -44,6 +45,7 @@ import org.hibernate.search.annotations.*;
 @Entity
 @Table( name = "Documents" )
 @Indexed( index = "Documents" )
+@ClassBridge( name = "result", impl = SearchResultBridge.class, index = Index.NO, store = Store.YES )
 public class Document
     implements Serializable, SearchResult, Comparable<Document>
 {
@@ -29,11 +29,15 @@ import javax.persistence.*;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.util.Date;
 
 import org.hibernate.search.annotations.*;
+import org.headsupdev.agile.storage.hibernate.SearchResultBridge;
 
 /**
- * A simple file entry to hold information about a file within a project
+ * A simple file entry to hold information about a file within a project.
+ * The entry also records the directory it is in and the author and date of the last change so a directory can be
+ * listed with a single indexed query. Entries written before 2.0 have a null directory until they are re-indexed.
  *
  * @author Andrew Williams
  * @version $Id$
@@ -41,7 +45,10 @@ import org.hibernate.search.annotations.*;
  */
 @Entity
 @Table( name = "Files" )
+@org.hibernate.annotations.Table( appliesTo = "Files", indexes = {
+    @org.hibernate.annotations.Index( name = "fileDirectoryIndex", columnNames = { "project_id", "directory" } ) } )
 @Indexed( index = "Files" )
+@ClassBridge( name = "result", impl = SearchResultBridge.class, index = Index.NO, store = Store.YES )
 public class File
     implements Serializable, SearchResult
 {
@@ -54,14 +61,46 @@ public class File
     @Field
     String revision;
 
+    String directory;
+
+    String author;
+
+    @Temporal( TemporalType.TIMESTAMP )
+    Date date;
+
     public File()
     {
     }
 
     public File( String path, String revision, Project project )
+    {
+        this( path, revision, null, null, project );
+    }
+
+    public File( String path, String revision, String author, Date date, Project project )
     {
         this.name = new NameProjectId( path, project );
         this.revision = revision;
+        this.directory = getDirectory( path );
+        this.author = author;
+        this.date = date;
+    }
+
+    /**
+     * Get the directory part of a file path, as stored in the directory column.
+     *
+     * @param path The path of a file relative to the root project
+     * @return the parent path of the file or "" if it is at the top level
+     */
+    public static String getDirectory( String path )
+    {
+        String parent = new java.io.File( path ).getParent();
+        if ( parent == null )
+        {
+            return "";
+        }
+
+        return parent;
     }
 
     public Project getProject()
@@ -79,6 +118,32 @@ public class File
         return revision;
     }
 
+    public String getDirectory()
+    {
+        return directory;
+    }
+
+    public void setDirectory( String directory )
+    {
+        this.directory = directory;
+    }
+
+    /**
+     * @return the author of the last change to this file or null if it was not recorded
+     */
+    public String getAuthor()
+    {
+        return author;
+    }
+
+    /**
+     * @return the date of the last change to this file or null if it was not recorded
+     */
+    public Date getDate()
+    {
+        return date;
+    }
+
     public String getIconPath() {
         java.io.File path = Manager.getStorageInstance().getWorkingDirectory( getProject() );
         java.io.File file = new java.io.File( path, getName() );
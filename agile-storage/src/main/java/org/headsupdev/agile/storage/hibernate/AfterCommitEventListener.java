@@ -0,0 +1,103 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.storage.hibernate;
+
+import org.hibernate.Transaction;
+import org.hibernate.event.PostDeleteEvent;
+import org.hibernate.event.PostDeleteEventListener;
+import org.hibernate.event.PostInsertEvent;
+import org.hibernate.event.PostInsertEventListener;
+import org.hibernate.event.PostUpdateEvent;
+import org.hibernate.event.PostUpdateEventListener;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
+/**
+ * A base for listeners that keep in memory state up to date with entity changes. The change is worked out when the
+ * entity is written but only applied once the transaction commits, so a change that is rolled back never gets in.
+ * Hibernate also runs post-commit listeners after a rollback, so these are registered for the plain post events.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public abstract class AfterCommitEventListener
+    implements PostInsertEventListener, PostUpdateEventListener, PostDeleteEventListener
+{
+    public void onPostInsert( PostInsertEvent event )
+    {
+        afterCommit( event.getSession().getTransaction(), inserted( event ) );
+    }
+
+    public void onPostUpdate( PostUpdateEvent event )
+    {
+        afterCommit( event.getSession().getTransaction(), updated( event ) );
+    }
+
+    public void onPostDelete( PostDeleteEvent event )
+    {
+        afterCommit( event.getSession().getTransaction(), deleted( event ) );
+    }
+
+    /**
+     * @return the change to apply once the insert has committed, or null if there is nothing to do
+     */
+    protected abstract Runnable inserted( PostInsertEvent event );
+
+    /**
+     * @return the change to apply once the update has committed, or null if there is nothing to do
+     */
+    protected abstract Runnable updated( PostUpdateEvent event );
+
+    /**
+     * @return the change to apply once the delete has committed, or null if there is nothing to do
+     */
+    protected abstract Runnable deleted( PostDeleteEvent event );
+
+    private void afterCommit( Transaction tx, final Runnable change )
+    {
+        if ( change == null )
+        {
+            return;
+        }
+
+        if ( !tx.isActive() )
+        {
+            // nothing to wait for, apply the change now
+            change.run();
+            return;
+        }
+
+        tx.registerSynchronization( new Synchronization()
+        {
+            public void beforeCompletion()
+            {
+            }
+
+            public void afterCompletion( int status )
+            {
+                if ( status == Status.STATUS_COMMITTED )
+                {
+                    change.run();
+                }
+            }
+        } );
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.headsupdev.agile.storage.hibernate;
+
+import org.hibernate.cache.Cache;
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.Timestamper;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A simple in-process cache region that holds at most a fixed number of entries, discarding the least recently
+ * used when full. Hits, misses and evictions are counted so they can be reported on the statistics page.
+ *
+ * @author Andrew Williams
+ * @since 2.0
+ */
+public class BoundedCache
+    implements Cache
+{
+    private final String regionName;
+    private final int maxSize;
+
+    private final LinkedHashMap<Object, Object> entries;
+    private long hits, misses, puts, evictions;
+
+    public BoundedCache( String regionName, int maxSize )
+    {
+        this.regionName = regionName;
+        this.maxSize = maxSize;
+
+        entries = new LinkedHashMap<Object, Object>( 16, 0.75f, true )
+        {
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<Object, Object> eldest )
+            {
+                if ( BoundedCache.this.maxSize > 0 && size() > BoundedCache.this.maxSize )
+                {
+                    evictions++;
+                    return true;
+                }
+
+                return false;
+            }
+        };
+    }
+
+    public synchronized Object read( Object key )
+        throws CacheException
+    {
+        return get( key );
+    }
+
+    public synchronized Object get( Object key )
+        throws CacheException
+    {
+        Object ret = entries.get( key );
+        if ( ret == null )
+        {
+            misses++;
+        }
+        else
+        {
+            hits++;
+        }
+
+        return ret;
+    }
+
+    public synchronized void put( Object key, Object value )
+        throws CacheException
+    {
+        puts++;
+        entries.put( key, value );
+    }
+
+    public void update( Object key, Object value )
+        throws CacheException
+    {
+        put( key, value );
+    }
+
+    public synchronized void remove( Object key )
+        throws CacheException
+    {
+        entries.remove( key );
+    }
+
+    public synchronized void clear()
+        throws CacheException
+    {
+        entries.clear();
+    }
+
+    public void destroy()
+        throws CacheException
+    {
+        clear();
+    }
+
+    public void lock( Object key )
+        throws CacheException
+    {
+        // locking is handled by the concurrency strategy
+    }
+
+    public void unlock( Object key )
+        throws CacheException
+    {
+    }
+
+    public long nextTimestamp()
+    {
+        return Timestamper.next();
+    }
+
+    public int getTimeout()
+    {
+        return Timestamper.ONE_MS * 60000;
+    }
+
+    public String getRegionName()
+    {
+        return regionName;
+    }
+
+    public long getSizeInMemory()
+    {
+        return -1;
+    }
+
+    public synchronized long getElementCountInMemory()
+    {
+        return entries.size();
+    }
+
+    public long getElementCountOnDisk()
+    {
+        return 0;
+    }
+
+    public synchronized Map toMap()
+    {
+        return new HashMap<Object, Object>( entries );
+    }
+
+    public int getMaximumSize()
+    {
+        return maxSize;
+    }
+
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    public synchronized long getPuts()
+    {
+        return puts;
+    }
+
+    public synchronized long getEvictions()
+    {
+        return evictions;
+    }
+
+    public synchronized void resetStatistics()
+    {
+        hits = misses = puts = evictions = 0;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.headsupdev.agile.storage.hibernate;
+
+import org.hibernate.cache.Cache;
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.CacheProvider;
+import org.hibernate.cache.Timestamper;
+import org.hibernate.cache.UpdateTimestampsCache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * The second level cache provider, handing out BoundedCache regions.
+ * The size of each region is read from "hibernate.cache.headsup.size.&lt;region name&gt;", falling back to
+ * "hibernate.cache.headsup.size".
+ * <p/>
+ * The session factory is rebuilt each time an application is loaded, so regions are kept across factories,
+ * with the same region instance being handed to old and new factories. This means a write through a session
+ * from an older factory still invalidates what the new one sees. Cached data is cleared each time a factory starts
+ * so no state is carried over from entity classes that may since have been reloaded.
+ *
+ * @author Andrew Williams
+ * @since 2.0
+ */
+public class BoundedCacheProvider
+    implements CacheProvider
+{
+    public static final String PROPERTY_SIZE = "hibernate.cache.headsup.size";
+    private static final int DEFAULT_SIZE = 1000;
+
+    private static final Map<String, BoundedCache> regions = new TreeMap<String, BoundedCache>();
+
+    public static List<BoundedCache> getRegions()
+    {
+        synchronized ( regions )
+        {
+            return Collections.unmodifiableList( new ArrayList<BoundedCache>( regions.values() ) );
+        }
+    }
+
+    public static void clearAll()
+    {
+        for ( BoundedCache region : getRegions() )
+        {
+            region.clear();
+        }
+    }
+
+    public Cache buildCache( String regionName, Properties properties )
+        throws CacheException
+    {
+        synchronized ( regions )
+        {
+            BoundedCache region = regions.get( regionName );
+            if ( region == null )
+            {
+                region = new BoundedCache( regionName, getRegionSize( regionName, properties ) );
+                regions.put( regionName, region );
+            }
+
+            return region;
+        }
+    }
+
+    public long nextTimestamp()
+    {
+        return Timestamper.next();
+    }
+
+    public void start( Properties properties )
+        throws CacheException
+    {
+        clearAll();
+    }
+
+    public void stop()
+    {
+    }
+
+    public boolean isMinimalPutsEnabledByDefault()
+    {
+        return false;
+    }
+
+    protected int getRegionSize( String regionName, Properties properties )
+    {
+        // dropping table timestamps could allow stale query results so that region is never bounded
+        if ( regionName.endsWith( UpdateTimestampsCache.class.getName() ) )
+        {
+            return 0;
+        }
+
+        String size = properties.getProperty( PROPERTY_SIZE + "." + regionName,
+                properties.getProperty( PROPERTY_SIZE ) );
+        if ( size == null )
+        {
+            return DEFAULT_SIZE;
+        }
+
+        try
+        {
+            return Integer.parseInt( size.trim() );
+        }
+        catch ( NumberFormatException e )
+        {
+            return DEFAULT_SIZE;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.headsupdev.agile.storage.hibernate;
+
+import org.headsupdev.agile.storage.HibernateStorage;
+import org.headsupdev.agile.storage.StoredConfigurationItem;
+import org.hibernate.Transaction;
+import org.hibernate.event.PostDeleteEvent;
+import org.hibernate.event.PostDeleteEventListener;
+import org.hibernate.event.PostInsertEvent;
+import org.hibernate.event.PostInsertEventListener;
+import org.hibernate.event.PostUpdateEvent;
+import org.hibernate.event.PostUpdateEventListener;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Collects the configuration items written in each transaction and publishes them as one new configuration
+ * snapshot once the transaction commits. Changes in a transaction that is rolled back are never published.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class ConfigurationEventListener
+    implements PostInsertEventListener, PostUpdateEventListener, PostDeleteEventListener
+{
+    private static final Map<Transaction, ConfigurationChanges> pending =
+            Collections.synchronizedMap( new WeakHashMap<Transaction, ConfigurationChanges>() );
+
+    public void onPostInsert( PostInsertEvent event )
+    {
+        if ( event.getEntity() instanceof StoredConfigurationItem )
+        {
+            StoredConfigurationItem item = (StoredConfigurationItem) event.getEntity();
+            getChanges( event.getSession().getTransaction() ).itemSet( item.getName(), item.getValue() );
+        }
+    }
+
+    public void onPostUpdate( PostUpdateEvent event )
+    {
+        if ( event.getEntity() instanceof StoredConfigurationItem )
+        {
+            StoredConfigurationItem item = (StoredConfigurationItem) event.getEntity();
+            getChanges( event.getSession().getTransaction() ).itemSet( item.getName(), item.getValue() );
+        }
+    }
+
+    public void onPostDelete( PostDeleteEvent event )
+    {
+        if ( event.getEntity() instanceof StoredConfigurationItem )
+        {
+            StoredConfigurationItem item = (StoredConfigurationItem) event.getEntity();
+            getChanges( event.getSession().getTransaction() ).itemRemoved( item.getName() );
+        }
+    }
+
+    private ConfigurationChanges getChanges( final Transaction tx )
+    {
+        if ( !tx.isActive() )
+        {
+            // nothing to wait for, publish as soon as the change is recorded
+            return new ConfigurationChanges();
+        }
+
+        synchronized ( pending )
+        {
+            ConfigurationChanges changes = pending.get( tx );
+            if ( changes == null )
+            {
+                final ConfigurationChanges newChanges = new ConfigurationChanges( true );
+                tx.registerSynchronization( new Synchronization()
+                {
+                    public void beforeCompletion()
+                    {
+                    }
+
+                    public void afterCompletion( int status )
+                    {
+                        pending.remove( tx );
+                        if ( status == Status.STATUS_COMMITTED )
+                        {
+                            newChanges.publish();
+                        }
+                    }
+                } );
+
+                changes = newChanges;
+                pending.put( tx, changes );
+            }
+
+            return changes;
+        }
+    }
+
+    static class ConfigurationChanges
+    {
+        private boolean deferred;
+        private Map<String, String> changed = new HashMap<String, String>();
+        private Set<String> removed = new HashSet<String>();
+
+        ConfigurationChanges()
+        {
+            this( false );
+        }
+
+        ConfigurationChanges( boolean deferred )
+        {
+            this.deferred = deferred;
+        }
+
+        synchronized void itemSet( String name, String value )
+        {
+            removed.remove( name );
+            changed.put( name, value );
+
+            if ( !deferred )
+            {
+                publish();
+            }
+        }
+
+        synchronized void itemRemoved( String name )
+        {
+            changed.remove( name );
+            removed.add( name );
+
+            if ( !deferred )
+            {
+                publish();
+            }
+        }
+
+        synchronized void publish()
+        {
+            HibernateStorage.publishConfiguration( changed, removed );
+        }
+    }
+}
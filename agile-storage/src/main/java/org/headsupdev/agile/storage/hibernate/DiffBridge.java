@@ -0,0 +1,68 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.storage.hibernate;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.headsupdev.agile.api.Project;
+import org.headsupdev.agile.storage.ScmChange;
+import org.headsupdev.agile.storage.StoredProject;
+import org.hibernate.search.bridge.FieldBridge;
+import org.hibernate.search.bridge.LuceneOptions;
+
+/**
+ * A class bridge that adds the diff of a change to the search index, only for projects that have diff indexing
+ * switched on. Diffs can be very large so they are left out of the index by default.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class DiffBridge
+    implements FieldBridge
+{
+    public void set( String name, Object value, Document document, LuceneOptions luceneOptions )
+    {
+        if ( !( value instanceof ScmChange ) )
+        {
+            return;
+        }
+
+        ScmChange change = (ScmChange) value;
+        if ( change.getSet() == null )
+        {
+            return;
+        }
+
+        Project project = change.getSet().getProject();
+        if ( project == null || !Boolean.parseBoolean( project.getConfigurationValue(
+                StoredProject.CONFIGURATION_INDEX_DIFFS ) ) )
+        {
+            return;
+        }
+
+        String diff = change.getDiff();
+        if ( diff != null )
+        {
+            Field field = new Field( name, diff, luceneOptions.getStore(), luceneOptions.getIndex() );
+            field.setBoost( luceneOptions.getBoost() );
+            document.add( field );
+        }
+    }
+}
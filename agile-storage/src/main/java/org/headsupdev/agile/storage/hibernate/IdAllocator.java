@@ -0,0 +1,253 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.storage.hibernate;
+
+import org.headsupdev.agile.api.Project;
+import org.headsupdev.agile.api.logging.Logger;
+import org.headsupdev.agile.api.Manager;
+import org.headsupdev.agile.storage.HibernateUtil;
+import org.hibernate.LockMode;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hands out the per project ids of IdProjectId entities (issues, milestones, documents, builds etc).
+ * Ids are reserved from the IdSequences table in blocks, each reservation runs in its own short transaction, and
+ * are then handed out from memory without locking. The first reservation for a sequence after startup is checked
+ * against the highest id already stored so existing data is numbered on from, and unused ids are returned to the
+ * table on shutdown so that a restart does not leave gaps.
+ * An id is not reused if the transaction that saved it is rolled back.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class IdAllocator
+{
+    private static final int BLOCK_SIZE = 20;
+
+    private static final ConcurrentMap<String, IdBlock> blocks = new ConcurrentHashMap<String, IdBlock>();
+
+    private static Logger log = Manager.getLogger( IdAllocator.class.getName() );
+
+    /**
+     * Give the id a new number if it does not have one yet.
+     *
+     * @param id The id of an entity about to be saved
+     * @param entityClass The class of the entity being saved
+     * @param session The session that is saving the entity
+     * @return true if a number was assigned, false if the id was already set
+     */
+    public static boolean assignId( IdProjectId id, Class entityClass, Session session )
+    {
+        if ( id == null || id.id != 0 )
+        {
+            return false;
+        }
+
+        id.id = nextId( entityClass.getName(), id.project, session );
+        return true;
+    }
+
+    /**
+     * Get the next id for an entity in a project.
+     *
+     * @param entityName The entity to number
+     * @param project The project the entity belongs to
+     * @param session The current session, used to find the highest stored id the first time a sequence is used.
+     *                Querying in the caller's session avoids waiting on the table locks it may hold.
+     * @return a new id that has not been handed out before
+     */
+    public static long nextId( String entityName, Project project, Session session )
+    {
+        String name = entityName + ":" + project.getId();
+        IdBlock block = blocks.get( name );
+        if ( block == null )
+        {
+            IdBlock created = new IdBlock( name, entityName, project.getId() );
+            block = blocks.putIfAbsent( name, created );
+            if ( block == null )
+            {
+                block = created;
+            }
+        }
+
+        return block.next( session );
+    }
+
+    /**
+     * Return all the reserved but unused ids to their sequences, called before the session factory is closed.
+     */
+    public static void releaseAll()
+    {
+        for ( IdBlock block : blocks.values() )
+        {
+            try
+            {
+                block.release();
+            }
+            catch ( RuntimeException e )
+            {
+                log.error( "Unable to release ids for " + block.name, e );
+            }
+        }
+    }
+
+    static class IdRange
+    {
+        final AtomicLong next;
+        final long limit;
+
+        IdRange( long start, long limit )
+        {
+            this.next = new AtomicLong( start );
+            this.limit = limit;
+        }
+    }
+
+    static class IdBlock
+    {
+        private final String name, entityName, projectId;
+        private final AtomicReference<IdRange> range = new AtomicReference<IdRange>( new IdRange( 0, 0 ) );
+        private boolean checked = false;
+
+        IdBlock( String name, String entityName, String projectId )
+        {
+            this.name = name;
+            this.entityName = entityName;
+            this.projectId = projectId;
+        }
+
+        long next( Session caller )
+        {
+            while ( true )
+            {
+                IdRange current = range.get();
+                long id = current.next.getAndIncrement();
+                if ( id < current.limit )
+                {
+                    return id;
+                }
+
+                synchronized ( this )
+                {
+                    // another thread may have refilled while we waited
+                    if ( range.get() == current )
+                    {
+                        long floor = 1;
+                        if ( !checked )
+                        {
+                            floor = getMaxStoredId( caller ) + 1;
+                        }
+
+                        long start = reserve( floor );
+                        checked = true;
+                        range.set( new IdRange( start, start + BLOCK_SIZE ) );
+                    }
+                }
+            }
+        }
+
+        private long getMaxStoredId( Session caller )
+        {
+            if ( caller == null )
+            {
+                return 0;
+            }
+
+            Long max = (Long) caller.createQuery( "select max(id.id) from " + entityName +
+                    " where id.project.id = :pid" ).setString( "pid", projectId ).uniqueResult();
+            return max == null ? 0 : max;
+        }
+
+        /**
+         * Reserve a block of ids from the sequence, in a transaction of its own so the row lock is held briefly.
+         *
+         * @param floor The lowest id that may be reserved, the sequence is moved on if it is behind the stored ids
+         * @return the first id in the reserved block
+         */
+        private long reserve( long floor )
+        {
+            Session session = HibernateUtil.openSession();
+            Transaction tx = session.beginTransaction();
+            try
+            {
+                IdSequence sequence = (IdSequence) session.get( IdSequence.class, name, LockMode.UPGRADE );
+                if ( sequence == null )
+                {
+                    sequence = new IdSequence( name, floor );
+                    session.save( sequence );
+                }
+
+                long start = Math.max( sequence.getNextId(), floor );
+                sequence.setNextId( start + BLOCK_SIZE );
+                tx.commit();
+
+                return start;
+            }
+            catch ( RuntimeException e )
+            {
+                tx.rollback();
+                throw e;
+            }
+            finally
+            {
+                session.close();
+            }
+        }
+
+        synchronized void release()
+        {
+            IdRange current = range.get();
+            range.set( new IdRange( 0, 0 ) );
+
+            // claim what is left so any thread still using the old range moves on to a new one
+            long unused = current.next.getAndSet( current.limit );
+            if ( unused >= current.limit )
+            {
+                return;
+            }
+
+            Session session = HibernateUtil.openSession();
+            Transaction tx = session.beginTransaction();
+            try
+            {
+                // only wind the sequence back if nothing has been reserved after our block
+                session.createQuery( "update IdSequence set nextId = :unused where name = :name and nextId = :limit" )
+                        .setLong( "unused", unused ).setString( "name", name ).setLong( "limit", current.limit )
+                        .executeUpdate();
+                tx.commit();
+            }
+            catch ( RuntimeException e )
+            {
+                tx.rollback();
+                throw e;
+            }
+            finally
+            {
+                session.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.headsupdev.agile.storage.hibernate;
+
+import org.headsupdev.agile.storage.HibernateStorage;
+import org.headsupdev.agile.storage.StoredProject;
+import org.hibernate.event.PostDeleteEvent;
+import org.hibernate.event.PostInsertEvent;
+import org.hibernate.event.PostUpdateEvent;
+
+/**
+ * Keeps the project hierarchy up to date with committed project changes that are not announced through the manager,
+ * such as a project being disabled or moved.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class ProjectEventListener
+    extends AfterCommitEventListener
+{
+    protected Runnable inserted( PostInsertEvent event )
+    {
+        return projectChanged( event.getEntity() );
+    }
+
+    protected Runnable updated( PostUpdateEvent event )
+    {
+        return projectChanged( event.getEntity() );
+    }
+
+    protected Runnable deleted( PostDeleteEvent event )
+    {
+        if ( !( event.getEntity() instanceof StoredProject ) )
+        {
+            return null;
+        }
+
+        final String id = ( (StoredProject) event.getEntity() ).getId();
+        return new Runnable()
+        {
+            public void run()
+            {
+                HibernateStorage.projectRemoved( id );
+            }
+        };
+    }
+
+    private Runnable projectChanged( Object entity )
+    {
+        if ( !( entity instanceof StoredProject ) )
+        {
+            return null;
+        }
+
+        final StoredProject project = (StoredProject) entity;
+        return new Runnable()
+        {
+            public void run()
+            {
+                HibernateStorage.projectChanged( project );
+            }
+        };
+    }
+}
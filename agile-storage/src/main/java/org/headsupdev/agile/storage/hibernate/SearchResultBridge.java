@@ -0,0 +1,149 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.storage.hibernate;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.headsupdev.agile.api.Project;
+import org.headsupdev.agile.api.SearchResult;
+import org.hibernate.search.bridge.FieldBridge;
+import org.hibernate.search.bridge.LuceneOptions;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A class bridge that stores the details needed to list a search result alongside the indexed fields. Searches can
+ * then project these fields instead of loading every matching entity from the database. The fields are stored but
+ * not indexed so they do not change what matches a query.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class SearchResultBridge
+    implements FieldBridge
+{
+    public static final String FIELD_TITLE = "result.title";
+    public static final String FIELD_LINK = "result.link";
+    public static final String FIELD_ICON = "result.icon";
+    public static final String FIELD_PROJECT = "result.project";
+    public static final String FIELD_SUMMARY = "result.summary";
+
+    private static final int SUMMARY_LENGTH = 300;
+    private static final String[] SUMMARY_METHODS = { "getBody", "getDescription", "getComment", "getContent" };
+
+    // the summary accessor for each class, a class with none maps to this bridge's own class as a marker
+    private static final Map<Class, Object> summaryMethods = new ConcurrentHashMap<Class, Object>();
+
+    public void set( String name, Object value, Document document, LuceneOptions luceneOptions )
+    {
+        if ( value == null )
+        {
+            return;
+        }
+
+        addField( document, FIELD_TITLE, value.toString() );
+        if ( value instanceof SearchResult )
+        {
+            addField( document, FIELD_LINK, ( (SearchResult) value ).getLink() );
+            addField( document, FIELD_ICON, ( (SearchResult) value ).getIconPath() );
+        }
+
+        Project project = getProject( value );
+        if ( project != null )
+        {
+            addField( document, FIELD_PROJECT, project.getId() );
+        }
+
+        String summary = getSummary( value );
+        if ( summary != null && summary.length() > SUMMARY_LENGTH )
+        {
+            summary = summary.substring( 0, SUMMARY_LENGTH ) + "...";
+        }
+        addField( document, FIELD_SUMMARY, summary );
+    }
+
+    private void addField( Document document, String name, String value )
+    {
+        if ( value != null )
+        {
+            document.add( new Field( name, value, Field.Store.YES, Field.Index.NO ) );
+        }
+    }
+
+    private Project getProject( Object value )
+    {
+        if ( value instanceof Project )
+        {
+            return (Project) value;
+        }
+
+        try
+        {
+            Method getProject = value.getClass().getMethod( "getProject" );
+            return (Project) getProject.invoke( value );
+        }
+        catch ( Exception e )
+        {
+            return null;
+        }
+    }
+
+    private String getSummary( Object value )
+    {
+        Object method = summaryMethods.get( value.getClass() );
+        if ( method == null )
+        {
+            method = getClass();
+            for ( String methodName : SUMMARY_METHODS )
+            {
+                try
+                {
+                    Method summary = value.getClass().getMethod( methodName );
+                    if ( String.class.equals( summary.getReturnType() ) )
+                    {
+                        method = summary;
+                        break;
+                    }
+                }
+                catch ( NoSuchMethodException e )
+                {
+                    // try the next one
+                }
+            }
+            summaryMethods.put( value.getClass(), method );
+        }
+
+        if ( !( method instanceof Method ) )
+        {
+            return null;
+        }
+
+        try
+        {
+            return (String) ( (Method) method ).invoke( value );
+        }
+        catch ( Exception e )
+        {
+            return null;
+        }
+    }
+}
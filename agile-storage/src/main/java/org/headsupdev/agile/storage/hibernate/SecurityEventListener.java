@@ -0,0 +1,72 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.headsupdev.agile.storage.hibernate;
+
+import org.headsupdev.agile.storage.HibernateStorage;
+import org.headsupdev.agile.storage.StoredRole;
+import org.headsupdev.agile.storage.StoredUser;
+import org.hibernate.event.PostDeleteEvent;
+import org.hibernate.event.PostInsertEvent;
+import org.hibernate.event.PostUpdateEvent;
+
+/**
+ * Announces committed changes to users and roles, such as a new password or a disabled account, so that anything
+ * caching logins or access decisions can drop them.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class SecurityEventListener
+    extends AfterCommitEventListener
+{
+    private static final Runnable SECURITY_CHANGED = new Runnable()
+    {
+        public void run()
+        {
+            HibernateStorage.securityChanged();
+        }
+    };
+
+    protected Runnable inserted( PostInsertEvent event )
+    {
+        return checkEntity( event.getEntity() );
+    }
+
+    protected Runnable updated( PostUpdateEvent event )
+    {
+        return checkEntity( event.getEntity() );
+    }
+
+    protected Runnable deleted( PostDeleteEvent event )
+    {
+        return checkEntity( event.getEntity() );
+    }
+
+    private Runnable checkEntity( Object entity )
+    {
+        if ( entity instanceof StoredUser || entity instanceof StoredRole )
+        {
+            return SECURITY_CHANGED;
+        }
+
+        return null;
+    }
+}
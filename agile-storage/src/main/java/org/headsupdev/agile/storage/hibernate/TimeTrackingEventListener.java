@@ -0,0 +1,149 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.headsupdev.agile.storage.hibernate;
+
+import org.headsupdev.agile.api.User;
+import org.headsupdev.agile.storage.DurationWorkedUtil;
+import org.headsupdev.agile.storage.issues.DurationWorked;
+import org.headsupdev.agile.storage.issues.Issue;
+import org.headsupdev.agile.storage.issues.Milestone;
+import org.hibernate.event.PostDeleteEvent;
+import org.hibernate.event.PostInsertEvent;
+import org.hibernate.event.PostUpdateEvent;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.proxy.HibernateProxy;
+
+/**
+ * Tells DurationWorkedUtil when the time tracking data behind its cached burndowns and velocities changes.
+ * The ids are read when the entity is written but the caches are only told once the change has committed, so the
+ * cached values are never rebuilt from uncommitted or rolled back data.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class TimeTrackingEventListener
+    extends AfterCommitEventListener
+{
+    protected Runnable inserted( PostInsertEvent event )
+    {
+        return entityChanged( event.getEntity(), event.getPersister(), event.getState(), null );
+    }
+
+    protected Runnable updated( PostUpdateEvent event )
+    {
+        return entityChanged( event.getEntity(), event.getPersister(), event.getState(), event.getOldState() );
+    }
+
+    protected Runnable deleted( PostDeleteEvent event )
+    {
+        return entityChanged( event.getEntity(), event.getPersister(), event.getDeletedState(), null );
+    }
+
+    private Runnable entityChanged( Object entity, EntityPersister persister, Object[] state, Object[] oldState )
+    {
+        if ( entity instanceof DurationWorked )
+        {
+            final IdProjectId issueId = (IdProjectId) getIdentifier( getProperty( persister, state, "issue" ) );
+            final User user = ( (DurationWorked) entity ).getUser();
+
+            return new Runnable()
+            {
+                public void run()
+                {
+                    DurationWorkedUtil.durationWorkedChanged( issueId, user );
+                }
+            };
+        }
+        else if ( entity instanceof Issue )
+        {
+            final IdProjectId internalId = ( (Issue) entity ).getInternalId();
+            final NameProjectId milestoneId =
+                    (NameProjectId) getIdentifier( getProperty( persister, state, "milestone" ) );
+            final NameProjectId oldMilestoneId =
+                    (NameProjectId) getIdentifier( getProperty( persister, oldState, "milestone" ) );
+
+            return new Runnable()
+            {
+                public void run()
+                {
+                    DurationWorkedUtil.issueChanged( internalId, milestoneId, oldMilestoneId );
+                }
+            };
+        }
+        else if ( entity instanceof Milestone )
+        {
+            final NameProjectId internalId = ( (Milestone) entity ).getInternalId();
+
+            return new Runnable()
+            {
+                public void run()
+                {
+                    DurationWorkedUtil.milestoneChanged( internalId );
+                }
+            };
+        }
+
+        return null;
+    }
+
+    private static Object getProperty( EntityPersister persister, Object[] state, String property )
+    {
+        if ( state == null )
+        {
+            return null;
+        }
+
+        String[] names = persister.getPropertyNames();
+        for ( int i = 0; i < names.length; i++ )
+        {
+            if ( names[i].equals( property ) )
+            {
+                return state[i];
+            }
+        }
+
+        return null;
+    }
+
+    private static Object getIdentifier( Object entity )
+    {
+        if ( entity == null )
+        {
+            return null;
+        }
+
+        // read the id from an uninitialised proxy rather than loading it inside the event
+        if ( entity instanceof HibernateProxy )
+        {
+            return ( (HibernateProxy) entity ).getHibernateLazyInitializer().getIdentifier();
+        }
+        if ( entity instanceof Issue )
+        {
+            return ( (Issue) entity ).getInternalId();
+        }
+        if ( entity instanceof Milestone )
+        {
+            return ( (Milestone) entity ).getInternalId();
+        }
+
+        return null;
+    }
+}
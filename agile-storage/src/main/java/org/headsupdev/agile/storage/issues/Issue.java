@@ -29,12 +29,15 @@ import org.headsupdev.agile.storage.StoredUser;
 import org.headsupdev.agile.storage.hibernate.IdProjectBridge;
 import org.headsupdev.agile.storage.hibernate.IdProjectId;
 import org.hibernate.annotations.Type;
+import org.hibernate.search.annotations.ClassBridge;
 import org.hibernate.search.annotations.DocumentId;
 import org.hibernate.search.annotations.Field;
 import org.hibernate.search.annotations.FieldBridge;
 import org.hibernate.search.annotations.Index;
 import org.hibernate.search.annotations.Indexed;
 import org.hibernate.search.annotations.IndexedEmbedded;
+import org.hibernate.search.annotations.Store;
+import org.headsupdev.agile.storage.hibernate.SearchResultBridge;
 
 import javax.persistence.AttributeOverride;
 import javax.persistence.AttributeOverrides;
@@ -64,6 +67,7 @@ import java.util.Set;
 @Entity
 @Table(name = "Issues")
 @Indexed(index = "Issues")
+@ClassBridge(name = "result", impl = SearchResultBridge.class, index = Index.NO, store = Store.YES)
 public class Issue
         implements Serializable, SearchResult
 {
@@ -25,12 +25,15 @@ import org.headsupdev.agile.storage.DurationWorkedUtil;
 import org.headsupdev.agile.storage.hibernate.NameProjectBridge;
 import org.headsupdev.agile.storage.hibernate.NameProjectId;
 import org.hibernate.annotations.Type;
+import org.hibernate.search.annotations.ClassBridge;
 import org.hibernate.search.annotations.DocumentId;
 import org.hibernate.search.annotations.Field;
 import org.hibernate.search.annotations.FieldBridge;
 import org.hibernate.search.annotations.Index;
 import org.hibernate.search.annotations.Indexed;
 import org.hibernate.search.annotations.IndexedEmbedded;
+import org.hibernate.search.annotations.Store;
+import org.headsupdev.agile.storage.hibernate.SearchResultBridge;
 
 import javax.persistence.EmbeddedId;
 import javax.persistence.Entity;
@@ -53,6 +56,7 @@ import java.util.Set;
 @Entity
 @Table(name = "Milestones")
 @Indexed(index = "Milestones")
+@ClassBridge(name = "result", impl = SearchResultBridge.class, index = Index.NO, store = Store.YES)
 public class Milestone
         implements Serializable, SearchResult
 {
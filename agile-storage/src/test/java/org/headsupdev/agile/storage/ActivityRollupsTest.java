@@ -0,0 +1,279 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.storage;
+
+import junit.framework.TestCase;
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests for counting the events stored before activity rollups were kept.
+ * The session is an in memory stand in that answers the queries ActivityRollups makes.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class ActivityRollupsTest
+    extends TestCase
+{
+    private EventStore store;
+    private Session session;
+
+    protected void setUp()
+        throws Exception
+    {
+        store = new EventStore();
+        session = store.getSession();
+    }
+
+    public void testBackfillCountsExistingEvents()
+    {
+        for ( int i = 0; i < 25; i++ )
+        {
+            store.addEvent( i % 2 == 0 ? "project" : "other", i % 5 );
+        }
+
+        assertEquals( "The backfill should not have started", 0, ActivityRollups.getBackfillProgress( session ) );
+        assertFalse( ActivityRollups.isBackfillComplete( session ) );
+
+        int batches = 0;
+        while ( ActivityRollups.backfill( session, 10 ) )
+        {
+            batches++;
+        }
+
+        assertEquals( 2, batches );
+        assertEquals( 25, ActivityRollups.getBackfillProgress( session ) );
+        assertTrue( ActivityRollups.isBackfillComplete( session ) );
+
+        assertEquals( 25, store.getTotal( ActivityRollup.PERIOD_DAY, null ) );
+        assertEquals( 25, store.getTotal( ActivityRollup.PERIOD_MONTH, null ) );
+        assertEquals( 13, store.getTotal( ActivityRollup.PERIOD_DAY, "project" ) );
+        assertEquals( 12, store.getTotal( ActivityRollup.PERIOD_DAY, "other" ) );
+    }
+
+    public void testBackfillCarriesOnFromProgress()
+    {
+        for ( int i = 0; i < 25; i++ )
+        {
+            store.addEvent( "project", 0 );
+        }
+        session.saveOrUpdate( new StoredConfigurationItem( ActivityRollups.CONFIG_BACKFILL_PROGRESS, "10" ) );
+
+        while ( ActivityRollups.backfill( session, 10 ) )
+        {
+        }
+
+        assertEquals( "Events counted before a restart were counted again", 15,
+                store.getTotal( ActivityRollup.PERIOD_DAY, "project" ) );
+    }
+
+    public void testBackfillStopsAtLimit()
+    {
+        for ( int i = 0; i < 25; i++ )
+        {
+            store.addEvent( "project", 0 );
+        }
+        // events after the limit are counted as they are saved
+        session.saveOrUpdate( new StoredConfigurationItem( ActivityRollups.CONFIG_BACKFILL_LIMIT, "20" ) );
+
+        while ( ActivityRollups.backfill( session, 50 ) )
+        {
+        }
+
+        assertEquals( 20, store.getTotal( ActivityRollup.PERIOD_DAY, "project" ) );
+        assertTrue( ActivityRollups.isBackfillComplete( session ) );
+    }
+
+    public void testNothingToBackfill()
+    {
+        assertTrue( ActivityRollups.isBackfillComplete( session ) );
+        assertFalse( ActivityRollups.backfill( session, 10 ) );
+        assertEquals( 0, store.getTotal( ActivityRollup.PERIOD_DAY, null ) );
+    }
+
+    /*
+     * Holds events, configuration items and rollups and answers the queries made by ActivityRollups.
+     * Transactions never complete, so the backfill limit is read from the store by every call.
+     */
+    private static class EventStore
+        implements InvocationHandler
+    {
+        private final List<Object[]> events = new ArrayList<Object[]>();
+        private final Map<String, StoredConfigurationItem> items = new HashMap<String, StoredConfigurationItem>();
+        private final List<ActivityRollup> rollups = new ArrayList<ActivityRollup>();
+
+        Session getSession()
+        {
+            return (Session) Proxy.newProxyInstance( getClass().getClassLoader(), new Class[]{ Session.class }, this );
+        }
+
+        void addEvent( String projectId, int daysAgo )
+        {
+            Calendar cal = new GregorianCalendar();
+            cal.add( Calendar.DATE, -daysAgo );
+            events.add( new Object[]{ (long) events.size() + 1, cal.getTime(), "issuecreate", "issues", projectId,
+                    "test" } );
+        }
+
+        long getTotal( int period, String projectId )
+        {
+            long total = 0;
+            for ( ActivityRollup rollup : rollups )
+            {
+                if ( rollup.getPeriod() == period &&
+                        ( projectId == null || projectId.equals( rollup.getProjectId() ) ) )
+                {
+                    total += rollup.getTotal();
+                }
+            }
+
+            return total;
+        }
+
+        public Object invoke( Object proxy, Method method, Object[] args )
+        {
+            String name = method.getName();
+            if ( name.equals( "get" ) )
+            {
+                return items.get( args[1] );
+            }
+            else if ( name.equals( "saveOrUpdate" ) )
+            {
+                StoredConfigurationItem item = (StoredConfigurationItem) args[0];
+                items.put( item.getName(), item );
+                return null;
+            }
+            else if ( name.equals( "save" ) )
+            {
+                rollups.add( (ActivityRollup) args[0] );
+                return null;
+            }
+            else if ( name.equals( "createQuery" ) )
+            {
+                return new QueryHandler( (String) args[0] ).getQuery();
+            }
+            else if ( name.equals( "getTransaction" ) )
+            {
+                return Proxy.newProxyInstance( getClass().getClassLoader(), new Class[]{ Transaction.class },
+                        new InvocationHandler()
+                        {
+                            public Object invoke( Object proxy, Method method, Object[] args )
+                            {
+                                return null;
+                            }
+                        } );
+            }
+
+            throw new UnsupportedOperationException( name );
+        }
+
+        private class QueryHandler
+            implements InvocationHandler
+        {
+            private final String hql;
+            private final Map<String, Object> params = new HashMap<String, Object>();
+            private int maxResults = Integer.MAX_VALUE;
+
+            QueryHandler( String hql )
+            {
+                this.hql = hql;
+            }
+
+            Query getQuery()
+            {
+                return (Query) Proxy.newProxyInstance( getClass().getClassLoader(), new Class[]{ Query.class }, this );
+            }
+
+            public Object invoke( Object proxy, Method method, Object[] args )
+            {
+                String name = method.getName();
+                if ( name.equals( "setMaxResults" ) )
+                {
+                    maxResults = (Integer) args[0];
+                    return proxy;
+                }
+                else if ( name.startsWith( "set" ) )
+                {
+                    params.put( (String) args[0], args[1] );
+                    return proxy;
+                }
+                else if ( name.equals( "uniqueResult" ) && hql.startsWith( "select max(e.id)" ) )
+                {
+                    return events.isEmpty() ? null : (Long) events.get( events.size() - 1 )[0];
+                }
+                else if ( name.equals( "list" ) && hql.startsWith( "select e.id" ) )
+                {
+                    List<Object[]> ret = new ArrayList<Object[]>();
+                    for ( Object[] event : events )
+                    {
+                        long id = (Long) event[0];
+                        if ( id > (Long) params.get( "after" ) && id <= (Long) params.get( "limit" ) &&
+                                ret.size() < maxResults )
+                        {
+                            ret.add( event );
+                        }
+                    }
+                    return ret;
+                }
+                else if ( name.equals( "executeUpdate" ) && hql.startsWith( "update ActivityRollup" ) )
+                {
+                    return increment();
+                }
+
+                throw new UnsupportedOperationException( name + " " + hql );
+            }
+
+            private int increment()
+            {
+                for ( int i = 0; i < rollups.size(); i++ )
+                {
+                    ActivityRollup r = rollups.get( i );
+                    if ( r.getPeriod() == (Integer) params.get( "period" ) &&
+                            r.getStart().equals( params.get( "start" ) ) &&
+                            r.getProjectId().equals( params.get( "pid" ) ) &&
+                            r.getApplicationId().equals( params.get( "appId" ) ) &&
+                            r.getType().equals( params.get( "type" ) ) &&
+                            r.getUsername().equals( params.get( "username" ) ) )
+                    {
+                        rollups.set( i, new ActivityRollup( r.getPeriod(), r.getStart(), r.getProjectId(),
+                                r.getApplicationId(), r.getType(), r.getUsername(),
+                                r.getTotal() + (Long) params.get( "amount" ) ) );
+                        return 1;
+                    }
+                }
+
+                return 0;
+            }
+        }
+    }
+}
@@ -25,6 +25,7 @@ import org.headsupdev.agile.api.User;
 import org.headsupdev.agile.storage.issues.Duration;
 import org.headsupdev.agile.storage.issues.DurationWorked;
 import org.headsupdev.agile.storage.issues.Issue;
+import org.headsupdev.support.java.DateUtil;
 import junit.framework.TestCase;
 
 import java.io.File;
@@ -315,6 +316,118 @@ public class DurationWorkedUtilTest
     }
 
 
+    public void testIssueEffortRequiredMatchesLastEstimateForDay()
+            throws Exception
+    {
+        Calendar calendar = Calendar.getInstance();
+        calendar.set( 2012, Calendar.MARCH, 28, 12, 0, 0 );   // wednesday 28th March 2012
+        Date created = calendar.getTime();
+
+        for ( boolean includeInInitial : new boolean[]{ true, false } )
+        {
+            Issue issue = new Issue( getProject( "true" ) );
+            issue.setCreated( created );
+            issue.setTimeEstimate( new Duration( 5 ) );
+            issue.setIncludeInInitialEstimates( includeInInitial );
+
+            // logged out of order with two estimates on one day and an entry that does not update the estimate
+            addDurationWorked( issue, created, 2, 1, 2 );
+            addDurationWorked( issue, created, -2, 1, 3 );
+            addDurationWorked( issue, created, 4, 1, 1 );
+            addDurationWorked( issue, created, 4, 1, 0 );
+            DurationWorked noEstimate = addDurationWorked( issue, created, 3, 1, 0 );
+            noEstimate.setUpdatedRequired( null );
+
+            assertEffortMatchesLastEstimate( issue, created, -4, 7 );
+        }
+    }
+
+    public void testIssueEffortRequiredWithoutWorkLogged()
+            throws Exception
+    {
+        Calendar calendar = Calendar.getInstance();
+        calendar.set( 2012, Calendar.MARCH, 28, 12, 0, 0 );
+        Date created = calendar.getTime();
+
+        Issue issue = new Issue( getProject( "true" ) );
+        issue.setCreated( created );
+        issue.setTimeEstimate( new Duration( 5 ) );
+        issue.setIncludeInInitialEstimates( false );
+
+        assertEffortMatchesLastEstimate( issue, created, -2, 2 );
+    }
+
+    public void testUserVelocityCached()
+    {
+        DurationWorkedUtil.cacheUserVelocity( "cached", DurationWorkedUtil.getVelocityVersion(), 2.5 );
+        assertEquals( 2.5, DurationWorkedUtil.getCachedUserVelocity( "cached" ), 0 );
+        assertNull( DurationWorkedUtil.getCachedUserVelocity( "unknown" ) );
+    }
+
+    public void testWorkLoggedDropsUserVelocity()
+    {
+        DurationWorkedUtil.cacheUserVelocity( "logger", DurationWorkedUtil.getVelocityVersion(), 2.5 );
+        DurationWorkedUtil.cacheUserVelocity( "other", DurationWorkedUtil.getVelocityVersion(), 1.5 );
+
+        DurationWorkedUtil.durationWorkedChanged( null, new StoredUser( "logger" ) );
+        assertNull( DurationWorkedUtil.getCachedUserVelocity( "logger" ) );
+        assertEquals( 1.5, DurationWorkedUtil.getCachedUserVelocity( "other" ), 0 );
+    }
+
+    public void testVelocityCalculatedDuringChangeNotCached()
+    {
+        long version = DurationWorkedUtil.getVelocityVersion();
+        // work logged by someone else while the velocity was being calculated
+        DurationWorkedUtil.durationWorkedChanged( null, new StoredUser( "other" ) );
+        assertTrue( DurationWorkedUtil.getVelocityVersion() > version );
+
+        DurationWorkedUtil.cacheUserVelocity( "stale", version, 2.5 );
+        assertNull( DurationWorkedUtil.getCachedUserVelocity( "stale" ) );
+
+        DurationWorkedUtil.cacheUserVelocity( "stale", DurationWorkedUtil.getVelocityVersion(), 3.5 );
+        assertEquals( 3.5, DurationWorkedUtil.getCachedUserVelocity( "stale" ), 0 );
+    }
+
+    private DurationWorked addDurationWorked( Issue issue, Date created, int dayOffset, double worked,
+                                              double required )
+    {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTime( created );
+        calendar.add( Calendar.DATE, dayOffset );
+
+        DurationWorked durationWorked = new DurationWorked();
+        durationWorked.setWorked( new Duration( worked ) );
+        durationWorked.setUpdatedRequired( new Duration( required ) );
+        durationWorked.setDay( calendar.getTime() );
+        durationWorked.setIssue( issue );
+        durationWorked.setUser( null );
+        issue.getTimeWorked().add( durationWorked );
+
+        return durationWorked;
+    }
+
+    private void assertEffortMatchesLastEstimate( Issue issue, Date created, int firstDay, int lastDay )
+    {
+        Calendar calendar = Calendar.getInstance();
+        Date[] days = new Date[ lastDay - firstDay + 1 ];
+        Date[] dayEnds = new Date[ days.length ];
+        for ( int i = 0; i < days.length; i++ )
+        {
+            calendar.setTime( created );
+            calendar.add( Calendar.DATE, firstDay + i );
+            days[ i ] = calendar.getTime();
+            dayEnds[ i ] = DateUtil.getEndOfDate( calendar, days[ i ] );
+        }
+
+        double[] effort = DurationWorkedUtil.getIssueEffortRequired( issue, dayEnds );
+        assertEquals( days.length, effort.length );
+        for ( int i = 0; i < days.length; i++ )
+        {
+            assertEquals( "day " + ( firstDay + i ), DurationWorkedUtil.lastEstimateForDay( issue, days[ i ] ).getHours(),
+                    effort[ i ], 0 );
+        }
+    }
+
     private Project getProject( final String ignoreWeekend )
     {
         return new Project()
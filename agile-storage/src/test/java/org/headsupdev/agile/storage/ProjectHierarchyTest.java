@@ -0,0 +1,168 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.headsupdev.agile.storage;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tests for the copy on write updates of the ProjectHierarchy index.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class ProjectHierarchyTest
+    extends TestCase
+{
+    private StoredProject parent, child, grandchild, other;
+    private ProjectHierarchy hierarchy;
+
+    protected void setUp()
+        throws Exception
+    {
+        parent = new StoredProject( "parent", "Parent" );
+        child = new StoredProject( "child", "child" );
+        child.setParent( parent );
+        grandchild = new StoredProject( "grandchild", "Grandchild" );
+        grandchild.setParent( child );
+        other = new StoredProject( "other", "Other" );
+
+        hierarchy = ProjectHierarchy.empty().withProject( other ).withProject( grandchild ).withProject( child )
+                .withProject( parent );
+    }
+
+    public void testLoad()
+    {
+        assertEquals( 4, hierarchy.getProjectCount() );
+        assertTrue( hierarchy.contains( "grandchild" ) );
+
+        // case insensitive name order
+        assertEquals( Arrays.asList( "child", "grandchild", "other", "parent" ), hierarchy.getProjectIds() );
+        assertEquals( Arrays.asList( "other", "parent" ), hierarchy.getRootIds( true ) );
+
+        assertEquals( "parent", hierarchy.getParentId( "child" ) );
+        assertEquals( "parent", hierarchy.getRootId( "grandchild" ) );
+        assertEquals( Collections.singletonList( "grandchild" ), hierarchy.getChildIds( "child" ) );
+        assertEquals( Arrays.asList( "parent", "child", "grandchild" ),
+                Arrays.asList( hierarchy.getTreeIds( "parent" ).toArray() ) );
+        assertTrue( hierarchy.isInTree( "parent", "grandchild" ) );
+        assertFalse( hierarchy.isInTree( "child", "parent" ) );
+    }
+
+    public void testAdd()
+    {
+        StoredProject added = new StoredProject( "added", "Added" );
+        added.setParent( parent );
+        ProjectHierarchy next = hierarchy.withProject( added );
+
+        assertEquals( 5, next.getProjectCount() );
+        assertEquals( Arrays.asList( "added", "child" ), next.getChildIds( "parent" ) );
+        assertTrue( next.isInTree( "parent", "added" ) );
+
+        // the original is unchanged
+        assertFalse( hierarchy.contains( "added" ) );
+        assertEquals( Collections.singletonList( "child" ), hierarchy.getChildIds( "parent" ) );
+    }
+
+    public void testMove()
+    {
+        child.setParent( other );
+        ProjectHierarchy next = hierarchy.withProject( child );
+
+        assertTrue( next.getChildIds( "parent" ).isEmpty() );
+        assertEquals( Collections.singletonList( "child" ), next.getChildIds( "other" ) );
+        assertEquals( "other", next.getRootId( "grandchild" ) );
+        assertTrue( next.isInTree( "other", "grandchild" ) );
+        assertFalse( next.isInTree( "parent", "grandchild" ) );
+
+        child.setParent( null );
+        next = next.withProject( child );
+        assertEquals( Arrays.asList( "child", "other", "parent" ), next.getRootIds( true ) );
+        assertEquals( "child", next.getRootId( "grandchild" ) );
+
+        assertEquals( "parent", hierarchy.getRootId( "grandchild" ) );
+    }
+
+    public void testRename()
+    {
+        child.setName( "A child" );
+        child.setParent( null );
+        ProjectHierarchy next = hierarchy.withProject( child );
+
+        assertEquals( Arrays.asList( "child", "grandchild", "other", "parent" ), next.getProjectIds() );
+        child.setName( "Z child" );
+        next = next.withProject( child );
+        assertEquals( Arrays.asList( "grandchild", "other", "parent", "child" ), next.getProjectIds() );
+    }
+
+    public void testRemove()
+    {
+        Map<String, Set<String>> members = new HashMap<String, Set<String>>();
+        members.put( "child", Collections.singleton( "user" ) );
+        members.put( "other", Collections.singleton( "user" ) );
+        ProjectHierarchy next = hierarchy.withMembers( members ).withoutProject( "child" );
+
+        assertFalse( next.contains( "child" ) );
+        assertTrue( next.getChildIds( "parent" ).isEmpty() );
+        assertFalse( next.isInTree( "parent", "grandchild" ) );
+        // orphans are treated as roots until their parent is updated
+        assertEquals( Arrays.asList( "grandchild", "other", "parent" ), next.getRootIds( true ) );
+
+        assertTrue( next.getMemberUsernames( "child" ).isEmpty() );
+        assertEquals( Collections.singleton( "other" ), next.getProjectIds( new StoredUser( "user" ) ) );
+
+        assertTrue( hierarchy.contains( "child" ) );
+    }
+
+    public void testDisabled()
+    {
+        other.setDisabled( true );
+        ProjectHierarchy next = hierarchy.withProject( other );
+
+        assertTrue( next.isDisabled( "other" ) );
+        assertEquals( Collections.singletonList( "parent" ), next.getRootIds( false ) );
+        assertEquals( Arrays.asList( "other", "parent" ), next.getRootIds( true ) );
+        assertFalse( hierarchy.isDisabled( "other" ) );
+    }
+
+    public void testMembers()
+    {
+        Map<String, Set<String>> members = new HashMap<String, Set<String>>();
+        members.put( "parent", new HashSet<String>( Arrays.asList( "user1", "user2" ) ) );
+        members.put( "child", Collections.singleton( "user1" ) );
+        ProjectHierarchy next = hierarchy.withMembers( members );
+
+        assertEquals( new HashSet<String>( Arrays.asList( "user1", "user2" ) ), next.getMemberUsernames( "parent" ) );
+        assertEquals( new HashSet<String>( Arrays.asList( "parent", "child" ) ),
+                next.getProjectIds( new StoredUser( "user1" ) ) );
+        assertTrue( next.getProjectIds( new StoredUser( "user3" ) ).isEmpty() );
+
+        // project changes keep the members
+        assertEquals( Collections.singleton( "user1" ), next.withProject( child ).getMemberUsernames( "child" ) );
+        assertTrue( hierarchy.getMemberUsernames( "parent" ).isEmpty() );
+    }
+}
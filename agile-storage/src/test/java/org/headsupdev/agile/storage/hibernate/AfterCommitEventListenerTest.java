@@ -0,0 +1,172 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.storage.hibernate;
+
+import junit.framework.TestCase;
+import org.hibernate.Transaction;
+import org.hibernate.event.EventSource;
+import org.hibernate.event.PostDeleteEvent;
+import org.hibernate.event.PostInsertEvent;
+import org.hibernate.event.PostUpdateEvent;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests that entity changes are only applied once their transaction commits
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class AfterCommitEventListenerTest
+    extends TestCase
+{
+    private List<Synchronization> synchronizations;
+    private boolean active;
+    private EventSource session;
+
+    private List<String> applied;
+    private AfterCommitEventListener listener;
+
+    protected void setUp()
+        throws Exception
+    {
+        synchronizations = new ArrayList<Synchronization>();
+        active = true;
+        applied = new ArrayList<String>();
+        listener = new RecordingListener();
+
+        final Transaction tx = (Transaction) Proxy.newProxyInstance( getClass().getClassLoader(),
+                new Class[]{ Transaction.class }, new InvocationHandler()
+        {
+            public Object invoke( Object proxy, Method method, Object[] args )
+            {
+                if ( method.getName().equals( "isActive" ) )
+                {
+                    return active;
+                }
+                if ( method.getName().equals( "registerSynchronization" ) )
+                {
+                    synchronizations.add( (Synchronization) args[0] );
+                }
+                return null;
+            }
+        } );
+        session = (EventSource) Proxy.newProxyInstance( getClass().getClassLoader(),
+                new Class[]{ EventSource.class }, new InvocationHandler()
+        {
+            public Object invoke( Object proxy, Method method, Object[] args )
+            {
+                if ( method.getName().equals( "getTransaction" ) )
+                {
+                    return tx;
+                }
+                throw new UnsupportedOperationException( method.getName() );
+            }
+        } );
+    }
+
+    public void testAppliedOnCommit()
+    {
+        listener.onPostInsert( new PostInsertEvent( "inserted", 1L, null, null, session ) );
+        listener.onPostUpdate( new PostUpdateEvent( "updated", 2L, null, null, null, session ) );
+        listener.onPostDelete( new PostDeleteEvent( "deleted", 3L, null, null, session ) );
+        assertTrue( "Changes were applied before the commit", applied.isEmpty() );
+
+        complete( Status.STATUS_COMMITTED );
+        assertEquals( 3, applied.size() );
+        assertTrue( applied.contains( "inserted" ) );
+        assertTrue( applied.contains( "updated" ) );
+        assertTrue( applied.contains( "deleted" ) );
+    }
+
+    public void testNotAppliedOnRollback()
+    {
+        listener.onPostUpdate( new PostUpdateEvent( "updated", 2L, null, null, null, session ) );
+        listener.onPostDelete( new PostDeleteEvent( "deleted", 3L, null, null, session ) );
+
+        complete( Status.STATUS_ROLLEDBACK );
+        assertTrue( "Rolled back changes were applied", applied.isEmpty() );
+    }
+
+    public void testAppliedAtOnceWithoutTransaction()
+    {
+        active = false;
+        listener.onPostUpdate( new PostUpdateEvent( "updated", 2L, null, null, null, session ) );
+
+        assertEquals( 1, applied.size() );
+        assertTrue( synchronizations.isEmpty() );
+    }
+
+    public void testIgnoredChangesAreNotRegistered()
+    {
+        listener.onPostInsert( new PostInsertEvent( new Object(), 1L, null, null, session ) );
+        assertTrue( synchronizations.isEmpty() );
+    }
+
+    private void complete( int status )
+    {
+        for ( Synchronization synchronization : synchronizations )
+        {
+            synchronization.beforeCompletion();
+            synchronization.afterCompletion( status );
+        }
+    }
+
+    private class RecordingListener
+        extends AfterCommitEventListener
+    {
+        protected Runnable inserted( PostInsertEvent event )
+        {
+            return record( event.getEntity() );
+        }
+
+        protected Runnable updated( PostUpdateEvent event )
+        {
+            return record( event.getEntity() );
+        }
+
+        protected Runnable deleted( PostDeleteEvent event )
+        {
+            return record( event.getEntity() );
+        }
+
+        private Runnable record( final Object entity )
+        {
+            if ( !( entity instanceof String ) )
+            {
+                return null;
+            }
+
+            return new Runnable()
+            {
+                public void run()
+                {
+                    applied.add( (String) entity );
+                }
+            };
+        }
+    }
+}
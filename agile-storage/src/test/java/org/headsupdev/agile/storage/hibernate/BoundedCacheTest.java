@@ -0,0 +1,117 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.headsupdev.agile.storage.hibernate;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the eviction and statistics of the bounded cache regions
+ *
+ * @author Andrew Williams
+ * @since 2.0
+ */
+public class BoundedCacheTest
+        extends TestCase
+{
+    public void testEvictsLeastRecentlyUsed()
+    {
+        BoundedCache cache = new BoundedCache( "test", 2 );
+        cache.put( "a", "1" );
+        cache.put( "b", "2" );
+
+        // reading "a" makes "b" the least recently used
+        assertEquals( "1", cache.get( "a" ) );
+        cache.put( "c", "3" );
+
+        assertEquals( 2, cache.getElementCountInMemory() );
+        assertNull( "Least recently used entry should be evicted", cache.get( "b" ) );
+        assertEquals( "1", cache.get( "a" ) );
+        assertEquals( "3", cache.get( "c" ) );
+        assertEquals( 1, cache.getEvictions() );
+    }
+
+    public void testUnboundedWhenNoMaximum()
+    {
+        BoundedCache cache = new BoundedCache( "test", 0 );
+        for ( int i = 0; i < 100; i++ )
+        {
+            cache.put( i, i );
+        }
+
+        assertEquals( 100, cache.getElementCountInMemory() );
+        assertEquals( 0, cache.getEvictions() );
+    }
+
+    public void testReplacingIsNotEviction()
+    {
+        BoundedCache cache = new BoundedCache( "test", 1 );
+        cache.put( "a", "1" );
+        cache.update( "a", "2" );
+
+        assertEquals( "2", cache.get( "a" ) );
+        assertEquals( 0, cache.getEvictions() );
+        assertEquals( 2, cache.getPuts() );
+    }
+
+    public void testHitsAndMisses()
+    {
+        BoundedCache cache = new BoundedCache( "test", 10 );
+        cache.put( "a", "1" );
+
+        cache.get( "a" );
+        cache.read( "a" );
+        cache.get( "missing" );
+
+        assertEquals( 2, cache.getHits() );
+        assertEquals( 1, cache.getMisses() );
+        assertEquals( 1, cache.getPuts() );
+
+        cache.remove( "a" );
+        assertNull( cache.get( "a" ) );
+        assertEquals( 2, cache.getMisses() );
+    }
+
+    public void testResetStatistics()
+    {
+        BoundedCache cache = new BoundedCache( "test", 1 );
+        cache.put( "a", "1" );
+        cache.put( "b", "2" );
+        cache.get( "a" );
+        cache.get( "b" );
+
+        cache.resetStatistics();
+        assertEquals( 0, cache.getHits() );
+        assertEquals( 0, cache.getMisses() );
+        assertEquals( 0, cache.getPuts() );
+        assertEquals( 0, cache.getEvictions() );
+        assertEquals( "Resetting statistics should keep the entries", "2", cache.get( "b" ) );
+    }
+
+    public void testClear()
+    {
+        BoundedCache cache = new BoundedCache( "test", 10 );
+        cache.put( "a", "1" );
+        cache.put( "b", "2" );
+        cache.clear();
+
+        assertEquals( 0, cache.getElementCountInMemory() );
+        assertTrue( cache.toMap().isEmpty() );
+    }
+}
@@ -69,6 +69,7 @@ public abstract class AbstractApplication
     public void addEvent( Event event, boolean notify )
     {
         Manager.getStorageInstance().addEvent( event );
+        CachedImageResource.invalidate( event );
 
         if ( notify )
         {
@@ -18,20 +18,30 @@
 
 package org.headsupdev.agile.web;
 
+import org.headsupdev.agile.api.Event;
 import org.headsupdev.agile.api.HeadsUpConfiguration;
+import org.headsupdev.agile.api.Manager;
+import org.headsupdev.agile.api.Project;
+import org.apache.wicket.MetaDataKey;
+import org.apache.wicket.RequestCycle;
 import org.apache.wicket.markup.html.image.resource.DynamicImageResource;
+import org.apache.wicket.protocol.http.WebRequest;
+import org.apache.wicket.protocol.http.WebResponse;
 import org.apache.wicket.util.time.Time;
-import org.apache.wicket.util.value.ValueMap;
 
+import javax.servlet.http.HttpServletResponse;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.Serializable;
-import java.util.Date;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.Callable;
 
 /**
- * TODO Document me!
+ * A dynamic image that is drawn once and then served from the shared ImageCache until it expires or the data
+ * behind it changes. Subclasses list the tags that their image depends on, adding an event invalidates the tags for
+ * its project (and the parents of that project) and for user activity. Responses carry an ETag so browsers can
+ * revalidate an image and receive a 304 if it has not changed.
  *
  * @author Andrew Williams
  * @version $Id$
@@ -41,104 +51,134 @@ public abstract class CachedImageResource
         extends DynamicImageResource //PlexusImageResource
         implements Serializable
 {
-    private transient Set<CachedResource> resources;
+    public static final String TAG_USER_ACTIVITY = "users";
 
-    @Override
-    protected ResourceState getResourceState()
+    // parameters that do not change the image
+    private static final Set<String> IGNORED_PARAMETERS = new HashSet<String>( Arrays.asList( "silent" ) );
+
+    private static final MetaDataKey<ImageCache.Image> REQUEST_IMAGE = new MetaDataKey<ImageCache.Image>()
     {
-        CachedResource res = getCachedResource();
-        if ( res == null )
-        {
-            // never modified
-            setLastModifiedTime( Time.milliseconds( 0 ) );
-        }
-        else
+    };
+
+    /**
+     * Invalidate the cached images that may be affected by a new event.
+     */
+    public static void invalidate( Event event )
+    {
+        List<String> tags = new ArrayList<String>();
+        tags.add( TAG_USER_ACTIVITY );
+
+        if ( event.getProject() != null )
         {
-            setLastModifiedTime( Time.milliseconds( res.getCached().getTime() ) );
+            try
+            {
+                Project project = Manager.getStorageInstance().getProject( event.getProject().getId() );
+                while ( project != null )
+                {
+                    tags.add( getProjectTag( project ) );
+                    project = project.getParent();
+                }
+            }
+            catch ( RuntimeException e )
+            {
+                // could not walk the project tree, be safe
+                ImageCache.get().clear();
+            }
         }
 
-        return super.getResourceState();
+        ImageCache.get().invalidate( tags );
     }
 
-    private synchronized CachedResource getCachedResource()
+    public static String getProjectTag( Project project )
     {
-        Set<CachedResource> remove = new HashSet<CachedResource>();
-        if ( resources == null )
-        {
-            resources = new HashSet<CachedResource>();
-        }
+        return "project:" + project.getId();
+    }
 
-        try
+    @Override
+    protected ResourceState getResourceState()
+    {
+        final ResourceState state = super.getResourceState();
+        final ImageCache.Image image = getRequestImage();
+        final boolean notModified = isNotModified( image );
+
+        return new ResourceState()
         {
-            for ( CachedResource resource : resources )
+            @Override
+            public Time lastModifiedTime()
             {
-                if ( hasResourceExpired( resource ) )
-                {
-                    remove.add( resource );
-                    continue;
-                }
-
-                ValueMap params = resource.getParams();
-                boolean somenull = ( params == null || getParameters() == null );
-                boolean matches = ( params == null && getParameters() == null );
+                return Time.milliseconds( image.getCreated() );
+            }
 
-                if ( !matches && !somenull )
+            @Override
+            public byte[] getData()
+            {
+                if ( notModified )
                 {
-                    if ( params.size() == getParameters().size() )
-                    {
-                        matches = true;
-                        for ( Object key : params.keySet() )
-                        {
-                            if ( !params.get( key ).equals( getParameters().get( key ) ) )
-                            {
-                                matches = false;
-                                break;
-                            }
-                        }
-                    }
-                    else
-                    {
-                        matches = false;
-                    }
+                    return new byte[0];
                 }
 
-                if ( matches )
-                {
-                    return resource;
-                }
+                return image.getData();
             }
-        }
-        finally
-        {
-            resources.removeAll( remove );
-        }
 
-        return null;
+            @Override
+            public String getContentType()
+            {
+                return state.getContentType();
+            }
+        };
     }
 
-    synchronized protected byte[] getImageData()
+    @Override
+    protected void setHeaders( WebResponse response )
     {
-        CachedResource cached = getCachedResource();
-        if ( cached != null )
+        super.setHeaders( response );
+
+        ImageCache.Image image = getRequestImage();
+        response.setHeader( "ETag", image.getETag() );
+        if ( isNotModified( image ) )
         {
-            return cached.getData();
+            response.getHttpServletResponse().setStatus( HttpServletResponse.SC_NOT_MODIFIED );
         }
+    }
+
+    protected byte[] getImageData()
+    {
+        ImageCache.Image image = ImageCache.get().getImage( getCacheKey(), getCacheTags(), getExpireTimeout(),
+                new Callable<byte[]>()
+                {
+                    public byte[] call()
+                    {
+                        return createImageData();
+                    }
+                } );
+
+        RequestCycle.get().setMetaData( REQUEST_IMAGE, image );
+        return image.getData();
+    }
 
+    /**
+     * Draw the image, by default this creates an image of the specified width and height and calls renderImage().
+     * This is only called when there is no current copy of the image in the cache.
+     *
+     * @return the image data to cache and pass back to the client
+     */
+    protected byte[] createImageData()
+    {
         BufferedImage img = new BufferedImage( getWidth(), getHeight(), BufferedImage.TYPE_INT_RGB );
         Graphics g = img.createGraphics();
 
         renderImage( g );
 
-        byte[] data = toImageData( img );
-        resources.add( new CachedResource( getParameters(), new Date(), data ) );
-
-        return data;
+        return toImageData( img );
     }
 
-    public boolean hasResourceExpired( CachedResource resource )
+    /**
+     * The tags that, when invalidated, mean this image needs to be drawn again. By default images are only
+     * refreshed when they expire.
+     */
+    protected Collection<String> getCacheTags()
     {
-        long expires = resource.getCached().getTime() + getExpireTimeout();
-        return System.currentTimeMillis() > expires;
+        return Collections.emptyList();
     }
 
     public long getExpireTimeout()
@@ -147,6 +187,11 @@ public abstract class CachedImageResource
         {
             return 1;
         }
+        if ( !getCacheTags().isEmpty() )
+        {
+            // changes are signalled through the tags, expiring just lets the dates on the image move on
+            return 1000 * 60 * 60;
+        }
         return 1000 * 60;
     }
 
@@ -172,33 +217,50 @@ public abstract class CachedImageResource
     protected void renderImage( Graphics g )
     {
     }
-}
-
-class CachedResource
-{
-    private ValueMap params;
-    private Date cached;
-    private byte[] data;
 
-    CachedResource( ValueMap params, Date cached, byte[] data )
+    private String getCacheKey()
     {
-        this.params = params;
-        this.cached = cached;
-        this.data = data;
-    }
+        StringBuilder key = new StringBuilder( getClass().getName() );
+        if ( getParameters() != null )
+        {
+            // sort the parameters so the same image requested in a different order is found
+            SortedMap<String, String> params = new TreeMap<String, String>();
+            for ( Object name : getParameters().keySet() )
+            {
+                if ( !IGNORED_PARAMETERS.contains( name ) )
+                {
+                    params.put( String.valueOf( name ), getParameters().getString( (String) name ) );
+                }
+            }
 
-    public ValueMap getParams()
-    {
-        return params;
+            for ( Map.Entry<String, String> param : params.entrySet() )
+            {
+                key.append( '&' ).append( param.getKey() ).append( '=' ).append( param.getValue() );
+            }
+        }
+
+        return key.toString();
     }
 
-    public Date getCached()
+    /*
+     * The image for this request, looked up (and checked against any permissions in getImageData) only once.
+     */
+    private ImageCache.Image getRequestImage()
     {
-        return cached;
+        ImageCache.Image image = RequestCycle.get().getMetaData( REQUEST_IMAGE );
+        if ( image == null )
+        {
+            getImageData();
+            image = RequestCycle.get().getMetaData( REQUEST_IMAGE );
+        }
+
+        return image;
     }
 
-    public byte[] getData()
+    private boolean isNotModified( ImageCache.Image image )
     {
-        return data;
+        String match = ( (WebRequest) RequestCycle.get().getRequest() ).getHttpServletRequest().getHeader(
+                "If-None-Match" );
+        return match != null && match.equals( image.getETag() );
     }
-}
\ No newline at end of file
+}
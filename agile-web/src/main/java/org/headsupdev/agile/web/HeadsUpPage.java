@@ -51,6 +51,7 @@ import org.headsupdev.agile.api.SecurityManager;
 import org.headsupdev.agile.api.Application;
 import org.headsupdev.agile.api.Page;
 import org.headsupdev.agile.security.permission.ProjectListPermission;
+import org.headsupdev.agile.storage.HibernateStorage;
 import org.headsupdev.agile.storage.StoredProject;
 import org.headsupdev.agile.web.components.ProjectListPanel;
 import org.headsupdev.agile.core.PrivateConfiguration;
@@ -239,7 +240,8 @@ public abstract class HeadsUpPage
         add( projectmenu );
 
         WebMarkupContainer noProjects = new WebMarkupContainer( "noprojects" );
-        noProjects.setVisible( getStorage().getProjects().size() == 0 );
+        int projectCount = ( (HibernateStorage) getStorage() ).getProjectHierarchy().getProjectCount();
+        noProjects.setVisible( projectCount == 0 );
         projectmenu.add( noProjects );
 
         PageParameters params = new PageParameters();
@@ -256,7 +258,7 @@ public abstract class HeadsUpPage
                 return "";
             }
         } ) );
-        allProjects.setVisible( getStorage().getProjects().size() > 0 );
+        allProjects.setVisible( projectCount > 0 );
         projectmenu.add( allProjects );
 
         if ( !getClass().getName().endsWith( "Login" ) && !getClass().getName().endsWith( "Logout" ) )
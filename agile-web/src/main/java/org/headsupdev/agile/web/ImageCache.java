@@ -0,0 +1,237 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.web;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+
+/**
+ * A shared cache of rendered images, bounded by the total size of the data held. Images are keyed by the resource
+ * that draws them and its parameters and are thrown away when they expire, when the cache needs room or when a tag
+ * they were drawn with is invalidated. If an image is requested while it is being drawn the caller waits for that
+ * result rather than drawing it again.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class ImageCache
+{
+    private static final long MAX_BYTES = 16 * 1024 * 1024;
+    // anything larger than this is returned but not kept
+    private static final long MAX_IMAGE_BYTES = MAX_BYTES / 8;
+
+    private static final ImageCache instance = new ImageCache();
+
+    private final SizeBoundedCache<String, Image> images = new SizeBoundedCache<String, Image>( MAX_BYTES,
+            MAX_IMAGE_BYTES )
+    {
+        protected long sizeOf( Image image )
+        {
+            return image.getData().length;
+        }
+    };
+    private final Map<String, FutureTask<Image>> rendering = new HashMap<String, FutureTask<Image>>();
+    private final Map<String, Long> tagVersions = new HashMap<String, Long>();
+
+    private long version = 0;
+
+    public static ImageCache get()
+    {
+        return instance;
+    }
+
+    /**
+     * Get the image for the key, drawing it with the renderer if it is not cached, has expired or has been
+     * invalidated.
+     *
+     * @param key the resource and parameters that identify the image
+     * @param tags the tags that will invalidate this image
+     * @param timeout how long the image may be cached for, in milliseconds
+     * @param renderer the code to draw the image if needed
+     */
+    public Image getImage( final String key, final Collection<String> tags, long timeout,
+                           final Callable<byte[]> renderer )
+    {
+        FutureTask<Image> task;
+        boolean owner = false;
+        synchronized ( this )
+        {
+            Image image = images.get( key );
+            if ( image != null )
+            {
+                if ( isValid( image, timeout ) )
+                {
+                    return image;
+                }
+
+                images.remove( key );
+            }
+
+            task = rendering.get( key );
+            if ( task == null )
+            {
+                final long renderVersion = version;
+                task = new FutureTask<Image>( new Callable<Image>()
+                {
+                    public Image call()
+                        throws Exception
+                    {
+                        return new Image( renderer.call(), tags, renderVersion );
+                    }
+                } );
+                rendering.put( key, task );
+                owner = true;
+            }
+        }
+
+        if ( owner )
+        {
+            task.run();
+            synchronized ( this )
+            {
+                rendering.remove( key );
+                try
+                {
+                    images.put( key, task.get() );
+                }
+                catch ( Exception e )
+                {
+                    // rethrown below
+                }
+            }
+        }
+
+        try
+        {
+            return task.get();
+        }
+        catch ( InterruptedException e )
+        {
+            throw new RuntimeException( "Interrupted waiting for image " + key, e );
+        }
+        catch ( ExecutionException e )
+        {
+            if ( e.getCause() instanceof RuntimeException )
+            {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException( "Failed to render image " + key, e.getCause() );
+        }
+    }
+
+    /**
+     * Mark all images drawn with any of these tags as out of date.
+     */
+    public synchronized void invalidate( Collection<String> tags )
+    {
+        version++;
+        for ( String tag : tags )
+        {
+            tagVersions.put( tag, version );
+        }
+    }
+
+    public void clear()
+    {
+        images.clear();
+    }
+
+    public int getImageCount()
+    {
+        return images.getCount();
+    }
+
+    public long getSize()
+    {
+        return images.getSize();
+    }
+
+    private boolean isValid( Image image, long timeout )
+    {
+        if ( System.currentTimeMillis() > image.getCreated() + timeout )
+        {
+            return false;
+        }
+
+        for ( String tag : image.getTags() )
+        {
+            Long tagVersion = tagVersions.get( tag );
+            if ( tagVersion != null && tagVersion > image.getVersion() )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A rendered image and the details needed to tell if it is still current.
+     */
+    public static class Image
+    {
+        private byte[] data;
+        private Collection<String> tags;
+        private long version, created;
+        private String eTag;
+
+        Image( byte[] data, Collection<String> tags, long version )
+        {
+            this.data = data;
+            this.tags = tags;
+            this.version = version;
+            this.created = System.currentTimeMillis();
+
+            CRC32 crc = new CRC32();
+            crc.update( data );
+            this.eTag = "\"" + Long.toHexString( crc.getValue() ) + "-" + Integer.toHexString( data.length ) + "\"";
+        }
+
+        public byte[] getData()
+        {
+            return data;
+        }
+
+        public Collection<String> getTags()
+        {
+            return tags;
+        }
+
+        public long getVersion()
+        {
+            return version;
+        }
+
+        public long getCreated()
+        {
+            return created;
+        }
+
+        /**
+         * An entity tag based on the image content, so an image that is drawn again unchanged keeps the same tag.
+         */
+        public String getETag()
+        {
+            return eTag;
+        }
+    }
+}
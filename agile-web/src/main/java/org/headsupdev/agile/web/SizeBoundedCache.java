@@ -0,0 +1,114 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.headsupdev.agile.web;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A least recently used cache bounded by the total size of the values it holds rather than by how many there are.
+ * The size of a value is whatever sizeOf returns, for example the length of an array or string. Values that are
+ * too large to be worth keeping are not stored at all so one very large entry cannot empty the cache.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public abstract class SizeBoundedCache<K, V>
+{
+    private final long maxSize, maxEntrySize;
+
+    private final Map<K, V> entries = new LinkedHashMap<K, V>( 64, 0.75f, true );
+    private long size = 0;
+
+    /**
+     * @param maxSize the largest total size of the values to hold
+     * @param maxEntrySize the largest single value that will be stored
+     */
+    public SizeBoundedCache( long maxSize, long maxEntrySize )
+    {
+        this.maxSize = maxSize;
+        this.maxEntrySize = maxEntrySize;
+    }
+
+    /**
+     * @return the size of a value, in the same units as the limits passed to the constructor
+     */
+    protected abstract long sizeOf( V value );
+
+    public synchronized V get( K key )
+    {
+        return entries.get( key );
+    }
+
+    /**
+     * Store a value, dropping the least recently used values until the cache is back within its size.
+     *
+     * @return false if the value was too large to store
+     */
+    public synchronized boolean put( K key, V value )
+    {
+        long valueSize = sizeOf( value );
+        if ( valueSize > maxEntrySize )
+        {
+            return false;
+        }
+
+        remove( key );
+        entries.put( key, value );
+        size += valueSize;
+
+        Iterator<V> eldest = entries.values().iterator();
+        while ( size > maxSize && eldest.hasNext() )
+        {
+            size -= sizeOf( eldest.next() );
+            eldest.remove();
+        }
+        return true;
+    }
+
+    public synchronized V remove( K key )
+    {
+        V old = entries.remove( key );
+        if ( old != null )
+        {
+            size -= sizeOf( old );
+        }
+
+        return old;
+    }
+
+    public synchronized void clear()
+    {
+        entries.clear();
+        size = 0;
+    }
+
+    public synchronized int getCount()
+    {
+        return entries.size();
+    }
+
+    public synchronized long getSize()
+    {
+        return size;
+    }
+}
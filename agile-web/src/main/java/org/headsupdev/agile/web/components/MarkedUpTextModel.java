@@ -21,19 +21,44 @@ package org.headsupdev.agile.web.components;
 import org.headsupdev.agile.api.Project;
 import org.headsupdev.agile.api.LinkProvider;
 import org.headsupdev.agile.api.Manager;
+import org.apache.wicket.MetaDataKey;
+import org.apache.wicket.RequestCycle;
 import org.apache.wicket.model.Model;
 
-import java.util.Map;
-import java.util.StringTokenizer;
+import java.io.Serializable;
+import java.util.*;
 
 /**
  * A text based model that marksup wiki style links in the text, such as doc:MyPage and change:25.
+ * <p/>
+ * Models created while building a page register their text with the current request so that, when the first one is
+ * rendered, every link on the page is checked together with one query per link provider. Rendered markup is cached
+ * until the LinkProvider target version changes.
  *
  * @author Andrew Williams
  * @version $Id$
  * @since 1.0
  */
 public class MarkedUpTextModel extends Model<String> {
+    private static final String DELIMITERS = " \t\n\r\f<>(){}&.,!?;";
+
+    private static final int CACHE_SIZE = 2000;
+    private static final long CACHE_AGE = 5 * 60 * 1000;
+
+    private static final MetaDataKey<LinkBatch> BATCH_KEY = new MetaDataKey<LinkBatch>()
+    {
+    };
+
+    private static final Map<CacheKey, CacheEntry> cache = Collections.synchronizedMap(
+        new LinkedHashMap<CacheKey, CacheEntry>( 16, 0.75f, true )
+        {
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<CacheKey, CacheEntry> eldest )
+            {
+                return size() > CACHE_SIZE;
+            }
+        } );
+
     private String in, out = null;
     private Project project;
 
@@ -41,6 +66,12 @@ public class MarkedUpTextModel extends Model<String> {
     {
         this.in = in;
         this.project = project;
+
+        LinkBatch batch = getRequestBatch();
+        if ( batch != null && in != null )
+        {
+            batch.add( in, project, Manager.getInstance().getLinkProviders() );
+        }
     }
 
     public String getObject()
@@ -60,35 +91,49 @@ public class MarkedUpTextModel extends Model<String> {
             return null;
         }
 
-        StringBuilder ret = new StringBuilder( in.length() );
-        StringTokenizer tokenizer = new StringTokenizer( in, " \t\n\r\f<>(){}&.,!?;", true );
+        long version = LinkProvider.getTargetVersion();
+        CacheKey key = new CacheKey( in, project );
+        CacheEntry cached = cache.get( key );
+        if ( cached != null && cached.isValid( version ) )
+        {
+            return cached.out;
+        }
 
         Map<String, LinkProvider> providers = Manager.getInstance().getLinkProviders();
+        LinkBatch batch = getRequestBatch();
+        if ( batch == null )
+        {
+            batch = new LinkBatch();
+        }
+        batch.add( in, project, providers );
+        batch.resolve( providers );
+
+        StringBuilder ret = new StringBuilder( in.length() );
+        StringTokenizer tokenizer = new StringTokenizer( in, DELIMITERS, true );
         while ( tokenizer.hasMoreTokens() )
         {
             String next = tokenizer.nextToken();
 
+            LinkTarget target = null;
             if ( next.indexOf( ':' ) != -1 )
             {
-                String link = getLink( next, project, providers );
-                boolean broken = isLinkBroken( next, project, providers );
-                if ( link == null )
-                {
-                    ret.append( encode( next ) );
-                }
-                else
+                target = batch.parse( next, project, providers );
+            }
+
+            if ( target != null )
+            {
+                boolean broken = batch.isBroken( target );
+
+                ret.append( "<a href=\"" );
+                ret.append( providers.get( target.module ).getLink( target.name, target.project ) );
+                ret.append( "\"" );
+                if ( broken )
                 {
-                    ret.append( "<a href=\"" );
-                    ret.append( link );
-                    ret.append( "\"" );
-                    if ( broken )
-                    {
-                        ret.append( " class=\"brokenlink\"" );
-                    }
-                    ret.append( ">" );
-                    ret.append( encode( next ) );
-                    ret.append( "</a>" );
+                    ret.append( " class=\"brokenlink\"" );
                 }
+                ret.append( ">" );
+                ret.append( encode( next ) );
+                ret.append( "</a>" );
                 if ( broken )
                 {
                     ret.append( "<span class=\"brokenlinkhint\">[?]</span>" );
@@ -100,7 +145,26 @@ public class MarkedUpTextModel extends Model<String> {
             }
         }
 
-        return ret.toString();
+        String out = ret.toString();
+        cache.put( key, new CacheEntry( out, version ) );
+        return out;
+    }
+
+    private static LinkBatch getRequestBatch()
+    {
+        RequestCycle cycle = RequestCycle.get();
+        if ( cycle == null )
+        {
+            return null;
+        }
+
+        LinkBatch batch = cycle.getMetaData( BATCH_KEY );
+        if ( batch == null )
+        {
+            batch = new LinkBatch();
+            cycle.setMetaData( BATCH_KEY, batch );
+        }
+        return batch;
     }
 
     public static String getLink( String text, Project fallback, Map<String, LinkProvider> providers )
@@ -191,4 +255,182 @@ public class MarkedUpTextModel extends Model<String> {
         String out = in.replace( "&",  "&amp;" ).replace( "<", "&lt;" ).replace( ">", "&gt;" );
         return out.replace( "\"", "&quot;" ).replace( "\n", "<br />" );
     }
+
+    static class LinkTarget
+    {
+        private String module, name;
+        private Project project;
+
+        LinkTarget( String module, String name, Project project )
+        {
+            this.module = module;
+            this.name = name;
+            this.project = project;
+        }
+
+        String getGroup()
+        {
+            return module + "\n" + ( project == null ? "" : project.getId() );
+        }
+    }
+
+    /**
+     * The links found in all the text rendered for a request. Links are collected as text is added and checked in
+     * one call to LinkProvider.getBrokenLinks per provider and project when resolve is called.
+     */
+    static class LinkBatch
+        implements Serializable
+    {
+        private Map<String, Project> projects = new HashMap<String, Project>();
+
+        private Map<String, Set<String>> pending = new HashMap<String, Set<String>>();
+        private Map<String, Project> pendingProjects = new HashMap<String, Project>();
+
+        private Set<String> checked = new HashSet<String>();
+        private Set<String> broken = new HashSet<String>();
+
+        void add( String in, Project project, Map<String, LinkProvider> providers )
+        {
+            StringTokenizer tokenizer = new StringTokenizer( in, DELIMITERS, false );
+            while ( tokenizer.hasMoreTokens() )
+            {
+                String next = tokenizer.nextToken();
+                if ( next.indexOf( ':' ) == -1 )
+                {
+                    continue;
+                }
+
+                LinkTarget target = parse( next, project, providers );
+                if ( target == null || checked.contains( target.getGroup() + "\n" + target.name ) )
+                {
+                    continue;
+                }
+
+                Set<String> names = pending.get( target.getGroup() );
+                if ( names == null )
+                {
+                    names = new HashSet<String>();
+                    pending.put( target.getGroup(), names );
+                    pendingProjects.put( target.getGroup(), target.project );
+                }
+                names.add( target.name );
+            }
+        }
+
+        void resolve( Map<String, LinkProvider> providers )
+        {
+            for ( String group : pending.keySet() )
+            {
+                String module = group.substring( 0, group.indexOf( '\n' ) );
+                Set<String> names = pending.get( group );
+
+                Set<String> missing = providers.get( module ).getBrokenLinks( names, pendingProjects.get( group ) );
+                for ( String name : names )
+                {
+                    checked.add( group + "\n" + name );
+                }
+                for ( String name : missing )
+                {
+                    broken.add( group + "\n" + name );
+                }
+            }
+
+            pending.clear();
+            pendingProjects.clear();
+        }
+
+        boolean isBroken( LinkTarget target )
+        {
+            return broken.contains( target.getGroup() + "\n" + target.name );
+        }
+
+        LinkTarget parse( String text, Project fallback, Map<String, LinkProvider> providers )
+        {
+            int pos = text.indexOf( ':' );
+            String module = text.substring( 0, pos ).toLowerCase();
+            String name = text.substring( pos + 1 );
+
+            if ( module.equals( "wiki" ) )
+            {
+                module = "doc";
+            }
+            if ( !providers.containsKey( module ) )
+            {
+                return null;
+            }
+
+            pos = name.indexOf( ":" );
+            if ( pos != -1 )
+            {
+                Project project = getProject( name.substring( 0, pos ) );
+                if ( project != null )
+                {
+                    fallback = project;
+                }
+
+                name = name.substring( pos + 1 );
+            }
+
+            return new LinkTarget( module, name, fallback );
+        }
+
+        private Project getProject( String projectId )
+        {
+            if ( projects.containsKey( projectId ) )
+            {
+                return projects.get( projectId );
+            }
+
+            Project project = Manager.getStorageInstance().getProject( projectId );
+            projects.put( projectId, project );
+            return project;
+        }
+    }
+
+    static class CacheKey
+    {
+        private String text, projectId;
+        private int hash;
+
+        CacheKey( String text, Project project )
+        {
+            this.text = text;
+            this.projectId = project == null ? "" : project.getId();
+            this.hash = text.hashCode() * 31 + projectId.hashCode();
+        }
+
+        public boolean equals( Object o )
+        {
+            if ( !( o instanceof CacheKey ) )
+            {
+                return false;
+            }
+
+            CacheKey key = (CacheKey) o;
+            return hash == key.hash && projectId.equals( key.projectId ) && text.equals( key.text );
+        }
+
+        public int hashCode()
+        {
+            return hash;
+        }
+    }
+
+    static class CacheEntry
+    {
+        private String out;
+        private long version, created;
+
+        CacheEntry( String out, long version )
+        {
+            this.out = out;
+            this.version = version;
+            this.created = System.currentTimeMillis();
+        }
+
+        boolean isValid( long version )
+        {
+            return this.version == version && System.currentTimeMillis() - created < CACHE_AGE;
+        }
+    }
 }
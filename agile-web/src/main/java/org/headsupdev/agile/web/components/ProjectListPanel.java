@@ -18,7 +18,9 @@
 
 package org.headsupdev.agile.web.components;
 
+import org.headsupdev.agile.storage.HibernateStorage;
 import org.headsupdev.agile.storage.HibernateUtil;
+import org.headsupdev.agile.storage.ProjectHierarchy;
 import org.apache.wicket.markup.html.panel.Panel;
 import org.apache.wicket.markup.html.list.ListItem;
 import org.apache.wicket.markup.html.list.ListView;
@@ -28,10 +30,10 @@ import org.apache.wicket.markup.html.WebMarkupContainer;
 import org.apache.wicket.PageParameters;
 import org.apache.wicket.AttributeModifier;
 import org.apache.wicket.model.Model;
+import org.headsupdev.agile.api.Manager;
 import org.headsupdev.agile.api.Project;
 
 import java.util.List;
-import java.util.LinkedList;
 import java.util.Collections;
 
 /**
@@ -73,34 +75,20 @@ public class ProjectListPanel
                 } ) );
                 listItem.add( projectlink );
 
-                if ( project.getChildProjects().isEmpty() )
+                ProjectHierarchy hierarchy = ( (HibernateStorage) Manager.getStorageInstance() ).getProjectHierarchy();
+                List<String> childIds = hierarchy.getChildIds( project.getId() );
+                if ( childIds.isEmpty() )
                 {
                     listItem.add( new WebMarkupContainer( "subprojects" ).setVisible( false ) );
                 }
+                else if ( current != null && hierarchy.isInTree( project.getId(), current.getId() ) )
+                {
+                    List<Project> children = ( (HibernateStorage) Manager.getStorageInstance() ).getProjects( childIds );
+                    listItem.add( new ProjectListPanel( "subprojects", children, pageClass, current ) );
+                }
                 else
                 {
-                    boolean show = false;
-                    Project traverse = current;
-                    while ( traverse != null )
-                    {
-                        if ( traverse.equals( project ) )
-                        {
-                            show = true;
-                            break;
-                        }
-
-                        traverse = traverse.getParent();
-                    }
-
-                    if ( show )
-                    {
-                        List<Project> children = new LinkedList<Project>( project.getChildProjects() );
-                        listItem.add( new ProjectListPanel( "subprojects", children, pageClass, current ) );
-                    }
-                    else
-                    {
-                        listItem.add( new WebMarkupContainer( "subprojects" ).setVisible( false ) );
-                    }
+                    listItem.add( new WebMarkupContainer( "subprojects" ).setVisible( false ) );
                 }
             }
         } );